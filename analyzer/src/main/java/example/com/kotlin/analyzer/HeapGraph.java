@@ -0,0 +1,251 @@
+package example.com.kotlin.analyzer;
+
+
+import java.io.IOException;
+
+/**
+ * 引用图、支配树和保留大小
+ * <p>
+ * 引用以CSR格式保存在int数组中：节点i的引用为targets[starts[i]..starts[i+1])。
+ * 节点n（等于对象数）是虚拟的超级根，引用所有GC Root。支配树用Lengauer-Tarjan算法计算，
+ * 深度优先遍历和路径压缩都用显式栈实现，不会因为很长的引用链栈溢出。
+ * 除引用外每个节点约占50字节。
+ */
+final class HeapGraph {
+
+    final HprofIndex index;
+    /**
+     * 超级根
+     */
+    final int root;
+
+    private final int[] mStarts;
+    private final int[] mTargets;
+
+    /**
+     * 直接支配者，不可达的节点为-1，超级根为自身
+     */
+    final int[] idom;
+    final long[] shallow;
+    final long[] retained;
+    /**
+     * 从超级根出发的最短引用链上的前一个节点，不可达的节点为-1
+     */
+    final int[] pathParent;
+    /**
+     * GC Root的类型，不是GC Root时为0
+     */
+    final int[] rootType;
+    int reachable;
+
+    HeapGraph(HprofIndex index) throws IOException {
+        this.index = index;
+        int n = index.count();
+        root = n;
+
+        rootType = new int[n];
+        IntList rootTargets = new IntList(index.rootIds.length);
+        for (int i = 0; i < index.rootIds.length; i++) {
+            // Android把不可达对象也作为一种root写入，不能当作GC Root
+            if (index.rootTypes[i] == HprofIndex.ROOT_UNREACHABLE) continue;
+            int node = index.indexOf(index.rootIds[i]);
+            if (node < 0 || rootType[node] != 0) continue;
+            rootType[node] = index.rootTypes[i];
+            rootTargets.add(node);
+        }
+
+        mStarts = new int[n + 2];
+        IntList targets = new IntList(n * 2);
+        shallow = new long[n + 1];
+        for (int node = 0; node < n; node++) {
+            mStarts[node] = targets.size;
+            index.references(node, targets);
+            shallow[node] = index.shallowSize(node);
+        }
+        mStarts[n] = targets.size;
+        for (int i = 0; i < rootTargets.size; i++) targets.add(rootTargets.get(i));
+        mStarts[n + 1] = targets.size;
+        mTargets = targets.toArray();
+
+        pathParent = shortestPaths(n);
+        idom = dominators(n);
+        retained = retainedSizes(n);
+    }
+
+    int referenceCount() {
+        return mTargets.length;
+    }
+
+    /**
+     * 广度优先，得到每个节点到GC Root的最短引用链
+     */
+    private int[] shortestPaths(int n) {
+        int[] parent = new int[n + 1];
+        java.util.Arrays.fill(parent, -1);
+        int[] queue = new int[n + 1];
+        int head = 0;
+        int tail = 0;
+        parent[root] = root;
+        queue[tail++] = root;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e = mStarts[v]; e < mStarts[v + 1]; e++) {
+                int w = mTargets[e];
+                if (parent[w] < 0) {
+                    parent[w] = v;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        reachable = tail - 1;
+        return parent;
+    }
+
+    /**
+     * Lengauer-Tarjan，下标为深度优先序号（从1开始，0表示没有）
+     */
+    private int[] dominators(int n) {
+        int size = n + 2;
+        int[] dfn = new int[n + 1];
+        int[] vertex = new int[size];
+        int[] parent = new int[size];
+
+        // 深度优先编号
+        int count = 0;
+        int[] nodeStack = new int[size];
+        int[] edgeStack = new int[size];
+        int top = 0;
+        dfn[root] = ++count;
+        vertex[count] = root;
+        nodeStack[top] = root;
+        edgeStack[top] = mStarts[root];
+        top++;
+        while (top > 0) {
+            int v = nodeStack[top - 1];
+            int e = edgeStack[top - 1];
+            if (e < mStarts[v + 1]) {
+                edgeStack[top - 1] = e + 1;
+                int w = mTargets[e];
+                if (dfn[w] == 0) {
+                    dfn[w] = ++count;
+                    vertex[count] = w;
+                    parent[count] = dfn[v];
+                    nodeStack[top] = w;
+                    edgeStack[top] = mStarts[w];
+                    top++;
+                }
+            } else {
+                top--;
+            }
+        }
+        nodeStack = null;
+        edgeStack = null;
+
+        // 只保留可达节点之间的反向引用
+        int[] predStarts = new int[count + 2];
+        for (int v = 1; v <= count; v++) {
+            int node = vertex[v];
+            for (int e = mStarts[node]; e < mStarts[node + 1]; e++) {
+                predStarts[dfn[mTargets[e]] + 1]++;
+            }
+        }
+        for (int v = 1; v <= count + 1; v++) predStarts[v] += predStarts[v - 1];
+        int[] preds = new int[predStarts[count + 1]];
+        int[] fill = new int[count + 1];
+        for (int v = 1; v <= count; v++) {
+            int node = vertex[v];
+            for (int e = mStarts[node]; e < mStarts[node + 1]; e++) {
+                int w = dfn[mTargets[e]];
+                preds[predStarts[w] + fill[w]++] = v;
+            }
+        }
+        fill = null;
+
+        int[] semi = new int[count + 1];
+        int[] ancestor = new int[count + 1];
+        int[] best = new int[count + 1];
+        int[] dom = new int[count + 1];
+        int[] sameDom = new int[count + 1];
+        int[] bucketHead = new int[count + 1];
+        int[] bucketNext = new int[count + 1];
+        int[] compressStack = new int[count + 1];
+        for (int v = 1; v <= count; v++) {
+            semi[v] = v;
+            best[v] = v;
+        }
+
+        for (int w = count; w >= 2; w--) {
+            int p = parent[w];
+            int s = p;
+            for (int e = predStarts[w]; e < predStarts[w + 1]; e++) {
+                int v = preds[e];
+                int candidate = v <= w ? v : semi[eval(v, ancestor, best, semi, compressStack)];
+                if (candidate < s) s = candidate;
+            }
+            semi[w] = s;
+            bucketNext[w] = bucketHead[s];
+            bucketHead[s] = w;
+            ancestor[w] = p;
+            for (int v = bucketHead[p]; v != 0; v = bucketNext[v]) {
+                int y = eval(v, ancestor, best, semi, compressStack);
+                if (semi[y] == semi[v]) {
+                    dom[v] = p;
+                } else {
+                    sameDom[v] = y;
+                }
+            }
+            bucketHead[p] = 0;
+        }
+        for (int w = 2; w <= count; w++) {
+            if (sameDom[w] != 0) dom[w] = dom[sameDom[w]];
+        }
+
+        int[] result = new int[n + 1];
+        java.util.Arrays.fill(result, -1);
+        result[root] = root;
+        for (int w = 2; w <= count; w++) {
+            result[vertex[w]] = vertex[dom[w]];
+        }
+        // 按深度优先序号记下遍历顺序，计算保留大小时倒序累加
+        mOrder = vertex;
+        mOrderSize = count;
+        return result;
+    }
+
+    private int[] mOrder;
+    private int mOrderSize;
+
+    /**
+     * 路径压缩后，v到森林中根（不含）之间semi最小的节点
+     */
+    private static int eval(int v, int[] ancestor, int[] best, int[] semi, int[] stack) {
+        if (ancestor[v] == 0) return v;
+        int top = 0;
+        int x = v;
+        while (ancestor[ancestor[x]] != 0) {
+            stack[top++] = x;
+            x = ancestor[x];
+        }
+        while (top > 0) {
+            int y = stack[--top];
+            int a = ancestor[y];
+            if (semi[best[a]] < semi[best[y]]) best[y] = best[a];
+            ancestor[y] = ancestor[a];
+        }
+        return best[v];
+    }
+
+    private long[] retainedSizes(int n) {
+        long[] sizes = new long[n + 1];
+        for (int i = 1; i <= mOrderSize; i++) {
+            int node = mOrder[i];
+            sizes[node] = shallow[node];
+        }
+        for (int i = mOrderSize; i >= 2; i--) {
+            int node = mOrder[i];
+            sizes[idom[node]] += sizes[node];
+        }
+        mOrder = null;
+        return sizes;
+    }
+}
@@ -0,0 +1,153 @@
+package example.com.kotlin.analyzer;
+
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 离线分析内存快照，输出JSON格式的泄漏摘要
+ * <pre>
+ * HprofAnalyzer &lt;heap.hprof|heap.hprof.gz&gt; [--track report.json] [--top 10] [--out summary.json]
+ * </pre>
+ * report.json为解码后的崩溃报告（或任何包含TrackActivityPathDetail数组的JSON），用于核对Activity泄漏。
+ * 压缩的快照先解压到临时文件再映射。
+ */
+public final class HprofAnalyzer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private HprofAnalyzer() {
+
+    }
+
+    /**
+     * 分析快照
+     *
+     * @param hprof 未压缩的快照
+     * @param top   输出的最大保留者个数
+     * @param track TrackActivityPathDetail，可以为null
+     * @return 摘要
+     */
+    public static JSONObject analyze(File hprof, int top, JSONArray track) throws IOException, JSONException {
+        HprofBuffer buffer = new HprofBuffer(hprof);
+        try {
+            long start = System.currentTimeMillis();
+            HprofIndex index = new HprofIndex(buffer);
+            long indexed = System.currentTimeMillis();
+            HeapGraph graph = new HeapGraph(index);
+            long analyzed = System.currentTimeMillis();
+            JSONObject summary = new LeakAnalyzer(graph).summarize(top, track);
+            JSONObject cost = new JSONObject();
+            cost.put("index", indexed - start);
+            cost.put("dominators", analyzed - indexed);
+            cost.put("summary", System.currentTimeMillis() - analyzed);
+            summary.put("costMillis", cost);
+            return summary;
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, JSONException {
+        File input = null;
+        File trackFile = null;
+        File out = null;
+        int top = 10;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--track".equals(arg) && i + 1 < args.length) {
+                trackFile = new File(args[++i]);
+            } else if ("--top".equals(arg) && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            } else if ("--out".equals(arg) && i + 1 < args.length) {
+                out = new File(args[++i]);
+            } else {
+                input = new File(arg);
+            }
+        }
+        if (input == null) {
+            System.err.println("usage: HprofAnalyzer <heap.hprof|heap.hprof.gz> [--track report.json] [--top 10] [--out summary.json]");
+            System.exit(2);
+            return;
+        }
+
+        JSONArray track = trackFile == null ? null : readTrack(trackFile);
+        File hprof = input;
+        boolean temporary = false;
+        if (input.getName().endsWith(".gz")) {
+            hprof = File.createTempFile("heap", ".hprof");
+            temporary = true;
+            gunzip(input, hprof);
+        }
+        try {
+            String summary = analyze(hprof, top, track).toString(2);
+            if (out == null) {
+                System.out.println(summary);
+            } else {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(out), UTF_8);
+                try {
+                    writer.write(summary);
+                } finally {
+                    writer.close();
+                }
+            }
+        } finally {
+            if (temporary && !hprof.delete()) hprof.deleteOnExit();
+        }
+    }
+
+    /**
+     * 读取TrackActivityPathDetail：报告中的值可能是数组，也可能是数组的JSON字符串
+     */
+    private static JSONArray readTrack(File file) throws IOException, JSONException {
+        JSONObject report = new JSONObject(new String(readFully(file), UTF_8));
+        Object value = report.opt("TrackActivityPathDetail");
+        if (value instanceof JSONArray) return (JSONArray) value;
+        if (value instanceof String) return new JSONArray((String) value);
+        return new JSONArray();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int n = 0;
+            while (n < bytes.length) {
+                int read = in.read(bytes, n, bytes.length - n);
+                if (read < 0) break;
+                n += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void gunzip(File input, File output) throws IOException {
+        InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(input), 64 * 1024));
+        OutputStream os = new FileOutputStream(output);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                os.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+            os.close();
+        }
+    }
+}
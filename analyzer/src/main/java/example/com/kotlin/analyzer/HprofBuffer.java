@@ -0,0 +1,99 @@
+package example.com.kotlin.analyzer;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 以内存映射方式随机读取快照文件
+ * <p>
+ * 单个MappedByteBuffer最大2GB，文件按1GB分段映射，跨段的值逐字节读取。
+ * 文件内容由操作系统按需换入，不占用Java堆，可以分析比堆大得多的快照。
+ */
+final class HprofBuffer implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer[] mSegments;
+    private final long mLength;
+
+    /**
+     * id的字节数，读取文件头后设置
+     */
+    int idSize = 4;
+
+    HprofBuffer(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mLength = mFile.length();
+        FileChannel channel = mFile.getChannel();
+        int count = (int) ((mLength + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        mSegments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            mSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, mLength - start));
+        }
+    }
+
+    long length() {
+        return mLength;
+    }
+
+    int getByte(long pos) {
+        return mSegments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK)) & 0xff;
+    }
+
+    int getShort(long pos) {
+        int offset = (int) (pos & SEGMENT_MASK);
+        MappedByteBuffer segment = mSegments[(int) (pos >>> SEGMENT_SHIFT)];
+        if (offset + 2 <= segment.limit()) return segment.getShort(offset) & 0xffff;
+        return (getByte(pos) << 8) | getByte(pos + 1);
+    }
+
+    int getInt(long pos) {
+        int offset = (int) (pos & SEGMENT_MASK);
+        MappedByteBuffer segment = mSegments[(int) (pos >>> SEGMENT_SHIFT)];
+        if (offset + 4 <= segment.limit()) return segment.getInt(offset);
+        return (getByte(pos) << 24) | (getByte(pos + 1) << 16) | (getByte(pos + 2) << 8) | getByte(pos + 3);
+    }
+
+    long getLong(long pos) {
+        int offset = (int) (pos & SEGMENT_MASK);
+        MappedByteBuffer segment = mSegments[(int) (pos >>> SEGMENT_SHIFT)];
+        if (offset + 8 <= segment.limit()) return segment.getLong(offset);
+        return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+    }
+
+    /**
+     * 无符号的4字节长度
+     */
+    long getLength(long pos) {
+        return getInt(pos) & 0xffffffffL;
+    }
+
+    long getId(long pos) {
+        return idSize == 4 ? getInt(pos) & 0xffffffffL : getLong(pos);
+    }
+
+    String getUtf8(long pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) getByte(pos + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
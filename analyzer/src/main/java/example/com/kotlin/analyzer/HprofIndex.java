@@ -0,0 +1,685 @@
+package example.com.kotlin.analyzer;
+
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 快照的对象索引
+ * <p>
+ * 只扫描一遍文件：每个对象只记录id和记录在文件中的位置，按id排序后二分查找；
+ * 类的字段布局、字符串和GC Root单独保存。对象的内容在需要时再从映射的文件中读取，
+ * 因此索引的大小只和对象数有关（每个对象16字节），和快照大小无关。
+ */
+final class HprofIndex {
+
+    private static final int TAG_STRING = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP = 0x0c;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1c;
+
+    static final int ROOT_UNKNOWN = 0xff;
+    static final int ROOT_JNI_GLOBAL = 0x01;
+    static final int ROOT_JNI_LOCAL = 0x02;
+    static final int ROOT_JAVA_FRAME = 0x03;
+    static final int ROOT_NATIVE_STACK = 0x04;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int ROOT_THREAD_BLOCK = 0x06;
+    static final int ROOT_MONITOR_USED = 0x07;
+    static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    /**
+     * 以下为Android扩展
+     */
+    static final int HEAP_DUMP_INFO = 0xfe;
+    static final int ROOT_INTERNED_STRING = 0x89;
+    static final int ROOT_FINALIZING = 0x8a;
+    static final int ROOT_DEBUGGER = 0x8b;
+    static final int ROOT_REFERENCE_CLEANUP = 0x8c;
+    static final int ROOT_VM_INTERNAL = 0x8d;
+    static final int ROOT_JNI_MONITOR = 0x8e;
+    static final int ROOT_UNREACHABLE = 0x90;
+    static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xc3;
+
+    static final int TYPE_OBJECT = 2;
+    static final int TYPE_BOOLEAN = 4;
+
+    private static final String[] PRIMITIVE_NAMES = {
+            null, null, null, null, "boolean", "char", "float", "double", "byte", "short", "int", "long"
+    };
+
+    /**
+     * 估算的对象头大小，快照中没有记录
+     */
+    static final int OBJECT_HEADER = 8;
+    static final int ARRAY_HEADER = 12;
+
+    /**
+     * 一个类，字段只包括本类声明的
+     */
+    static final class ClassInfo {
+        final long id;
+        final long superId;
+        final long loaderId;
+        final int instanceSize;
+        final long[] fieldNameIds;
+        final byte[] fieldTypes;
+        final long[] staticNameIds;
+        final long[] staticRefIds;
+        String name;
+        /**
+         * 包括父类的所有引用字段在实例数据中的偏移，第一次使用时计算
+         */
+        int[] refOffsets;
+
+        ClassInfo(long id, long superId, long loaderId, int instanceSize, long[] fieldNameIds, byte[] fieldTypes,
+                  long[] staticNameIds, long[] staticRefIds) {
+            this.id = id;
+            this.superId = superId;
+            this.loaderId = loaderId;
+            this.instanceSize = instanceSize;
+            this.fieldNameIds = fieldNameIds;
+            this.fieldTypes = fieldTypes;
+            this.staticNameIds = staticNameIds;
+            this.staticRefIds = staticRefIds;
+        }
+    }
+
+    final HprofBuffer buffer;
+    final int idSize;
+    final String version;
+
+    private long[] mStringIds;
+    private long[] mStringPositions;
+
+    final Map<Long, ClassInfo> classes = new HashMap<>();
+
+    /**
+     * 按id排序的对象和它们记录的位置（指向子记录的tag）
+     */
+    private long[] mIds;
+    private long[] mPositions;
+    private int mCount;
+
+    final long[] rootIds;
+    final int[] rootTypes;
+
+    HprofIndex(HprofBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        long pos = 0;
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = buffer.getByte(pos++)) != 0) sb.append((char) b);
+        version = sb.toString();
+        if (!version.startsWith("JAVA PROFILE")) throw new IOException("not a hprof file: " + version);
+        idSize = buffer.getInt(pos);
+        if (idSize != 4 && idSize != 8) throw new IOException("unsupported id size " + idSize);
+        buffer.idSize = idSize;
+        pos += 4 + 8;
+
+        LongList stringIds = new LongList(1024);
+        LongList stringPositions = new LongList(1024);
+        Map<Long, Long> classNameIds = new HashMap<>();
+        LongList ids = new LongList(1 << 16);
+        LongList positions = new LongList(1 << 16);
+        LongList rootIds = new LongList(1024);
+        IntList rootTypes = new IntList(1024);
+
+        long length = buffer.length();
+        while (pos + 9 <= length) {
+            int tag = buffer.getByte(pos);
+            long recordLength = buffer.getLength(pos + 5);
+            long body = pos + 9;
+            if (tag == TAG_STRING) {
+                stringIds.add(buffer.getId(body));
+                stringPositions.add(body);
+            } else if (tag == TAG_LOAD_CLASS) {
+                classNameIds.put(buffer.getId(body + 4), buffer.getId(body + 4 + idSize + 4));
+            } else if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+                indexHeapDump(body, body + recordLength, ids, positions, rootIds, rootTypes);
+            }
+            pos = body + recordLength;
+        }
+
+        mStringIds = stringIds.toArray();
+        mStringPositions = stringPositions.toArray();
+        sort(mStringIds, mStringPositions, 0, mStringIds.length - 1);
+        for (ClassInfo info : classes.values()) {
+            Long nameId = classNameIds.get(info.id);
+            info.name = nameId == null ? "0x" + Long.toHexString(info.id) : normalizeClassName(string(nameId));
+        }
+
+        mCount = ids.size;
+        mIds = ids.toArray();
+        mPositions = positions.toArray();
+        sort(mIds, mPositions, 0, mCount - 1);
+        this.rootIds = rootIds.toArray();
+        this.rootTypes = rootTypes.toArray();
+    }
+
+    private void indexHeapDump(long pos, long end, LongList ids, LongList positions, LongList rootIds, IntList rootTypes) throws IOException {
+        while (pos < end) {
+            int subTag = buffer.getByte(pos);
+            long body = pos + 1;
+            long size;
+            switch (subTag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                case ROOT_INTERNED_STRING:
+                case ROOT_FINALIZING:
+                case ROOT_DEBUGGER:
+                case ROOT_REFERENCE_CLEANUP:
+                case ROOT_VM_INTERNAL:
+                case ROOT_UNREACHABLE:
+                    size = idSize;
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    size = idSize * 2;
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_THREAD_OBJECT:
+                case ROOT_JNI_MONITOR:
+                    size = idSize + 8;
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    size = idSize + 4;
+                    break;
+                case HEAP_DUMP_INFO:
+                    size = 4 + idSize;
+                    break;
+                case CLASS_DUMP:
+                    size = indexClass(body);
+                    break;
+                case INSTANCE_DUMP:
+                    size = idSize + 4 + idSize + 4 + buffer.getLength(body + idSize + 4 + idSize);
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    size = idSize + 4 + 4 + idSize + buffer.getLength(body + idSize + 4) * idSize;
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    size = idSize + 4 + 4 + 1 + buffer.getLength(body + idSize + 4) * typeSize(buffer.getByte(body + idSize + 8));
+                    break;
+                case PRIMITIVE_ARRAY_NODATA_DUMP:
+                    size = idSize + 4 + 4 + 1;
+                    break;
+                default:
+                    throw new IOException("unknown sub tag 0x" + Integer.toHexString(subTag) + " at " + pos);
+            }
+            if (subTag == CLASS_DUMP || subTag == INSTANCE_DUMP || subTag == OBJECT_ARRAY_DUMP
+                    || subTag == PRIMITIVE_ARRAY_DUMP || subTag == PRIMITIVE_ARRAY_NODATA_DUMP) {
+                ids.add(buffer.getId(body));
+                positions.add(pos);
+            } else if (subTag != HEAP_DUMP_INFO) {
+                rootIds.add(buffer.getId(body));
+                rootTypes.add(subTag);
+            }
+            pos = body + size;
+        }
+    }
+
+    /**
+     * @return 子记录的长度，不含tag
+     */
+    private long indexClass(long body) throws IOException {
+        long id = buffer.getId(body);
+        long superId = buffer.getId(body + idSize + 4);
+        long loaderId = buffer.getId(body + idSize * 2 + 4);
+        long pos = body + idSize * 7 + 4;
+        int instanceSize = buffer.getInt(pos);
+        pos += 4;
+        int constants = buffer.getShort(pos);
+        pos += 2;
+        for (int i = 0; i < constants; i++) {
+            pos += 2;
+            int type = buffer.getByte(pos);
+            pos += 1 + typeSize(type);
+        }
+        int statics = buffer.getShort(pos);
+        pos += 2;
+        LongList staticNameIds = new LongList(statics);
+        LongList staticRefIds = new LongList(statics);
+        for (int i = 0; i < statics; i++) {
+            long nameId = buffer.getId(pos);
+            int type = buffer.getByte(pos + idSize);
+            if (type == TYPE_OBJECT) {
+                long value = buffer.getId(pos + idSize + 1);
+                if (value != 0) {
+                    staticNameIds.add(nameId);
+                    staticRefIds.add(value);
+                }
+            }
+            pos += idSize + 1 + typeSize(type);
+        }
+        int fields = buffer.getShort(pos);
+        pos += 2;
+        long[] fieldNameIds = new long[fields];
+        byte[] fieldTypes = new byte[fields];
+        for (int i = 0; i < fields; i++) {
+            fieldNameIds[i] = buffer.getId(pos);
+            fieldTypes[i] = (byte) buffer.getByte(pos + idSize);
+            pos += idSize + 1;
+        }
+        classes.put(id, new ClassInfo(id, superId, loaderId, instanceSize, fieldNameIds, fieldTypes,
+                staticNameIds.toArray(), staticRefIds.toArray()));
+        return pos - body;
+    }
+
+    int typeSize(int type) throws IOException {
+        switch (type) {
+            case TYPE_OBJECT:
+                return idSize;
+            case 4:// boolean
+            case 8:// byte
+                return 1;
+            case 5:// char
+            case 9:// short
+                return 2;
+            case 6:// float
+            case 10:// int
+                return 4;
+            case 7:// double
+            case 11:// long
+                return 8;
+            default:
+                throw new IOException("unknown type " + type);
+        }
+    }
+
+    /**
+     * 按keys排序，values随之移动
+     */
+    private static void sort(long[] keys, long[] values, int lo, int hi) {
+        while (lo < hi) {
+            if (hi - lo < 16) {
+                for (int i = lo + 1; i <= hi; i++) {
+                    long key = keys[i];
+                    long value = values[i];
+                    int j = i - 1;
+                    while (j >= lo && keys[j] > key) {
+                        keys[j + 1] = keys[j];
+                        values[j + 1] = values[j];
+                        j--;
+                    }
+                    keys[j + 1] = key;
+                    values[j + 1] = value;
+                }
+                return;
+            }
+            long pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    long k = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    long v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            // 先递归较小的一边，栈深度不超过log(n)
+            if (j - lo < hi - i) {
+                sort(keys, values, lo, j);
+                lo = i;
+            } else {
+                sort(keys, values, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private static int search(long[] keys, int size, long key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = keys[mid];
+            if (value < key) {
+                lo = mid + 1;
+            } else if (value > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    String string(long id) {
+        int index = search(mStringIds, mStringIds.length, id);
+        if (index < 0) return "0x" + Long.toHexString(id);
+        long pos = mStringPositions[index];
+        int length = (int) (buffer.getLength(pos - 4) - idSize);
+        return buffer.getUtf8(pos + idSize, length);
+    }
+
+    /**
+     * HotSpot的类名为java/lang/String和[Ljava/lang/Object;，统一成java.lang.String和java.lang.Object[]
+     */
+    static String normalizeClassName(String name) {
+        int dims = 0;
+        while (dims < name.length() && name.charAt(dims) == '[') dims++;
+        if (dims > 0) {
+            String element = name.substring(dims);
+            if (element.startsWith("L") && element.endsWith(";")) {
+                element = element.substring(1, element.length() - 1);
+            } else if (element.length() == 1) {
+                element = primitiveOfDescriptor(element.charAt(0));
+            }
+            StringBuilder sb = new StringBuilder(element.replace('/', '.'));
+            for (int i = 0; i < dims; i++) sb.append("[]");
+            return sb.toString();
+        }
+        return name.replace('/', '.');
+    }
+
+    private static String primitiveOfDescriptor(char c) {
+        switch (c) {
+            case 'Z':
+                return "boolean";
+            case 'C':
+                return "char";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            case 'B':
+                return "byte";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            default:
+                return String.valueOf(c);
+        }
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    /**
+     * @return 不在快照中时为-1
+     */
+    int indexOf(long id) {
+        return id == 0 ? -1 : search(mIds, mCount, id);
+    }
+
+    long id(int node) {
+        return mIds[node];
+    }
+
+    int tag(int node) {
+        return buffer.getByte(mPositions[node]);
+    }
+
+    /**
+     * 实例所属的类，不是实例时为null
+     */
+    ClassInfo classOf(int node) {
+        long pos = mPositions[node];
+        if (buffer.getByte(pos) != INSTANCE_DUMP) return null;
+        return classes.get(buffer.getId(pos + 1 + idSize + 4));
+    }
+
+    ClassInfo classInfo(long id) {
+        return classes.get(id);
+    }
+
+    /**
+     * 是否为某个类或其子类
+     */
+    boolean isSubclass(ClassInfo info, long superId) {
+        while (info != null) {
+            if (info.id == superId) return true;
+            info = classes.get(info.superId);
+        }
+        return false;
+    }
+
+    /**
+     * 按类名查找，找不到时为null
+     */
+    ClassInfo findClass(String name) {
+        for (ClassInfo info : classes.values()) {
+            if (name.equals(info.name)) return info;
+        }
+        return null;
+    }
+
+    String className(int node) {
+        long pos = mPositions[node];
+        int tag = buffer.getByte(pos);
+        switch (tag) {
+            case CLASS_DUMP: {
+                ClassInfo info = classes.get(mIds[node]);
+                return "class " + (info == null ? "?" : info.name);
+            }
+            case INSTANCE_DUMP: {
+                ClassInfo info = classOf(node);
+                return info == null ? "?" : info.name;
+            }
+            case OBJECT_ARRAY_DUMP: {
+                ClassInfo info = classes.get(buffer.getId(pos + 1 + idSize + 8));
+                return info == null ? "java.lang.Object[]" : info.name;
+            }
+            default: {
+                int type = buffer.getByte(pos + 1 + idSize + 8);
+                return (type < PRIMITIVE_NAMES.length && PRIMITIVE_NAMES[type] != null ? PRIMITIVE_NAMES[type] : "?") + "[]";
+            }
+        }
+    }
+
+    /**
+     * 估算的自身大小：数据长度加上对象头
+     */
+    long shallowSize(int node) throws IOException {
+        long pos = mPositions[node];
+        int tag = buffer.getByte(pos);
+        long body = pos + 1;
+        switch (tag) {
+            case CLASS_DUMP: {
+                ClassInfo info = classes.get(mIds[node]);
+                return OBJECT_HEADER + (info == null ? 0 : info.staticRefIds.length * (long) idSize);
+            }
+            case INSTANCE_DUMP:
+                return OBJECT_HEADER + buffer.getLength(body + idSize + 4 + idSize);
+            case OBJECT_ARRAY_DUMP:
+                return ARRAY_HEADER + buffer.getLength(body + idSize + 4) * idSize;
+            default:
+                return ARRAY_HEADER + buffer.getLength(body + idSize + 4) * typeSize(buffer.getByte(body + idSize + 8));
+        }
+    }
+
+    private int[] refOffsets(ClassInfo info) throws IOException {
+        if (info.refOffsets != null) return info.refOffsets;
+        IntList offsets = new IntList(8);
+        int offset = 0;
+        // 实例数据中先是本类的字段，然后依次是父类的
+        for (ClassInfo c = info; c != null; c = classes.get(c.superId)) {
+            for (int i = 0; i < c.fieldTypes.length; i++) {
+                if (c.fieldTypes[i] == TYPE_OBJECT) offsets.add(offset);
+                offset += typeSize(c.fieldTypes[i]);
+            }
+        }
+        info.refOffsets = offsets.toArray();
+        return info.refOffsets;
+    }
+
+    /**
+     * 对象引用的其他对象，加入out；不在快照中的引用忽略
+     */
+    void references(int node, IntList out) throws IOException {
+        long pos = mPositions[node];
+        int tag = buffer.getByte(pos);
+        long body = pos + 1;
+        switch (tag) {
+            case CLASS_DUMP: {
+                ClassInfo info = classes.get(mIds[node]);
+                if (info == null) return;
+                addReference(info.superId, out);
+                addReference(info.loaderId, out);
+                for (long ref : info.staticRefIds) addReference(ref, out);
+                break;
+            }
+            case INSTANCE_DUMP: {
+                long classId = buffer.getId(body + idSize + 4);
+                addReference(classId, out);
+                ClassInfo info = classes.get(classId);
+                if (info == null) return;
+                long data = body + idSize + 4 + idSize + 4;
+                long dataLength = buffer.getLength(data - 4);
+                for (int offset : refOffsets(info)) {
+                    if (offset + idSize > dataLength) break;
+                    addReference(buffer.getId(data + offset), out);
+                }
+                break;
+            }
+            case OBJECT_ARRAY_DUMP: {
+                long count = buffer.getLength(body + idSize + 4);
+                long data = body + idSize + 8 + idSize;
+                for (long i = 0; i < count; i++) {
+                    addReference(buffer.getId(data + i * idSize), out);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void addReference(long id, IntList out) {
+        int target = indexOf(id);
+        if (target >= 0) out.add(target);
+    }
+
+    /**
+     * from中引用to的字段名，用于描述引用链；找不到时为null
+     */
+    String referenceName(int from, int to) throws IOException {
+        long toId = mIds[to];
+        long pos = mPositions[from];
+        int tag = buffer.getByte(pos);
+        long body = pos + 1;
+        switch (tag) {
+            case CLASS_DUMP: {
+                ClassInfo info = classes.get(mIds[from]);
+                if (info == null) return null;
+                for (int i = 0; i < info.staticRefIds.length; i++) {
+                    if (info.staticRefIds[i] == toId) return "static " + string(info.staticNameIds[i]);
+                }
+                if (info.superId == toId) return "super";
+                if (info.loaderId == toId) return "classLoader";
+                return null;
+            }
+            case INSTANCE_DUMP: {
+                long classId = buffer.getId(body + idSize + 4);
+                long data = body + idSize + 4 + idSize + 4;
+                int offset = 0;
+                for (ClassInfo c = classes.get(classId); c != null; c = classes.get(c.superId)) {
+                    for (int i = 0; i < c.fieldTypes.length; i++) {
+                        if (c.fieldTypes[i] == TYPE_OBJECT && buffer.getId(data + offset) == toId) {
+                            return string(c.fieldNameIds[i]);
+                        }
+                        offset += typeSize(c.fieldTypes[i]);
+                    }
+                }
+                return classId == toId ? "class" : null;
+            }
+            case OBJECT_ARRAY_DUMP: {
+                long count = buffer.getLength(body + idSize + 4);
+                long data = body + idSize + 8 + idSize;
+                for (long i = 0; i < count; i++) {
+                    if (buffer.getId(data + i * idSize) == toId) return "[" + i + "]";
+                }
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 实例中某个字段的值（引用为id，boolean为0或1），字段名在子类和父类中重复时取子类的
+     *
+     * @return 不是实例或没有该字段时为null
+     */
+    Long fieldValue(int node, String name) throws IOException {
+        long pos = mPositions[node];
+        if (buffer.getByte(pos) != INSTANCE_DUMP) return null;
+        long body = pos + 1;
+        long data = body + idSize + 4 + idSize + 4;
+        int offset = 0;
+        for (ClassInfo c = classes.get(buffer.getId(body + idSize + 4)); c != null; c = classes.get(c.superId)) {
+            for (int i = 0; i < c.fieldTypes.length; i++) {
+                int type = c.fieldTypes[i];
+                if (name.equals(string(c.fieldNameIds[i]))) {
+                    long at = data + offset;
+                    switch (typeSize(type)) {
+                        case 1:
+                            return (long) buffer.getByte(at);
+                        case 2:
+                            return (long) buffer.getShort(at);
+                        case 4:
+                            return type == TYPE_OBJECT ? buffer.getId(at) : (long) buffer.getInt(at);
+                        default:
+                            return buffer.getLong(at);
+                    }
+                }
+                offset += typeSize(type);
+            }
+        }
+        return null;
+    }
+
+    static String rootTypeName(int type) {
+        switch (type) {
+            case ROOT_JNI_GLOBAL:
+                return "JNI global";
+            case ROOT_JNI_LOCAL:
+                return "JNI local";
+            case ROOT_JAVA_FRAME:
+                return "Java frame";
+            case ROOT_NATIVE_STACK:
+                return "native stack";
+            case ROOT_STICKY_CLASS:
+                return "system class";
+            case ROOT_THREAD_BLOCK:
+                return "thread block";
+            case ROOT_MONITOR_USED:
+                return "monitor";
+            case ROOT_THREAD_OBJECT:
+                return "thread";
+            case ROOT_INTERNED_STRING:
+                return "interned string";
+            case ROOT_FINALIZING:
+                return "finalizing";
+            case ROOT_DEBUGGER:
+                return "debugger";
+            case ROOT_REFERENCE_CLEANUP:
+                return "reference cleanup";
+            case ROOT_VM_INTERNAL:
+                return "VM internal";
+            case ROOT_JNI_MONITOR:
+                return "JNI monitor";
+            case ROOT_UNREACHABLE:
+                return "unreachable";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package example.com.kotlin.analyzer;
+
+
+import java.util.Arrays;
+
+/**
+ * 可增长的int数组，避免装箱
+ */
+final class IntList {
+
+    int[] values;
+    int size;
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 4)];
+    }
+
+    void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1));
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,251 @@
+package example.com.kotlin.analyzer;
+
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成泄漏摘要：保留大小最大的对象、按类汇总的保留大小，以及销毁后仍然可达的Activity
+ * <p>
+ * Activity是否已销毁读取实例的mDestroyed字段。提供了崩溃报告中的TrackActivityPathDetail
+ * （{@code CrashReportDecoder}解码后的格式，每项有name、startTime、endTime，endTime非0表示已销毁）时，
+ * 按类比较记录中仍存活的个数和快照中的实例数：多出来的实例即使没有mDestroyed字段也会被标记为疑似泄漏，
+ * 有mDestroyed的泄漏在记录中也能找到对应的销毁时标记为confirmed。
+ */
+final class LeakAnalyzer {
+
+    static final String ACTIVITY_CLASS = "android.app.Activity";
+
+    /**
+     * 引用链最多输出的节点数
+     */
+    private static final int MAX_PATH = 32;
+
+    private final HprofIndex mIndex;
+    private final HeapGraph mGraph;
+
+    LeakAnalyzer(HeapGraph graph) {
+        mGraph = graph;
+        mIndex = graph.index;
+    }
+
+    /**
+     * @param top   输出的最大保留者个数
+     * @param track TrackActivityPathDetail，可以为null
+     */
+    JSONObject summarize(int top, JSONArray track) throws IOException, JSONException {
+        JSONObject summary = new JSONObject();
+        JSONObject hprof = new JSONObject();
+        hprof.put("version", mIndex.version);
+        hprof.put("idSize", mIndex.idSize);
+        hprof.put("objects", mIndex.count());
+        hprof.put("references", mGraph.referenceCount());
+        hprof.put("reachable", mGraph.reachable);
+        hprof.put("retained", mGraph.retained[mGraph.root]);
+        summary.put("hprof", hprof);
+        summary.put("topRetainers", topRetainers(top));
+        summary.put("retainedByClass", retainedByClass(top));
+        analyzeActivities(summary, track);
+        return summary;
+    }
+
+    /**
+     * 支配树第一层（只被GC Root支配）中保留大小最大的对象
+     */
+    private JSONArray topRetainers(int top) throws IOException, JSONException {
+        List<Integer> nodes = topLevelNodes();
+        Collections.sort(nodes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(mGraph.retained[o2], mGraph.retained[o1]);
+            }
+        });
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < nodes.size() && i < top; i++) {
+            int node = nodes.get(i);
+            JSONObject item = new JSONObject();
+            item.put("object", describe(node));
+            item.put("retained", mGraph.retained[node]);
+            item.put("shallow", mGraph.shallow[node]);
+            if (mGraph.rootType[node] != 0) item.put("root", HprofIndex.rootTypeName(mGraph.rootType[node]));
+            array.put(item);
+        }
+        return array;
+    }
+
+    /**
+     * 支配树第一层按类汇总，发现大量小对象（例如每个都不大的Bitmap）共同占用的内存
+     */
+    private JSONArray retainedByClass(int top) throws JSONException {
+        final Map<String, long[]> byClass = new HashMap<>();
+        for (int node : topLevelNodes()) {
+            String name = mIndex.className(node);
+            long[] values = byClass.get(name);
+            if (values == null) {
+                values = new long[2];
+                byClass.put(name, values);
+            }
+            values[0] += mGraph.retained[node];
+            values[1]++;
+        }
+        List<String> names = new ArrayList<>(byClass.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return Long.compare(byClass.get(o2)[0], byClass.get(o1)[0]);
+            }
+        });
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < names.size() && i < top; i++) {
+            long[] values = byClass.get(names.get(i));
+            JSONObject item = new JSONObject();
+            item.put("class", names.get(i));
+            item.put("retained", values[0]);
+            item.put("count", values[1]);
+            array.put(item);
+        }
+        return array;
+    }
+
+    private List<Integer> topLevelNodes() {
+        List<Integer> nodes = new ArrayList<>();
+        for (int node = 0; node < mGraph.root; node++) {
+            if (mGraph.idom[node] == mGraph.root) nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private void analyzeActivities(JSONObject summary, JSONArray track) throws IOException, JSONException {
+        HprofIndex.ClassInfo activityClass = mIndex.findClass(ACTIVITY_CLASS);
+        JSONArray leaked = new JSONArray();
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        if (activityClass != null) {
+            List<Integer> instances = new ArrayList<>();
+            for (int node = 0; node < mGraph.root; node++) {
+                if (mGraph.pathParent[node] < 0) continue;
+                HprofIndex.ClassInfo info = mIndex.classOf(node);
+                if (info != null && mIndex.isSubclass(info, activityClass.id)) instances.add(node);
+            }
+            Map<String, int[]> history = trackHistory(track);
+            for (int node : instances) {
+                String name = mIndex.className(node);
+                int[] count = counts.get(name);
+                if (count == null) {
+                    count = new int[2];
+                    counts.put(name, count);
+                }
+                count[0]++;
+                Long destroyed = mIndex.fieldValue(node, "mDestroyed");
+                if (destroyed == null || destroyed == 0) continue;
+                count[1]++;
+                JSONObject item = leakOf(node);
+                int[] recorded = history == null ? null : history.get(name);
+                if (history != null) {
+                    item.put("track", recorded != null && recorded[1] >= count[1] ? "confirmed" : "not in history");
+                }
+                leaked.put(item);
+            }
+            summary.put("activities", activityCounts(counts, history));
+        }
+        summary.put("leakedActivities", leaked);
+    }
+
+    private JSONObject leakOf(int node) throws IOException, JSONException {
+        JSONObject item = new JSONObject();
+        item.put("object", describe(node));
+        item.put("retained", mGraph.retained[node]);
+        Long finished = mIndex.fieldValue(node, "mFinished");
+        if (finished != null) item.put("finished", finished != 0);
+        item.put("path", pathToRoot(node));
+        return item;
+    }
+
+    /**
+     * 每个Activity类的实例数、已销毁的实例数，以及和跟踪记录的对比
+     */
+    private JSONArray activityCounts(Map<String, int[]> counts, Map<String, int[]> history) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int[] count = entry.getValue();
+            JSONObject item = new JSONObject();
+            item.put("class", entry.getKey());
+            item.put("instances", count[0]);
+            item.put("destroyedInstances", count[1]);
+            if (history != null) {
+                int[] recorded = history.get(entry.getKey());
+                int created = recorded == null ? 0 : recorded[0];
+                int destroyed = recorded == null ? 0 : recorded[1];
+                item.put("trackCreated", created);
+                item.put("trackDestroyed", destroyed);
+                // 实例比记录中存活的多，多出的部分只能是销毁后未回收的
+                int suspected = count[0] - (created - destroyed);
+                if (recorded != null && suspected > 0) item.put("suspected", suspected);
+            }
+            array.put(item);
+        }
+        return array;
+    }
+
+    /**
+     * @return 键为类名，值为创建和销毁次数；没有记录时为null
+     */
+    private static Map<String, int[]> trackHistory(JSONArray track) {
+        if (track == null) return null;
+        Map<String, int[]> history = new HashMap<>();
+        for (int i = 0; i < track.length(); i++) {
+            JSONObject item = track.optJSONObject(i);
+            if (item == null || !item.has("name")) continue;
+            String name = item.optString("name");
+            int[] count = history.get(name);
+            if (count == null) {
+                count = new int[2];
+                history.put(name, count);
+            }
+            count[0]++;
+            if (item.optLong("endTime") != 0) count[1]++;
+        }
+        return history;
+    }
+
+    /**
+     * 从GC Root到node的最短引用链
+     */
+    private JSONArray pathToRoot(int node) throws IOException {
+        List<Integer> chain = new ArrayList<>();
+        for (int v = node; v != mGraph.root && v >= 0; v = mGraph.pathParent[v]) {
+            chain.add(v);
+        }
+        Collections.reverse(chain);
+        JSONArray path = new JSONArray();
+        int skipFrom = chain.size() > MAX_PATH ? MAX_PATH / 2 : Integer.MAX_VALUE;
+        int skipTo = chain.size() - MAX_PATH / 2;
+        for (int i = 0; i < chain.size(); i++) {
+            if (i >= skipFrom && i < skipTo) {
+                if (i == skipFrom) path.put("... " + (skipTo - skipFrom) + " more");
+                continue;
+            }
+            int v = chain.get(i);
+            if (i == 0) {
+                path.put("GC Root (" + HprofIndex.rootTypeName(mGraph.rootType[v]) + ") " + describe(v));
+            } else {
+                String field = mIndex.referenceName(chain.get(i - 1), v);
+                path.put((field == null ? "?" : field) + " -> " + describe(v));
+            }
+        }
+        return path;
+    }
+
+    private String describe(int node) {
+        return mIndex.className(node) + "@0x" + Long.toHexString(mIndex.id(node));
+    }
+}
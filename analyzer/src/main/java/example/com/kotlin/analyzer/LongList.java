@@ -0,0 +1,33 @@
+package example.com.kotlin.analyzer;
+
+
+import java.util.Arrays;
+
+/**
+ * 可增长的long数组，避免装箱
+ */
+final class LongList {
+
+    long[] values;
+    int size;
+
+    LongList(int capacity) {
+        values = new long[Math.max(capacity, 4)];
+    }
+
+    void add(long value) {
+        if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1));
+        values[size++] = value;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    /**
+     * 去掉多余的容量
+     */
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
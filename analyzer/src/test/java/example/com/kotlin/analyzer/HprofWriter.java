@@ -0,0 +1,151 @@
+package example.com.kotlin.analyzer;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试时生成的最小快照，id为4字节，只写分析用到的记录：字符串、类加载、类、实例、数组和GC Root
+ * <p>
+ * 实例数据按hprof的顺序写：先本类声明的字段，再父类的字段。
+ */
+final class HprofWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TAG_STRING = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1c;
+
+    private final ByteArrayOutputStream mStrings = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream mHeapBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mHeap = new DataOutputStream(mHeapBytes);
+    private final Map<String, Integer> mStringIds = new HashMap<>();
+    private int mNextStringId = 1;
+    private int mClassSerial;
+
+    /**
+     * 字符串的id，第一次使用时写入
+     */
+    int string(String value) throws IOException {
+        Integer id = mStringIds.get(value);
+        if (id != null) return id;
+        id = mNextStringId++;
+        mStringIds.put(value, id);
+        byte[] bytes = value.getBytes(UTF_8);
+        DataOutputStream out = new DataOutputStream(mStrings);
+        record(out, TAG_STRING, 4 + bytes.length);
+        out.writeInt(id);
+        out.write(bytes);
+        return id;
+    }
+
+    /**
+     * 写入类加载和类记录
+     *
+     * @param name         内部名称，例如"android/app/Activity"
+     * @param fields       本类声明的实例字段，名称和类型交替，例如{"mDestroyed", HprofIndex.TYPE_BOOLEAN}
+     * @param staticFields 引用类型的静态字段，名称和对象id交替
+     */
+    HprofWriter loadClass(int id, String name, int superId, Object[] fields, Object[] staticFields) throws IOException {
+        int nameId = string(name);
+        DataOutputStream out = new DataOutputStream(mStrings);
+        record(out, TAG_LOAD_CLASS, 4 + 4 + 4 + 4);
+        out.writeInt(++mClassSerial);
+        out.writeInt(id);
+        out.writeInt(0);
+        out.writeInt(nameId);
+
+        mHeap.writeByte(HprofIndex.CLASS_DUMP);
+        mHeap.writeInt(id);
+        mHeap.writeInt(0);
+        mHeap.writeInt(superId);
+        // 类加载器、signers、protection domain和两个保留字段
+        for (int i = 0; i < 5; i++) mHeap.writeInt(0);
+        // 实例大小，分析时不使用
+        mHeap.writeInt(0);
+        mHeap.writeShort(0);
+        mHeap.writeShort(staticFields.length / 2);
+        for (int i = 0; i < staticFields.length; i += 2) {
+            mHeap.writeInt(string((String) staticFields[i]));
+            mHeap.writeByte(HprofIndex.TYPE_OBJECT);
+            mHeap.writeInt((Integer) staticFields[i + 1]);
+        }
+        mHeap.writeShort(fields.length / 2);
+        for (int i = 0; i < fields.length; i += 2) {
+            mHeap.writeInt(string((String) fields[i]));
+            mHeap.writeByte((Integer) fields[i + 1]);
+        }
+        return this;
+    }
+
+    /**
+     * @param data 按字段顺序编码好的实例数据
+     */
+    HprofWriter instance(int id, int classId, byte[] data) throws IOException {
+        mHeap.writeByte(HprofIndex.INSTANCE_DUMP);
+        mHeap.writeInt(id);
+        mHeap.writeInt(0);
+        mHeap.writeInt(classId);
+        mHeap.writeInt(data.length);
+        mHeap.write(data);
+        return this;
+    }
+
+    HprofWriter objectArray(int id, int arrayClassId, int... elements) throws IOException {
+        mHeap.writeByte(HprofIndex.OBJECT_ARRAY_DUMP);
+        mHeap.writeInt(id);
+        mHeap.writeInt(0);
+        mHeap.writeInt(elements.length);
+        mHeap.writeInt(arrayClassId);
+        for (int element : elements) mHeap.writeInt(element);
+        return this;
+    }
+
+    HprofWriter byteArray(int id, int length) throws IOException {
+        mHeap.writeByte(HprofIndex.PRIMITIVE_ARRAY_DUMP);
+        mHeap.writeInt(id);
+        mHeap.writeInt(0);
+        mHeap.writeInt(length);
+        mHeap.writeByte(8);
+        mHeap.write(new byte[length]);
+        return this;
+    }
+
+    HprofWriter stickyClass(int classId) throws IOException {
+        mHeap.writeByte(HprofIndex.ROOT_STICKY_CLASS);
+        mHeap.writeInt(classId);
+        return this;
+    }
+
+    void writeTo(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.write("JAVA PROFILE 1.0.2".getBytes(UTF_8));
+            out.writeByte(0);
+            out.writeInt(4);
+            out.writeLong(0L);
+            mStrings.writeTo(out);
+            mHeap.flush();
+            record(out, TAG_HEAP_DUMP_SEGMENT, mHeapBytes.size());
+            mHeapBytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void record(OutputStream os, int tag, int length) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeByte(tag);
+        out.writeInt(0);
+        out.writeInt(length);
+        out.flush();
+    }
+}
@@ -0,0 +1,136 @@
+package example.com.kotlin.analyzer;
+
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用{@link HprofWriter}生成的快照检查泄漏摘要
+ * <p>
+ * 快照中LeakyActivity已销毁，仍被静态字段sListeners引用的数组持有，并持有一个1000字节的数组；
+ * LiveActivity未销毁；另有一个已销毁但不可达的LeakyActivity，不应计入。
+ */
+public class LeakAnalyzerTest {
+
+    private static final int OBJECT = 0x100;
+    private static final int ACTIVITY = 0x101;
+    private static final int LEAKY_ACTIVITY = 0x102;
+    private static final int LIVE_ACTIVITY = 0x103;
+    private static final int OBJECT_ARRAY = 0x104;
+    private static final int BYTE_ARRAY = 0x105;
+
+    private static final int LISTENERS = 0x300;
+    private static final int LEAKED = 0x400;
+    private static final int LIVE = 0x401;
+    private static final int COLLECTED = 0x402;
+    private static final int BUFFER = 0x500;
+
+    private static final int BUFFER_LENGTH = 1000;
+
+    private static final String LEAKY_NAME = "example.demo.LeakyActivity";
+    private static final String LIVE_NAME = "example.demo.LiveActivity";
+
+    private File mHprof;
+
+    @Before
+    public void setUp() throws Exception {
+        mHprof = File.createTempFile("leak", ".hprof");
+        new HprofWriter()
+                .loadClass(OBJECT, "java/lang/Object", 0, new Object[0], new Object[0])
+                .loadClass(ACTIVITY, LeakAnalyzer.ACTIVITY_CLASS.replace('.', '/'), OBJECT,
+                        new Object[]{"mDestroyed", HprofIndex.TYPE_BOOLEAN, "mFinished", HprofIndex.TYPE_BOOLEAN},
+                        new Object[0])
+                .loadClass(LEAKY_ACTIVITY, LEAKY_NAME.replace('.', '/'), ACTIVITY,
+                        new Object[]{"mBuffer", HprofIndex.TYPE_OBJECT},
+                        new Object[]{"sListeners", LISTENERS})
+                .loadClass(LIVE_ACTIVITY, LIVE_NAME.replace('.', '/'), ACTIVITY,
+                        new Object[0], new Object[]{"sCurrent", LIVE})
+                .loadClass(OBJECT_ARRAY, "[Ljava/lang/Object;", OBJECT, new Object[0], new Object[0])
+                .loadClass(BYTE_ARRAY, "[B", OBJECT, new Object[0], new Object[0])
+                .objectArray(LISTENERS, OBJECT_ARRAY, LEAKED)
+                // 先本类的mBuffer，再父类的mDestroyed和mFinished
+                .instance(LEAKED, LEAKY_ACTIVITY, new byte[]{0, 0, 0x05, 0x00, 1, 1})
+                .instance(COLLECTED, LEAKY_ACTIVITY, new byte[]{0, 0, 0, 0, 1, 1})
+                .instance(LIVE, LIVE_ACTIVITY, new byte[]{0, 0})
+                .byteArray(BUFFER, BUFFER_LENGTH)
+                .stickyClass(OBJECT)
+                .stickyClass(ACTIVITY)
+                .stickyClass(LEAKY_ACTIVITY)
+                .stickyClass(LIVE_ACTIVITY)
+                .writeTo(mHprof);
+    }
+
+    @After
+    public void tearDown() {
+        mHprof.delete();
+    }
+
+    @Test
+    public void leakedActivity() throws Exception {
+        JSONObject summary = HprofAnalyzer.analyze(mHprof, 10, null);
+
+        JSONArray leaked = summary.getJSONArray("leakedActivities");
+        assertEquals(1, leaked.length());
+        JSONObject leak = leaked.getJSONObject(0);
+        assertEquals(LEAKY_NAME + "@0x400", leak.getString("object"));
+        // 实例本身（对象头和6字节字段）加上只被它引用的数组
+        long instance = HprofIndex.OBJECT_HEADER + 6;
+        long buffer = HprofIndex.ARRAY_HEADER + BUFFER_LENGTH;
+        assertEquals(instance + buffer, leak.getLong("retained"));
+        assertTrue(leak.getBoolean("finished"));
+        assertFalse(leak.has("track"));
+
+        JSONArray path = leak.getJSONArray("path");
+        assertEquals(3, path.length());
+        assertEquals("GC Root (system class) class " + LEAKY_NAME + "@0x102", path.getString(0));
+        assertEquals("static sListeners -> java.lang.Object[]@0x300", path.getString(1));
+        assertEquals("[0] -> " + LEAKY_NAME + "@0x400", path.getString(2));
+
+        JSONArray activities = summary.getJSONArray("activities");
+        assertEquals(2, activities.length());
+        JSONObject leaky = find(activities, LEAKY_NAME);
+        assertEquals(1, leaky.getInt("instances"));
+        assertEquals(1, leaky.getInt("destroyedInstances"));
+        JSONObject live = find(activities, LIVE_NAME);
+        assertEquals(1, live.getInt("instances"));
+        assertEquals(0, live.getInt("destroyedInstances"));
+
+        JSONObject top = summary.getJSONArray("topRetainers").getJSONObject(0);
+        assertEquals("class " + LEAKY_NAME + "@0x102", top.getString("object"));
+        assertEquals("system class", top.getString("root"));
+    }
+
+    @Test
+    public void leakedActivityWithTrack() throws Exception {
+        JSONArray track = new JSONArray()
+                .put(new JSONObject().put("name", LEAKY_NAME).put("startTime", 1L).put("endTime", 2L))
+                .put(new JSONObject().put("name", LIVE_NAME).put("startTime", 3L).put("endTime", 0L));
+        JSONObject summary = HprofAnalyzer.analyze(mHprof, 10, track);
+
+        JSONObject leak = summary.getJSONArray("leakedActivities").getJSONObject(0);
+        assertEquals("confirmed", leak.getString("track"));
+        JSONObject leaky = find(summary.getJSONArray("activities"), LEAKY_NAME);
+        assertEquals(1, leaky.getInt("trackCreated"));
+        assertEquals(1, leaky.getInt("trackDestroyed"));
+        // 记录中已经没有存活的LeakyActivity，快照中的实例只能是泄漏的
+        assertEquals(1, leaky.getInt("suspected"));
+        assertFalse(find(summary.getJSONArray("activities"), LIVE_NAME).has("suspected"));
+    }
+
+    private static JSONObject find(JSONArray activities, String name) throws Exception {
+        for (int i = 0; i < activities.length(); i++) {
+            JSONObject item = activities.getJSONObject(i);
+            if (name.equals(item.getString("class"))) return item;
+        }
+        throw new AssertionError(name + " not in " + activities);
+    }
+}
@@ -0,0 +1,36 @@
+package android.app;
+
+import android.content.Context;
+import android.view.Window;
+
+/**
+ * JVM替身
+ */
+public class Activity extends Context {
+
+    private final FragmentManagerImpl mFragments = new FragmentManagerImpl(this, null);
+
+    private final Window mWindow = new Window();
+
+    /**
+     * 与真机同名，内存快照分析按这两个字段判断Activity是否已销毁；mDestroyed在真机上由框架设置
+     */
+    private boolean mFinished;
+    private boolean mDestroyed;
+
+    public Window getWindow() {
+        return mWindow;
+    }
+
+    public FragmentManagerImpl getFragmentManager() {
+        return mFragments;
+    }
+
+    public void finish() {
+        mFinished = true;
+    }
+
+    public boolean isChangingConfigurations() {
+        return false;
+    }
+}
@@ -0,0 +1,29 @@
+package android.app;
+
+/**
+ * JVM替身，真机上通过binder查询，这里返回固定值
+ */
+public class ActivityManager {
+
+    public int getMemoryClass() {
+        return 256;
+    }
+
+    public int getLargeMemoryClass() {
+        return 512;
+    }
+
+    public void getMemoryInfo(MemoryInfo outInfo) {
+        outInfo.totalMem = 4L * 1024 * 1024 * 1024;
+        outInfo.availMem = 1536L * 1024 * 1024;
+        outInfo.threshold = 216L * 1024 * 1024;
+        outInfo.lowMemory = false;
+    }
+
+    public static class MemoryInfo {
+        public long availMem;
+        public long totalMem;
+        public long threshold;
+        public boolean lowMemory;
+    }
+}
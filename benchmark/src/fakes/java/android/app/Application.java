@@ -0,0 +1,62 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+
+/**
+ * JVM替身，用dispatchXxx代替系统回调生命周期
+ */
+public class Application extends Context {
+
+    private final ArrayList<ActivityLifecycleCallbacks> mCallbacks = new ArrayList<>();
+
+    public interface ActivityLifecycleCallbacks {
+        void onActivityCreated(Activity activity, Bundle savedInstanceState);
+
+        void onActivityStarted(Activity activity);
+
+        void onActivityResumed(Activity activity);
+
+        void onActivityPaused(Activity activity);
+
+        void onActivityStopped(Activity activity);
+
+        void onActivitySaveInstanceState(Activity activity, Bundle outState);
+
+        void onActivityDestroyed(Activity activity);
+    }
+
+    public void registerActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        mCallbacks.add(callback);
+    }
+
+    public void unregisterActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        mCallbacks.remove(callback);
+    }
+
+    public void dispatchActivityCreated(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityCreated(activity, null);
+    }
+
+    public void dispatchActivityStarted(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityStarted(activity);
+    }
+
+    public void dispatchActivityResumed(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityResumed(activity);
+    }
+
+    public void dispatchActivityPaused(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityPaused(activity);
+    }
+
+    public void dispatchActivityStopped(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityStopped(activity);
+    }
+
+    public void dispatchActivityDestroyed(Activity activity) {
+        for (int i = 0; i < mCallbacks.size(); i++) mCallbacks.get(i).onActivityDestroyed(activity);
+    }
+}
@@ -0,0 +1,35 @@
+package android.app;
+
+/**
+ * JVM替身
+ */
+public class Fragment {
+
+    private Activity mHost;
+    private Fragment mParentFragment;
+    private FragmentManagerImpl mChildFragmentManager;
+
+    void attach(Activity host, Fragment parent) {
+        mHost = host;
+        mParentFragment = parent;
+    }
+
+    FragmentManagerImpl getParentManager() {
+        return mParentFragment != null ? mParentFragment.getChildFragmentManager() : mHost.getFragmentManager();
+    }
+
+    public final Activity getActivity() {
+        return mHost;
+    }
+
+    public final Fragment getParentFragment() {
+        return mParentFragment;
+    }
+
+    public final FragmentManagerImpl getChildFragmentManager() {
+        if (mChildFragmentManager == null) {
+            mChildFragmentManager = new FragmentManagerImpl(mHost, this);
+        }
+        return mChildFragmentManager;
+    }
+}
@@ -0,0 +1,25 @@
+package android.app;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * JVM替身
+ */
+public abstract class FragmentManager {
+
+    public abstract List<Fragment> getFragments();
+
+    public abstract void registerFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb, boolean recursive);
+
+    public abstract void unregisterFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb);
+
+    public abstract static class FragmentLifecycleCallbacks {
+        public void onFragmentAttached(FragmentManager fm, Fragment f, Context context) {
+        }
+
+        public void onFragmentDetached(FragmentManager fm, Fragment f) {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package android.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM替身，用{@link #addFragment(Fragment)}和{@link #removeFragment(Fragment)}代替事务
+ */
+public final class FragmentManagerImpl extends FragmentManager {
+
+    private final ArrayList<Fragment> mAdded = new ArrayList<>();
+    private final ArrayList<FragmentLifecycleCallbacks> mCallbacks = new ArrayList<>();
+    private final ArrayList<Boolean> mRecursive = new ArrayList<>();
+    private final Activity mHost;
+    private final Fragment mParent;
+
+    FragmentManagerImpl(Activity host, Fragment parent) {
+        mHost = host;
+        mParent = parent;
+    }
+
+    @Override
+    public List<Fragment> getFragments() {
+        return mAdded.isEmpty() ? Collections.<Fragment>emptyList() : Collections.unmodifiableList(mAdded);
+    }
+
+    @Override
+    public void registerFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb, boolean recursive) {
+        mCallbacks.add(cb);
+        mRecursive.add(recursive);
+    }
+
+    @Override
+    public void unregisterFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb) {
+        int index = mCallbacks.indexOf(cb);
+        if (index >= 0) {
+            mCallbacks.remove(index);
+            mRecursive.remove(index);
+        }
+    }
+
+    public void addFragment(Fragment fragment) {
+        fragment.attach(mHost, mParent);
+        mAdded.add(fragment);
+        dispatchAttached(fragment, false);
+    }
+
+    public void removeFragment(Fragment fragment) {
+        if (mAdded.remove(fragment)) {
+            dispatchDetached(fragment, false);
+        }
+    }
+
+    private void dispatchAttached(Fragment fragment, boolean onlyRecursive) {
+        if (mParent != null) {
+            mParent.getParentManager().dispatchAttached(fragment, true);
+        }
+        for (int i = 0; i < mCallbacks.size(); i++) {
+            if (!onlyRecursive || mRecursive.get(i)) {
+                mCallbacks.get(i).onFragmentAttached(this, fragment, mHost);
+            }
+        }
+    }
+
+    private void dispatchDetached(Fragment fragment, boolean onlyRecursive) {
+        if (mParent != null) {
+            mParent.getParentManager().dispatchDetached(fragment, true);
+        }
+        for (int i = 0; i < mCallbacks.size(); i++) {
+            if (!onlyRecursive || mRecursive.get(i)) {
+                mCallbacks.get(i).onFragmentDetached(this, fragment);
+            }
+        }
+    }
+}
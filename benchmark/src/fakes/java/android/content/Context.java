@@ -0,0 +1,42 @@
+package android.content;
+
+import android.content.pm.ApplicationInfo;
+import android.content.res.Resources;
+
+import java.io.File;
+
+/**
+ * JVM替身，基准测试通过子类提供需要的返回值
+ */
+public abstract class Context {
+    public static final String ACTIVITY_SERVICE = "activity";
+    public static final int MODE_PRIVATE = 0;
+
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    public Resources getResources() {
+        return null;
+    }
+
+    public ApplicationInfo getApplicationInfo() {
+        return new ApplicationInfo();
+    }
+
+    public String getPackageName() {
+        return "example.com.kotlin.crash";
+    }
+
+    public File getFilesDir() {
+        return null;
+    }
+
+    public File getCacheDir() {
+        return null;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
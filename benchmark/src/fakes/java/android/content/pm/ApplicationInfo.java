@@ -0,0 +1,10 @@
+package android.content.pm;
+
+/**
+ * JVM替身
+ */
+public class ApplicationInfo {
+    public static final int FLAG_DEBUGGABLE = 1 << 1;
+
+    public int flags;
+}
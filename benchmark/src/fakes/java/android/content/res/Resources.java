@@ -0,0 +1,18 @@
+package android.content.res;
+
+import android.util.DisplayMetrics;
+
+/**
+ * JVM替身
+ */
+public class Resources {
+    private final DisplayMetrics mMetrics;
+
+    public Resources(DisplayMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public DisplayMetrics getDisplayMetrics() {
+        return mMetrics;
+    }
+}
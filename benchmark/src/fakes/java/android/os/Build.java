@@ -0,0 +1,29 @@
+package android.os;
+
+/**
+ * JVM替身，基准测试可以修改SDK_INT以覆盖不同版本的分支
+ */
+public class Build {
+    public static String BRAND = "jvm";
+    public static String MODEL = "jvm";
+    public static String MANUFACTURER = "jvm";
+
+    public static class VERSION {
+        public static int SDK_INT = VERSION_CODES.P;
+        public static String RELEASE = "9";
+        @Deprecated
+        public static String SDK = "28";
+    }
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+    }
+}
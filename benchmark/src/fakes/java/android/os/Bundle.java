@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * JVM替身
+ */
+public final class Bundle {
+}
@@ -0,0 +1,51 @@
+package android.os;
+
+import java.io.IOException;
+
+/**
+ * JVM替身，真机上需要读取smaps，这里返回固定值
+ */
+public final class Debug {
+
+    private Debug() {
+
+    }
+
+    public static class MemoryInfo {
+        public int dalvikPss;
+        public int nativePss;
+        public int otherPss;
+
+        public int getTotalPss() {
+            return dalvikPss + nativePss + otherPss;
+        }
+
+        public String getMemoryStat(String statName) {
+            switch (statName) {
+                case "summary.java-heap":
+                    return Integer.toString(dalvikPss);
+                case "summary.native-heap":
+                    return Integer.toString(nativePss);
+                case "summary.total-pss":
+                    return Integer.toString(getTotalPss());
+                default:
+                    return "0";
+            }
+        }
+    }
+
+    /**
+     * 用HotSpot的快照代替，格式相同，只是没有Android扩展的记录
+     */
+    public static void dumpHprofData(String fileName) throws IOException {
+        com.sun.management.HotSpotDiagnosticMXBean bean = java.lang.management.ManagementFactory.getPlatformMXBean(
+                com.sun.management.HotSpotDiagnosticMXBean.class);
+        bean.dumpHeap(fileName, false);
+    }
+
+    public static void getMemoryInfo(MemoryInfo memoryInfo) {
+        memoryInfo.dalvikPss = 24 * 1024;
+        memoryInfo.nativePss = 16 * 1024;
+        memoryInfo.otherPss = 8 * 1024;
+    }
+}
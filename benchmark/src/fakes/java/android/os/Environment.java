@@ -0,0 +1,22 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * JVM替身，外部存储指向临时目录
+ */
+public final class Environment {
+    public static final String MEDIA_MOUNTED = "mounted";
+
+    private Environment() {
+
+    }
+
+    public static String getExternalStorageState() {
+        return MEDIA_MOUNTED;
+    }
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM替身，投递的任务不会执行
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final boolean postAtFrontOfQueue(Runnable r) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * JVM替身，线程启动后立即结束，Looper不处理消息
+ */
+public class HandlerThread extends Thread {
+
+    private final Looper mLooper = new Looper(this);
+
+    public HandlerThread(String name) {
+        super(name);
+    }
+
+    public HandlerThread(String name, int priority) {
+        super(name);
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+}
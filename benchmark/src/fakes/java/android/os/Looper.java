@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM替身，不处理消息
+ */
+public final class Looper {
+
+    private static final Looper sMainLooper = new Looper(Thread.currentThread());
+
+    private final Thread mThread;
+    private final MessageQueue mQueue = new MessageQueue();
+
+    Looper(Thread thread) {
+        mThread = thread;
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    public static MessageQueue myQueue() {
+        return sMainLooper.mQueue;
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public MessageQueue getQueue() {
+        return mQueue;
+    }
+}
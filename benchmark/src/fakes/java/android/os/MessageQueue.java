@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM替身，IdleHandler不会被调用
+ */
+public final class MessageQueue {
+
+    public interface IdleHandler {
+        boolean queueIdle();
+    }
+
+    public void addIdleHandler(IdleHandler handler) {
+    }
+
+    public void removeIdleHandler(IdleHandler handler) {
+    }
+}
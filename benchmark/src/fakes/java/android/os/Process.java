@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * JVM替身
+ */
+public class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private static final long START_ELAPSED_REALTIME = SystemClock.elapsedRealtime();
+
+    public static int myPid() {
+        return 1;
+    }
+
+    public static long getStartElapsedRealtime() {
+        return START_ELAPSED_REALTIME;
+    }
+
+    public static int myTid() {
+        return 1;
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * JVM替身
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+}
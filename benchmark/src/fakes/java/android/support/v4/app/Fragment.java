@@ -0,0 +1,35 @@
+package android.support.v4.app;
+
+/**
+ * JVM替身
+ */
+public class Fragment {
+
+    private FragmentActivity mHost;
+    private Fragment mParentFragment;
+    private FragmentManagerImpl mChildFragmentManager;
+
+    void attach(FragmentActivity host, Fragment parent) {
+        mHost = host;
+        mParentFragment = parent;
+    }
+
+    FragmentManagerImpl getParentManager() {
+        return mParentFragment != null ? mParentFragment.getChildFragmentManager() : mHost.getSupportFragmentManager();
+    }
+
+    public final FragmentActivity getActivity() {
+        return mHost;
+    }
+
+    public final Fragment getParentFragment() {
+        return mParentFragment;
+    }
+
+    public final FragmentManagerImpl getChildFragmentManager() {
+        if (mChildFragmentManager == null) {
+            mChildFragmentManager = new FragmentManagerImpl(mHost, this);
+        }
+        return mChildFragmentManager;
+    }
+}
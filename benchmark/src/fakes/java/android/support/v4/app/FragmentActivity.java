@@ -0,0 +1,15 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+
+/**
+ * JVM替身
+ */
+public class FragmentActivity extends Activity {
+
+    private final FragmentManagerImpl mFragments = new FragmentManagerImpl(this, null);
+
+    public FragmentManagerImpl getSupportFragmentManager() {
+        return mFragments;
+    }
+}
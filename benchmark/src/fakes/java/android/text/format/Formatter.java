@@ -0,0 +1,27 @@
+package android.text.format;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * JVM替身，按1000进制格式化
+ */
+public final class Formatter {
+
+    private static final String[] UNITS = {"B", "kB", "MB", "GB", "TB", "PB"};
+
+    private Formatter() {
+
+    }
+
+    public static String formatFileSize(Context context, long sizeBytes) {
+        float result = sizeBytes;
+        int unit = 0;
+        while (result > 900 && unit < UNITS.length - 1) {
+            result /= 1000;
+            unit++;
+        }
+        return String.format(Locale.US, result < 100 ? "%.2f %s" : "%.0f %s", result, UNITS[unit]);
+    }
+}
@@ -0,0 +1,11 @@
+package android.util;
+
+/**
+ * JVM替身
+ */
+public class DisplayMetrics {
+    public int widthPixels;
+    public int heightPixels;
+    public float density;
+    public int densityDpi;
+}
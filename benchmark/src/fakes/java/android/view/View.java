@@ -0,0 +1,13 @@
+package android.view;
+
+/**
+ * JVM替身
+ */
+public class View {
+
+    private final ViewTreeObserver mViewTreeObserver = new ViewTreeObserver();
+
+    public ViewTreeObserver getViewTreeObserver() {
+        return mViewTreeObserver;
+    }
+}
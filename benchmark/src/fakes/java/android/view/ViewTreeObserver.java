@@ -0,0 +1,31 @@
+package android.view;
+
+import java.util.ArrayList;
+
+/**
+ * JVM替身，用dispatchOnDraw代替系统绘制
+ */
+public final class ViewTreeObserver {
+
+    private final ArrayList<OnDrawListener> mOnDrawListeners = new ArrayList<>();
+
+    public interface OnDrawListener {
+        void onDraw();
+    }
+
+    public void addOnDrawListener(OnDrawListener listener) {
+        mOnDrawListeners.add(listener);
+    }
+
+    public void removeOnDrawListener(OnDrawListener listener) {
+        mOnDrawListeners.remove(listener);
+    }
+
+    public boolean isAlive() {
+        return true;
+    }
+
+    public void dispatchOnDraw() {
+        for (int i = 0; i < mOnDrawListeners.size(); i++) mOnDrawListeners.get(i).onDraw();
+    }
+}
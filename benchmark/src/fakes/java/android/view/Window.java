@@ -0,0 +1,17 @@
+package android.view;
+
+/**
+ * JVM替身
+ */
+public class Window {
+
+    private final View mDecorView = new View();
+
+    public View getDecorView() {
+        return mDecorView;
+    }
+
+    public View peekDecorView() {
+        return mDecorView;
+    }
+}
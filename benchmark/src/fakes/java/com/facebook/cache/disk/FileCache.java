@@ -0,0 +1,17 @@
+package com.facebook.cache.disk;
+
+/**
+ * JVM替身
+ */
+public class FileCache {
+
+    private final long mSize;
+
+    public FileCache(long size) {
+        mSize = size;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+}
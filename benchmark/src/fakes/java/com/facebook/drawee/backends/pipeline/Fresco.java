@@ -0,0 +1,19 @@
+package com.facebook.drawee.backends.pipeline;
+
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+
+/**
+ * JVM替身
+ */
+public final class Fresco {
+
+    private static final ImagePipelineFactory sFactory = new ImagePipelineFactory();
+
+    private Fresco() {
+
+    }
+
+    public static ImagePipelineFactory getImagePipelineFactory() {
+        return sFactory;
+    }
+}
@@ -0,0 +1,17 @@
+package com.facebook.imagepipeline.cache;
+
+/**
+ * JVM替身
+ */
+public class CountingMemoryCache {
+
+    private final int mSizeInBytes;
+
+    public CountingMemoryCache(int sizeInBytes) {
+        mSizeInBytes = sizeInBytes;
+    }
+
+    public int getSizeInBytes() {
+        return mSizeInBytes;
+    }
+}
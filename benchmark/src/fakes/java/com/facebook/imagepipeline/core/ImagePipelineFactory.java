@@ -0,0 +1,21 @@
+package com.facebook.imagepipeline.core;
+
+import com.facebook.cache.disk.FileCache;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
+
+/**
+ * JVM替身
+ */
+public class ImagePipelineFactory {
+
+    private final FileCache mMainFileCache = new FileCache(32L * 1024 * 1024);
+    private final CountingMemoryCache mBitmapCache = new CountingMemoryCache(16 * 1024 * 1024);
+
+    public FileCache getMainFileCache() {
+        return mMainFileCache;
+    }
+
+    public CountingMemoryCache getBitmapCountingMemoryCache() {
+        return mBitmapCache;
+    }
+}
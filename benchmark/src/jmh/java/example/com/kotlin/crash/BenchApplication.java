@@ -0,0 +1,167 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManagerImpl;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 基准测试用的Application，提供固定的屏幕、内存信息和临时的私有目录
+ */
+final class BenchApplication extends Application {
+
+    private final Resources mResources;
+    private final ActivityManager mActivityManager = new ActivityManager();
+    private final File mFilesDir;
+
+    BenchApplication() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        metrics.widthPixels = 1080;
+        metrics.heightPixels = 1920;
+        metrics.density = 3.0f;
+        metrics.densityDpi = 480;
+        mResources = new Resources(metrics);
+        try {
+            mFilesDir = Files.createTempDirectory("appcrash-bench").toFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Resources getResources() {
+        return mResources;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return Context.ACTIVITY_SERVICE.equals(name) ? mActivityManager : null;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return mFilesDir;
+    }
+
+    /**
+     * 按下标返回不同类名的Activity，用于模拟多个页面
+     */
+    static FragmentActivity newActivity(int index) {
+        switch (index & 7) {
+            case 0:
+                return new MainActivity();
+            case 1:
+                return new ListActivity();
+            case 2:
+                return new DetailActivity();
+            case 3:
+                return new SearchActivity();
+            case 4:
+                return new ProfileActivity();
+            case 5:
+                return new SettingsActivity();
+            case 6:
+                return new PlayerActivity();
+            default:
+                return new WebActivity();
+        }
+    }
+
+    /**
+     * 按下标返回不同类名的Fragment
+     */
+    static Fragment newFragment(int index) {
+        switch (index & 3) {
+            case 0:
+                return new HomeFragment();
+            case 1:
+                return new FeedFragment();
+            case 2:
+                return new CardFragment();
+            default:
+                return new BannerFragment();
+        }
+    }
+
+    /**
+     * 在fragmentManager下建一棵每层fanOut个子节点、共depth层的Fragment树
+     *
+     * @return 创建的Fragment数
+     */
+    static int addFragmentTree(FragmentManagerImpl fragmentManager, int fanOut, int depth) {
+        if (depth <= 0) return 0;
+        int count = 0;
+        for (int i = 0; i < fanOut; i++) {
+            Fragment fragment = newFragment(i);
+            fragmentManager.addFragment(fragment);
+            count += 1 + addFragmentTree(fragment.getChildFragmentManager(), fanOut, depth - 1);
+        }
+        return count;
+    }
+
+    /**
+     * 创建并销毁count个Activity，每隔openEvery个保留一个未销毁，返回未销毁的Activity
+     */
+    Activity[] visit(int count, int openEvery) {
+        Activity[] open = new Activity[openEvery <= 0 ? 0 : count / openEvery];
+        int openCount = 0;
+        for (int i = 0; i < count; i++) {
+            Activity activity = newActivity(i);
+            dispatchActivityCreated(activity);
+            dispatchActivityStarted(activity);
+            if (openEvery > 0 && i % openEvery == openEvery - 1 && openCount < open.length) {
+                open[openCount++] = activity;
+            } else {
+                dispatchActivityStopped(activity);
+                dispatchActivityDestroyed(activity);
+            }
+        }
+        return open;
+    }
+
+    static final class MainActivity extends FragmentActivity {
+    }
+
+    static final class ListActivity extends FragmentActivity {
+    }
+
+    static final class DetailActivity extends FragmentActivity {
+    }
+
+    static final class SearchActivity extends FragmentActivity {
+    }
+
+    static final class ProfileActivity extends FragmentActivity {
+    }
+
+    static final class SettingsActivity extends FragmentActivity {
+    }
+
+    static final class PlayerActivity extends FragmentActivity {
+    }
+
+    static final class WebActivity extends FragmentActivity {
+    }
+
+    public static final class HomeFragment extends Fragment {
+    }
+
+    public static final class FeedFragment extends Fragment {
+    }
+
+    public static final class CardFragment extends Fragment {
+    }
+
+    public static final class BannerFragment extends Fragment {
+    }
+}
@@ -0,0 +1,51 @@
+package example.com.kotlin.crash;
+
+
+import android.os.Build;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字节数换算的开销，Android O前后走不同的分支
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BytesUtilBenchmark {
+
+    private static final int VALUES = 1024;
+
+    @Param({"25", "26"})
+    public int sdkInt;
+
+    private final long[] mValues = new long[VALUES];
+
+    @Setup
+    public void setUp() {
+        Build.VERSION.SDK_INT = sdkInt;
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; i++) {
+            // 均匀覆盖B、KB、MB、GB四个区间
+            mValues[i] = (long) (random.nextDouble() * (1L << (10 * (1 + (i & 3)))));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void bytesToBytes(Blackhole blackhole) {
+        for (int i = 0; i < VALUES; i++) {
+            blackhole.consume(BytesUtil.bytesToBytes(mValues[i]));
+        }
+    }
+}
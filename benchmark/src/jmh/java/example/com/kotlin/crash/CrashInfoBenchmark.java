@@ -0,0 +1,87 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.support.v4.app.FragmentActivity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 崩溃时收集全部信息的开销，随会话长度、Activity栈深度和Fragment扇出变化
+ * <p>
+ * 内存信息来自替身类的固定值，这里测到的是收集和序列化本身的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CrashInfoBenchmark {
+
+    /**
+     * 会话中已访问的Activity数
+     */
+    @Param({"16", "256"})
+    public int trackLength;
+
+    /**
+     * 崩溃时Activity栈的深度
+     */
+    @Param({"1", "8", "32"})
+    public int stackDepth;
+
+    /**
+     * 栈中每个Activity的Fragment树每层的子节点数，共两层
+     */
+    @Param({"0", "4"})
+    public int fanOut;
+
+    private BenchApplication mApplication;
+    private Activity[] mStack;
+    private final CrashReportEncoder mEncoder = new CrashReportEncoder(16 * 1024);
+
+    @Setup
+    public void setUp() {
+        mApplication = new BenchApplication();
+        BreadcrumbJournal.open(mApplication, false);
+        AppColdStart.Companion.detectColdStart(mApplication);
+        TrackActivity.track(mApplication, false, trackLength);
+        ActivityStack.track(mApplication);
+        mApplication.visit(trackLength, 0);
+        mStack = new Activity[stackDepth];
+        for (int i = 0; i < stackDepth; i++) {
+            FragmentActivity activity = BenchApplication.newActivity(i);
+            mApplication.dispatchActivityCreated(activity);
+            BenchApplication.addFragmentTree(activity.getSupportFragmentManager(), fanOut, 2);
+            mStack[i] = activity;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = mStack.length - 1; i >= 0; i--) {
+            mApplication.dispatchActivityDestroyed(mStack[i]);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> getAll() {
+        return CrashInfo.getAll(mApplication);
+    }
+
+    @Benchmark
+    public int encodeAll() {
+        mEncoder.reset();
+        CrashInfo.encodeAll(mApplication, mEncoder);
+        mEncoder.finish();
+        return mEncoder.size();
+    }
+}
@@ -0,0 +1,61 @@
+package example.com.kotlin.crash;
+
+
+import android.support.v4.app.FragmentActivity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取一个Activity的Fragment树的开销随扇出和深度的变化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FragmentTreeBenchmark {
+
+    /**
+     * 每个节点的子Fragment数
+     */
+    @Param({"1", "4", "8"})
+    public int fanOut;
+
+    /**
+     * Fragment树的层数
+     */
+    @Param({"1", "2", "4"})
+    public int depth;
+
+    private FragmentActivity mActivity;
+    private String mName;
+
+    @Setup
+    public void setUp() {
+        mActivity = BenchApplication.newActivity(0);
+        mName = mActivity.getClass().getName();
+        BenchApplication.addFragmentTree(mActivity.getSupportFragmentManager(), fanOut, depth);
+    }
+
+    @Benchmark
+    public FragmentTreeCapture capture() {
+        return FragmentTreeCapture.capture(mName, mActivity.getSupportFragmentManager(), FragmentTreeCapture.SUPPORT,
+                FragmentTreeCapture.MAX_NODES, FragmentTreeCapture.MAX_DEPTH);
+    }
+
+    /**
+     * 读取后转为报告中的格式
+     */
+    @Benchmark
+    public Map<String, List<String>> captureToMap() {
+        return capture().toMap();
+    }
+}
@@ -0,0 +1,55 @@
+package example.com.kotlin.crash;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activity跟踪记录的读取开销随记录数的变化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackActivityBenchmark {
+
+    /**
+     * 跟踪记录数，同时也是环形缓冲区的容量
+     */
+    @Param({"16", "128", "1024"})
+    public int trackLength;
+
+    private final CrashReportEncoder mEncoder = new CrashReportEncoder(16 * 1024);
+
+    @Setup
+    public void setUp() {
+        BenchApplication application = new BenchApplication();
+        TrackActivity.track(application, false, trackLength);
+        // 每4个保留一个未销毁，覆盖结束时间为0的分支
+        application.visit(trackLength, 4);
+    }
+
+    @Benchmark
+    public String getTrackActivityPath() {
+        return TrackActivity.getTrackActivityPath();
+    }
+
+    @Benchmark
+    public String getTrackActivityPathDetail() {
+        return TrackActivity.getTrackActivityPathDetail();
+    }
+
+    @Benchmark
+    public int encodeTrackActivityPathDetail() {
+        mEncoder.reset();
+        TrackActivity.encodeTrackActivityPathDetail(mEncoder);
+        return mEncoder.size();
+    }
+}
@@ -0,0 +1,268 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.os.Debug;
+import example.com.kotlin.analyzer.HprofAnalyzer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 处理替身{@link Debug#dumpHprofData(String)}写出的HotSpot快照，检查{@link HeapDumper#strip(File, File)}
+ * 只清零基本类型数组的内容，处理后的快照仍能被离线分析工具读取
+ */
+public class HeapDumperTest {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 销毁后仍被静态列表持有的Activity
+     */
+    static final class LeakyActivity extends Activity {
+        final byte[] mBuffer = new byte[BUFFER_SIZE];
+    }
+
+    private static final List<Activity> LEAKED = new ArrayList<>();
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        LeakyActivity activity = new LeakyActivity();
+        Arrays.fill(activity.mBuffer, (byte) 0x5a);
+        activity.finish();
+        // 真机上由框架在onDestroy之后设置
+        Field destroyed = Activity.class.getDeclaredField("mDestroyed");
+        destroyed.setAccessible(true);
+        destroyed.setBoolean(activity, true);
+        LEAKED.add(activity);
+    }
+
+    @After
+    public void tearDown() {
+        LEAKED.clear();
+    }
+
+    @Test
+    public void stripKeepsLayoutAndAnalyzes() throws Exception {
+        File raw = new File(mFolder.getRoot(), "heap.hprof");
+        File dump = new File(mFolder.getRoot(), "heap.hprof.gz");
+        Debug.dumpHprofData(raw.getPath());
+        long stripped = HeapDumper.strip(raw, dump);
+
+        byte[] before = readFully(new FileInputStream(raw));
+        byte[] after = readFully(new GZIPInputStream(new FileInputStream(dump)));
+        assertEquals(before.length, after.length);
+        Walk original = new Walk(before);
+        Walk result = new Walk(after);
+        assertEquals(original.records, result.records);
+        assertEquals(original.objects, result.objects);
+        assertArrayEquals(original.arrayLengths(), result.arrayLengths());
+        assertEquals(original.primitiveBytes, stripped);
+        assertTrue(original.nonZeroPrimitiveBytes >= BUFFER_SIZE);
+        assertEquals(0, result.nonZeroPrimitiveBytes);
+        // 基本类型数组之外的字节不变
+        int changed = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != after[i]) {
+                assertEquals(0, after[i]);
+                changed++;
+            }
+        }
+        assertTrue(changed <= stripped);
+
+        File unzipped = new File(mFolder.getRoot(), "stripped.hprof");
+        OutputStream os = new FileOutputStream(unzipped);
+        try {
+            os.write(after);
+        } finally {
+            os.close();
+        }
+        JSONObject summary = HprofAnalyzer.analyze(unzipped, 10, null);
+        String name = LeakyActivity.class.getName();
+        JSONObject counts = null;
+        JSONArray activities = summary.getJSONArray("activities");
+        for (int i = 0; i < activities.length(); i++) {
+            if (name.equals(activities.getJSONObject(i).getString("class"))) counts = activities.getJSONObject(i);
+        }
+        assertTrue(name + " not in " + activities, counts != null);
+        assertEquals(1, counts.getInt("instances"));
+        assertEquals(1, counts.getInt("destroyedInstances"));
+        JSONArray leaked = summary.getJSONArray("leakedActivities");
+        assertEquals(1, leaked.length());
+        JSONObject leak = leaked.getJSONObject(0);
+        assertTrue(leak.getString("object").startsWith(name + "@"));
+        assertTrue(leak.getBoolean("finished"));
+        // 清零不改变数组长度，保留大小仍包括mBuffer
+        assertTrue(leak.getLong("retained") > BUFFER_SIZE);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 独立于{@link HeapDumper}逐条遍历快照，统计记录、对象和基本类型数组
+     */
+    private static final class Walk {
+        int records;
+        int objects;
+        long primitiveBytes;
+        long nonZeroPrimitiveBytes;
+        private final List<Long> mArrayLengths = new ArrayList<>();
+        private final ByteBuffer mBuffer;
+        private int mIdSize;
+
+        Walk(byte[] hprof) throws IOException {
+            mBuffer = ByteBuffer.wrap(hprof);
+            while (mBuffer.get() != 0) ;
+            mIdSize = mBuffer.getInt();
+            mBuffer.position(mBuffer.position() + 8);
+            while (mBuffer.hasRemaining()) {
+                int tag = mBuffer.get() & 0xff;
+                mBuffer.getInt();
+                long length = mBuffer.getInt() & 0xffffffffL;
+                records++;
+                int end = (int) (mBuffer.position() + length);
+                if (tag == 0x0c || tag == 0x1c) {
+                    while (mBuffer.position() < end) subRecord();
+                }
+                mBuffer.position(end);
+            }
+        }
+
+        long[] arrayLengths() {
+            long[] lengths = new long[mArrayLengths.size()];
+            for (int i = 0; i < lengths.length; i++) lengths[i] = mArrayLengths.get(i);
+            return lengths;
+        }
+
+        private void subRecord() throws IOException {
+            int subTag = mBuffer.get() & 0xff;
+            switch (subTag) {
+                case 0xff:
+                case 0x05:
+                case 0x07:
+                    skip(mIdSize);
+                    break;
+                case 0x01:
+                    skip(mIdSize * 2);
+                    break;
+                case 0x02:
+                case 0x03:
+                case 0x08:
+                    skip(mIdSize + 8);
+                    break;
+                case 0x04:
+                case 0x06:
+                    skip(mIdSize + 4);
+                    break;
+                case 0x20:
+                    objects++;
+                    classDump();
+                    break;
+                case 0x21: {
+                    objects++;
+                    skip(mIdSize + 4 + mIdSize);
+                    skip(mBuffer.getInt());
+                    break;
+                }
+                case 0x22: {
+                    objects++;
+                    skip(mIdSize + 4);
+                    int count = mBuffer.getInt();
+                    mArrayLengths.add((long) count);
+                    skip(mIdSize + count * mIdSize);
+                    break;
+                }
+                case 0x23: {
+                    objects++;
+                    skip(mIdSize + 4);
+                    int count = mBuffer.getInt();
+                    int bytes = count * typeSize(mBuffer.get());
+                    mArrayLengths.add((long) count);
+                    primitiveBytes += bytes;
+                    for (int i = 0; i < bytes; i++) {
+                        if (mBuffer.get() != 0) nonZeroPrimitiveBytes++;
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("unexpected sub tag 0x" + Integer.toHexString(subTag));
+            }
+        }
+
+        private void classDump() throws IOException {
+            skip(mIdSize + 4 + mIdSize * 6 + 4);
+            int constants = mBuffer.getShort() & 0xffff;
+            for (int i = 0; i < constants; i++) {
+                skip(2);
+                skip(typeSize(mBuffer.get()));
+            }
+            int statics = mBuffer.getShort() & 0xffff;
+            for (int i = 0; i < statics; i++) {
+                skip(mIdSize);
+                skip(typeSize(mBuffer.get()));
+            }
+            int fields = mBuffer.getShort() & 0xffff;
+            skip(fields * (mIdSize + 1));
+        }
+
+        private int typeSize(int type) throws IOException {
+            switch (type) {
+                case 2:
+                    return mIdSize;
+                case 4:
+                case 8:
+                    return 1;
+                case 5:
+                case 9:
+                    return 2;
+                case 6:
+                case 10:
+                    return 4;
+                case 7:
+                case 11:
+                    return 8;
+                default:
+                    throw new IOException("unknown type " + type);
+            }
+        }
+
+        private void skip(int bytes) {
+            mBuffer.position(mBuffer.position() + bytes);
+        }
+    }
+}
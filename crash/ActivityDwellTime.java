@@ -0,0 +1,67 @@
+package example.com.kotlin.crash;
+
+
+/**
+ * 某个Activity在本次进程中的停留时间统计，时间单位为毫秒
+ */
+public final class ActivityDwellTime {
+
+    /**
+     * Activity类名
+     */
+    public final String name;
+    /**
+     * 已销毁的访问次数
+     */
+    public final long count;
+    /**
+     * 已销毁的访问的总停留时间
+     */
+    public final long totalTime;
+    /**
+     * 已销毁的访问中最短的停留时间，没有时为0
+     */
+    public final long minTime;
+    /**
+     * 已销毁的访问中最长的停留时间，没有时为0
+     */
+    public final long maxTime;
+    /**
+     * 尚未销毁的实例数
+     */
+    public final long openCount;
+    /**
+     * 尚未销毁的实例到现在为止的停留时间之和
+     */
+    public final long openTime;
+
+    ActivityDwellTime(String name, long count, long totalTime, long minTime, long maxTime, long openCount, long openTime) {
+        this.name = name;
+        this.count = count;
+        this.totalTime = totalTime;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.openCount = openCount;
+        this.openTime = openTime;
+    }
+
+    /**
+     * 平均停留时间，没有已销毁的访问时为0
+     */
+    public long averageTime() {
+        return count == 0 ? 0L : totalTime / count;
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityDwellTime{" +
+                "name='" + name + '\'' +
+                ", count=" + count +
+                ", totalTime=" + totalTime +
+                ", minTime=" + minTime +
+                ", maxTime=" + maxTime +
+                ", openCount=" + openCount +
+                ", openTime=" + openTime +
+                '}';
+    }
+}
@@ -0,0 +1,284 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 检测销毁后没有被回收的Activity
+ * <p>
+ * {@link TrackActivity}在onActivityDestroyed时登记一个注册到{@link ReferenceQueue}的弱引用。
+ * 检查在后台线程批量进行：有登记时才安排一次延迟检查，同一批登记共用一次检查，
+ * 先取出已入队（已回收）的引用，超过延迟还没有入队的触发一次GC后再确认，仍未回收的标记为泄漏。
+ * 标记后继续观察，之后才被回收的计为"延迟释放"。主线程每次销毁只分配一个弱引用，没有按帧的开销。
+ * <p>
+ * 计数按{@link TrackActivity}的名称id保存在int数组中，后台线程单写，其他线程直接读取。
+ */
+final class ActivityLeakWatcher {
+
+    private static final String TAG = "ActivityLeakWatcher";
+
+    static final long DEFAULT_DELAY = 5 * 1000L;
+    static final long MIN_DELAY = 1000L;
+    /**
+     * 已标记的Activity检查是否释放的间隔
+     */
+    private static final long RETAINED_POLL_INTERVAL = 30 * 1000L;
+    /**
+     * 触发GC后等待引用入队的时间
+     */
+    private static final long GC_WAIT = 100L;
+    /**
+     * 最多观察的已标记Activity数，超出后不再观察最早的
+     */
+    private static final int MAX_RETAINED = 64;
+
+    static final int LEAKED = 0;
+    static final int RELEASED_LATER = 1;
+    static final int RETAINED = 2;
+    private static final int FIELDS = 3;
+
+    private static boolean DEBUG = false;
+
+    private static volatile boolean sStarted;
+    private static long sDelay = DEFAULT_DELAY;
+    private static Handler sWorker;
+
+    private static final ReferenceQueue<Activity> sQueue = new ReferenceQueue<>();
+
+    private static final class WatchedReference extends WeakReference<Activity> {
+        final int nameId;
+        final long destroyedAt;
+        boolean flagged;
+        boolean cleared;
+
+        WatchedReference(Activity activity, int nameId, long destroyedAt) {
+            super(activity, sQueue);
+            this.nameId = nameId;
+            this.destroyedAt = destroyedAt;
+        }
+    }
+
+    /**
+     * 主线程登记、后台线程取走，以自身为锁
+     */
+    private static final ArrayList<WatchedReference> sIncoming = new ArrayList<>();
+    private static boolean sCheckScheduled;
+
+    /**
+     * 以下只在后台线程访问
+     */
+    private static final ArrayList<WatchedReference> sWatching = new ArrayList<>();
+    private static int sRetainedWatching;
+
+    /**
+     * 每个名称id占{@link #FIELDS}个int，扩容时整体替换
+     */
+    private static volatile int[] sCounts = new int[16 * FIELDS];
+
+    private ActivityLeakWatcher() {
+
+    }
+
+    /**
+     * 开始检测
+     *
+     * @param delayMillis 销毁后多久仍未回收算作泄漏
+     * @param debug       是否打印日志
+     */
+    static void start(long delayMillis, boolean debug) {
+        DEBUG = debug;
+        sDelay = Math.max(MIN_DELAY, delayMillis);
+        if (sStarted) return;
+        sWorker = CrashWorker.handler();
+        sStarted = true;
+    }
+
+    static boolean isStarted() {
+        return sStarted;
+    }
+
+    /**
+     * 在onActivityDestroyed中调用，主线程
+     *
+     * @param activity 已销毁的Activity
+     * @param nameId   {@link TrackActivity}的名称id
+     */
+    static void watch(Activity activity, int nameId) {
+        if (!sStarted || activity == null || nameId < 0) return;
+        WatchedReference reference = new WatchedReference(activity, nameId, SystemClock.uptimeMillis());
+        synchronized (sIncoming) {
+            sIncoming.add(reference);
+            if (sCheckScheduled) return;
+            sCheckScheduled = true;
+        }
+        sWorker.postDelayed(sCheck, sDelay);
+    }
+
+    private static final Runnable sCheck = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    private static void check() {
+        synchronized (sIncoming) {
+            sWatching.addAll(sIncoming);
+            sIncoming.clear();
+            sCheckScheduled = false;
+        }
+        drain();
+        long now = SystemClock.uptimeMillis();
+        boolean due = false;
+        for (int i = 0; i < sWatching.size(); i++) {
+            WatchedReference reference = sWatching.get(i);
+            if (!reference.cleared && !reference.flagged && now - reference.destroyedAt >= sDelay) {
+                due = true;
+                break;
+            }
+        }
+        if (due) {
+            // 对象可能只是还没轮到回收，GC一次后再确认
+            Runtime.getRuntime().gc();
+            try {
+                Thread.sleep(GC_WAIT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.runFinalization();
+            drain();
+        }
+
+        long next = Long.MAX_VALUE;
+        int size = 0;
+        for (int i = 0; i < sWatching.size(); i++) {
+            WatchedReference reference = sWatching.get(i);
+            if (reference.cleared) continue;
+            if (!reference.flagged) {
+                if (now - reference.destroyedAt >= sDelay) {
+                    flag(reference);
+                } else {
+                    next = Math.min(next, reference.destroyedAt + sDelay - now);
+                }
+            }
+            sWatching.set(size++, reference);
+        }
+        while (sWatching.size() > size) sWatching.remove(sWatching.size() - 1);
+        if (sRetainedWatching > MAX_RETAINED) forgetOldestRetained();
+        if (sRetainedWatching > 0) next = Math.min(next, RETAINED_POLL_INTERVAL);
+        if (next != Long.MAX_VALUE) {
+            synchronized (sIncoming) {
+                // 有新登记时已经安排了检查，会一并处理
+                if (sCheckScheduled) return;
+                sCheckScheduled = true;
+            }
+            sWorker.postDelayed(sCheck, next);
+        }
+    }
+
+    /**
+     * 取出已入队的引用
+     */
+    private static void drain() {
+        Reference<? extends Activity> polled;
+        while ((polled = sQueue.poll()) != null) {
+            WatchedReference reference = (WatchedReference) polled;
+            reference.cleared = true;
+            if (reference.flagged) {
+                sRetainedWatching--;
+                add(reference.nameId, RELEASED_LATER, 1);
+                add(reference.nameId, RETAINED, -1);
+            }
+        }
+    }
+
+    private static void flag(WatchedReference reference) {
+        reference.flagged = true;
+        sRetainedWatching++;
+        add(reference.nameId, LEAKED, 1);
+        add(reference.nameId, RETAINED, 1);
+        BreadcrumbJournal journal = BreadcrumbJournal.get();
+        if (journal != null) {
+            journal.append(BreadcrumbJournal.TYPE_ACTIVITY_LEAKED, reference.nameId, SystemClock.uptimeMillis() - reference.destroyedAt);
+        }
+        if (DEBUG)
+            Log.d(TAG, "flag-->" + TrackActivity.nameOf(reference.nameId) + " not collected "
+                    + (SystemClock.uptimeMillis() - reference.destroyedAt) + "ms after destroy");
+    }
+
+    private static void forgetOldestRetained() {
+        for (int i = 0; i < sWatching.size() && sRetainedWatching > MAX_RETAINED; i++) {
+            WatchedReference reference = sWatching.get(i);
+            if (!reference.flagged) continue;
+            sWatching.remove(i--);
+            // clear()后不会再入队，已经入队的在drain()中因为没有标记而忽略，不会再次减少计数
+            reference.flagged = false;
+            reference.clear();
+            sRetainedWatching--;
+            // 不再观察，无法知道是否释放
+            add(reference.nameId, RETAINED, -1);
+        }
+    }
+
+    private static void add(int nameId, int field, int delta) {
+        int[] counts = sCounts;
+        int index = nameId * FIELDS + field;
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(counts.length << 1, (nameId + 1) * FIELDS));
+            sCounts = counts;
+        }
+        counts[index] += delta;
+    }
+
+    /**
+     * 以二进制格式写入有泄漏的Activity类
+     */
+    static void encode(CrashReportEncoder encoder) {
+        int[] counts = sCounts;
+        encoder.beginList("ActivityLeaks");
+        for (int nameId = 0; nameId * FIELDS < counts.length; nameId++) {
+            int base = nameId * FIELDS;
+            if (counts[base + LEAKED] == 0) continue;
+            encoder.beginItem()
+                    .value("activity", TrackActivity.nameOf(nameId))
+                    .value("leaked", counts[base + LEAKED])
+                    .value("releasedLater", counts[base + RELEASED_LATER])
+                    .value("retained", counts[base + RETAINED])
+                    .end();
+        }
+        encoder.end();
+    }
+
+    /**
+     * 有泄漏的Activity类，键为类名：leaked为标记次数，releasedLater为标记后才释放的次数，retained为当前仍未释放的个数
+     */
+    static String getActivityLeaks() {
+        int[] counts = sCounts;
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (int nameId = 0; nameId * FIELDS < counts.length; nameId++) {
+                int base = nameId * FIELDS;
+                if (counts[base + LEAKED] == 0) continue;
+                JSONObject item = new JSONObject();
+                item.put("leaked", counts[base + LEAKED]);
+                item.put("releasedLater", counts[base + RELEASED_LATER]);
+                item.put("retained", counts[base + RETAINED]);
+                jsonObject.put(TrackActivity.nameOf(nameId), item);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+}
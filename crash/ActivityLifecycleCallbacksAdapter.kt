@@ -5,6 +5,9 @@ import android.app.Activity
 import android.app.Application
 import android.os.Bundle
 
+/**
+ * 生命周期回调的空实现，子类只覆盖需要的回调；各阶段耗时的统计见[ActivityLifecycleTimings]
+ */
 abstract class ActivityLifecycleCallbacksAdapter : Application.ActivityLifecycleCallbacks {
     override fun onActivityPaused(activity: Activity?) {
     }
@@ -0,0 +1,311 @@
+package example.com.kotlin.crash;
+
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 按Activity类统计生命周期各阶段的耗时
+ * <p>
+ * 在{@link ActivityLifecycleCallbacksAdapter}的回调中用{@link SystemClock#elapsedRealtimeNanos()}打点，
+ * 阶段为created→started、started→resumed、paused→stopped、stopped→destroyed，以及created到首帧绘制
+ * （首帧为resumed后decor view第一次onDraw）。耗时以微秒计入每个Activity类各自的{@link Histogram}。
+ * <p>
+ * 回调只在主线程执行，每个Activity实例只在created时分配一次；统计结果可以在任意线程读取，见{@link #scrape()}。
+ */
+final class ActivityLifecycleTimings {
+
+    private static final String TAG = "LifecycleTimings";
+
+    static final int CREATED_TO_STARTED = 0;
+    static final int STARTED_TO_RESUMED = 1;
+    static final int CREATED_TO_FIRST_FRAME = 2;
+    static final int PAUSED_TO_STOPPED = 3;
+    static final int STOPPED_TO_DESTROYED = 4;
+    static final int PHASES = 5;
+
+    static final String[] PHASE_NAMES = {
+            "createdToStarted",
+            "startedToResumed",
+            "firstFrame",
+            "pausedToStopped",
+            "stoppedToDestroyed"
+    };
+
+    /**
+     * 直方图区分的最大耗时（微秒），更长的耗时只体现在最大值中
+     */
+    private static final long MAX_TRACKABLE_MICROS = 60 * 1000 * 1000L;
+
+    /**
+     * 最多统计的Activity类数
+     */
+    static final int MAX_ACTIVITIES = 64;
+
+    private static final int T_CREATED = 0;
+    private static final int T_STARTED = 1;
+    private static final int T_PAUSED = 2;
+    private static final int T_STOPPED = 3;
+    private static final int T_COUNT = 4;
+
+    private static boolean DEBUG = false;
+
+    private static boolean sTracking;
+
+    /**
+     * 一个Activity类的统计，阶段的直方图在第一次记录时创建
+     */
+    static final class Entry {
+        final String name;
+        final Histogram[] phases = new Histogram[PHASES];
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        void record(int phase, long nanos) {
+            Histogram histogram = phases[phase];
+            if (histogram == null) {
+                histogram = new Histogram(MAX_TRACKABLE_MICROS);
+                phases[phase] = histogram;
+            }
+            histogram.record(nanos / 1000L);
+        }
+    }
+
+    /**
+     * 写时复制，读线程直接遍历
+     */
+    private static volatile Entry[] sEntries = new Entry[0];
+
+    /**
+     * 以下只在主线程访问
+     */
+    private static final Map<Class<?>, Entry> sIndex = new HashMap<>();
+    private static final Map<Activity, long[]> sInstances = new IdentityHashMap<>();
+
+    private ActivityLifecycleTimings() {
+
+    }
+
+    /**
+     * 开始统计，需要API 17以上
+     *
+     * @param application Application
+     * @param debug       是否打印日志
+     */
+    static void track(Application application, boolean debug) {
+        if (sTracking || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) return;
+        sTracking = true;
+        DEBUG = debug;
+        application.registerActivityLifecycleCallbacks(new TimingCallbacks());
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static final class TimingCallbacks extends ActivityLifecycleCallbacksAdapter {
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            if (activity == null) return;
+            long[] times = new long[T_COUNT];
+            times[T_CREATED] = SystemClock.elapsedRealtimeNanos();
+            sInstances.put(activity, times);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            long[] times = sInstances.get(activity);
+            if (times == null) return;
+            long now = SystemClock.elapsedRealtimeNanos();
+            times[T_STARTED] = now;
+            // 从后台回来时没有created，只统计第一次started
+            if (times[T_CREATED] != 0 && times[T_PAUSED] == 0) {
+                entryOf(activity).record(CREATED_TO_STARTED, now - times[T_CREATED]);
+            }
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            long[] times = sInstances.get(activity);
+            if (times == null) return;
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (times[T_STARTED] != 0) {
+                entryOf(activity).record(STARTED_TO_RESUMED, now - times[T_STARTED]);
+                times[T_STARTED] = 0;
+            }
+            if (times[T_CREATED] != 0 && times[T_PAUSED] == 0) {
+                watchFirstFrame(activity, times[T_CREATED]);
+            }
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            long[] times = sInstances.get(activity);
+            if (times == null) return;
+            times[T_PAUSED] = SystemClock.elapsedRealtimeNanos();
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            long[] times = sInstances.get(activity);
+            if (times == null) return;
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (times[T_PAUSED] != 0) {
+                entryOf(activity).record(PAUSED_TO_STOPPED, now - times[T_PAUSED]);
+            }
+            times[T_STOPPED] = now;
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            long[] times = sInstances.remove(activity);
+            if (times == null) return;
+            if (times[T_STOPPED] != 0) {
+                entryOf(activity).record(STOPPED_TO_DESTROYED, SystemClock.elapsedRealtimeNanos() - times[T_STOPPED]);
+            }
+        }
+    }
+
+    /**
+     * 第一次resumed后decor view的第一次onDraw即为首帧
+     */
+    private static void watchFirstFrame(Activity activity, final long createdTime) {
+        FirstDrawObserver.observe(activity, new FirstDrawObserver.Callback() {
+            @Override
+            public void onFirstDraw(Activity activity, long drawTimeNanos) {
+                long duration = drawTimeNanos - createdTime;
+                entryOf(activity).record(CREATED_TO_FIRST_FRAME, duration);
+                if (DEBUG)
+                    Log.d(TAG, "onFirstDraw-->" + activity.getClass().getName() + " firstFrame=" + duration / 1000L + "us");
+            }
+        });
+    }
+
+    private static final Entry OVERFLOW = new Entry("[other]");
+
+    /**
+     * Activity类对应的统计，超过{@link #MAX_ACTIVITIES}后的类合并统计
+     */
+    private static Entry entryOf(Activity activity) {
+        Class<?> cls = activity.getClass();
+        Entry entry = sIndex.get(cls);
+        if (entry != null) return entry;
+        Entry[] entries = sEntries;
+        if (entries.length >= MAX_ACTIVITIES) {
+            entry = OVERFLOW;
+            if (entries[entries.length - 1] != OVERFLOW) {
+                entries = Arrays.copyOf(entries, entries.length + 1);
+                entries[entries.length - 1] = OVERFLOW;
+                sEntries = entries;
+            }
+        } else {
+            entry = new Entry(cls.getName());
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = entry;
+            sEntries = entries;
+        }
+        sIndex.put(cls, entry);
+        return entry;
+    }
+
+    static boolean isTracking() {
+        return sTracking;
+    }
+
+    /**
+     * 以Prometheus文本格式导出，耗时单位为微秒；最大值不是summary的序列，单独作为gauge
+     * <pre>
+     * # TYPE activity_lifecycle_us summary
+     * activity_lifecycle_us{activity="x.MainActivity",phase="firstFrame",quantile="0.9"} 123456
+     * activity_lifecycle_us_sum{activity="x.MainActivity",phase="firstFrame"} 300000
+     * activity_lifecycle_us_count{activity="x.MainActivity",phase="firstFrame"} 3
+     * # TYPE activity_lifecycle_us_max gauge
+     * activity_lifecycle_us_max{activity="x.MainActivity",phase="firstFrame"} 130000
+     * </pre>
+     */
+    static String scrape() {
+        StringBuilder sb = new StringBuilder(1024);
+        Entry[] entries = sEntries;
+        sb.append("# TYPE activity_lifecycle_us summary\n");
+        for (Entry entry : entries) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                Histogram histogram = entry.phases[phase];
+                if (histogram == null || histogram.count() == 0) continue;
+                appendQuantile(sb, entry, phase, "0.5", histogram.percentile(50));
+                appendQuantile(sb, entry, phase, "0.9", histogram.percentile(90));
+                appendQuantile(sb, entry, phase, "0.99", histogram.percentile(99));
+                appendLabels(sb.append("activity_lifecycle_us_sum"), entry, phase).append(' ').append(histogram.sum()).append('\n');
+                appendLabels(sb.append("activity_lifecycle_us_count"), entry, phase).append(' ').append(histogram.count()).append('\n');
+            }
+        }
+        sb.append("# TYPE activity_lifecycle_us_max gauge\n");
+        for (Entry entry : entries) {
+            for (int phase = 0; phase < PHASES; phase++) {
+                Histogram histogram = entry.phases[phase];
+                if (histogram == null || histogram.count() == 0) continue;
+                appendLabels(sb.append("activity_lifecycle_us_max"), entry, phase).append(' ').append(histogram.max()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendQuantile(StringBuilder sb, Entry entry, int phase, String quantile, long value) {
+        sb.append("activity_lifecycle_us{activity=\"").append(entry.name)
+                .append("\",phase=\"").append(PHASE_NAMES[phase])
+                .append("\",quantile=\"").append(quantile).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    private static StringBuilder appendLabels(StringBuilder sb, Entry entry, int phase) {
+        return sb.append("{activity=\"").append(entry.name)
+                .append("\",phase=\"").append(PHASE_NAMES[phase]).append("\"}");
+    }
+
+    /**
+     * 以二进制格式写入，每个Activity类一项
+     */
+    static void encode(CrashReportEncoder encoder) {
+        encoder.beginList("LifecycleTimings");
+        for (Entry entry : sEntries) {
+            encoder.beginItem().value("activity", entry.name);
+            for (int phase = 0; phase < PHASES; phase++) {
+                Histogram histogram = entry.phases[phase];
+                if (histogram != null) histogram.encode(encoder, PHASE_NAMES[phase]);
+            }
+            encoder.end();
+        }
+        encoder.end();
+    }
+
+    /**
+     * 统计结果，键为Activity类名
+     */
+    static String getLifecycleTimings() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (Entry entry : sEntries) {
+                JSONObject phases = new JSONObject();
+                for (int phase = 0; phase < PHASES; phase++) {
+                    Histogram histogram = entry.phases[phase];
+                    if (histogram != null) phases.put(PHASE_NAMES[phase], histogram.toJson());
+                }
+                jsonObject.put(entry.name, phases);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+}
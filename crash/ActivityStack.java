@@ -0,0 +1,193 @@
+package example.com.kotlin.crash;
+
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * 由生命周期回调维护的Activity栈
+ * <p>
+ * 替代每次通过反射读取ActivityThread.mActivities。主线程写入，栈数组写时复制，
+ * 任意线程都可以直接读取；Fragment的添加、移除会增加所属Activity的版本号，
+ * 版本号不变时可以复用上次读取的Fragment树。
+ */
+final class ActivityStack {
+
+    private static volatile Record[] sRecords = new Record[0];
+
+    private static volatile boolean sTracking;
+
+    private ActivityStack() {
+
+    }
+
+    /**
+     * 开始跟踪Activity栈
+     *
+     * @param application 应用程序对象
+     */
+    static void track(Application application) {
+        if (sTracking) return;
+        sTracking = true;
+        application.registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacksAdapter() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                Record record = new Record(activity);
+                Record[] records = sRecords;
+                Record[] newRecords = new Record[records.length + 1];
+                System.arraycopy(records, 0, newRecords, 0, records.length);
+                newRecords[records.length] = record;
+                sRecords = newRecords;
+                record.watchFragments(activity);
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                Record[] records = sRecords;
+                for (int i = records.length - 1; i >= 0; i--) {
+                    if (records[i].activity() == activity) {
+                        records[i].unwatchFragments(activity);
+                        Record[] newRecords = new Record[records.length - 1];
+                        System.arraycopy(records, 0, newRecords, 0, i);
+                        System.arraycopy(records, i + 1, newRecords, i, records.length - i - 1);
+                        sRecords = newRecords;
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 是否已开始跟踪
+     */
+    static boolean isTracking() {
+        return sTracking;
+    }
+
+    /**
+     * 当前的Activity栈，按创建顺序排列，返回的数组不会再被修改
+     */
+    static Record[] records() {
+        return sRecords;
+    }
+
+    /**
+     * Activity栈中的一项
+     */
+    static final class Record {
+        /**
+         * Activity类名
+         */
+        final String name;
+        private final WeakReference<Activity> mActivity;
+        /**
+         * Fragment添加、移除时递增
+         */
+        private volatile int mFragmentVersion;
+
+        private Object mFragmentCallbacks;
+
+        /**
+         * 上次读取的Fragment树及其版本，只在读取Fragment树的线程使用
+         */
+        int capturedFragmentVersion = -1;
+        FragmentTreeCapture capturedFragments;
+
+        private Record(Activity activity) {
+            name = activity.getClass().getName();
+            mActivity = new WeakReference<>(activity);
+        }
+
+        Activity activity() {
+            return mActivity.get();
+        }
+
+        int fragmentVersion() {
+            return mFragmentVersion;
+        }
+
+        private void onFragmentsChanged() {
+            mFragmentVersion = mFragmentVersion + 1;
+            // 崩溃时使用缓存，Fragment变化也要重新读取
+            CrashSnapshotCache.requestStackRefresh();
+        }
+
+        private void watchFragments(Activity activity) {
+            if (activity instanceof FragmentActivity) {
+                SupportFragmentCallbacks callbacks = new SupportFragmentCallbacks(this);
+                ((FragmentActivity) activity).getSupportFragmentManager().registerFragmentLifecycleCallbacks(callbacks, true);
+                mFragmentCallbacks = callbacks;
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                mFragmentCallbacks = watchPlatformFragments(activity);
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.O)
+        private Object watchPlatformFragments(Activity activity) {
+            PlatformFragmentCallbacks callbacks = new PlatformFragmentCallbacks(this);
+            activity.getFragmentManager().registerFragmentLifecycleCallbacks(callbacks, true);
+            return callbacks;
+        }
+
+        private void unwatchFragments(Activity activity) {
+            if (mFragmentCallbacks instanceof SupportFragmentCallbacks) {
+                ((FragmentActivity) activity).getSupportFragmentManager().unregisterFragmentLifecycleCallbacks((SupportFragmentCallbacks) mFragmentCallbacks);
+            } else if (mFragmentCallbacks != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                unwatchPlatformFragments(activity);
+            }
+            mFragmentCallbacks = null;
+        }
+
+        @TargetApi(Build.VERSION_CODES.O)
+        private void unwatchPlatformFragments(Activity activity) {
+            activity.getFragmentManager().unregisterFragmentLifecycleCallbacks((PlatformFragmentCallbacks) mFragmentCallbacks);
+        }
+    }
+
+    private static final class SupportFragmentCallbacks extends FragmentManager.FragmentLifecycleCallbacks {
+        private final Record mRecord;
+
+        SupportFragmentCallbacks(Record record) {
+            mRecord = record;
+        }
+
+        @Override
+        public void onFragmentAttached(FragmentManager fm, Fragment f, Context context) {
+            mRecord.onFragmentsChanged();
+        }
+
+        @Override
+        public void onFragmentDetached(FragmentManager fm, Fragment f) {
+            mRecord.onFragmentsChanged();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static final class PlatformFragmentCallbacks extends android.app.FragmentManager.FragmentLifecycleCallbacks {
+        private final Record mRecord;
+
+        PlatformFragmentCallbacks(Record record) {
+            mRecord = record;
+        }
+
+        @Override
+        public void onFragmentAttached(android.app.FragmentManager fm, android.app.Fragment f, Context context) {
+            mRecord.onFragmentsChanged();
+        }
+
+        @Override
+        public void onFragmentDetached(android.app.FragmentManager fm, android.app.Fragment f) {
+            mRecord.onFragmentsChanged();
+        }
+    }
+}
@@ -3,50 +3,88 @@ package example.com.kotlin.crash
 
 import android.app.Activity
 import android.app.Application
+import android.os.Bundle
 
 /**
- * 检测应用程序是冷启动还是热启动
+ * 检测应用程序是冷启动、温启动还是热启动
+ *
+ * 生命周期回调中统计存活和处于started状态的Activity数，据此判断每次启动的开始，
+ * 由[LaunchTracker]分类并统计耗时。
  */
 class AppColdStart {
 
     private constructor()
 
     companion object {
+        //只在主线程的生命周期回调中写入，崩溃线程可能并发读取，因此声明为volatile
+        @Volatile
         private var mActivityCount: Int = -1//记录启动的Activity
 
-        private var mIsColdStart: Boolean = true //是否是冷启动
+        private var mCreatedCount: Int = 0//记录没有销毁的Activity，只在主线程访问
+
+        //Activity因配置变化停止或销毁，下一次created和started是重建而不是启动，只在主线程访问
+        private var mChangingConfigurations: Boolean = false
+
         /**
-         * 检测是冷启动还是热启动
+         * 检测启动类型，在Application.onCreate中调用
          */
-        fun detectColdStart(application: Application) {
+        @JvmOverloads
+        fun detectColdStart(application: Application, debug: Boolean = false) {
+            LaunchTracker.onApplicationCreated(application, debug)
             application.registerActivityLifecycleCallbacks(ActivityLifecycleCallbacksAdapterImpl())
         }
 
         /**
-         * 是否是冷启动
+         * 本进程是否由冷启动创建，进程存活期间不变
          */
         fun isColdStart(): Boolean {
-            return mIsColdStart
+            return LaunchTracker.isColdStart()
         }
     }
 
 
     class ActivityLifecycleCallbacksAdapterImpl : ActivityLifecycleCallbacksAdapter() {
 
+        override fun onActivityCreated(activity: Activity?, savedInstanceState: Bundle?) {
+            super.onActivityCreated(activity, savedInstanceState)
+            LaunchTracker.onActivityCreated(mCreatedCount, mChangingConfigurations)
+            mCreatedCount++
+        }
+
         override fun onActivityStarted(activity: Activity?) {
             super.onActivityStarted(activity)
-            if (mActivityCount == 0) {
-                mIsColdStart = false
-            } else if (mActivityCount == -1) {
-                mActivityCount = 0
+            //单写线程，先读到局部变量再整体写回，读线程不会看到中间状态
+            var count = mActivityCount
+            if (count == -1) {
+                count = 0
             }
-            mActivityCount++
+            LaunchTracker.onActivityStarted(count, mChangingConfigurations)
+            mChangingConfigurations = false
+            mActivityCount = count + 1
+            BreadcrumbJournal.get()?.append(BreadcrumbJournal.TYPE_ACTIVITY_STARTED, count + 1, 0L)
+            SessionState.get()?.set(SessionState.VISIBLE, count + 1)
+        }
+
+        override fun onActivityResumed(activity: Activity?) {
+            super.onActivityResumed(activity)
+            LaunchTracker.onActivityResumed(activity)
         }
 
         override fun onActivityStopped(activity: Activity?) {
             super.onActivityStopped(activity)
-            mActivityCount--
+            if (activity?.isChangingConfigurations == true) mChangingConfigurations = true
+            val count = mActivityCount - 1
+            mActivityCount = count
+            LaunchTracker.onActivityStopped(count)
+            BreadcrumbJournal.get()?.append(BreadcrumbJournal.TYPE_ACTIVITY_STOPPED, count, 0L)
+            SessionState.get()?.set(SessionState.VISIBLE, count)
+        }
+
+        override fun onActivityDestroyed(activity: Activity?) {
+            super.onActivityDestroyed(activity)
+            if (activity?.isChangingConfigurations == true) mChangingConfigurations = true
+            if (mCreatedCount > 0) mCreatedCount--
         }
 
     }
-}
\ No newline at end of file
+}
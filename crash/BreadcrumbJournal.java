@@ -0,0 +1,465 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于内存映射文件的面包屑日志
+ * <p>
+ * 生命周期和内存采样以定长二进制记录追加到固定大小的MappedByteBuffer中，写满后从头覆盖。
+ * 写入的是页缓存，进程被杀或在native层崩溃后系统仍会把数据落盘，下次启动时可以恢复。
+ * 追加不分配对象，也不调用fsync。
+ * <p>
+ * 文件布局：64字节文件头 | 名称区 | 记录区。记录的第一个long为 序号+1，写入前清零，
+ * 写完最后写入，恢复时为0的记录被丢弃。
+ */
+final class BreadcrumbJournal {
+
+    private static final String TAG = "BreadcrumbJournal";
+
+    static final int TYPE_ACTIVITY_CREATED = 1;
+    static final int TYPE_ACTIVITY_DESTROYED = 2;
+    static final int TYPE_ACTIVITY_STARTED = 3;
+    static final int TYPE_ACTIVITY_STOPPED = 4;
+    static final int TYPE_HEAP = 5;
+    static final int TYPE_ACTIVITY_LEAKED = 6;
+    static final int TYPE_TRIM_PRESSURE = 7;
+
+    private static final int MAGIC = 0x42524342;//BRCB
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_RECORD_CAPACITY = 8;
+    private static final int HEADER_NAME_REGION_SIZE = 12;
+    private static final int HEADER_NAME_BYTES = 16;
+    private static final int HEADER_START_TIME = 24;
+
+    private static final int NAME_REGION_SIZE = 16 * 1024;
+    private static final int RECORD_CAPACITY = 2048;
+
+    /**
+     * 序号(8) | 时间(8) | 类型(4) | 参数(4) | 数值(8)
+     */
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORD_TIME = 8;
+    private static final int RECORD_TYPE = 16;
+    private static final int RECORD_ARG = 20;
+    private static final int RECORD_VALUE = 24;
+
+    private static final int RECORD_REGION = HEADER_SIZE + NAME_REGION_SIZE;
+    private static final int FILE_SIZE = RECORD_REGION + RECORD_CAPACITY * RECORD_SIZE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile BreadcrumbJournal sJournal;
+
+    /**
+     * 上次进程留下的面包屑
+     */
+    private static volatile String sRecovered;
+
+    private static boolean DEBUG = false;
+
+    private final File mFile;
+    private final MappedByteBuffer mBuffer;
+    private final AtomicLong mNext = new AtomicLong();
+
+    /**
+     * 以下字段只在主线程访问
+     */
+    private int mNameCount;
+    private int mNameBytes;
+
+    private BreadcrumbJournal(File file, MappedByteBuffer buffer) {
+        mFile = file;
+        mBuffer = buffer;
+    }
+
+    /**
+     * 打开当前进程的日志文件，恢复上次留下的记录后清空
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sJournal != null) return;
+        DEBUG = debug;
+        File dir = new File(context.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File file = fileOf(dir, currentProcessName(context));
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(FILE_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            sRecovered = decode(buffer);
+            reset(buffer);
+            sJournal = new BreadcrumbJournal(file, buffer);
+            if (DEBUG)
+                Log.d(TAG, "open-->file=" + file + ";recovered=" + sRecovered);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            // 映射建立后关闭文件不影响映射
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 已打开的日志，未打开时为null
+     */
+    static BreadcrumbJournal get() {
+        return sJournal;
+    }
+
+    /**
+     * 上次进程退出前留下的面包屑，JSON数组，没有时为null
+     */
+    static String getRecovered() {
+        return sRecovered;
+    }
+
+    /**
+     * 日志文件
+     */
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 追加一条记录，可在任意线程调用，不分配对象
+     *
+     * @param type  记录类型
+     * @param arg   参数，例如Activity名称id
+     * @param value 数值
+     */
+    void append(int type, int arg, long value) {
+        long seq = mNext.getAndIncrement();
+        int offset = RECORD_REGION + (int) (seq % RECORD_CAPACITY) * RECORD_SIZE;
+        MappedByteBuffer buffer = mBuffer;
+        buffer.putLong(offset, 0L);
+        buffer.putLong(offset + RECORD_TIME, System.currentTimeMillis());
+        buffer.putInt(offset + RECORD_TYPE, type);
+        buffer.putInt(offset + RECORD_ARG, arg);
+        buffer.putLong(offset + RECORD_VALUE, value);
+        buffer.putLong(offset, seq + 1);
+    }
+
+    /**
+     * 记录名称id对应的名称，id必须从0开始连续递增，仅主线程调用
+     *
+     * @param nameId 名称id
+     * @param name   名称
+     */
+    void defineName(int nameId, String name) {
+        if (nameId != mNameCount) return;
+        byte[] bytes = name.getBytes(UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        if (mNameBytes + 4 + length > NAME_REGION_SIZE) return;
+        int offset = HEADER_SIZE + mNameBytes;
+        mBuffer.putShort(offset, (short) nameId);
+        mBuffer.putShort(offset + 2, (short) length);
+        for (int i = 0; i < length; i++) {
+            mBuffer.put(offset + 4 + i, bytes[i]);
+        }
+        mNameBytes += 4 + length;
+        mNameCount++;
+        mBuffer.putInt(HEADER_NAME_BYTES, mNameBytes);
+    }
+
+    /**
+     * 当前进程最近的面包屑，JSON数组
+     *
+     * @param max 最多条数
+     */
+    String getRecent(int max) {
+        return decode(mBuffer, max);
+    }
+
+    /**
+     * 以二进制格式写入当前进程最近的面包屑
+     *
+     * @param encoder 编码器
+     * @param max     最多条数
+     */
+    void encodeRecent(CrashReportEncoder encoder, int max) {
+        MappedByteBuffer buffer = mBuffer;
+        long next = mNext.get();
+        String[] names = decodeNames(buffer);
+        encoder.beginList("Breadcrumbs");
+        for (long seq = Math.max(0L, next - Math.min(max, RECORD_CAPACITY)); seq < next; seq++) {
+            int offset = RECORD_REGION + (int) (seq % RECORD_CAPACITY) * RECORD_SIZE;
+            if (buffer.getLong(offset) != seq + 1) continue;
+            int type = buffer.getInt(offset + RECORD_TYPE);
+            int arg = buffer.getInt(offset + RECORD_ARG);
+            encoder.beginItem()
+                    .value("time", buffer.getLong(offset + RECORD_TIME))
+                    .value("type", typeName(type));
+            if (isNameType(type) && arg >= 0 && arg < names.length) {
+                encoder.value("name", names[arg]);
+            } else {
+                encoder.value("arg", arg);
+            }
+            encoder.value("value", buffer.getLong(offset + RECORD_VALUE)).end();
+        }
+        encoder.end();
+    }
+
+    /**
+     * 一个进程最近的面包屑，按序号从旧到新排列
+     */
+    static final class Records {
+        final long[] times;
+        final int[] types;
+        final int[] args;
+        final long[] values;
+        String[] names;
+        int size;
+
+        Records(int capacity) {
+            times = new long[capacity];
+            types = new int[capacity];
+            args = new int[capacity];
+            values = new long[capacity];
+        }
+
+        /**
+         * 第i条记录的Activity名称，记录的参数不是名称id时为null
+         */
+        String nameOf(int i) {
+            int arg = args[i];
+            return isNameType(types[i]) && arg >= 0 && arg < names.length ? names[arg] : null;
+        }
+    }
+
+    /**
+     * 当前进程最近的面包屑
+     *
+     * @param max 最多条数
+     */
+    Records recent(int max) {
+        return read(mBuffer, max);
+    }
+
+    /**
+     * 读取其他进程的日志文件，对方可能正在写入，写到一半的记录被丢弃
+     *
+     * @param file 日志文件
+     * @param max  最多条数
+     * @return 文件不存在或格式不对时为null
+     */
+    static Records read(File file, int max) {
+        if (file.length() < FILE_SIZE) return null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            return read(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, FILE_SIZE), max);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Records read(MappedByteBuffer buffer, int max) {
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION) {
+            return null;
+        }
+        long next = 0L;
+        for (int i = 0; i < RECORD_CAPACITY; i++) {
+            next = Math.max(next, buffer.getLong(RECORD_REGION + i * RECORD_SIZE));
+        }
+        Records records = new Records(Math.min(max, RECORD_CAPACITY));
+        records.names = decodeNames(buffer);
+        for (long seq = Math.max(0L, next - records.times.length); seq < next; seq++) {
+            int offset = RECORD_REGION + (int) (seq % RECORD_CAPACITY) * RECORD_SIZE;
+            if (buffer.getLong(offset) != seq + 1) continue;
+            int index = records.size;
+            records.times[index] = buffer.getLong(offset + RECORD_TIME);
+            records.types[index] = buffer.getInt(offset + RECORD_TYPE);
+            records.args[index] = buffer.getInt(offset + RECORD_ARG);
+            records.values[index] = buffer.getLong(offset + RECORD_VALUE);
+            // 读取期间被覆盖
+            if (buffer.getLong(offset) != seq + 1) continue;
+            records.size++;
+        }
+        return records;
+    }
+
+    private static void reset(MappedByteBuffer buffer) {
+        byte[] zero = new byte[4096];
+        buffer.position(0);
+        while (buffer.remaining() > 0) {
+            buffer.put(zero, 0, Math.min(zero.length, buffer.remaining()));
+        }
+        buffer.position(0);
+        buffer.putInt(HEADER_MAGIC, MAGIC);
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putInt(HEADER_RECORD_CAPACITY, RECORD_CAPACITY);
+        buffer.putInt(HEADER_NAME_REGION_SIZE, NAME_REGION_SIZE);
+        buffer.putInt(HEADER_NAME_BYTES, 0);
+        buffer.putLong(HEADER_START_TIME, System.currentTimeMillis());
+    }
+
+    private static String decode(MappedByteBuffer buffer) {
+        return decode(buffer, RECORD_CAPACITY);
+    }
+
+    /**
+     * 解析日志内容，按序号排序后取最新的max条
+     */
+    private static String decode(MappedByteBuffer buffer, int max) {
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION) {
+            return null;
+        }
+        String[] names = decodeNames(buffer);
+        long[] keys = new long[RECORD_CAPACITY];
+        int count = 0;
+        for (int i = 0; i < RECORD_CAPACITY; i++) {
+            long seq = buffer.getLong(RECORD_REGION + i * RECORD_SIZE);
+            if (seq != 0L) {
+                // 高位为序号，低位为槽位，排序后即可按序号遍历
+                keys[count++] = (seq << 12) | i;
+            }
+        }
+        if (count == 0) return null;
+        Arrays.sort(keys, 0, count);
+        JSONArray jsonArray = new JSONArray();
+        for (int i = Math.max(0, count - max); i < count; i++) {
+            int offset = RECORD_REGION + (int) (keys[i] & 0xFFF) * RECORD_SIZE;
+            int type = buffer.getInt(offset + RECORD_TYPE);
+            int arg = buffer.getInt(offset + RECORD_ARG);
+            JSONObject jsonObject = new JSONObject();
+            try {
+                jsonObject.put("time", buffer.getLong(offset + RECORD_TIME));
+                jsonObject.put("type", typeName(type));
+                if (isNameType(type)) {
+                    jsonObject.put("name", arg >= 0 && arg < names.length ? names[arg] : String.valueOf(arg));
+                } else {
+                    jsonObject.put("arg", arg);
+                }
+                jsonObject.put("value", buffer.getLong(offset + RECORD_VALUE));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            jsonArray.put(jsonObject);
+        }
+        return jsonArray.toString();
+    }
+
+    private static String[] decodeNames(MappedByteBuffer buffer) {
+        int used = Math.min(buffer.getInt(HEADER_NAME_BYTES), NAME_REGION_SIZE);
+        String[] names = new String[16];
+        int count = 0;
+        int offset = 0;
+        while (offset + 4 <= used) {
+            int id = buffer.getShort(HEADER_SIZE + offset);
+            int length = buffer.getShort(HEADER_SIZE + offset + 2);
+            if (length < 0 || offset + 4 + length > used) break;
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(HEADER_SIZE + offset + 4 + i);
+            }
+            if (id >= names.length) names = Arrays.copyOf(names, Math.max(id + 1, names.length << 1));
+            names[id] = new String(bytes, UTF_8);
+            count = Math.max(count, id + 1);
+            offset += 4 + length;
+        }
+        return Arrays.copyOf(names, count);
+    }
+
+    /**
+     * arg为Activity名称id的记录类型
+     */
+    private static boolean isNameType(int type) {
+        return type == TYPE_ACTIVITY_CREATED || type == TYPE_ACTIVITY_DESTROYED || type == TYPE_ACTIVITY_LEAKED;
+    }
+
+    static String typeName(int type) {
+        switch (type) {
+            case TYPE_ACTIVITY_CREATED:
+                return "ActivityCreated";
+            case TYPE_ACTIVITY_DESTROYED:
+                return "ActivityDestroyed";
+            case TYPE_ACTIVITY_STARTED:
+                return "ActivityStarted";
+            case TYPE_ACTIVITY_STOPPED:
+                return "ActivityStopped";
+            case TYPE_HEAP:
+                return "Heap";
+            case TYPE_ACTIVITY_LEAKED:
+                return "ActivityLeaked";
+            case TYPE_TRIM_PRESSURE:
+                return "TrimPressure";
+            default:
+                return String.valueOf(type);
+        }
+    }
+
+    /**
+     * 当前进程名
+     */
+    static String currentProcessName(Context context) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream("/proc/self/cmdline");
+            byte[] bytes = new byte[256];
+            int length = in.read(bytes);
+            int end = 0;
+            while (end < length && bytes[end] != 0) end++;
+            if (end > 0) return new String(bytes, 0, end, UTF_8);
+        } catch (IOException e) {
+            if (DEBUG)
+                Log.e(TAG, Log.getStackTraceString(e));
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return context.getPackageName();
+    }
+
+    /**
+     * 进程的日志文件
+     *
+     * @param dir         files/crash目录
+     * @param processName 进程名
+     */
+    static File fileOf(File dir, String processName) {
+        return new File(dir, "breadcrumbs-" + fileSafe(processName) + ".journal");
+    }
+
+    private static String fileSafe(String name) {
+        return name.replace(':', '_').replace('/', '_');
+    }
+}
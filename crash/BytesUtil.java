@@ -5,10 +5,12 @@ import android.content.Context;
 import android.os.Build;
 import android.text.format.Formatter;
 
-import java.math.BigDecimal;
 
 /**
  * bytes格式化工具类
+ * <p>
+ * 收集到的内存信息一律保存原始字节数（见{@link MemorySnapshot}），
+ * 只有在需要给人看时才调用这里格式化，格式化依赖Context的语言设置。
  */
 public final class BytesUtil {
 
@@ -45,7 +47,7 @@ public final class BytesUtil {
         return bytesToBytes(kb * KB_1024);
     }
 
-    private static long bytesToBytes(long bytes) {
+    static long bytesToBytes(long bytes) {
         if (isO()) {
             if (bytes < KB_1024) {
                 return bytes;
@@ -54,7 +56,7 @@ public final class BytesUtil {
             } else if (bytes < GB_1024) {
                 return bytes * MB_1000 / MB_1024;
             } else {
-                return BigDecimal.valueOf((double) bytes / (double) GB_1024 * (double) GB_1000).longValue();
+                return (long) ((double) bytes / (double) GB_1024 * (double) GB_1000);
             }
         }
         return bytes;
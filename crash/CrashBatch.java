@@ -0,0 +1,111 @@
+package example.com.kotlin.crash;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 投递给{@link CrashTransport}的一批报告
+ * <p>
+ * 整体GZIP压缩，解压后为：
+ * <pre>
+ * 魔数(4) | 版本(4) | 报告数(4) | 报告...
+ * 报告：指纹(8) | 次数(4) | 长度(4) | 二进制报告（见{@link CrashReportFormat}）
+ * </pre>
+ * 相同指纹（{@link CrashFingerprint}）的报告只保留第一份，次数为合并的份数。
+ */
+public final class CrashBatch {
+
+    private static final int MAGIC = 0x43524231;//CRB1
+    private static final int VERSION = 1;
+
+    /**
+     * 批内的一份报告
+     */
+    public static final class Report {
+        public final long stackHash;
+        /**
+         * 合并的相同指纹报告数
+         */
+        public final int count;
+        /**
+         * 二进制报告，可用{@link CrashReportDecoder#toJson(byte[])}转为JSON
+         */
+        public final byte[] data;
+
+        Report(long stackHash, int count, byte[] data) {
+            this.stackHash = stackHash;
+            this.count = count;
+            this.data = data;
+        }
+    }
+
+    private CrashBatch() {
+
+    }
+
+    /**
+     * 写入一批报告，调用方保证三个列表等长
+     *
+     * @return 压缩后的内容
+     */
+    static byte[] write(List<byte[]> reports, long[] stackHashes, int[] counts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(reports.size());
+            for (int i = 0; i < reports.size(); i++) {
+                byte[] report = reports.get(i);
+                out.writeLong(stackHashes[i]);
+                out.writeInt(counts[i]);
+                out.writeInt(report.length);
+                out.write(report);
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 读取一批报告
+     *
+     * @param batch  压缩后的内容
+     * @param offset 起始位置
+     * @param length 长度
+     * @throws IOException 格式不正确
+     */
+    public static List<Report> read(byte[] batch, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(batch, offset, length)));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("bad magic");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("unsupported version " + version);
+            int size = in.readInt();
+            if (size < 0) throw new EOFException();
+            List<Report> reports = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long stackHash = in.readLong();
+                int count = in.readInt();
+                int reportLength = in.readInt();
+                if (reportLength < 0) throw new EOFException();
+                byte[] data = new byte[reportLength];
+                in.readFully(data);
+                reports.add(new Report(stackHash, count, data));
+            }
+            return reports;
+        } finally {
+            in.close();
+        }
+    }
+}
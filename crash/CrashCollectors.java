@@ -0,0 +1,235 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 报告的section注册表
+ * <p>
+ * {@link CrashInfo}的内置section和{@link CrashInfoCollector}都注册在这里，报告按注册顺序写入。
+ * 列表写时复制，崩溃时读取不需要加锁。收集器按声明的刷新方式调度：static在{@link #start(Application, boolean)}后
+ * 收集一次，lifecycle跟随{@link CrashSnapshotCache}的刷新，崩溃时这两种直接使用缓存。
+ */
+final class CrashCollectors {
+
+    private static final String TAG = "CrashCollectors";
+
+    private static boolean DEBUG = false;
+
+    private static volatile List<CrashSections.Section<?>> sSections = Collections.emptyList();
+
+    private static volatile Application sApplication;
+    private static Handler sMainHandler;
+
+    private CrashCollectors() {
+
+    }
+
+    /**
+     * 注册的所有section，不可修改
+     */
+    static List<CrashSections.Section<?>> sections() {
+        return sSections;
+    }
+
+    /**
+     * 注册section，名称不能重复
+     */
+    static synchronized void add(CrashSections.Section<?> section) {
+        List<CrashSections.Section<?>> sections = sSections;
+        for (CrashSections.Section<?> registered : sections) {
+            if (registered.name.equals(section.name))
+                throw new IllegalArgumentException("duplicate section " + section.name);
+        }
+        List<CrashSections.Section<?>> copy = new ArrayList<>(sections.size() + 1);
+        copy.addAll(sections);
+        copy.add(section);
+        sSections = Collections.unmodifiableList(copy);
+        if (section instanceof CollectorSection && sApplication != null) {
+            schedule((CollectorSection<?>) section, CrashInfoCollector.REFRESH_STATIC);
+            schedule((CollectorSection<?>) section, CrashInfoCollector.REFRESH_LIFECYCLE);
+        }
+    }
+
+    /**
+     * 注册收集器
+     */
+    static <T> void register(CrashInfoCollector<T> collector) {
+        add(new CollectorSection<>(collector));
+    }
+
+    /**
+     * 没有同名的section时注册收集器
+     *
+     * @return 已经有同名的section时返回false
+     */
+    static synchronized <T> boolean registerIfAbsent(CrashInfoCollector<T> collector) {
+        for (CrashSections.Section<?> registered : sSections) {
+            if (registered.name.equals(collector.name)) return false;
+        }
+        register(collector);
+        return true;
+    }
+
+    /**
+     * 注销收集器，没有注册时忽略
+     */
+    static synchronized void unregister(CrashInfoCollector<?> collector) {
+        List<CrashSections.Section<?>> copy = new ArrayList<>(sSections);
+        for (int i = 0; i < copy.size(); i++) {
+            CrashSections.Section<?> section = copy.get(i);
+            if (section instanceof CollectorSection && ((CollectorSection<?>) section).mCollector == collector) {
+                copy.remove(i);
+                sSections = Collections.unmodifiableList(copy);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 开始调度收集器，需在主线程调用
+     */
+    static void start(Application application, boolean debug) {
+        List<CrashSections.Section<?>> sections;
+        synchronized (CrashCollectors.class) {
+            if (sApplication != null) return;
+            DEBUG = debug;
+            sMainHandler = new Handler(Looper.getMainLooper());
+            sApplication = application;
+            sections = sSections;
+        }
+        for (CrashSections.Section<?> section : sections) {
+            if (!(section instanceof CollectorSection)) continue;
+            schedule((CollectorSection<?>) section, CrashInfoCollector.REFRESH_STATIC);
+            schedule((CollectorSection<?>) section, CrashInfoCollector.REFRESH_LIFECYCLE);
+        }
+    }
+
+    private static void schedule(final CollectorSection<?> section, int refresh) {
+        if (section.mCollector.refresh != refresh) return;
+        Handler handler = section.mCollector.thread == CrashInfoCollector.THREAD_MAIN ? sMainHandler : CrashWorker.handler();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                section.refresh(sApplication);
+            }
+        });
+    }
+
+    /**
+     * 刷新lifecycle收集器，由{@link CrashSnapshotCache}在节流后调用
+     *
+     * @param mainThread 为true时在主线程调用，只刷新需要主线程的收集器，否则在后台线程调用，刷新其余的
+     */
+    static void refreshLifecycle(boolean mainThread) {
+        Application application = sApplication;
+        if (application == null) return;
+        for (CrashSections.Section<?> section : sSections) {
+            if (!(section instanceof CollectorSection)) continue;
+            CollectorSection<?> collectorSection = (CollectorSection<?>) section;
+            CrashInfoCollector<?> collector = collectorSection.mCollector;
+            if (collector.refresh != CrashInfoCollector.REFRESH_LIFECYCLE) continue;
+            if ((collector.thread == CrashInfoCollector.THREAD_MAIN) != mainThread) continue;
+            collectorSection.refresh(application);
+        }
+    }
+
+    /**
+     * 把收集器适配为section
+     */
+    static final class CollectorSection<T> extends CrashSections.Section<T> {
+
+        final CrashInfoCollector<T> mCollector;
+        private final CrashInfoCollector.Schema mSchema;
+
+        /**
+         * static和lifecycle收集器最近一次的结果
+         */
+        private volatile T mCached;
+
+        CollectorSection(CrashInfoCollector<T> collector) {
+            super(collector.name, timeoutOf(collector));
+            mCollector = collector;
+            mSchema = collector.schema();
+        }
+
+        /**
+         * 只有崩溃时收集、可能阻塞并且可以在其他线程执行的收集器使用线程池
+         */
+        private static long timeoutOf(CrashInfoCollector<?> collector) {
+            if (collector.refresh != CrashInfoCollector.REFRESH_CRASH) return 0L;
+            if (collector.cost == CrashInfoCollector.COST_CHEAP || collector.thread != CrashInfoCollector.THREAD_ANY)
+                return 0L;
+            return Math.max(1L, collector.timeoutMillis());
+        }
+
+        void refresh(Application application) {
+            long start = DEBUG ? System.nanoTime() : 0L;
+            try {
+                mCached = mCollector.collect(application);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            if (DEBUG)
+                Log.d(TAG, "refresh-->" + name + " cost=" + (System.nanoTime() - start) / 1000L + "us");
+        }
+
+        @Override
+        int tier() {
+            return mCollector.cost == CrashInfoCollector.COST_EXPENSIVE ? CrashPolicy.TIER_FULL : super.tier();
+        }
+
+        @Override
+        T peek() {
+            return mCollector.refresh == CrashInfoCollector.REFRESH_CRASH ? null : mCached;
+        }
+
+        @Override
+        T collect(Application application) throws Exception {
+            if (mCollector.refresh == CrashInfoCollector.REFRESH_CRASH) return mCollector.collect(application);
+            // 还没有缓存时，只读内存并且可以在当前线程执行的才补收集
+            if (mCollector.cost == CrashInfoCollector.COST_CHEAP && mCollector.thread != CrashInfoCollector.THREAD_MAIN)
+                return mCollector.collect(application);
+            return null;
+        }
+
+        @Override
+        void encode(T value, CrashReportEncoder encoder) {
+            encoder.beginSection(name).value("schemaVersion", mSchema.version);
+            CrashInfoCollector.Output output = new CrashInfoCollector.Output(mSchema, encoder);
+            // Output只写单层字段，异常时也能正确结束section
+            try {
+                mCollector.write(value, output);
+            } catch (Exception e) {
+                e.printStackTrace();
+                encoder.value("error", e.toString());
+            }
+            if (output.mErrors > 0) encoder.value("schemaErrors", output.mErrors);
+            encoder.end();
+        }
+
+        @Override
+        void put(T value, Map<String, String> map) {
+            JSONObject jsonObject = new JSONObject();
+            CrashInfoCollector.Output output = new CrashInfoCollector.Output(mSchema, jsonObject);
+            mCollector.write(value, output);
+            try {
+                jsonObject.put("schemaVersion", mSchema.version);
+                if (output.mErrors > 0) jsonObject.put("schemaErrors", output.mErrors);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            map.put(name, jsonObject.toString());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 持久化的崩溃指纹LRU，记录最近出现过的指纹和次数
+ * <p>
+ * 同一指纹在{@link #FULL_REPORT_INTERVAL}内再次崩溃时只增加计数，崩溃处理器据此只写一份
+ * 很小的计数报告，而不是重新收集全部信息。文件通过内存映射读写，崩溃时更新不需要write调用，
+ * 进程随即被杀也不会丢失。满了以后替换最久没有出现的指纹。
+ * <p>
+ * 文件布局：16字节文件头 | {@link #CAPACITY}个40字节的条目：
+ * 指纹(8) | 次数(4) | 保留(4) | 首次时间(8) | 最近时间(8) | 最近一次完整报告的时间(8)。
+ * 次数为0的条目为空。
+ */
+final class CrashDedupCache {
+
+    private static final String TAG = "CrashDedupCache";
+
+    private static final int MAGIC = 0x43464450;//CFDP
+    private static final int VERSION = 1;
+
+    static final int CAPACITY = 64;
+
+    /**
+     * 超过这个时间没有完整报告的指纹会重新收集一次完整报告，保证信息不过时
+     */
+    static final long FULL_REPORT_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 40;
+    private static final int ENTRY_COUNT = 8;
+    private static final int ENTRY_FIRST_TIME = 16;
+    private static final int ENTRY_LAST_TIME = 24;
+    private static final int ENTRY_LAST_FULL_TIME = 32;
+    private static final int FILE_SIZE = HEADER_SIZE + CAPACITY * ENTRY_SIZE;
+
+    private static boolean DEBUG = false;
+
+    private static volatile CrashDedupCache sCache;
+
+    private final MappedByteBuffer mBuffer;
+
+    private CrashDedupCache(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * 打开当前进程的指纹文件
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sCache != null) return;
+        DEBUG = debug;
+        File dir = new File(context.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File file = new File(dir, "fingerprints-" + BreadcrumbJournal.currentProcessName(context).replace(':', '_').replace('/', '_'));
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(FILE_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                for (int i = 0; i < FILE_SIZE; i++) buffer.put(i, (byte) 0);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, CAPACITY);
+            }
+            sCache = new CrashDedupCache(buffer);
+            if (DEBUG)
+                Log.d(TAG, "open-->file=" + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 已打开的缓存，未打开时为null
+     */
+    static CrashDedupCache get() {
+        return sCache;
+    }
+
+    /**
+     * 记录一次崩溃
+     *
+     * @param fingerprint 指纹
+     * @param now         当前时间
+     * @return 需要完整报告时返回0，否则返回该指纹累计出现的次数
+     */
+    synchronized int recordRepeat(long fingerprint, long now) {
+        MappedByteBuffer buffer = mBuffer;
+        int empty = -1;
+        int oldest = -1;
+        long oldestTime = Long.MAX_VALUE;
+        for (int i = 0; i < CAPACITY; i++) {
+            int offset = HEADER_SIZE + i * ENTRY_SIZE;
+            int count = buffer.getInt(offset + ENTRY_COUNT);
+            if (count == 0) {
+                if (empty < 0) empty = i;
+                continue;
+            }
+            if (buffer.getLong(offset) == fingerprint) {
+                count = count == Integer.MAX_VALUE ? count : count + 1;
+                buffer.putInt(offset + ENTRY_COUNT, count);
+                buffer.putLong(offset + ENTRY_LAST_TIME, now);
+                long lastFull = buffer.getLong(offset + ENTRY_LAST_FULL_TIME);
+                if (now - lastFull >= FULL_REPORT_INTERVAL || now < lastFull) {
+                    buffer.putLong(offset + ENTRY_LAST_FULL_TIME, now);
+                    return 0;
+                }
+                return count;
+            }
+            long lastTime = buffer.getLong(offset + ENTRY_LAST_TIME);
+            if (lastTime < oldestTime) {
+                oldestTime = lastTime;
+                oldest = i;
+            }
+        }
+        int slot = empty >= 0 ? empty : oldest;
+        int offset = HEADER_SIZE + slot * ENTRY_SIZE;
+        // 先清零次数，写完其他字段后再写入，被杀时不会留下指纹不匹配的条目
+        buffer.putInt(offset + ENTRY_COUNT, 0);
+        buffer.putLong(offset, fingerprint);
+        buffer.putLong(offset + ENTRY_FIRST_TIME, now);
+        buffer.putLong(offset + ENTRY_LAST_TIME, now);
+        buffer.putLong(offset + ENTRY_LAST_FULL_TIME, now);
+        buffer.putInt(offset + ENTRY_COUNT, 1);
+        return 0;
+    }
+
+    /**
+     * 指纹累计出现的次数，不在缓存中时为0
+     */
+    synchronized int countOf(long fingerprint) {
+        for (int i = 0; i < CAPACITY; i++) {
+            int offset = HEADER_SIZE + i * ENTRY_SIZE;
+            int count = mBuffer.getInt(offset + ENTRY_COUNT);
+            if (count != 0 && mBuffer.getLong(offset) == fingerprint) return count;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,159 @@
+package example.com.kotlin.crash;
+
+
+/**
+ * 异常堆栈的稳定指纹
+ * <p>
+ * 只取异常类名和归一化后的栈帧：去掉行号，去掉lambda、匿名类和编译器生成的访问方法中
+ * 随编译变化的序号，跳过合成的桥接帧。同一处代码的崩溃在不同版本、不同进程中得到相同的指纹。
+ * 使用64位FNV-1a，计算过程不分配对象。
+ */
+final class CrashFingerprint {
+
+    /**
+     * 每个异常最多参与计算的栈帧数，递归导致的超长堆栈只看顶部
+     */
+    static final int MAX_FRAMES = 32;
+    /**
+     * 最多参与计算的cause层数
+     */
+    static final int MAX_CAUSES = 8;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private CrashFingerprint() {
+
+    }
+
+    /**
+     * 计算指纹
+     *
+     * @param throwable 异常，为null时返回固定值
+     */
+    static long of(Throwable throwable) {
+        long hash = FNV_OFFSET;
+        int depth = 0;
+        for (Throwable t = throwable; t != null && depth < MAX_CAUSES; t = t.getCause(), depth++) {
+            hash = hashClassName(hash, t.getClass().getName());
+            hash = hashFrames(hash, t.getStackTrace());
+            if (t.getCause() == t) break;
+        }
+        return hash;
+    }
+
+    /**
+     * 计算没有异常对象的堆栈（例如主线程卡顿时采到的栈）的指纹
+     *
+     * @param type   类型，相当于异常类名
+     * @param frames 栈帧，从栈顶开始
+     */
+    static long of(String type, StackTraceElement[] frames) {
+        long hash = hashClassName(FNV_OFFSET, type);
+        return hashFrames(hash, frames);
+    }
+
+    /**
+     * 计算native崩溃的指纹
+     *
+     * @param signal  信号名，相当于异常类名
+     * @param modules 栈帧所在模块的文件名
+     * @param offsets 栈帧在模块内的偏移
+     */
+    static long ofNative(String signal, String[] modules, long[] offsets) {
+        long hash = hashClassName(FNV_OFFSET, signal);
+        for (int i = 0; i < modules.length && i < MAX_FRAMES; i++) {
+            String module = modules[i];
+            if (module != null) {
+                for (int j = 0; j < module.length(); j++) hash = mix(hash, module.charAt(j));
+            }
+            hash = mix(hash, '+');
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                hash = mix(hash, Character.forDigit((int) (offsets[i] >>> shift) & 0xF, 16));
+            }
+            hash = mix(hash, ';');
+        }
+        return mix(hash, '|');
+    }
+
+    private static long hashFrames(long hash, StackTraceElement[] frames) {
+        int count = 0;
+        for (int i = 0; i < frames.length && count < MAX_FRAMES; i++) {
+            StackTraceElement frame = frames[i];
+            String method = frame.getMethodName();
+            if (isSyntheticAccessor(method)) continue;
+            hash = hashClassName(hash, frame.getClassName());
+            hash = mix(hash, '.');
+            hash = hashMethodName(hash, method);
+            hash = mix(hash, ';');
+            count++;
+        }
+        return mix(hash, '|');
+    }
+
+    /**
+     * 十六进制表示
+     */
+    static String toHex(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * 编译器生成的access$000等访问方法，编号随编译变化，不参与计算；桥接方法与原方法同名，堆栈中无法区分，仍按普通方法计算
+     */
+    private static boolean isSyntheticAccessor(String method) {
+        return method.startsWith("access$");
+    }
+
+    /**
+     * 类名中$后的纯数字（匿名类）以及$$Lambda$、$$ExternalSynthetic等生成类的后缀被去掉
+     */
+    private static long hashClassName(long hash, String name) {
+        int length = name.length();
+        int lambda = name.indexOf("$$");
+        if (lambda >= 0) {
+            // Foo$$Lambda$12/0x..., Foo$$ExternalSyntheticLambda0 -> Foo$$
+            length = lambda + 2;
+        }
+        int i = 0;
+        while (i < length) {
+            char c = name.charAt(i);
+            hash = mix(hash, c);
+            i++;
+            if (c == '$') {
+                int digits = i;
+                while (digits < length && isDigit(name.charAt(digits))) digits++;
+                if (digits > i && (digits == length || name.charAt(digits) == '$')) {
+                    // 匿名类序号：Foo$1 -> Foo$
+                    i = digits;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * lambda$onCreate$0 -> lambda$onCreate$，方法名末尾的$数字被去掉
+     */
+    private static long hashMethodName(long hash, String name) {
+        int length = name.length();
+        int end = length;
+        while (end > 0 && isDigit(name.charAt(end - 1))) end--;
+        if (end < length && end > 0 && name.charAt(end - 1) == '$') {
+            length = end;
+        }
+        for (int i = 0; i < length; i++) {
+            hash = mix(hash, name.charAt(i));
+        }
+        return hash;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long mix(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+}
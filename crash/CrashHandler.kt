@@ -5,20 +5,59 @@ import android.util.Log
 
 /**
  * 捕捉应用程序异常
+ *
+ * 崩溃时按堆栈指纹去重，把报告同步写入磁盘队列，然后交给原来的默认处理器；
+ * 下次启动后由[CrashUploader]在后台分批投递给[CrashTransport]。
  */
 object CrashHandler : Thread.UncaughtExceptionHandler {
 
 
     private var mApplication: Application? = null
 
+    private var mDefaultHandler: Thread.UncaughtExceptionHandler? = null
+
+    //崩溃时复用同一个缓冲区，避免在崩溃路径上反复扩容
+    private val mEncoder = CrashReportEncoder(16 * 1024)
+
     override fun uncaughtException(t: Thread?, e: Throwable?) {
-        val result = CrashInfo.getAll(mApplication)
-        Log.d("CrashHandler", "uncaughtException-->result$result")
+        try {
+            val application = mApplication ?: return
+            synchronized(mEncoder) {
+                val fingerprint = CrashFingerprint.of(e)
+                SessionState.get()?.onCrash(fingerprint)
+                //近期已有完整报告的同一崩溃只记一次计数
+                val repeat = CrashDedupCache.get()?.recordRepeat(fingerprint, System.currentTimeMillis()) ?: 0
+                mEncoder.reset()
+                if (repeat > 0) {
+                    CrashInfo.encodeRepeat(mEncoder, t, e, fingerprint, repeat)
+                } else {
+                    CrashInfo.encodeAll(application, mEncoder, t, e, fingerprint)
+                }
+                mEncoder.finish()
+                val queued = CrashReportQueue.get()?.append(mEncoder.buffer(), mEncoder.size(), fingerprint)
+                Log.d("CrashHandler", "uncaughtException-->fingerprint=" + CrashFingerprint.toHex(fingerprint) + ";repeat=" + repeat + ";size=" + mEncoder.size() + ";queued=" + queued)
+            }
+        } catch (ignored: Throwable) {
+            //收集失败也不能影响原来的处理器
+        } finally {
+            mDefaultHandler?.uncaughtException(t, e)
+        }
     }
 
-    fun init(application: Application) {
+    /**
+     * @param transport 投递方式，为null时报告只保存在磁盘上
+     */
+    @JvmOverloads
+    fun init(application: Application, transport: CrashTransport? = null) {
         mApplication = application
+        CrashReportQueue.open(application, false)
+        CrashDedupCache.open(application, false)
+        CrashRateLimiter.open(application, false)
+        val defaultHandler = Thread.getDefaultUncaughtExceptionHandler()
+        if (defaultHandler !== this) mDefaultHandler = defaultHandler
         Thread.setDefaultUncaughtExceptionHandler(this)
         CrashInfo.track(application)
+        NativeCrashHandler.install(application, false)
+        if (transport != null) CrashUploader.start(CrashReportQueue.get(), transport, false)
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package example.com.kotlin.crash;
 
 
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.app.Application;
@@ -10,12 +9,8 @@ import android.content.pm.ApplicationInfo;
 import android.os.Build;
 import android.os.Debug;
 import android.os.Environment;
-import android.support.v4.app.Fragment;
-import android.support.v4.app.FragmentActivity;
-import android.support.v4.app.FragmentManager;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import com.facebook.drawee.backends.pipeline.Fresco;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -35,6 +30,36 @@ public final class CrashInfo {
 
     private static boolean DEBUG = false;
 
+    /**
+     * 报告中包含的面包屑条数
+     */
+    private static final int BREADCRUMBS_IN_REPORT = 64;
+    /**
+     * 报告中每个异常最多保留的栈帧数
+     */
+    private static final int FRAMES_IN_REPORT = 64;
+
+    private static final String KEY_ACTIVITIES = "Activities";
+    private static final String KEY_ACTIVITIES_WITH_FRAGMENTS = "ActivitiesWithFragments";
+    private static final String THREADS = "Threads";
+    /**
+     * {@link #encodeCached(Application, CrashReportEncoder)}没有写入的section的状态
+     */
+    static final String STATUS_NOT_CACHED = "not cached";
+
+    /**
+     * 反射读取Activity栈时缓存的Field，只在未跟踪Activity栈时使用
+     */
+    private static Field sLoadedApkField;
+    private static Field sActivityThreadField;
+    private static Field sActivitiesField;
+    private static Field sActivityField;
+
+    /**
+     * 崩溃时收集哪些信息，为null时总是收集所有信息
+     */
+    private static volatile CrashPolicy sPolicy = new CrashPolicy();
+
     private CrashInfo() {
 
     }
@@ -46,9 +71,216 @@ public final class CrashInfo {
      * @param application Application
      */
     public static void track(Application application) {
+        track(application, TrackActivity.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 跟踪应用程序
+     *
+     * @param application   Application
+     * @param trackCapacity 最多保留的Activity记录数
+     */
+    public static void track(Application application, int trackCapacity) {
         setDebug(application);
-        AppColdStart.Companion.detectColdStart(application);
-        TrackActivity.track(application, DEBUG);
+        BreadcrumbJournal.open(application, DEBUG);
+        SessionState.open(application, DEBUG);
+        AppColdStart.Companion.detectColdStart(application, DEBUG);
+        TrackActivity.track(application, DEBUG, trackCapacity);
+        ActivityStack.track(application);
+        CrashSnapshotCache.start(application, DEBUG);
+        MemorySampler.start(DEBUG);
+        ActivityLifecycleTimings.track(application, DEBUG);
+        CrashCollectors.start(application, DEBUG);
+    }
+
+    /**
+     * 注册自定义信息的收集器，报告中增加一个与收集器同名的section，见{@link CrashInfoCollector}
+     *
+     * @param collector 收集器，名称不能与已有的section重复
+     */
+    public static void registerCollector(CrashInfoCollector<?> collector) {
+        CrashCollectors.register(collector);
+    }
+
+    /**
+     * 注销收集器，之后的报告不再包含它
+     *
+     * @param collector 已注册的收集器
+     */
+    public static void unregisterCollector(CrashInfoCollector<?> collector) {
+        CrashCollectors.unregister(collector);
+    }
+
+    /**
+     * 设置崩溃时收集哪些信息：按崩溃频率和设备memoryClass选择级别、各section的采样率以及完整报告的配额，
+     * 见{@link CrashPolicy}。只影响崩溃报告，{@link #getAll(Application)}和{@link #encodeAll(Application, CrashReportEncoder)}仍收集所有信息
+     *
+     * @param policy 为null时每次崩溃都收集所有信息
+     */
+    public static void setPolicy(CrashPolicy policy) {
+        sPolicy = policy;
+    }
+
+    /**
+     * 启动类型和启动耗时：本进程的启动类型、最近一次启动各阶段耗时以及最近几十次冷/温/热启动的分位数，单位微秒
+     *
+     * @return JSON
+     */
+    public static String getLaunchTimes() {
+        return LaunchTracker.getLaunchTimes();
+    }
+
+    /**
+     * Activity生命周期各阶段和首帧耗时，Prometheus文本格式，供定期抓取
+     *
+     * @return 未调用{@link #track(Application)}或API 17以下时没有数据
+     */
+    public static String scrapeLifecycleMetrics() {
+        return ActivityLifecycleTimings.scrape();
+    }
+
+    /**
+     * 监视主线程卡顿，按默认阈值
+     *
+     * @param application Application
+     */
+    public static void watchMainThread(Application application) {
+        watchMainThread(application, MainThreadWatchdog.DEFAULT_STALL_THRESHOLD);
+    }
+
+    /**
+     * 监视主线程卡顿，超过阈值时采样主线程堆栈，报告和崩溃报告一起写入磁盘队列（需要先调用CrashHandler.init）
+     *
+     * @param application          Application
+     * @param stallThresholdMillis 卡顿阈值（毫秒）
+     */
+    public static void watchMainThread(Application application, long stallThresholdMillis) {
+        MainThreadWatchdog.start(application, stallThresholdMillis, DEBUG);
+    }
+
+    /**
+     * 检测销毁后没有被回收的Activity，按默认延迟
+     *
+     * @param application Application
+     */
+    public static void watchActivityLeaks(Application application) {
+        watchActivityLeaks(application, ActivityLeakWatcher.DEFAULT_DELAY);
+    }
+
+    /**
+     * 检测销毁后没有被回收的Activity：销毁超过delayMillis并且GC后仍然可达的按类计数，
+     * 结果写入崩溃报告的ActivityLeaks。依赖{@link #track(Application)}的销毁事件
+     *
+     * @param application Application
+     * @param delayMillis 销毁后多久仍未回收算作泄漏（毫秒），最少1秒
+     */
+    public static void watchActivityLeaks(Application application, long delayMillis) {
+        setDebug(application);
+        ActivityLeakWatcher.start(delayMillis, DEBUG);
+    }
+
+    /**
+     * 销毁后没有被回收的Activity，键为类名，值包含标记次数leaked、标记后才释放的次数releasedLater和当前仍未释放的个数retained
+     *
+     * @return JSON，未调用{@link #watchActivityLeaks(Application)}时为空对象
+     */
+    public static String getActivityLeaks() {
+        return ActivityLeakWatcher.getActivityLeaks();
+    }
+
+    /**
+     * 后台采样Fresco的缓存大小和堆使用，趋势写入崩溃报告的FrescoInfo
+     *
+     * @param application Application
+     * @return 应用不包含Fresco时返回false
+     */
+    public static boolean watchFrescoCache(Application application) {
+        return watchFrescoCache(application, null);
+    }
+
+    /**
+     * 后台采样Fresco的位图内存缓存、磁盘缓存和堆使用，按位图缓存占比以及它与堆余量的相关性判断内存压力，
+     * 级别变化时在主线程回调listener。没有注册{@link FrescoInfoCollector}时自动注册，趋势写入崩溃报告的FrescoInfo。
+     * Fresco在运行时检测，不是必需的依赖
+     *
+     * @param application Application
+     * @param listener    压力级别变化时的回调，可以为null；重复调用时替换
+     * @return 应用不包含Fresco时返回false
+     */
+    public static boolean watchFrescoCache(Application application, TrimPressureListener listener) {
+        setDebug(application);
+        if (!FrescoCacheMonitor.start(listener, DEBUG)) return false;
+        CrashCollectors.registerIfAbsent(new FrescoInfoCollector());
+        return true;
+    }
+
+    /**
+     * 当前的图片缓存压力
+     *
+     * @return TrimPressureListener.PRESSURE_*，未调用{@link #watchFrescoCache(Application)}时为PRESSURE_NONE
+     */
+    public static int getFrescoTrimPressure() {
+        return FrescoCacheMonitor.pressure();
+    }
+
+    /**
+     * 图片缓存的压力级别、位图缓存与堆余量的相关系数（千分比）、位图缓存每分钟的变化和最近的采样
+     *
+     * @return JSON，未调用{@link #watchFrescoCache(Application)}时没有采样
+     */
+    public static String getFrescoCacheTrend() {
+        return FrescoCacheMonitor.getFrescoCacheTrend();
+    }
+
+    /**
+     * 堆使用率超过默认阈值时获取内存快照
+     *
+     * @param application Application
+     */
+    public static void watchHeap(Application application) {
+        watchHeap(application, HeapDumper.DEFAULT_THRESHOLD_PERCENT, HeapDumper.DEFAULT_QUOTA);
+    }
+
+    /**
+     * 堆使用率超过阈值时在后台获取内存快照，每天最多一次。快照保存在应用私有目录，
+     * 基本类型数组的内容被清零并gzip压缩，超出配额时删除最旧的
+     *
+     * @param application      Application
+     * @param thresholdPercent 堆使用率阈值（占最大堆的百分比）
+     * @param quotaBytes       快照占用的最大字节数
+     */
+    public static void watchHeap(Application application, int thresholdPercent, long quotaBytes) {
+        if (HeapDumper.install(application, thresholdPercent, quotaBytes, DEBUG) != null) {
+            MemorySampler.start(DEBUG);
+        }
+    }
+
+    /**
+     * 立即在后台获取内存快照，处理方式同{@link #watchHeap(Application, int, long)}
+     *
+     * @param application Application
+     * @return 是否开始获取，已有快照正在进行时为false
+     */
+    public static boolean dumpHeap(Application application) {
+        HeapDumper dumper = HeapDumper.get();
+        if (dumper == null) {
+            dumper = HeapDumper.install(application, HeapDumper.NO_AUTO_DUMP, HeapDumper.DEFAULT_QUOTA, DEBUG);
+        }
+        return dumper != null && dumper.dumpAsync("manual");
+    }
+
+    /**
+     * 已保存的内存快照（gzip压缩的hprof），从新到旧排列，可以在下次启动时上传
+     *
+     * @param application Application
+     * @return 没有时为空数组
+     */
+    public static File[] getHeapDumps(Application application) {
+        HeapDumper dumper = HeapDumper.get();
+        if (dumper == null) {
+            dumper = HeapDumper.install(application, HeapDumper.NO_AUTO_DUMP, HeapDumper.DEFAULT_QUOTA, DEBUG);
+        }
+        return dumper == null ? new File[0] : dumper.dumps();
     }
 
     /**
@@ -69,6 +301,35 @@ public final class CrashInfo {
         return TrackActivity.getTrackActivityPathDetail();
     }
 
+    /**
+     * 当前进程最近的面包屑
+     *
+     * @return
+     */
+    private static String getBreadcrumbs() {
+        BreadcrumbJournal journal = BreadcrumbJournal.get();
+        return journal == null ? null : journal.getRecent(BREADCRUMBS_IN_REPORT);
+    }
+
+    /**
+     * 上次进程退出前（包括native崩溃、被系统杀死）留下的面包屑，用于在本次启动时上报
+     *
+     * @return JSON数组，没有时为null
+     */
+    public static String getPreviousBreadcrumbs() {
+        return BreadcrumbJournal.getRecovered();
+    }
+
+    /**
+     * 本次会话（同时存活过的各进程）的进程列表和按时间合并的跨进程面包屑
+     *
+     * @return JSON，未调用{@link #track(Application)}时为null
+     */
+    public static String getSession() {
+        SessionState session = SessionState.get();
+        return session == null ? null : session.getSession();
+    }
+
     private static boolean isColdStart() {
         return AppColdStart.Companion.isColdStart();
     }
@@ -82,11 +343,311 @@ public final class CrashInfo {
     private static void setDebug(Application context) {
         DEBUG = context.getApplicationInfo() != null &&
                 (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        FragmentTreeCapture.setDebug(DEBUG);
+        CrashSections.setDebug(DEBUG);
+        CrashPolicy.setDebug(DEBUG);
     }
 
 
     /**
-     * 获得所有消息
+     * 内置的section，按顺序注册到{@link CrashCollectors}，之后是{@link #registerCollector(CrashInfoCollector)}注册的收集器。
+     * 内存信息需要binder调用或读取存储，在线程池中并行收集并有超时；其他只读取内存中已有的状态，在调用线程收集
+     */
+    private static final List<CrashSections.Section<?>> SECTIONS = Arrays.<CrashSections.Section<?>>asList(
+            new CrashSections.Section<DisplayMetrics>("DisplayMetrics", 0L) {
+                @Override
+                DisplayMetrics collect(Application application) {
+                    return application.getResources().getDisplayMetrics();
+                }
+
+                @Override
+                void encode(DisplayMetrics value, CrashReportEncoder encoder) {
+                    encodeDisplayMetrics(value, encoder);
+                }
+
+                @Override
+                void put(DisplayMetrics value, Map<String, String> map) {
+                    map.put(name, getDisplayMetrics(value));
+                }
+            },
+            new MemorySection("AppMemory", 200L) {
+                @Override
+                MemorySnapshot collect(Application application) {
+                    return new MemorySnapshot().collectAppMemory(application);
+                }
+
+                @Override
+                void encode(MemorySnapshot value, CrashReportEncoder encoder) {
+                    value.encodeAppMemory(encoder);
+                }
+
+                @Override
+                void put(MemorySnapshot value, Map<String, String> map) {
+                    map.put(name, value.appMemoryJson().toString());
+                }
+            },
+            new MemorySection("DebugAppMemory", 500L) {
+                @Override
+                MemorySnapshot collect(Application application) {
+                    return new MemorySnapshot().collectDebugAppMemory();
+                }
+
+                @Override
+                void encode(MemorySnapshot value, CrashReportEncoder encoder) {
+                    value.encodeDebugAppMemory(encoder);
+                }
+
+                @Override
+                void put(MemorySnapshot value, Map<String, String> map) {
+                    JSONObject debugAppMemory = value.debugAppMemoryJson();
+                    map.put(name, debugAppMemory == null ? null : debugAppMemory.toString());
+                }
+            },
+            new MemorySection("DeviceSystemMemory", 300L) {
+                @Override
+                MemorySnapshot collect(Application application) {
+                    return new MemorySnapshot().collectDeviceSystemMemory(application);
+                }
+
+                @Override
+                void encode(MemorySnapshot value, CrashReportEncoder encoder) {
+                    value.encodeDeviceSystemMemory(encoder);
+                }
+
+                @Override
+                void put(MemorySnapshot value, Map<String, String> map) {
+                    map.put(name, value.deviceSystemMemoryJson().toString());
+                }
+            },
+            new MemorySection("DeviceSDCardMemory", 300L) {
+                @Override
+                MemorySnapshot collect(Application application) {
+                    return new MemorySnapshot().collectDeviceSDCardMemory();
+                }
+
+                @Override
+                void encode(MemorySnapshot value, CrashReportEncoder encoder) {
+                    value.encodeDeviceSDCardMemory(encoder);
+                }
+
+                @Override
+                void put(MemorySnapshot value, Map<String, String> map) {
+                    map.put(name, value.deviceSDCardMemoryJson().toString());
+                }
+            },
+            new CrashSections.Section<ActivityStackSnapshot>(KEY_ACTIVITIES, 0L) {
+                @Override
+                ActivityStackSnapshot peek() {
+                    return CrashSnapshotCache.getActivities();
+                }
+
+                @Override
+                ActivityStackSnapshot collect(Application application) {
+                    return collectActivities(application);
+                }
+
+                @Override
+                void encode(ActivityStackSnapshot value, CrashReportEncoder encoder) {
+                    value.encode(encoder);
+                }
+
+                @Override
+                void put(ActivityStackSnapshot value, Map<String, String> map) {
+                    putActivities(map, value.activities, value.trees);
+                }
+
+                @Override
+                void putMissing(Map<String, String> map) {
+                    map.put(KEY_ACTIVITIES, null);
+                    map.put(KEY_ACTIVITIES_WITH_FRAGMENTS, null);
+                }
+            },
+            new CrashSections.Section<Boolean>("isColdStart", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return isColdStart();
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    encoder.value(name, value);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, String.valueOf(value));
+                }
+            },
+            new CrashSections.Section<Boolean>("Launch", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    LaunchTracker.encode(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, LaunchTracker.getLaunchTimes());
+                }
+            },
+            new CrashSections.Section<Boolean>("TrackActivityPath", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    TrackActivity.encodeTrackActivityPath(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, getTrackActivityPath());
+                }
+            },
+            new CrashSections.Section<Boolean>("TrackActivityPathDetail", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    TrackActivity.encodeTrackActivityPathDetail(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, getTrackActivityPathDetail());
+                }
+            },
+            new CrashSections.Section<BreadcrumbJournal>("Breadcrumbs", 0L) {
+                @Override
+                BreadcrumbJournal collect(Application application) {
+                    return BreadcrumbJournal.get();
+                }
+
+                @Override
+                void encode(BreadcrumbJournal value, CrashReportEncoder encoder) {
+                    value.encodeRecent(encoder, BREADCRUMBS_IN_REPORT);
+                }
+
+                @Override
+                void put(BreadcrumbJournal value, Map<String, String> map) {
+                    map.put(name, value.getRecent(BREADCRUMBS_IN_REPORT));
+                }
+            },
+            new CrashSections.Section<Boolean>("MemoryTrend", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return MemorySampler.isStarted() ? Boolean.TRUE : null;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    MemorySampler.encode(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, MemorySampler.getMemoryTrend());
+                }
+            },
+            new CrashSections.Section<Boolean>("LifecycleTimings", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return ActivityLifecycleTimings.isTracking() ? Boolean.TRUE : null;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    ActivityLifecycleTimings.encode(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, ActivityLifecycleTimings.getLifecycleTimings());
+                }
+            },
+            new CrashSections.Section<Boolean>("ActivityLeaks", 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return ActivityLeakWatcher.isStarted() ? Boolean.TRUE : null;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    ActivityLeakWatcher.encode(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, ActivityLeakWatcher.getActivityLeaks());
+                }
+            },
+            new CrashSections.Section<SessionState.Snapshot>("Session", 300L) {
+                @Override
+                SessionState.Snapshot collect(Application application) {
+                    // 读取其他进程的面包屑文件，在超时内完成
+                    SessionState state = SessionState.get();
+                    return state == null ? null : state.snapshot();
+                }
+
+                @Override
+                void encode(SessionState.Snapshot value, CrashReportEncoder encoder) {
+                    value.encode(encoder);
+                }
+
+                @Override
+                void put(SessionState.Snapshot value, Map<String, String> map) {
+                    map.put(name, value.toJson());
+                }
+            },
+            new CrashSections.Section<Boolean>(THREADS, 0L) {
+                @Override
+                Boolean collect(Application application) {
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                void encode(Boolean value, CrashReportEncoder encoder) {
+                    ThreadDump.encode(encoder);
+                }
+
+                @Override
+                void put(Boolean value, Map<String, String> map) {
+                    map.put(name, ThreadDump.getThreads());
+                }
+            }
+    );
+
+    static {
+        for (CrashSections.Section<?> section : SECTIONS) CrashCollectors.add(section);
+    }
+
+    /**
+     * 内存信息的section，已调用{@link #track(Application)}时使用后台最近一次收集的结果
+     */
+    private abstract static class MemorySection extends CrashSections.Section<MemorySnapshot> {
+
+        MemorySection(String name, long timeoutMillis) {
+            super(name, timeoutMillis);
+        }
+
+        @Override
+        MemorySnapshot peek() {
+            return CrashSnapshotCache.getMemory();
+        }
+    }
+
+    /**
+     * 获得所有消息，每项独立计时，收集超时或失败的项为null，"Sections"中记录各项的状态和耗时；
+     * 已调用{@link #track(Application)}时直接使用预先收集的缓存
      *
      * @param context 上下文对象
      * @return LinkedHashMap
@@ -94,17 +655,7 @@ public final class CrashInfo {
     public static Map<String, String> getAll(Application context) {
         Map<String, String> map = new LinkedHashMap<>();
 
-        map.put("DisplayMetrics", getDisplayMetrics(context));
-        map.put("AppMemory", getAppMemory(context));
-        map.put("DebugAppMemory", getDebugAppMemory(context));
-        map.put("DeviceSystemMemory", getDeviceSystemMemory(context));
-        map.put("DeviceSDCardMemory", getDeviceSDCardMemory(context));
-        map.put("Activities", getActivities(context, false));
-        map.put("ActivitiesWithFragments", getActivities(context, true));
-        map.put("isColdStart", String.valueOf(isColdStart()));
-        map.put("TrackActivityPath", getTrackActivityPath());
-        map.put("TrackActivityPathDetail", getTrackActivityPathDetail());
-//        map.put("FrescoInfo", getFrescoInfo(context));
+        CrashSections.collect(context, CrashCollectors.sections()).putAll(map);
 
         if (DEBUG) {
 //            dumpToDefaultFile(context);
@@ -117,6 +668,125 @@ public final class CrashInfo {
     }
 
 
+    /**
+     * 以二进制格式写入所有信息，格式见{@link CrashReportDecoder}，字节数等数值保持原始值；
+     * 收集超时或失败的section不写入，最后写入"Sections"记录各section的状态和耗时
+     *
+     * @param context 上下文对象
+     * @param encoder 编码器，调用方负责reset和finish
+     */
+    public static void encodeAll(Application context, CrashReportEncoder encoder) {
+        CrashSections.collect(context, CrashCollectors.sections()).encode(encoder);
+    }
+
+    /**
+     * 以二进制格式写入已缓存或只读内存的section，供{@link NativeCrashHandler}定时保存：需要在线程池中收集的
+     * （例如读取其他进程面包屑的Session）和遍历所有线程的Threads不写入，在"Sections"中的状态为{@link #STATUS_NOT_CACHED}
+     *
+     * @param context 上下文对象
+     * @param encoder 编码器，调用方负责reset和finish
+     */
+    static void encodeCached(Application context, CrashReportEncoder encoder) {
+        List<CrashSections.Section<?>> sections = CrashCollectors.sections();
+        String[] skipped = new String[sections.size()];
+        for (int i = 0; i < skipped.length; i++) {
+            CrashSections.Section<?> section = sections.get(i);
+            if (THREADS.equals(section.name) || (section.timeoutMillis > 0 && section.peek() == null)) {
+                skipped[i] = STATUS_NOT_CACHED;
+            }
+        }
+        CrashSections.collect(context, sections, skipped).encode(encoder);
+    }
+
+    /**
+     * 以二进制格式写入异常和{@link #setPolicy(CrashPolicy)}选择的信息，"Policy"记录选择的级别
+     *
+     * @param context     上下文对象
+     * @param encoder     编码器，调用方负责reset和finish
+     * @param thread      崩溃的线程
+     * @param throwable   异常
+     * @param fingerprint {@link CrashFingerprint#of(Throwable)}
+     */
+    static void encodeAll(Application context, CrashReportEncoder encoder, Thread thread, Throwable throwable, long fingerprint) {
+        encodeThrowable(encoder, thread, throwable, fingerprint, true);
+        CrashPolicy policy = sPolicy;
+        if (policy == null) {
+            encodeAll(context, encoder);
+            return;
+        }
+        List<CrashSections.Section<?>> sections = CrashCollectors.sections();
+        CrashPolicy.Decision decision = policy.decide(context, sections, System.currentTimeMillis());
+        decision.encode(encoder);
+        CrashSections.collect(context, sections, decision.skipped).encode(encoder);
+    }
+
+    /**
+     * 同一指纹近期已有完整报告，只写入异常摘要和累计次数
+     *
+     * @param encoder     编码器，调用方负责reset和finish
+     * @param thread      崩溃的线程
+     * @param throwable   异常
+     * @param fingerprint {@link CrashFingerprint#of(Throwable)}
+     * @param count       该指纹累计出现的次数
+     */
+    static void encodeRepeat(CrashReportEncoder encoder, Thread thread, Throwable throwable, long fingerprint, int count) {
+        encodeThrowable(encoder, thread, throwable, fingerprint, false);
+        encodeRepeat(encoder, count);
+    }
+
+    /**
+     * 写入累计次数，用于代替近期已有完整报告的信息
+     *
+     * @param encoder 编码器
+     * @param count   累计出现的次数
+     */
+    static void encodeRepeat(CrashReportEncoder encoder, int count) {
+        encoder.beginSection("Repeat")
+                .value("count", count)
+                .value("time", System.currentTimeMillis())
+                .end();
+    }
+
+    private static void encodeThrowable(CrashReportEncoder encoder, Thread thread, Throwable throwable, long fingerprint, boolean withFrames) {
+        encoder.beginSection("Throwable")
+                .value("thread", thread == null ? null : thread.getName())
+                .value("threadId", thread == null ? -1L : thread.getId())
+                .value("fingerprint", CrashFingerprint.toHex(fingerprint));
+        encoder.beginList("causes");
+        int depth = 0;
+        for (Throwable t = throwable; t != null && depth < CrashFingerprint.MAX_CAUSES; t = t.getCause(), depth++) {
+            encoder.beginItem()
+                    .value("class", t.getClass().getName())
+                    .value("message", t.getMessage());
+            if (withFrames) {
+                StackTraceElement[] frames = t.getStackTrace();
+                encoder.beginList("frames");
+                for (int i = 0; i < frames.length && i < FRAMES_IN_REPORT; i++) {
+                    encoder.item(frames[i].toString());
+                }
+                encoder.end();
+                if (frames.length > FRAMES_IN_REPORT) encoder.value("omittedFrames", frames.length - FRAMES_IN_REPORT);
+            }
+            encoder.end();
+            if (t.getCause() == t) break;
+        }
+        encoder.end();
+        encoder.end();
+    }
+
+    private static void encodeDisplayMetrics(DisplayMetrics dm, CrashReportEncoder encoder) {
+        encoder.beginSection("DisplayMetrics")
+                .value("brand", Build.BRAND)
+                .value("release", Build.VERSION.RELEASE)
+                .value("model", Build.MODEL)
+                .value("manufacturer", Build.MANUFACTURER)
+                .value("sdk", Build.VERSION.SDK_INT)
+                .value("width", dm.widthPixels)
+                .value("height", dm.heightPixels)
+                .value("densityDpi", dm.densityDpi)
+                .end();
+    }
+
     /**
      * 设备屏幕信息
      *
@@ -124,7 +794,10 @@ public final class CrashInfo {
      * @return
      */
     public static String getDisplayMetrics(Context context) {
-        DisplayMetrics dm = context.getResources().getDisplayMetrics();
+        return getDisplayMetrics(context.getResources().getDisplayMetrics());
+    }
+
+    private static String getDisplayMetrics(DisplayMetrics dm) {
         JSONObject dmJSON = new JSONObject();
         try {
             dmJSON.put("brand", Build.BRAND);
@@ -141,33 +814,31 @@ public final class CrashInfo {
     }
 
 
+    /**
+     * 内存信息，已调用{@link #track(Application)}时返回后台最近一次收集的结果的副本，否则立即收集
+     *
+     * @param context 上下文对象
+     * @return 数值均为字节数，修改不影响崩溃报告
+     */
+    public static MemorySnapshot getMemorySnapshot(Context context) {
+        MemorySnapshot snapshot = CrashSnapshotCache.getMemory();
+        // 缓存的对象会写入之后的崩溃报告，不能交给调用者修改
+        return snapshot != null ? snapshot.copy() : MemorySnapshot.collect(context);
+    }
+
+
     /**
      * 程序运行时内存信息
      *
      * @param context 上下文对象
-     * @return
+     * @return 数值均为字节数
      */
     public static String getAppMemory(Context context) {
-        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        JSONObject appMemoryJSON = new JSONObject();
-        try {
-            if (am != null) {
-                appMemoryJSON.put("memoryClass", BytesUtil.formatFileSizeByMB(context, am.getMemoryClass()));
-                appMemoryJSON.put("largeMemoryClass", BytesUtil.formatFileSizeByMB(context, am.getLargeMemoryClass()));
-                if (DEBUG) {
-                    Log.d(TAG, "getAppMemory-->getMemoryClass=" + am.getMemoryClass());
-                    Log.d(TAG, "getAppMemory-->getLargeMemoryClass=" + am.getLargeMemoryClass());
-                }
-            }
-            Runtime r = Runtime.getRuntime();
-            appMemoryJSON.put("maxMemory", BytesUtil.formatFileSizeByBytes(context, r.maxMemory()));//最大可用内存
-            appMemoryJSON.put("totalMemory", BytesUtil.formatFileSizeByBytes(context, r.totalMemory()));//当前可用内存
-            appMemoryJSON.put("freeMemory", BytesUtil.formatFileSizeByBytes(context, r.freeMemory()));//当前空闲内存
-            appMemoryJSON.put("usedMemory", BytesUtil.formatFileSizeByBytes(context, r.totalMemory() - r.freeMemory()));//当前已使用内存
-        } catch (Exception e) {
-            e.printStackTrace();
+        MemorySnapshot snapshot = new MemorySnapshot().collectAppMemory(context);
+        if (DEBUG) {
+            Log.d(TAG, "getAppMemory-->memoryClass=" + snapshot.memoryClass + ";largeMemoryClass=" + snapshot.largeMemoryClass);
         }
-        return appMemoryJSON.toString();
+        return snapshot.appMemoryJson().toString();
     }
 
 
@@ -175,32 +846,11 @@ public final class CrashInfo {
      * 调试下程序运行时内存信息
      *
      * @param context 上下文对象
-     * @return
+     * @return 数值均为字节数
      */
-    @TargetApi(value = Build.VERSION_CODES.M)
     public static String getDebugAppMemory(Context context) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            Debug.MemoryInfo debugMemoryInfo = new Debug.MemoryInfo();
-            Debug.getMemoryInfo(debugMemoryInfo);
-            Map<String, String> map = debugMemoryInfo.getMemoryStats();
-            Set<Map.Entry<String, String>> set = map.entrySet();
-            Iterator<Map.Entry<String, String>> iterator = set.iterator();
-            JSONObject jsonObject = new JSONObject();
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> entry = iterator.next();
-                String value = BytesUtil.formatFileSizeByKB(context, Long.parseLong(entry.getValue()));
-                if (DEBUG)
-                    Log.d(TAG, "getDebugAppMemory-->key=" + entry.getKey() + ";getValue=" + entry.getValue() + ";value=" + value);
-                try {
-                    jsonObject.put(entry.getKey(), value);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-            return jsonObject.toString();
-        }
-
-        return null;
+        JSONObject jsonObject = new MemorySnapshot().collectDebugAppMemory().debugAppMemoryJson();
+        return jsonObject == null ? null : jsonObject.toString();
     }
 
 
@@ -208,48 +858,20 @@ public final class CrashInfo {
      * 系统内存信息
      *
      * @param context 上下文对象
-     * @return
+     * @return 数值均为字节数
      */
     public static String getDeviceSystemMemory(Context context) {
-        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
-        JSONObject deviceMemoryJSON = new JSONObject();
-        if (am != null) {
-            am.getMemoryInfo(memoryInfo);
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                    deviceMemoryJSON.put("totalMem", BytesUtil.formatFileSizeByBytes(context, memoryInfo.totalMem));//系统总内存
-                }
-                deviceMemoryJSON.put("availMem", BytesUtil.formatFileSizeByBytes(context, memoryInfo.availMem));//系统剩余内存
-                deviceMemoryJSON.put("threshold", BytesUtil.formatFileSizeByBytes(context, memoryInfo.threshold));//当系统剩余内存低于"+threshold+"时就看成低内存运行
-                deviceMemoryJSON.put("lowMemory", memoryInfo.lowMemory);//系统是否处于低内存运行
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        return deviceMemoryJSON.toString();
-
+        return new MemorySnapshot().collectDeviceSystemMemory(context).deviceSystemMemoryJson().toString();
     }
 
     /**
      * 设备SD卡内存
      *
      * @param context 上下文对象
-     * @return
+     * @return 数值均为字节数
      */
     public static String getDeviceSDCardMemory(Context context) {
-        JSONObject deviceMemoryJSON = new JSONObject();
-        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
-            try {
-                deviceMemoryJSON.put("sdCardTotalSpace", BytesUtil.formatFileSizeByBytes(context, Environment.getExternalStorageDirectory().getTotalSpace()));//sd card总内存
-//                deviceMemoryJSON.put("sdCardFreeSpace", Formatter.formatFileSize(context, Environment.getExternalStorageDirectory().getFreeSpace()));//sd card剩余内存
-                deviceMemoryJSON.put("sdCardUsableSpace", BytesUtil.formatFileSizeByBytes(context, Environment.getExternalStorageDirectory().getUsableSpace()));//sd card可用内存
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        return deviceMemoryJSON.toString();
+        return new MemorySnapshot().collectDeviceSDCardMemory().deviceSDCardMemoryJson().toString();
     }
 
 
@@ -257,7 +879,9 @@ public final class CrashInfo {
      * 获取内存快照，并存储文件到默认路径
      *
      * @param context 上下文对象
+     * @deprecated 在调用线程获取，没有压缩和配额，使用{@link #dumpHeap(Application)}
      */
+    @Deprecated
     public static void dumpToDefaultFile(Context context) {
         dumpToFile(Environment.getExternalStorageDirectory().getPath() + File.separator + context.getPackageName() + File.separator + "dump");
     }
@@ -266,7 +890,9 @@ public final class CrashInfo {
      * 获取内存快照
      *
      * @param pathname 存储文件路径
+     * @deprecated 在调用线程获取，没有压缩和配额，使用{@link #dumpHeap(Application)}
      */
+    @Deprecated
     public static void dumpToFile(String pathname) {
 
         if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
@@ -311,130 +937,119 @@ public final class CrashInfo {
      * @return
      */
     public static String getActivities(Application application, boolean includeFragment) {
-        List<Activity> list = getActivitiesByApplication(application);
-        Log.d(TAG, "getActivities-->list=" + list + ";includeFragment=" + includeFragment);
-        if (list == null || list.isEmpty()) return null;
-
-        Map<String, List<String>> stackMap = null;
-        List<String> stackList = null;
-        if (includeFragment) {
-            stackMap = new LinkedHashMap<>(list.size());
-        } else {
-            stackList = new ArrayList<>(list.size());
-        }
-        Iterator<Activity> iterator = list.iterator();
-        while (iterator.hasNext()) {
-            Activity activity = iterator.next();
-            if (DEBUG) {
-                Log.d(TAG, "getActivities-->activity-->name=" + activity.getClass().getName() + ";includeFragment=" + includeFragment);
-            }
-            if (includeFragment) {
-                Map<String, List<String>> temp = null;
-                if (activity instanceof FragmentActivity) {
-                    temp = getSupportFragmentOfActivity(activity.getClass().getName(), ((FragmentActivity) activity).getSupportFragmentManager());
-                } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    temp = getFragmentOfActivity(activity.getClass().getName(), activity.getFragmentManager());
-                }
-                if (temp != null && !temp.isEmpty()) stackMap.putAll(temp);
-            } else {
-                stackList.add(activity.getClass().getName());
-            }
-        }
-        if (includeFragment) {
-            return new JSONObject(stackMap).toString();
+        Map<String, String> map = new LinkedHashMap<>(2);
+        putActivities(map, application, !includeFragment, includeFragment);
+        return map.get(includeFragment ? KEY_ACTIVITIES_WITH_FRAGMENTS : KEY_ACTIVITIES);
+    }
+
+    private static void putActivities(Map<String, String> map, Application application, boolean flat, boolean includeFragment) {
+        List<String> stackList = flat ? new ArrayList<String>() : null;
+        List<FragmentTreeCapture> trees = includeFragment ? new ArrayList<FragmentTreeCapture>() : null;
+        if (!collectActivities(application, stackList, trees)) {
+            if (flat) map.put(KEY_ACTIVITIES, null);
+            if (includeFragment) map.put(KEY_ACTIVITIES_WITH_FRAGMENTS, null);
+            return;
         }
+        putActivities(map, stackList, trees);
+    }
 
-        return new JSONArray(stackList).toString();
-    }
-
-    @TargetApi(Build.VERSION_CODES.O)
-    private static Map<String, List<String>> getFragmentOfActivity(String
-                                                                           name, android.app.FragmentManager fragmentManager) {
-        Map<String, android.app.FragmentManager> fragmentManagers = new LinkedHashMap<>();
-        fragmentManagers.put(name, fragmentManager);
-        Map<String, android.app.FragmentManager> childFragmentManagers = null;
-        Map<String, List<String>> result = new LinkedHashMap<>();
-        int size = 4;
-        while (!fragmentManagers.isEmpty()) {
-            childFragmentManagers = new LinkedHashMap<>(size);
-            Set<Map.Entry<String, android.app.FragmentManager>> entries = fragmentManagers.entrySet();
-            Iterator<Map.Entry<String, android.app.FragmentManager>> iterator = entries.iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, android.app.FragmentManager> entry = iterator.next();
-                android.app.FragmentManager fm = entry.getValue();
-                List<android.app.Fragment> fragments = fm.getFragments();
-                List<String> values = new ArrayList<>(fragments.size());
-                int index = 0;
-                for (android.app.Fragment fragment : fragments) {
-                    String fragmentName = fragment.getClass().getName();
-                    if (DEBUG) {
-                        Log.d(TAG, "getFragmentOfActivity-->key=" + entry.getKey() + ";value[" + index + "]=" + fragmentName);
-                    }
-                    if (!fragment.getChildFragmentManager().getFragments().isEmpty()) {
-                        childFragmentManagers.put(values.contains(fragmentName) ? fragmentName + index : fragmentName, fragment.getChildFragmentManager());
-                    }
-                    values.add(fragmentName);
-                    index++;
-                }
-                result.put(entry.getKey(), values);
+    private static void putActivities(Map<String, String> map, List<String> stackList, List<FragmentTreeCapture> trees) {
+        if (stackList != null) map.put(KEY_ACTIVITIES, new JSONArray(stackList).toString());
+        if (trees != null) {
+            Map<String, List<String>> stackMap = new LinkedHashMap<>();
+            for (int i = 0; i < trees.size(); i++) {
+                trees.get(i).putInto(stackMap);
             }
-
-            fragmentManagers.clear();
-            if (!childFragmentManagers.isEmpty())
-                fragmentManagers.putAll(childFragmentManagers);
+            map.put(KEY_ACTIVITIES_WITH_FRAGMENTS, new JSONObject(stackMap).toString());
         }
+    }
 
-        return result;
+    /**
+     * 一次遍历得到的Activity栈和每个Activity的Fragment树，创建后不再修改
+     */
+    static final class ActivityStackSnapshot {
+        final List<String> activities = new ArrayList<>();
+        final List<FragmentTreeCapture> trees = new ArrayList<>();
 
+        void encode(CrashReportEncoder encoder) {
+            encoder.beginList(KEY_ACTIVITIES);
+            for (int i = 0; i < activities.size(); i++) {
+                encoder.item(activities.get(i));
+            }
+            encoder.end();
+            encoder.beginSection(KEY_ACTIVITIES_WITH_FRAGMENTS);
+            for (int i = 0; i < trees.size(); i++) {
+                trees.get(i).encode(encoder);
+            }
+            encoder.end();
+        }
     }
 
+    /**
+     * 遍历一次Activity栈，同时得到不包括和包括Fragment的两种栈信息
+     *
+     * @param application 应用程序对象
+     * @return Activity栈为空或读取失败时为null
+     */
+    static ActivityStackSnapshot collectActivities(Application application) {
+        ActivityStackSnapshot snapshot = new ActivityStackSnapshot();
+        return collectActivities(application, snapshot.activities, snapshot.trees) ? snapshot : null;
+    }
 
-    private static Map<String, List<String>> getSupportFragmentOfActivity(String
-                                                                                  name, FragmentManager fragmentManager) {
-        Map<String, FragmentManager> fragmentManagers = new LinkedHashMap<>();
-        fragmentManagers.put(name, fragmentManager);
-        Map<String, List<String>> result = new LinkedHashMap<>();
-        Map<String, FragmentManager> childFragmentManagers = null;
-        int size = 4;
-        while (!fragmentManagers.isEmpty()) {
-            childFragmentManagers = new LinkedHashMap<>(size);
-            Set<Map.Entry<String, FragmentManager>> entries = fragmentManagers.entrySet();
-            Iterator<Map.Entry<String, FragmentManager>> iterator = entries.iterator();
+    /**
+     * 遍历一次Activity栈
+     *
+     * @param application 应用程序对象
+     * @param stackList   Activity类名，为null时不收集
+     * @param trees       每个Activity的Fragment树，为null时不收集
+     * @return Activity栈为空或读取失败时返回false
+     */
+    private static boolean collectActivities(Application application, List<String> stackList, List<FragmentTreeCapture> trees) {
+        ActivityStack.Record[] records = null;
+        List<Activity> list = null;
+        int size;
+        if (ActivityStack.isTracking()) {
+            records = ActivityStack.records();
+            size = records.length;
+        } else {
+            list = getActivitiesByApplication(application);
+            size = list == null ? 0 : list.size();
+        }
+        boolean includeFragment = trees != null;
+        if (DEBUG) {
+            Log.d(TAG, "getActivities-->size=" + size + ";includeFragment=" + includeFragment);
+        }
+        if (size == 0) return false;
 
-            while (iterator.hasNext()) {
-                Map.Entry<String, FragmentManager> entry = iterator.next();
-                FragmentManager fm = entry.getValue();
-                List<Fragment> fragments = fm.getFragments();
-                List<String> values = new ArrayList<>(fragments.size());
-                int index = 0;
-                for (Fragment fragment : fragments) {
-                    String fragmentName = fragment.getClass().getName();
-                    if (DEBUG) {
-                        Log.d(TAG, "getSupportFragmentOfActivity-->key=" + entry.getKey() + ";value[" + index + "]=" + fragmentName);
-                    }
-                    if (!fragment.getChildFragmentManager().getFragments().isEmpty()) {
-                        childFragmentManagers.put(values.contains(fragmentName) ? fragmentName + index : fragmentName, fragment.getChildFragmentManager());
+        for (int i = 0; i < size; i++) {
+            ActivityStack.Record record = records != null ? records[i] : null;
+            Activity activity = record != null ? record.activity() : list.get(i);
+            String name = record != null ? record.name : activity.getClass().getName();
+            if (DEBUG) {
+                Log.d(TAG, "getActivities-->activity-->name=" + name + ";includeFragment=" + includeFragment);
+            }
+            if (stackList != null) {
+                stackList.add(name);
+            }
+            if (includeFragment && activity != null) {
+                FragmentTreeCapture tree;
+                if (record != null) {
+                    // Fragment没有增删时复用上次的结果
+                    int version = record.fragmentVersion();
+                    if (record.capturedFragments == null || record.capturedFragmentVersion != version) {
+                        record.capturedFragments = FragmentTreeCapture.capture(activity);
+                        record.capturedFragmentVersion = version;
                     }
-                    values.add(fragmentName);
-                    index++;
+                    tree = record.capturedFragments;
+                } else {
+                    tree = FragmentTreeCapture.capture(activity);
                 }
-                result.put(entry.getKey(), values);
+                if (tree != null) trees.add(tree);
             }
-
-            fragmentManagers.clear();
-            if (!childFragmentManagers.isEmpty())
-                fragmentManagers.putAll(childFragmentManagers);
-        }
-
-        if (DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            Log.d(TAG, "getSupportFragmentOfActivity-->json=" + JSONObject.wrap(result));
         }
-
-        return result;
-
+        return true;
     }
 
-
     /**
      * 通过反射获取应用程序的Activity栈信息
      *
@@ -444,27 +1059,26 @@ public final class CrashInfo {
     public static List<Activity> getActivitiesByApplication(Application application) {
         List<Activity> list = new ArrayList<>();
         try {
-            Class<Application> applicationClass = Application.class;
-            Field mLoadedApkField = applicationClass.getDeclaredField("mLoadedApk");
-            mLoadedApkField.setAccessible(true);
-            Object mLoadedApk = mLoadedApkField.get(application);
-            Class<?> mLoadedApkClass = mLoadedApk.getClass();
-            Field mActivityThreadField = mLoadedApkClass.getDeclaredField("mActivityThread");
-            mActivityThreadField.setAccessible(true);
-            Object mActivityThread = mActivityThreadField.get(mLoadedApk);
-            Class<?> mActivityThreadClass = mActivityThread.getClass();
-            Field mActivitiesField = mActivityThreadClass.getDeclaredField("mActivities");
-            mActivitiesField.setAccessible(true);
-            Object mActivities = mActivitiesField.get(mActivityThread);
+            if (sLoadedApkField == null)
+                sLoadedApkField = getAccessibleField(Application.class, "mLoadedApk");
+            Object mLoadedApk = sLoadedApkField.get(application);
+            if (sActivityThreadField == null)
+                sActivityThreadField = getAccessibleField(mLoadedApk.getClass(), "mActivityThread");
+            Object mActivityThread = sActivityThreadField.get(mLoadedApk);
+            if (sActivitiesField == null)
+                sActivitiesField = getAccessibleField(mActivityThread.getClass(), "mActivities");
+            Object mActivities = sActivitiesField.get(mActivityThread);
             // 注意这里一定写成Map，低版本这里用的是HashMap，高版本用的是ArrayMap
             if (mActivities instanceof Map) {
                 @SuppressWarnings("unchecked")
                 Map<Object, Object> arrayMap = (Map<Object, Object>) mActivities;
                 for (Map.Entry<Object, Object> entry : arrayMap.entrySet()) {
                     Object value = entry.getValue();
-                    Class<?> activityClientRecordClass = value.getClass();
-                    Field activityField = activityClientRecordClass.getDeclaredField("activity");
-                    activityField.setAccessible(true);
+                    Field activityField = sActivityField;
+                    if (activityField == null || activityField.getDeclaringClass() != value.getClass()) {
+                        activityField = getAccessibleField(value.getClass(), "activity");
+                        sActivityField = activityField;
+                    }
                     Object o = activityField.get(value);
                     list.add((Activity) o);
                 }
@@ -485,17 +1099,25 @@ public final class CrashInfo {
     }
 
 
+    private static Field getAccessibleField(Class<?> clazz, String name) throws NoSuchFieldException {
+        Field field = clazz.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+
     /**
-     * 获得Fresco的一些信息
+     * 获得Fresco的一些信息，需要写入报告时注册{@link FrescoInfoCollector}
      *
      * @param context 上下文对象
-     * @return
+     * @return 没有Fresco时为空对象
      */
     public static String getFrescoInfo(Context context) {
         JSONObject jsonObject = new JSONObject();
+        if (!FrescoCacheMonitor.isFrescoAvailable()) return jsonObject.toString();
         try {
-            jsonObject.put("fileCache", BytesUtil.formatFileSizeByBytes(context, Fresco.getImagePipelineFactory().getMainFileCache().getSize()));//获取磁盘上的文件大小，需要添加DiskCacheConfig.setIndexPopulateAtStartupEnabled(true)这行代码，否则结果为-1
-            jsonObject.put("bitmapCache", BytesUtil.formatFileSizeByBytes(context, Fresco.getImagePipelineFactory().getBitmapCountingMemoryCache().getSizeInBytes()));//获取内存中所有当前缓存项的总大小（以字节为单位）。
+            jsonObject.put("fileCache", FrescoCacheMonitor.FrescoCaches.diskCacheBytes());//获取磁盘上的文件大小，需要添加DiskCacheConfig.setIndexPopulateAtStartupEnabled(true)这行代码，否则结果为-1
+            jsonObject.put("bitmapCache", FrescoCacheMonitor.FrescoCaches.bitmapCacheBytes());//获取内存中所有当前缓存项的总大小（以字节为单位）。
         } catch (Exception e) {
             e.printStackTrace();
         }
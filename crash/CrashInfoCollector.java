@@ -0,0 +1,202 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 报告中的一项自定义信息，通过{@link CrashInfo#registerCollector(CrashInfoCollector)}注册，
+ * 不需要修改CrashInfo就能加入OkHttp、数据库、图片缓存等信息
+ * <p>
+ * 每个收集器声明：
+ * <ul>
+ * <li>开销：{@link #COST_CHEAP}只读内存，{@link #COST_BLOCKING}有binder调用或读写存储，{@link #COST_EXPENSIVE}遍历大量对象或大量分配，
+ * expensive的收集器只在{@link CrashPolicy#TIER_FULL}的报告中收集</li>
+ * <li>线程：{@link #THREAD_ANY}任意线程，{@link #THREAD_CALLER}必须在调用线程（崩溃时即崩溃的线程），{@link #THREAD_MAIN}必须在主线程</li>
+ * <li>刷新：{@link #REFRESH_STATIC}在{@link CrashInfo#track(Application)}后收集一次，{@link #REFRESH_LIFECYCLE}在生命周期事件后和定时在后台刷新，
+ * 这两种崩溃时直接使用缓存；{@link #REFRESH_CRASH}崩溃时收集，blocking和expensive的在线程池中收集并有超时</li>
+ * <li>输出：{@link #schema()}声明的字段，{@link #write(Object, Output)}写入未声明或类型不符的字段会被丢弃并计入"schemaErrors"</li>
+ * </ul>
+ * 报告中每个收集器是一个与名称同名的section，包含"schemaVersion"和写入的字段。
+ *
+ * @param <T> 收集的结果，缓存的结果可能在任意线程写入，发布后不要再修改
+ */
+public abstract class CrashInfoCollector<T> {
+
+    public static final int COST_CHEAP = 0;
+    public static final int COST_BLOCKING = 1;
+    public static final int COST_EXPENSIVE = 2;
+
+    public static final int THREAD_ANY = 0;
+    public static final int THREAD_CALLER = 1;
+    public static final int THREAD_MAIN = 2;
+
+    public static final int REFRESH_STATIC = 0;
+    public static final int REFRESH_LIFECYCLE = 1;
+    public static final int REFRESH_CRASH = 2;
+
+    /**
+     * 崩溃时在线程池中收集的默认超时时间（毫秒）
+     */
+    public static final long DEFAULT_TIMEOUT = 300L;
+
+    final String name;
+    final int cost;
+    final int thread;
+    final int refresh;
+
+    /**
+     * @param name    报告中的section名称，不能与其他section重复
+     * @param cost    COST_*
+     * @param thread  THREAD_*，THREAD_MAIN不能与REFRESH_CRASH一起使用
+     * @param refresh REFRESH_*
+     */
+    protected CrashInfoCollector(String name, int cost, int thread, int refresh) {
+        if (name == null || name.length() == 0)
+            throw new IllegalArgumentException("name is empty");
+        if (cost < COST_CHEAP || cost > COST_EXPENSIVE)
+            throw new IllegalArgumentException("cost=" + cost);
+        if (thread < THREAD_ANY || thread > THREAD_MAIN)
+            throw new IllegalArgumentException("thread=" + thread);
+        if (refresh < REFRESH_STATIC || refresh > REFRESH_CRASH)
+            throw new IllegalArgumentException("refresh=" + refresh);
+        if (thread == THREAD_MAIN && refresh == REFRESH_CRASH)
+            throw new IllegalArgumentException(name + ": main thread collectors must be refreshed before the crash");
+        this.name = name;
+        this.cost = cost;
+        this.thread = thread;
+        this.refresh = refresh;
+    }
+
+    /**
+     * 输出的字段，注册时调用一次
+     */
+    protected abstract Schema schema();
+
+    /**
+     * 收集，在声明的线程执行；返回null表示没有该项信息
+     */
+    protected abstract T collect(Application application) throws Exception;
+
+    /**
+     * 写入结果，崩溃时在调用线程执行，只应读取value
+     */
+    protected abstract void write(T value, Output output);
+
+    /**
+     * 崩溃时在线程池中收集的超时时间（毫秒），注册时调用一次
+     */
+    protected long timeoutMillis() {
+        return DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * 输出的字段和版本
+     */
+    public static final class Schema {
+        static final int TYPE_STRING = 0;
+        static final int TYPE_NUMBER = 1;
+        static final int TYPE_BOOLEAN = 2;
+
+        final int version;
+        final Map<String, Integer> fields = new LinkedHashMap<>();
+
+        /**
+         * @param version 字段含义改变时增加，写入报告的"schemaVersion"
+         */
+        public Schema(int version) {
+            this.version = version;
+        }
+
+        public Schema string(String key) {
+            return field(key, TYPE_STRING);
+        }
+
+        public Schema number(String key) {
+            return field(key, TYPE_NUMBER);
+        }
+
+        public Schema bool(String key) {
+            return field(key, TYPE_BOOLEAN);
+        }
+
+        private Schema field(String key, int type) {
+            if (fields.put(key, type) != null)
+                throw new IllegalArgumentException("duplicate field " + key);
+            return this;
+        }
+
+        boolean accepts(String key, int type) {
+            Integer declared = fields.get(key);
+            return declared != null && declared == type;
+        }
+    }
+
+    /**
+     * 写入一个收集器的结果，崩溃时写入二进制报告，{@link CrashInfo#getAll(Application)}时写入JSON
+     */
+    public static final class Output {
+        private final Schema mSchema;
+        private final CrashReportEncoder mEncoder;
+        private final JSONObject mJson;
+        int mErrors;
+
+        Output(Schema schema, CrashReportEncoder encoder) {
+            mSchema = schema;
+            mEncoder = encoder;
+            mJson = null;
+        }
+
+        Output(Schema schema, JSONObject json) {
+            mSchema = schema;
+            mEncoder = null;
+            mJson = json;
+        }
+
+        public Output put(String key, String value) {
+            if (!mSchema.accepts(key, Schema.TYPE_STRING)) {
+                mErrors++;
+            } else if (mEncoder != null) {
+                mEncoder.value(key, value);
+            } else {
+                putJson(key, value == null ? JSONObject.NULL : value);
+            }
+            return this;
+        }
+
+        public Output put(String key, long value) {
+            if (!mSchema.accepts(key, Schema.TYPE_NUMBER)) {
+                mErrors++;
+            } else if (mEncoder != null) {
+                mEncoder.value(key, value);
+            } else {
+                putJson(key, value);
+            }
+            return this;
+        }
+
+        public Output put(String key, boolean value) {
+            if (!mSchema.accepts(key, Schema.TYPE_BOOLEAN)) {
+                mErrors++;
+            } else if (mEncoder != null) {
+                mEncoder.value(key, value);
+            } else {
+                putJson(key, value);
+            }
+            return this;
+        }
+
+        private void putJson(String key, Object value) {
+            try {
+                mJson.put(key, value);
+            } catch (JSONException e) {
+                e.printStackTrace();
+                mErrors++;
+            }
+        }
+    }
+}
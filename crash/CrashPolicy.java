@@ -0,0 +1,268 @@
+package example.com.kotlin.crash;
+
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 崩溃时收集哪些信息
+ * <p>
+ * 每份报告选择一个级别：{@link #TIER_MINIMAL}、{@link #TIER_STANDARD}、{@link #TIER_FULL}，
+ * 只收集级别不高于它的section，每个section还可以设置采样率。
+ * <ul>
+ * <li>最近一段时间内崩溃次数达到阈值（崩溃风暴）时为minimal，只收集读内存的少量信息</li>
+ * <li>{@link ActivityManager#getMemoryClass()}不超过低内存阈值的设备最多为standard</li>
+ * <li>完整报告受两个令牌桶限制：每个会话和每天，没有令牌时降为standard。崩溃后{@link CrashRateLimiter#RESTART_WINDOW}内
+ * 重启开始的会话沿用原来的会话配额</li>
+ * </ul>
+ * 报告的"Policy"记录选择的级别和原因，被跳过的section在"Sections"中的状态为skipped或sampled out。
+ * 通过{@link CrashInfo#setPolicy(CrashPolicy)}设置，设置后不要再修改。
+ */
+public final class CrashPolicy {
+
+    private static final String TAG = "CrashPolicy";
+
+    /**
+     * 异常和只读内存的少量信息
+     */
+    public static final int TIER_MINIMAL = 0;
+    /**
+     * 加上内存、Activity栈、跟踪记录等
+     */
+    public static final int TIER_STANDARD = 1;
+    /**
+     * 所有信息，包括较慢的Debug内存、SD卡和所有线程
+     */
+    public static final int TIER_FULL = 2;
+
+    private static final String[] TIER_NAMES = {"minimal", "standard", "full"};
+
+    static final String STATUS_SKIPPED = "skipped";
+    static final String STATUS_SAMPLED_OUT = "sampled out";
+
+    static final String REASON_DEFAULT = "default";
+    static final String REASON_LOW_MEMORY_CLASS = "low memory class";
+    static final String REASON_CRASH_STORM = "crash storm";
+    static final String REASON_RATE_LIMITED = "rate limited";
+
+    private static boolean DEBUG = false;
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * 没有设置的section的级别
+     */
+    private int mDefaultTier = TIER_STANDARD;
+    private final Map<String, Integer> mTiers = new HashMap<>();
+    private final Map<String, Float> mSampleRates = new HashMap<>();
+    private int mFullReportsPerSession = 3;
+    private int mFullReportsPerDay = 10;
+    private int mStormCrashes = 3;
+    private long mStormWindowMillis = 60 * 1000L;
+    private int mLowMemoryClass = 128;
+
+    /**
+     * 默认的级别和配额：每个会话3份、每天10份完整报告，1分钟内第3次崩溃起为minimal，
+     * memoryClass不超过128MB的设备最多为standard
+     */
+    public CrashPolicy() {
+        setTier(TIER_MINIMAL, "DisplayMetrics", "isColdStart", "Launch", "Breadcrumbs");
+        setTier(TIER_STANDARD, "AppMemory", "DeviceSystemMemory", "Activities", "TrackActivityPath",
+                "TrackActivityPathDetail", "MemoryTrend", "LifecycleTimings", "ActivityLeaks", "Session");
+        setTier(TIER_FULL, "DebugAppMemory", "DeviceSDCardMemory", "Threads");
+    }
+
+    static void setDebug(boolean debug) {
+        DEBUG = debug;
+    }
+
+    private void setTier(int tier, String... sections) {
+        for (String section : sections) mTiers.put(section, tier);
+    }
+
+    /**
+     * 设置section的级别
+     *
+     * @param section section名称，例如"Threads"
+     * @param tier    {@link #TIER_MINIMAL}、{@link #TIER_STANDARD}或{@link #TIER_FULL}
+     */
+    public CrashPolicy setSectionTier(String section, int tier) {
+        mTiers.put(section, checkTier(tier));
+        return this;
+    }
+
+    /**
+     * 设置没有单独设置的section的级别，默认为{@link #TIER_STANDARD}；expensive的{@link CrashInfoCollector}为{@link #TIER_FULL}
+     */
+    public CrashPolicy setDefaultTier(int tier) {
+        mDefaultTier = checkTier(tier);
+        return this;
+    }
+
+    private static int checkTier(int tier) {
+        if (tier < TIER_MINIMAL || tier > TIER_FULL)
+            throw new IllegalArgumentException("tier=" + tier);
+        return tier;
+    }
+
+    /**
+     * 设置section的采样率，级别满足时按该概率收集
+     *
+     * @param section section名称
+     * @param rate    0到1，默认为1
+     */
+    public CrashPolicy setSampleRate(String section, float rate) {
+        if (!(rate >= 0f && rate <= 1f))
+            throw new IllegalArgumentException("rate=" + rate);
+        mSampleRates.put(section, rate);
+        return this;
+    }
+
+    /**
+     * 每个会话最多的完整报告数，小于0表示不限；崩溃重启开始的会话与崩溃前的会话共用配额
+     */
+    public CrashPolicy setFullReportsPerSession(int count) {
+        mFullReportsPerSession = count;
+        return this;
+    }
+
+    /**
+     * 每天最多的完整报告数，令牌每过一天/count补充一个，小于0表示不限
+     */
+    public CrashPolicy setFullReportsPerDay(int count) {
+        mFullReportsPerDay = count;
+        return this;
+    }
+
+    /**
+     * windowMillis内崩溃达到crashes次（含本次）时只收集minimal
+     *
+     * @param crashes      次数，最多{@link CrashRateLimiter#MAX_CRASH_TIMES}，小于等于0表示不检测
+     * @param windowMillis 时间窗口
+     */
+    public CrashPolicy setCrashStorm(int crashes, long windowMillis) {
+        if (crashes > CrashRateLimiter.MAX_CRASH_TIMES)
+            throw new IllegalArgumentException("crashes=" + crashes);
+        mStormCrashes = crashes;
+        mStormWindowMillis = windowMillis;
+        return this;
+    }
+
+    /**
+     * memoryClass不超过该值（MB）的设备最多收集standard，小于等于0表示不限
+     */
+    public CrashPolicy setLowMemoryClass(int megabytes) {
+        mLowMemoryClass = megabytes;
+        return this;
+    }
+
+    int tierOf(CrashSections.Section<?> section) {
+        Integer tier = mTiers.get(section.name);
+        if (tier != null) return tier;
+        return section.tier() >= 0 ? section.tier() : mDefaultTier;
+    }
+
+    /**
+     * 一份报告的决定
+     */
+    static final class Decision {
+        int tier;
+        String reason;
+        int memoryClass;
+        int recentCrashes;
+        int sessionRemaining;
+        int dayRemaining;
+        /**
+         * 与section一一对应，为null的收集，否则为跳过的状态
+         */
+        final String[] skipped;
+
+        Decision(int size) {
+            skipped = new String[size];
+        }
+
+        /**
+         * 以二进制格式写入"Policy"
+         */
+        void encode(CrashReportEncoder encoder) {
+            encoder.beginSection("Policy")
+                    .value("tier", TIER_NAMES[tier])
+                    .value("reason", reason)
+                    .value("memoryClass", memoryClass)
+                    .value("recentCrashes", recentCrashes)
+                    .value("sessionRemaining", sessionRemaining)
+                    .value("dayRemaining", dayRemaining)
+                    .end();
+        }
+    }
+
+    /**
+     * 为本次崩溃选择级别并决定每个section是否收集，同时记录本次崩溃的时间
+     *
+     * @param application 应用程序
+     * @param sections    报告的section
+     * @param now         崩溃时间
+     */
+    Decision decide(Application application, List<CrashSections.Section<?>> sections, long now) {
+        Decision decision = new Decision(sections.size());
+        ActivityManager am = (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+        decision.memoryClass = am == null ? 0 : am.getMemoryClass();
+        SessionState state = SessionState.get();
+        long sessionId = state != null ? state.sessionId() : Process.myPid();
+        CrashRateLimiter limiter = CrashRateLimiter.get();
+        if (limiter != null) {
+            // 先按上一次崩溃判断是否是崩溃重启，再记录本次
+            limiter.enterSession(now, sessionId);
+            limiter.recordCrash(now);
+            decision.recentCrashes = limiter.countCrashes(now, mStormWindowMillis);
+        }
+
+        decision.tier = TIER_FULL;
+        decision.reason = REASON_DEFAULT;
+        if (mLowMemoryClass > 0 && decision.memoryClass > 0 && decision.memoryClass <= mLowMemoryClass) {
+            decision.tier = TIER_STANDARD;
+            decision.reason = REASON_LOW_MEMORY_CLASS;
+        }
+        if (mStormCrashes > 0 && decision.recentCrashes >= mStormCrashes) {
+            decision.tier = TIER_MINIMAL;
+            decision.reason = REASON_CRASH_STORM;
+        }
+        // 只有真正收集完整报告时才消耗令牌
+        if (decision.tier == TIER_FULL && limiter != null
+                && !limiter.tryAcquire(now, mFullReportsPerSession, mFullReportsPerDay)) {
+            decision.tier = TIER_STANDARD;
+            decision.reason = REASON_RATE_LIMITED;
+        }
+        if (limiter != null) {
+            decision.sessionRemaining = limiter.sessionRemaining(mFullReportsPerSession);
+            decision.dayRemaining = limiter.dayRemaining(now, mFullReportsPerDay);
+        } else {
+            decision.sessionRemaining = -1;
+            decision.dayRemaining = -1;
+        }
+
+        for (int i = 0; i < sections.size(); i++) {
+            CrashSections.Section<?> section = sections.get(i);
+            if (tierOf(section) > decision.tier) {
+                decision.skipped[i] = STATUS_SKIPPED;
+                continue;
+            }
+            Float rate = mSampleRates.get(section.name);
+            if (rate != null && rate < 1f && !(rate > 0f && sRandom.nextFloat() < rate)) {
+                decision.skipped[i] = STATUS_SAMPLED_OUT;
+            }
+        }
+        if (DEBUG)
+            Log.d(TAG, "decide-->tier=" + TIER_NAMES[decision.tier] + ";reason=" + decision.reason
+                    + ";memoryClass=" + decision.memoryClass + ";recentCrashes=" + decision.recentCrashes);
+        return decision;
+    }
+}
@@ -0,0 +1,220 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 持久化的完整报告令牌桶和最近的崩溃时间，供{@link CrashPolicy}使用
+ * <p>
+ * 会话桶不随时间补充，在{@link SessionState}开始新会话后的第一次崩溃时装满。没有其他存活进程时每次重启都是
+ * 新会话，为了单进程连续崩溃不会每次都重新得到配额，上一次崩溃距今不到{@link #RESTART_WINDOW}的新会话
+ * 视为崩溃重启，沿用原来的会话桶。每日桶最多保存一天的配额，每过一天/配额补充一个令牌。
+ * 文件通过内存映射读写，崩溃时更新不需要write调用。每个进程一个文件，配额也按进程计算。
+ * <p>
+ * 文件布局：16字节文件头 | 会话id(8) | 本会话已用(4) | 每日桶令牌(4) | 每日桶上次补充时间(8) |
+ * 下一个崩溃时间的下标(4) | 保留(4) | {@link #MAX_CRASH_TIMES}个崩溃时间(8)。
+ */
+final class CrashRateLimiter {
+
+    private static final String TAG = "CrashRateLimiter";
+
+    private static final int MAGIC = 0x434c4d54;//CLMT
+    private static final int VERSION = 1;
+
+    static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * 保留的崩溃时间个数，也是判断崩溃风暴时最多统计的次数
+     */
+    static final int MAX_CRASH_TIMES = 16;
+
+    /**
+     * 上一次崩溃后这段时间内开始的会话视为崩溃重启，不重新装满会话桶
+     */
+    static final long RESTART_WINDOW = 5 * 60 * 1000L;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SESSION_ID = 16;
+    private static final int SESSION_USED = 24;
+    private static final int DAY_TOKENS = 28;
+    private static final int DAY_REFILL_TIME = 32;
+    private static final int CRASH_NEXT = 40;
+    private static final int CRASH_TIMES = 48;
+    private static final int FILE_SIZE = CRASH_TIMES + MAX_CRASH_TIMES * 8;
+
+    /**
+     * 每日桶还没有使用过，第一次使用时装满
+     */
+    private static final int TOKENS_UNSET = -1;
+
+    private static boolean DEBUG = false;
+
+    private static volatile CrashRateLimiter sLimiter;
+
+    private final MappedByteBuffer mBuffer;
+
+    private CrashRateLimiter(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * 打开当前进程的令牌桶文件
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sLimiter != null) return;
+        DEBUG = debug;
+        File dir = new File(context.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File file = new File(dir, "limits-" + BreadcrumbJournal.currentProcessName(context).replace(':', '_').replace('/', '_'));
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(FILE_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                for (int i = 0; i < FILE_SIZE; i++) buffer.put(i, (byte) 0);
+                buffer.putInt(DAY_TOKENS, TOKENS_UNSET);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            }
+            sLimiter = new CrashRateLimiter(buffer);
+            if (DEBUG)
+                Log.d(TAG, "open-->file=" + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 已打开的令牌桶，未打开时为null
+     */
+    static CrashRateLimiter get() {
+        return sLimiter;
+    }
+
+    /**
+     * 本次崩溃属于sessionId，在{@link #recordCrash(long)}之前调用。会话改变时装满会话桶，
+     * 除非上一次崩溃距今不到{@link #RESTART_WINDOW}
+     *
+     * @param now       崩溃时间
+     * @param sessionId 当前会话
+     */
+    synchronized void enterSession(long now, long sessionId) {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer.getLong(SESSION_ID) == sessionId) return;
+        long last = 0L;
+        for (int i = 0; i < MAX_CRASH_TIMES; i++) {
+            long time = buffer.getLong(CRASH_TIMES + i * 8);
+            if (time <= now) last = Math.max(last, time);
+        }
+        boolean restarted = last != 0L && now - last < RESTART_WINDOW;
+        if (!restarted) buffer.putInt(SESSION_USED, 0);
+        buffer.putLong(SESSION_ID, sessionId);
+        if (DEBUG)
+            Log.d(TAG, "enterSession-->" + Long.toHexString(sessionId) + (restarted ? " restarted after crash" : ""));
+    }
+
+    /**
+     * 记录一次崩溃的时间
+     */
+    synchronized void recordCrash(long time) {
+        int next = mBuffer.getInt(CRASH_NEXT);
+        if (next < 0 || next >= MAX_CRASH_TIMES) next = 0;
+        mBuffer.putLong(CRASH_TIMES + next * 8, time);
+        mBuffer.putInt(CRASH_NEXT, (next + 1) % MAX_CRASH_TIMES);
+    }
+
+    /**
+     * 最近windowMillis内的崩溃次数，最多{@link #MAX_CRASH_TIMES}
+     */
+    synchronized int countCrashes(long now, long windowMillis) {
+        int count = 0;
+        for (int i = 0; i < MAX_CRASH_TIMES; i++) {
+            long time = mBuffer.getLong(CRASH_TIMES + i * 8);
+            // 时钟被调回时，晚于当前时间的记录不计入
+            if (time != 0 && time <= now && now - time < windowMillis) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 两个桶都有令牌时各取一个
+     *
+     * @param now        当前时间
+     * @param perSession 每个会话的配额，小于0表示不限
+     * @param perDay     每天的配额，小于0表示不限
+     * @return 是否取到
+     */
+    synchronized boolean tryAcquire(long now, int perSession, int perDay) {
+        MappedByteBuffer buffer = mBuffer;
+        refill(now, perDay);
+        int used = buffer.getInt(SESSION_USED);
+        int tokens = buffer.getInt(DAY_TOKENS);
+        if (perSession >= 0 && used >= perSession) return false;
+        if (perDay >= 0 && tokens <= 0) return false;
+        buffer.putInt(SESSION_USED, used + 1);
+        if (perDay >= 0) buffer.putInt(DAY_TOKENS, tokens - 1);
+        return true;
+    }
+
+    private void refill(long now, int perDay) {
+        if (perDay < 0) return;
+        MappedByteBuffer buffer = mBuffer;
+        int tokens = buffer.getInt(DAY_TOKENS);
+        long last = buffer.getLong(DAY_REFILL_TIME);
+        if (tokens == TOKENS_UNSET || now < last) {
+            // 第一次使用，或时钟被调回
+            buffer.putInt(DAY_TOKENS, tokens == TOKENS_UNSET ? perDay : Math.min(tokens, perDay));
+            buffer.putLong(DAY_REFILL_TIME, now);
+            return;
+        }
+        if (perDay == 0) {
+            buffer.putInt(DAY_TOKENS, 0);
+            return;
+        }
+        long interval = DAY_MILLIS / perDay;
+        long n = (now - last) / interval;
+        if (n == 0) {
+            if (tokens > perDay) buffer.putInt(DAY_TOKENS, perDay);
+            return;
+        }
+        tokens = (int) Math.min(perDay, tokens + n);
+        buffer.putInt(DAY_TOKENS, tokens);
+        // 装满后从现在开始计时，否则保留不足一个间隔的部分
+        buffer.putLong(DAY_REFILL_TIME, tokens == perDay ? now : last + n * interval);
+    }
+
+    /**
+     * 本会话剩余的配额，小于0表示不限
+     */
+    synchronized int sessionRemaining(int perSession) {
+        if (perSession < 0) return -1;
+        return Math.max(0, perSession - mBuffer.getInt(SESSION_USED));
+    }
+
+    /**
+     * 每日桶剩余的令牌，小于0表示不限
+     */
+    synchronized int dayRemaining(long now, int perDay) {
+        if (perDay < 0) return -1;
+        refill(now, perDay);
+        return mBuffer.getInt(DAY_TOKENS);
+    }
+}
@@ -0,0 +1,269 @@
+package example.com.kotlin.crash;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static example.com.kotlin.crash.CrashReportFormat.*;
+
+/**
+ * 二进制崩溃报告的解码器，格式见{@link CrashReportFormat}
+ * <p>
+ * 只依赖JDK，把报告还原为缩进的JSON文本，供后台解析或人工查看：
+ * <pre>
+ * java example.com.kotlin.crash.CrashReportDecoder report.bin
+ * </pre>
+ */
+public final class CrashReportDecoder {
+
+    private final byte[] mData;
+    private final int mEnd;
+    private int mPosition;
+    private final List<String> mStrings = new ArrayList<>();
+
+    private CrashReportDecoder(byte[] data, int offset, int length) {
+        mData = data;
+        mPosition = offset;
+        mEnd = offset + length;
+    }
+
+    /**
+     * 把报告还原为缩进的JSON文本
+     *
+     * @param data   报告数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return JSON文本
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public static String toJson(byte[] data, int offset, int length) {
+        return new CrashReportDecoder(data, offset, length).decode();
+    }
+
+    public static String toJson(byte[] data) {
+        return toJson(data, 0, data.length);
+    }
+
+    /**
+     * 把报告中的记录依次写入另一个编码器，用于把保存的报告合并到新报告中。
+     * 先完整校验，数据格式错误时不写入任何内容
+     *
+     * @param data    报告数据
+     * @param offset  起始位置
+     * @param length  长度
+     * @param encoder 目标编码器，当前必须在顶层
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    static void copyTo(byte[] data, int offset, int length, CrashReportEncoder encoder) {
+        toJson(data, offset, length);
+        new CrashReportDecoder(data, offset, length).copyTo(encoder);
+    }
+
+    private void copyTo(CrashReportEncoder encoder) {
+        mPosition += 4;
+        boolean[] inList = new boolean[MAX_DEPTH + 1];
+        int depth = 0;
+        while (true) {
+            int tag = readByte();
+            if (tag == TAG_END_REPORT) break;
+            if (tag == TAG_END) {
+                depth--;
+                encoder.end();
+                continue;
+            }
+            String key = inList[depth] ? null : readString();
+            switch (tag) {
+                case TAG_BEGIN_SECTION:
+                    encoder.beginSection(key);
+                    inList[++depth] = false;
+                    break;
+                case TAG_BEGIN_LIST:
+                    encoder.beginList(key);
+                    inList[++depth] = true;
+                    break;
+                case TAG_STRING:
+                    encoder.value(key, readString());
+                    break;
+                case TAG_LONG:
+                    long zigzag = readVarLong();
+                    encoder.value(key, (zigzag >>> 1) ^ -(zigzag & 1));
+                    break;
+                case TAG_TRUE:
+                    encoder.value(key, true);
+                    break;
+                case TAG_FALSE:
+                    encoder.value(key, false);
+                    break;
+                default:
+                    encoder.value(key, (String) null);
+                    break;
+            }
+        }
+    }
+
+    private String decode() {
+        if (readByte() != MAGIC_0 || readByte() != MAGIC_1 || readByte() != MAGIC_2) {
+            throw new IllegalArgumentException("not a crash report");
+        }
+        int version = readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported version " + version);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        boolean[] inList = new boolean[MAX_DEPTH + 1];
+        boolean[] first = new boolean[MAX_DEPTH + 1];
+        int depth = 0;
+        first[0] = true;
+        while (true) {
+            int tag = readByte();
+            if (tag == TAG_END_REPORT) break;
+            if (tag == TAG_END) {
+                if (depth == 0) throw new IllegalArgumentException("unbalanced END");
+                boolean list = inList[depth];
+                depth--;
+                newLine(sb, depth + 1);
+                sb.append(list ? ']' : '}');
+                continue;
+            }
+            if (!first[depth]) sb.append(',');
+            first[depth] = false;
+            newLine(sb, depth + 1);
+            if (!inList[depth]) {
+                quote(sb, readString());
+                sb.append(": ");
+            }
+            switch (tag) {
+                case TAG_BEGIN_SECTION:
+                case TAG_BEGIN_LIST:
+                    if (depth == MAX_DEPTH) throw new IllegalArgumentException("too deep");
+                    depth++;
+                    inList[depth] = tag == TAG_BEGIN_LIST;
+                    first[depth] = true;
+                    sb.append(tag == TAG_BEGIN_LIST ? '[' : '{');
+                    break;
+                case TAG_STRING:
+                    quote(sb, readString());
+                    break;
+                case TAG_LONG:
+                    long zigzag = readVarLong();
+                    sb.append((zigzag >>> 1) ^ -(zigzag & 1));
+                    break;
+                case TAG_TRUE:
+                    sb.append("true");
+                    break;
+                case TAG_FALSE:
+                    sb.append("false");
+                    break;
+                case TAG_NULL:
+                    sb.append("null");
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown tag " + tag + " at " + (mPosition - 1));
+            }
+        }
+        if (depth != 0) throw new IllegalArgumentException("truncated report");
+        newLine(sb, 0);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static void newLine(StringBuilder sb, int depth) {
+        sb.append('\n');
+        for (int i = 0; i < depth; i++) sb.append("  ");
+    }
+
+    private static void quote(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private String readString() {
+        long ref = readVarLong();
+        if (ref > 0) {
+            if (ref > mStrings.size()) throw new IllegalArgumentException("bad string ref " + ref);
+            return mStrings.get((int) ref - 1);
+        }
+        long length = readVarLong();
+        if (length < 0 || length > mEnd - mPosition) throw new IllegalArgumentException("bad string length " + length);
+        try {
+            String value = new String(mData, mPosition, (int) length, "UTF-8");
+            mPosition += (int) length;
+            mStrings.add(value);
+            return value;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    private int readByte() {
+        if (mPosition >= mEnd) throw new IllegalArgumentException("truncated report");
+        return mData[mPosition++] & 0xFF;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: CrashReportDecoder <report>...");
+            System.exit(1);
+        }
+        for (String path : args) {
+            byte[] data = readFully(new FileInputStream(path));
+            System.out.println(toJson(data));
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
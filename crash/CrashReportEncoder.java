@@ -0,0 +1,217 @@
+package example.com.kotlin.crash;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static example.com.kotlin.crash.CrashReportFormat.*;
+
+/**
+ * 二进制崩溃报告的流式编码器，格式见{@link CrashReportFormat}
+ * <p>
+ * 直接写入可复用的字节数组，字符串手工编码为UTF-8，不产生中间的JSON字符串。
+ * 非线程安全，每次编码前调用{@link #reset()}。
+ */
+public final class CrashReportEncoder {
+
+    private byte[] mBuffer;
+    private int mSize;
+
+    private final Map<String, Integer> mStrings = new HashMap<>();
+
+    /**
+     * 每层是否为数组，数组内的记录不写key
+     */
+    private final boolean[] mInList = new boolean[MAX_DEPTH + 1];
+    private int mDepth;
+
+    public CrashReportEncoder() {
+        this(4096);
+    }
+
+    public CrashReportEncoder(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 64)];
+        reset();
+    }
+
+    /**
+     * 清空内容并写入文件头，缓冲区保留以便复用
+     */
+    public CrashReportEncoder reset() {
+        mSize = 0;
+        mDepth = 0;
+        mStrings.clear();
+        writeByte(MAGIC_0);
+        writeByte(MAGIC_1);
+        writeByte(MAGIC_2);
+        writeByte(VERSION);
+        return this;
+    }
+
+    public CrashReportEncoder beginSection(String key) {
+        begin(TAG_BEGIN_SECTION, key, false);
+        return this;
+    }
+
+    public CrashReportEncoder beginList(String key) {
+        begin(TAG_BEGIN_LIST, key, true);
+        return this;
+    }
+
+    public CrashReportEncoder end() {
+        if (mDepth == 0) throw new IllegalStateException("end() without begin");
+        writeByte(TAG_END);
+        mDepth--;
+        return this;
+    }
+
+    public CrashReportEncoder value(String key, String value) {
+        if (value == null) {
+            writeTag(TAG_NULL, key);
+        } else {
+            writeTag(TAG_STRING, key);
+            writeString(value);
+        }
+        return this;
+    }
+
+    public CrashReportEncoder value(String key, long value) {
+        writeTag(TAG_LONG, key);
+        writeVarLong((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    public CrashReportEncoder value(String key, boolean value) {
+        writeTag(value ? TAG_TRUE : TAG_FALSE, key);
+        return this;
+    }
+
+    /**
+     * 数组元素
+     */
+    public CrashReportEncoder item(String value) {
+        return value(null, value);
+    }
+
+    /**
+     * 数组元素
+     */
+    public CrashReportEncoder item(long value) {
+        return value(null, value);
+    }
+
+    /**
+     * 数组中的对象元素
+     */
+    public CrashReportEncoder beginItem() {
+        return beginSection(null);
+    }
+
+    /**
+     * 写入结束标记，之后可以通过{@link #buffer()}和{@link #size()}取出报告
+     */
+    public CrashReportEncoder finish() {
+        while (mDepth > 0) end();
+        writeByte(TAG_END_REPORT);
+        return this;
+    }
+
+    /**
+     * 内部缓冲区，有效数据为[0, size())
+     */
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mSize);
+    }
+
+    private void begin(int tag, String key, boolean list) {
+        if (mDepth == MAX_DEPTH) throw new IllegalStateException("too deep");
+        writeTag(tag, key);
+        mInList[++mDepth] = list;
+    }
+
+    private void writeTag(int tag, String key) {
+        writeByte(tag);
+        if (!mInList[mDepth]) {
+            writeString(key == null ? "" : key);
+        }
+    }
+
+    private void writeString(String value) {
+        Integer index = mStrings.get(value);
+        if (index != null) {
+            writeVarLong(index + 1);
+            return;
+        }
+        mStrings.put(value, mStrings.size());
+        writeVarLong(0);
+        writeVarLong(utf8Length(value));
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理项不能编码为UTF-8，写为'?'
+                writeByte('?');
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int b) {
+        if (mSize == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length << 1);
+        }
+        mBuffer[mSize++] = (byte) b;
+    }
+}
@@ -0,0 +1,48 @@
+package example.com.kotlin.crash;
+
+
+/**
+ * 二进制崩溃报告格式
+ * <p>
+ * 报告以 'A' 'C' 'R' 版本号 开头，之后是一串以标记字节开头的记录，以{@link #TAG_END_REPORT}结束：
+ * <pre>
+ * BEGIN_SECTION key          开始一个对象，直到对应的END
+ * BEGIN_LIST    key          开始一个数组，数组内的记录不带key
+ * END
+ * STRING        key value
+ * LONG          key zigzag-varint
+ * TRUE / FALSE  key
+ * NULL          key
+ * </pre>
+ * key和字符串值都是字符串引用：varint n，n为0时后面紧跟 varint长度 + UTF-8字节，
+ * 并分配下一个字符串表下标；否则引用字符串表第n-1项。类名等重复字符串只写一次。
+ * 字节数等数值一律写原始值，不做格式化。
+ * <p>
+ * 本类只依赖JDK，后台可以直接使用{@link CrashReportDecoder}解析。
+ */
+final class CrashReportFormat {
+
+    static final byte MAGIC_0 = 'A';
+    static final byte MAGIC_1 = 'C';
+    static final byte MAGIC_2 = 'R';
+    static final byte VERSION = 1;
+
+    static final int TAG_END_REPORT = 0;
+    static final int TAG_BEGIN_SECTION = 1;
+    static final int TAG_BEGIN_LIST = 2;
+    static final int TAG_END = 3;
+    static final int TAG_STRING = 4;
+    static final int TAG_LONG = 5;
+    static final int TAG_TRUE = 6;
+    static final int TAG_FALSE = 7;
+    static final int TAG_NULL = 8;
+
+    /**
+     * 最大嵌套层数
+     */
+    static final int MAX_DEPTH = 32;
+
+    private CrashReportFormat() {
+
+    }
+}
@@ -0,0 +1,331 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘上只追加的崩溃报告队列
+ * <p>
+ * 崩溃时把二进制报告同步追加到当前进程的分段文件，只做一次write，不做压缩和网络请求。
+ * 分段文件名为递增的序号，每个进程启动时从已有的最大序号之后开始写，
+ * 因此启动前留下的分段都可以交给{@link CrashUploader}在后台读取，不会和崩溃时的写入冲突。
+ * <p>
+ * 记录格式：魔数(4) | 长度(4) | 指纹(8) | CRC32(4) | 二进制报告。
+ * 写到一半被杀掉的记录在读取时因长度或CRC不符被丢弃。
+ * 队列总大小超过{@link #MAX_QUEUE_SIZE}时删除最旧的分段。
+ */
+final class CrashReportQueue {
+
+    private static final String TAG = "CrashReportQueue";
+
+    private static final int MAGIC = 0x43525131;//CRQ1
+    static final int HEADER_SIZE = 20;
+
+    static final int SEGMENT_SIZE = 128 * 1024;
+    static final int MAX_QUEUE_SIZE = 512 * 1024;
+
+    private static final String SUFFIX = ".seg";
+    private static final String ACK_SUFFIX = ".ack";
+
+    private static boolean DEBUG = false;
+
+    private static volatile CrashReportQueue sQueue;
+
+    private final File mDir;
+    /**
+     * 本进程写入的第一个分段序号，小于它的分段都是之前留下的
+     */
+    private final long mSessionSeq;
+
+    /**
+     * 以下字段由this保护
+     */
+    private final List<File> mSegments = new ArrayList<>();
+    private long mTotalSize;
+    private File mCurrent;
+    private long mCurrentSeq;
+    private long mCurrentSize;
+
+    private final byte[] mHeader = new byte[HEADER_SIZE];
+    private final CRC32 mCrc = new CRC32();
+
+    private CrashReportQueue(File dir, File[] segments, long sessionSeq) {
+        mDir = dir;
+        mSessionSeq = sessionSeq;
+        mCurrentSeq = sessionSeq - 1;
+        for (File segment : segments) {
+            mSegments.add(segment);
+            mTotalSize += segment.length();
+        }
+        trim(0);
+    }
+
+    /**
+     * 打开当前进程的队列
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sQueue != null) return;
+        DEBUG = debug;
+        File dir = new File(new File(context.getFilesDir(), "crash"),
+                "queue-" + BreadcrumbJournal.currentProcessName(context).replace(':', '_').replace('/', '_'));
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File[] segments = listSegments(dir);
+        long sessionSeq = segments.length == 0 ? 1L : seqOf(segments[segments.length - 1]) + 1;
+        sQueue = new CrashReportQueue(dir, segments, sessionSeq);
+        if (DEBUG)
+            Log.d(TAG, "open-->dir=" + dir + ";pending=" + segments.length + ";sessionSeq=" + sessionSeq);
+    }
+
+    /**
+     * 已打开的队列，未打开时为null
+     */
+    static CrashReportQueue get() {
+        return sQueue;
+    }
+
+    private static File[] listSegments(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return new File[0];
+        List<File> list = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX) && seqOf(file) > 0) list.add(file);
+        }
+        File[] segments = list.toArray(new File[0]);
+        Arrays.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long seqA = seqOf(a);
+                long seqB = seqOf(b);
+                return seqA < seqB ? -1 : (seqA == seqB ? 0 : 1);
+            }
+        });
+        return segments;
+    }
+
+    private static long seqOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 同步追加一份报告，崩溃线程调用
+     *
+     * @param report    二进制报告
+     * @param length    有效长度
+     * @param stackHash 崩溃指纹（{@link CrashFingerprint}），用于投递前合并相同的崩溃
+     * @return 是否写入成功
+     */
+    synchronized boolean append(byte[] report, int length, long stackHash) {
+        int recordSize = HEADER_SIZE + length;
+        if (recordSize > SEGMENT_SIZE) return false;
+        if (mCurrent == null || mCurrentSize + recordSize > SEGMENT_SIZE) {
+            mCurrentSeq++;
+            mCurrent = new File(mDir, mCurrentSeq + SUFFIX);
+            mCurrentSize = 0;
+            mSegments.add(mCurrent);
+        }
+        trim(recordSize);
+        mCrc.reset();
+        mCrc.update(report, 0, length);
+        putInt(mHeader, 0, MAGIC);
+        putInt(mHeader, 4, length);
+        putLong(mHeader, 8, stackHash);
+        putInt(mHeader, 16, (int) mCrc.getValue());
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mCurrent, true);
+            out.write(mHeader);
+            out.write(report, 0, length);
+            mCurrentSize += recordSize;
+            mTotalSize += recordSize;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除最旧的分段，直到再写入extra字节后不超过上限，正在写的分段不删除
+     */
+    private void trim(int extra) {
+        while (mTotalSize + extra > MAX_QUEUE_SIZE && !mSegments.isEmpty() && mSegments.get(0) != mCurrent) {
+            File oldest = mSegments.remove(0);
+            mTotalSize -= oldest.length();
+            deleteSegment(oldest);
+            if (DEBUG)
+                Log.d(TAG, "trim-->drop=" + oldest);
+        }
+    }
+
+    private static void deleteSegment(File segment) {
+        segment.delete();
+        ackFile(segment).delete();
+    }
+
+    /**
+     * 本进程启动前留下的分段，按序号从旧到新排列
+     */
+    synchronized List<File> pendingSegments() {
+        List<File> list = new ArrayList<>();
+        for (File segment : mSegments) {
+            if (seqOf(segment) < mSessionSeq) list.add(segment);
+        }
+        return list;
+    }
+
+    /**
+     * 分段已全部投递，删除
+     */
+    synchronized void remove(File segment) {
+        if (mSegments.remove(segment)) {
+            mTotalSize -= segment.length();
+        }
+        deleteSegment(segment);
+    }
+
+    /**
+     * 分段中已投递到的位置，没有记录时为0
+     */
+    static long readAck(File segment) {
+        File ack = ackFile(segment);
+        if (!ack.exists()) return 0L;
+        byte[] bytes = new byte[8];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(ack);
+            if (in.read(bytes) != 8) return 0L;
+            return getLong(bytes, 0);
+        } catch (IOException e) {
+            return 0L;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录分段中已投递到的位置，下次从这里继续
+     */
+    static void writeAck(File segment, long offset) throws IOException {
+        byte[] bytes = new byte[8];
+        putLong(bytes, 0, offset);
+        FileOutputStream out = new FileOutputStream(ackFile(segment));
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static File ackFile(File segment) {
+        return new File(segment.getPath() + ACK_SUFFIX);
+    }
+
+    /**
+     * 读取分段中的记录
+     */
+    interface RecordVisitor {
+        /**
+         * @param report    二进制报告，只在回调内有效
+         * @param offset    报告在report中的起始位置
+         * @param length    报告长度
+         * @param stackHash 指纹
+         * @param end       该记录结束位置在分段文件中的偏移
+         * @return false停止读取
+         */
+        boolean visit(byte[] report, int offset, int length, long stackHash, long end);
+    }
+
+    /**
+     * 从from开始依次读取完整的记录，遇到损坏的记录时停止
+     *
+     * @return 读取的分段内容是否全部有效
+     */
+    static boolean readSegment(File segment, long from, RecordVisitor visitor) throws IOException {
+        byte[] data = readFully(segment);
+        CRC32 crc = new CRC32();
+        int offset = (int) Math.min(from, data.length);
+        while (offset < data.length) {
+            if (data.length - offset < HEADER_SIZE || getInt(data, offset) != MAGIC) return false;
+            int length = getInt(data, offset + 4);
+            if (length < 0 || length > data.length - offset - HEADER_SIZE) return false;
+            long stackHash = getLong(data, offset + 8);
+            crc.reset();
+            crc.update(data, offset + HEADER_SIZE, length);
+            if ((int) crc.getValue() != getInt(data, offset + 16)) return false;
+            int end = offset + HEADER_SIZE + length;
+            if (!visitor.visit(data, offset + HEADER_SIZE, length, stackHash, end)) return true;
+            offset = end;
+        }
+        return true;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long size = file.length();
+            if (size > SEGMENT_SIZE) size = SEGMENT_SIZE;
+            byte[] data = new byte[(int) size];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return read == data.length ? data : Arrays.copyOf(data, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        putInt(bytes, offset, (int) (value >>> 32));
+        putInt(bytes, offset + 4, (int) value);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+}
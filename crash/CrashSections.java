@@ -0,0 +1,305 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按section收集报告
+ * <p>
+ * 每个{@link Section}独立计时。可能阻塞的section（binder调用、读取存储）在小线程池中并行收集，
+ * 各自有超时时间，超时或失败时只记录状态，不拖慢其他section；只读内存的section直接在调用线程执行。
+ * 报告最后写入"Sections"，记录每个section的状态和耗时（收集加写入，微秒）。
+ */
+final class CrashSections {
+
+    private static final String TAG = "CrashSections";
+
+    static final String STATUS_OK = "ok";
+    static final String STATUS_TIMEOUT = "timed out";
+    static final String STATUS_ERROR = "error";
+
+    /**
+     * 线程池的最大线程数，超时的任务会继续占用线程，线程都被占用时新的section在调用线程收集
+     */
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    private static boolean DEBUG = false;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    /**
+     * 报告中的一个section
+     *
+     * @param <T> 收集的结果
+     */
+    abstract static class Section<T> {
+        final String name;
+        /**
+         * 大于0时在线程池中收集，超过该时间（毫秒）记为超时；为0时在调用线程收集
+         */
+        final long timeoutMillis;
+
+        Section(String name, long timeoutMillis) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * 没有在{@link CrashPolicy}中单独设置时的级别，小于0表示使用CrashPolicy的默认级别
+         */
+        int tier() {
+            return -1;
+        }
+
+        /**
+         * 已有可用的结果（例如后台缓存）时直接返回，不提交到线程池
+         */
+        T peek() {
+            return null;
+        }
+
+        /**
+         * 收集，可能在线程池中执行；返回null表示没有该项信息
+         */
+        abstract T collect(Application application) throws Exception;
+
+        /**
+         * 以二进制格式写入，在调用线程执行
+         */
+        abstract void encode(T value, CrashReportEncoder encoder);
+
+        /**
+         * 放入{@link CrashInfo#getAll(Application)}的结果，在调用线程执行
+         */
+        abstract void put(T value, Map<String, String> map);
+
+        /**
+         * 收集失败时放入的内容
+         */
+        void putMissing(Map<String, String> map) {
+            map.put(name, null);
+        }
+    }
+
+    private CrashSections() {
+
+    }
+
+    static void setDebug(boolean debug) {
+        DEBUG = debug;
+    }
+
+    /**
+     * 一次收集的结果
+     */
+    static final class Results {
+        final List<Section<?>> sections;
+        final Object[] values;
+        final String[] statuses;
+        final long[] latencies;
+
+        Results(List<Section<?>> sections) {
+            this.sections = sections;
+            values = new Object[sections.size()];
+            statuses = new String[sections.size()];
+            latencies = new long[sections.size()];
+        }
+
+        /**
+         * 以二进制格式写入所有成功收集的section和"Sections"
+         */
+        void encode(CrashReportEncoder encoder) {
+            for (int i = 0; i < values.length; i++) {
+                if (!STATUS_OK.equals(statuses[i]) || values[i] == null) continue;
+                long start = SystemClock.elapsedRealtimeNanos();
+                encodeValue(sections.get(i), values[i], encoder);
+                latencies[i] += SystemClock.elapsedRealtimeNanos() - start;
+            }
+            encoder.beginList("Sections");
+            for (int i = 0; i < values.length; i++) {
+                encoder.beginItem()
+                        .value("name", sections.get(i).name)
+                        .value("status", statuses[i])
+                        .value("latencyUs", latencies[i] / 1000L)
+                        .end();
+            }
+            encoder.end();
+        }
+
+        /**
+         * 放入所有section和"Sections"
+         */
+        void putAll(Map<String, String> map) {
+            for (int i = 0; i < values.length; i++) {
+                Section<?> section = sections.get(i);
+                if (!STATUS_OK.equals(statuses[i]) || values[i] == null) {
+                    section.putMissing(map);
+                    continue;
+                }
+                long start = SystemClock.elapsedRealtimeNanos();
+                try {
+                    putValue(section, values[i], map);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    statuses[i] = STATUS_ERROR + ": " + e;
+                    section.putMissing(map);
+                }
+                latencies[i] += SystemClock.elapsedRealtimeNanos() - start;
+            }
+            JSONArray array = new JSONArray();
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    JSONObject item = new JSONObject();
+                    item.put("name", sections.get(i).name);
+                    item.put("status", statuses[i]);
+                    item.put("latencyUs", latencies[i] / 1000L);
+                    array.put(item);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            map.put("Sections", array.toString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void encodeValue(Section<T> section, Object value, CrashReportEncoder encoder) {
+        section.encode((T) value, encoder);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void putValue(Section<T> section, Object value, Map<String, String> map) {
+        section.put((T) value, map);
+    }
+
+    /**
+     * 收集所有section：先把需要线程池的section全部提交，再在调用线程收集其余的，最后按顺序等待线程池的结果
+     */
+    static Results collect(Application application, List<Section<?>> sections) {
+        return collect(application, sections, null);
+    }
+
+    /**
+     * 收集部分section
+     *
+     * @param skipped 与sections一一对应，不为null的项不收集，作为状态记入"Sections"；为null时收集所有section
+     */
+    static Results collect(final Application application, List<Section<?>> sections, String[] skipped) {
+        Results results = new Results(sections);
+        int size = sections.size();
+        if (skipped != null) {
+            for (int i = 0; i < size; i++) results.statuses[i] = skipped[i];
+        }
+        @SuppressWarnings("unchecked")
+        Future<Object>[] futures = (Future<Object>[]) new Future<?>[size];
+        final long[] starts = new long[size];
+        // 线程池任务结束的时间，按顺序等待时不把前一个section的等待计入后一个
+        final long[] ends = new long[size];
+        for (int i = 0; i < size; i++) {
+            final Section<?> section = sections.get(i);
+            if (section.timeoutMillis <= 0 || results.statuses[i] != null) continue;
+            starts[i] = SystemClock.elapsedRealtimeNanos();
+            Object peeked = section.peek();
+            if (peeked != null) {
+                results.values[i] = peeked;
+                results.statuses[i] = STATUS_OK;
+                results.latencies[i] = SystemClock.elapsedRealtimeNanos() - starts[i];
+                continue;
+            }
+            final int index = i;
+            try {
+                futures[i] = executor().submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        try {
+                            return section.collect(application);
+                        } finally {
+                            ends[index] = SystemClock.elapsedRealtimeNanos();
+                        }
+                    }
+                });
+            } catch (Throwable e) {
+                // 线程都被之前超时的任务占用，或者内存不足无法创建线程
+                if (DEBUG)
+                    Log.d(TAG, "collect-->" + section.name + " run inline: " + e);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (futures[i] == null && results.statuses[i] == null) collectInline(application, results, i);
+        }
+        for (int i = 0; i < size; i++) {
+            if (futures[i] != null) await(results, i, futures[i], starts[i], ends);
+        }
+        return results;
+    }
+
+    private static void collectInline(Application application, Results results, int index) {
+        Section<?> section = results.sections.get(index);
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            Object value = section.peek();
+            results.values[index] = value != null ? value : section.collect(application);
+            results.statuses[index] = STATUS_OK;
+        } catch (Throwable e) {
+            results.statuses[index] = STATUS_ERROR + ": " + e;
+        }
+        results.latencies[index] = SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static void await(Results results, int index, Future<Object> future, long start, long[] ends) {
+        Section<?> section = results.sections.get(index);
+        long remaining = section.timeoutMillis * 1000000L - (SystemClock.elapsedRealtimeNanos() - start);
+        try {
+            results.values[index] = future.get(Math.max(0L, remaining), TimeUnit.NANOSECONDS);
+            results.statuses[index] = STATUS_OK;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            results.statuses[index] = STATUS_TIMEOUT;
+        } catch (ExecutionException e) {
+            results.statuses[index] = STATUS_ERROR + ": " + e.getCause();
+        } catch (InterruptedException e) {
+            results.statuses[index] = STATUS_ERROR + ": " + e;
+            Thread.currentThread().interrupt();
+        }
+        // future.get返回后ends一定可见；超时时任务还没结束
+        long end = ends[index];
+        results.latencies[index] = (end != 0 ? end : SystemClock.elapsedRealtimeNanos()) - start;
+        if (DEBUG && !STATUS_OK.equals(results.statuses[index]))
+            Log.d(TAG, "await-->" + section.name + " " + results.statuses[index] + " after " + results.latencies[index] / 1000L + "us");
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(0, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CrashSection-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
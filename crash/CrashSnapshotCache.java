@@ -0,0 +1,192 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * 崩溃前预先收集的信息缓存
+ * <p>
+ * 内存信息在后台线程按定时器刷新，生命周期事件会提前触发一次（有节流）；
+ * Activity栈和Fragment树必须在主线程读取，在Activity生命周期事件和Fragment变化后的主线程空闲时刷新。
+ * 崩溃时{@link CrashInfo}的对应section直接使用缓存，不再收集。lifecycle的{@link CrashInfoCollector}随之刷新。
+ */
+final class CrashSnapshotCache {
+
+    private static final String TAG = "CrashSnapshotCache";
+
+    /**
+     * 内存信息定时刷新间隔
+     */
+    private static final long MEMORY_REFRESH_INTERVAL = 15 * 1000L;
+    /**
+     * 生命周期事件触发内存刷新的最小间隔
+     */
+    private static final long MEMORY_REFRESH_MIN_INTERVAL = 2 * 1000L;
+    /**
+     * Activity栈刷新的最小间隔
+     */
+    private static final long STACK_REFRESH_MIN_INTERVAL = 500L;
+
+    private static boolean DEBUG = false;
+
+    private static volatile boolean sStarted;
+
+    /**
+     * 每次刷新都是新对象，发布后不再修改
+     */
+    private static volatile MemorySnapshot sMemory;
+    private static volatile CrashInfo.ActivityStackSnapshot sActivities;
+
+    private static Application sApplication;
+    private static Handler sMainHandler;
+    private static Handler sWorker;
+
+    private static volatile long sLastMemoryRefresh;
+
+    /**
+     * 以下字段只在主线程访问
+     */
+    private static boolean sStackRefreshPending;
+    private static long sLastStackRefresh;
+
+    private CrashSnapshotCache() {
+
+    }
+
+    /**
+     * 开始维护缓存，需在主线程调用
+     *
+     * @param application 应用程序对象
+     * @param debug       是否打印日志
+     */
+    static void start(Application application, boolean debug) {
+        if (sStarted) return;
+        DEBUG = debug;
+        sApplication = application;
+        sMainHandler = new Handler(Looper.getMainLooper());
+        sWorker = CrashWorker.handler();
+
+        application.registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacksAdapter() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                onLifecycleChanged();
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                onLifecycleChanged();
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                onLifecycleChanged();
+            }
+        });
+        sStarted = true;
+        sWorker.post(sRefreshMemory);
+    }
+
+    /**
+     * 缓存是否已开始维护
+     */
+    static boolean isStarted() {
+        return sStarted;
+    }
+
+    /**
+     * 最近一次收集的内存信息，尚未收集时为null
+     */
+    static MemorySnapshot getMemory() {
+        return sMemory;
+    }
+
+    /**
+     * 最近一次读取的Activity栈，尚未读取或栈为空时为null
+     */
+    static CrashInfo.ActivityStackSnapshot getActivities() {
+        return sActivities;
+    }
+
+    private static void onLifecycleChanged() {
+        requestStackRefresh();
+        requestMemoryRefresh();
+    }
+
+    /**
+     * 节流后，在主线程空闲时刷新Activity栈和Fragment树；Fragment变化时由{@link ActivityStack}调用，需在主线程调用
+     */
+    static void requestStackRefresh() {
+        if (!sStarted || sStackRefreshPending) return;
+        sStackRefreshPending = true;
+        long delay = Math.max(0L, sLastStackRefresh + STACK_REFRESH_MIN_INTERVAL - SystemClock.uptimeMillis());
+        sMainHandler.postDelayed(sScheduleStackRefresh, delay);
+    }
+
+    private static final Runnable sScheduleStackRefresh = new Runnable() {
+        @Override
+        public void run() {
+            Looper.myQueue().addIdleHandler(sStackRefresh);
+        }
+    };
+
+    private static final MessageQueue.IdleHandler sStackRefresh = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            sStackRefreshPending = false;
+            sLastStackRefresh = SystemClock.uptimeMillis();
+            try {
+                sActivities = CrashInfo.collectActivities(sApplication);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            CrashCollectors.refreshLifecycle(true);
+            if (DEBUG)
+                Log.d(TAG, "refreshStack-->activities=" + (sActivities == null ? null : sActivities.activities));
+            return false;
+        }
+    };
+
+    /**
+     * 节流后，在后台线程刷新内存信息
+     */
+    private static void requestMemoryRefresh() {
+        long delay = Math.max(0L, sLastMemoryRefresh + MEMORY_REFRESH_MIN_INTERVAL - SystemClock.uptimeMillis());
+        sWorker.removeCallbacks(sRefreshMemory);
+        sWorker.postDelayed(sRefreshMemory, delay);
+    }
+
+    private static final Runnable sRefreshMemory = new Runnable() {
+        @Override
+        public void run() {
+            refreshMemory();
+            CrashCollectors.refreshLifecycle(false);
+            NativeCrashHandler.saveSnapshot();
+            sWorker.removeCallbacks(this);
+            sWorker.postDelayed(this, MEMORY_REFRESH_INTERVAL);
+        }
+    };
+
+    private static void refreshMemory() {
+        sLastMemoryRefresh = SystemClock.uptimeMillis();
+        try {
+            MemorySnapshot memory = MemorySnapshot.collect(sApplication);
+            sMemory = memory;
+            BreadcrumbJournal journal = BreadcrumbJournal.get();
+            if (journal != null) {
+                long used = memory.usedMemory();
+                journal.append(BreadcrumbJournal.TYPE_HEAP, (int) (used * 100 / memory.maxMemory), used);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (DEBUG)
+            Log.d(TAG, "refreshMemory-->cost=" + (SystemClock.uptimeMillis() - sLastMemoryRefresh));
+    }
+}
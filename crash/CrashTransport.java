@@ -0,0 +1,22 @@
+package example.com.kotlin.crash;
+
+
+import java.io.IOException;
+
+/**
+ * 崩溃报告的投递方式，例如HTTP上传，由应用提供
+ * <p>
+ * 只在后台线程调用，一次只有一个调用在进行。
+ */
+public interface CrashTransport {
+
+    /**
+     * 投递一批报告
+     *
+     * @param batch       GZIP压缩的一批报告，格式见{@link CrashBatch}
+     * @param length      batch的有效长度
+     * @param reportCount 批内报告数（相同堆栈已合并）
+     * @throws IOException 投递失败，稍后会连同这批报告一起重试
+     */
+    void deliver(byte[] batch, int length, int reportCount) throws IOException;
+}
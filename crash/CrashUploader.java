@@ -0,0 +1,231 @@
+package example.com.kotlin.crash;
+
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 在后台把之前留在{@link CrashReportQueue}中的报告分批投递给{@link CrashTransport}
+ * <p>
+ * 按顺序读取分段中的记录，每批最多{@link #MAX_BATCH_REPORTS}份、{@link #MAX_BATCH_BYTES}字节，
+ * 批内相同指纹的报告只保留第一份并记录次数，GZIP压缩后投递。投递成功后记录每个分段已投递到的位置，
+ * 分段全部投递后删除；失败时按指数退避重试，同一次启动内最多重试{@link #MAX_ATTEMPTS}次，
+ * 剩下的留到下次启动。
+ */
+final class CrashUploader {
+
+    private static final String TAG = "CrashUploader";
+
+    static final int MAX_BATCH_REPORTS = 16;
+    static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private static final long INITIAL_BACKOFF = 30 * 1000L;
+    private static final long MAX_BACKOFF = 30 * 60 * 1000L;
+    private static final int MAX_ATTEMPTS = 6;
+
+    /**
+     * 启动后延迟一段时间再读取队列，不和应用启动争抢资源
+     */
+    private static final long START_DELAY = 10 * 1000L;
+
+    private static boolean DEBUG = false;
+
+    private static CrashReportQueue sQueue;
+    private static CrashTransport sTransport;
+    private static Handler sWorker;
+    private static int sAttempts;
+    private static long sBackoff = INITIAL_BACKOFF;
+
+    private CrashUploader() {
+
+    }
+
+    /**
+     * 开始投递之前留下的报告
+     *
+     * @param queue     报告队列
+     * @param transport 投递方式
+     * @param debug     是否打印日志
+     */
+    static synchronized void start(CrashReportQueue queue, CrashTransport transport, boolean debug) {
+        if (sTransport != null || queue == null || transport == null) return;
+        DEBUG = debug;
+        sQueue = queue;
+        sTransport = transport;
+        sWorker = CrashWorker.handler();
+        sWorker.postDelayed(sUpload, START_DELAY);
+    }
+
+    private static final Runnable sUpload = new Runnable() {
+        @Override
+        public void run() {
+            if (uploadPending()) {
+                sAttempts = 0;
+                sBackoff = INITIAL_BACKOFF;
+                return;
+            }
+            if (++sAttempts >= MAX_ATTEMPTS) {
+                if (DEBUG) Log.d(TAG, "run-->give up until next launch");
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "run-->retry in " + sBackoff + "ms");
+            sWorker.postDelayed(this, sBackoff);
+            sBackoff = Math.min(MAX_BACKOFF, sBackoff << 1);
+        }
+    };
+
+    /**
+     * 投递所有之前留下的报告
+     *
+     * @return 全部投递成功返回true，需要重试时返回false
+     */
+    static boolean uploadPending() {
+        Batch batch = new Batch();
+        for (File segment : sQueue.pendingSegments()) {
+            long from = CrashReportQueue.readAck(segment);
+            boolean valid;
+            try {
+                valid = CrashReportQueue.readSegment(segment, from, batch.visitor(segment));
+            } catch (IOException e) {
+                // 分段无法读取，跳过，由队列大小上限负责清理
+                e.printStackTrace();
+                continue;
+            }
+            if (batch.failed) return false;
+            // 分段读完（或其余部分损坏），等所在的批次投递后删除
+            batch.finishSegment(segment, valid);
+        }
+        return batch.flush();
+    }
+
+    /**
+     * 正在组装的一批报告
+     */
+    private static final class Batch {
+        final List<byte[]> reports = new ArrayList<>();
+        long[] stackHashes = new long[MAX_BATCH_REPORTS];
+        int[] counts = new int[MAX_BATCH_REPORTS];
+        int bytes;
+        int recordCount;
+
+        /**
+         * 批内涉及的分段及投递后应记录的位置，位置为-1表示分段已读完，投递后删除
+         */
+        final List<File> segments = new ArrayList<>();
+        long[] ends = new long[4];
+
+        boolean failed;
+
+        RecordVisitorImpl visitor(File segment) {
+            return new RecordVisitorImpl(this, segment);
+        }
+
+        void add(File segment, byte[] data, int offset, int length, long stackHash, long end) {
+            int index = indexOf(stackHash);
+            if (index >= 0) {
+                counts[index]++;
+            } else {
+                reports.add(Arrays.copyOfRange(data, offset, offset + length));
+                stackHashes[reports.size() - 1] = stackHash;
+                counts[reports.size() - 1] = 1;
+                bytes += length;
+            }
+            recordCount++;
+            setEnd(segment, end);
+        }
+
+        boolean isFull() {
+            return reports.size() >= MAX_BATCH_REPORTS || bytes >= MAX_BATCH_BYTES;
+        }
+
+        void finishSegment(File segment, boolean valid) {
+            if (!valid && DEBUG) Log.d(TAG, "finishSegment-->corrupt tail in " + segment);
+            int index = segments.indexOf(segment);
+            if (index < 0) {
+                // 分段中没有新的记录，可以直接删除
+                sQueue.remove(segment);
+            } else {
+                ends[index] = -1L;
+            }
+        }
+
+        private int indexOf(long stackHash) {
+            for (int i = 0; i < reports.size(); i++) {
+                if (stackHashes[i] == stackHash) return i;
+            }
+            return -1;
+        }
+
+        private void setEnd(File segment, long end) {
+            int index = segments.indexOf(segment);
+            if (index < 0) {
+                segments.add(segment);
+                index = segments.size() - 1;
+                if (index >= ends.length) ends = Arrays.copyOf(ends, ends.length << 1);
+            }
+            ends[index] = end;
+        }
+
+        /**
+         * 投递当前的批次并记录进度
+         *
+         * @return 投递成功或批次为空返回true
+         */
+        boolean flush() {
+            if (recordCount == 0) return true;
+            try {
+                byte[] payload = CrashBatch.write(reports, stackHashes, counts);
+                sTransport.deliver(payload, payload.length, reports.size());
+                if (DEBUG)
+                    Log.d(TAG, "flush-->reports=" + reports.size() + ";records=" + recordCount + ";bytes=" + payload.length);
+            } catch (IOException e) {
+                if (DEBUG)
+                    Log.e(TAG, Log.getStackTraceString(e));
+                failed = true;
+                return false;
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                File segment = segments.get(i);
+                if (ends[i] < 0) {
+                    sQueue.remove(segment);
+                } else {
+                    try {
+                        CrashReportQueue.writeAck(segment, ends[i]);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            reports.clear();
+            segments.clear();
+            bytes = 0;
+            recordCount = 0;
+            return true;
+        }
+    }
+
+    private static final class RecordVisitorImpl implements CrashReportQueue.RecordVisitor {
+        private final Batch mBatch;
+        private final File mSegment;
+
+        RecordVisitorImpl(Batch batch, File segment) {
+            mBatch = batch;
+            mSegment = segment;
+        }
+
+        @Override
+        public boolean visit(byte[] report, int offset, int length, long stackHash, long end) {
+            mBatch.add(mSegment, report, offset, length, stackHash, end);
+            if (mBatch.isFull()) {
+                return mBatch.flush();
+            }
+            return true;
+        }
+    }
+}
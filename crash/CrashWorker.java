@@ -0,0 +1,32 @@
+package example.com.kotlin.crash;
+
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * 库内共用的后台线程，缓存刷新、内存采样等周期性工作都在这里执行
+ */
+final class CrashWorker {
+
+    private static final String NAME = "CrashWorker";
+
+    private static Handler sHandler;
+
+    private CrashWorker() {
+
+    }
+
+    /**
+     * 后台线程的Handler，首次调用时启动线程
+     */
+    static synchronized Handler handler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread(NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+}
@@ -0,0 +1,188 @@
+package example.com.kotlin.crash;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按Activity名称id累计停留时间：访问次数、总时长、最短、最长，以及尚未销毁的实例
+ * <p>
+ * 每次生命周期回调只更新对应id的几个long，O(1)且不装箱；汇总时只需遍历出现过的Activity。
+ * <p>
+ * 单写多读：只有主线程的生命周期回调写入。写入前后各递增一次版本号（写入中为奇数），
+ * 读线程在版本号前后一致且为偶数时才认为读到的是一致的结果。
+ */
+final class DwellTimeAggregator {
+
+    private static final int MAX_READ_RETRIES = 8;
+
+    private static final int FIELD_COUNT = 6;
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    /**
+     * 尚未销毁的实例数
+     */
+    private static final int OPEN_COUNT = 4;
+    /**
+     * 尚未销毁的实例开始时间之和，用于不遍历实例算出它们到现在的停留时间
+     */
+    private static final int OPEN_START_SUM = 5;
+
+    /**
+     * 每个id占FIELD_COUNT个连续的槽位，扩容时整体复制
+     */
+    private volatile AtomicLongArray mValues = new AtomicLongArray(16 * FIELD_COUNT);
+    private volatile int mSize;
+
+    private final AtomicLongArray mVersion = new AtomicLongArray(1);
+
+    /**
+     * Activity创建，仅写线程调用
+     *
+     * @param nameId    名称id
+     * @param startTime 开始时间
+     */
+    void onCreated(int nameId, long startTime) {
+        AtomicLongArray values = ensureCapacity(nameId);
+        int base = nameId * FIELD_COUNT;
+        beginWrite();
+        values.set(base + OPEN_COUNT, values.get(base + OPEN_COUNT) + 1);
+        values.set(base + OPEN_START_SUM, values.get(base + OPEN_START_SUM) + startTime);
+        endWrite();
+    }
+
+    /**
+     * Activity销毁，仅写线程调用
+     *
+     * @param nameId    名称id
+     * @param startTime 对应的开始时间，未知时为-1，此时不计入统计
+     * @param endTime   结束时间
+     */
+    void onDestroyed(int nameId, long startTime, long endTime) {
+        if (nameId < 0 || nameId >= mSize || startTime < 0) return;
+        AtomicLongArray values = mValues;
+        int base = nameId * FIELD_COUNT;
+        long dwell = Math.max(0L, endTime - startTime);
+        long count = values.get(base + COUNT);
+        beginWrite();
+        values.set(base + OPEN_COUNT, values.get(base + OPEN_COUNT) - 1);
+        values.set(base + OPEN_START_SUM, values.get(base + OPEN_START_SUM) - startTime);
+        values.set(base + COUNT, count + 1);
+        values.set(base + TOTAL, values.get(base + TOTAL) + dwell);
+        if (count == 0 || dwell < values.get(base + MIN)) values.set(base + MIN, dwell);
+        if (dwell > values.get(base + MAX)) values.set(base + MAX, dwell);
+        endWrite();
+    }
+
+    private AtomicLongArray ensureCapacity(int nameId) {
+        AtomicLongArray values = mValues;
+        if (nameId >= mSize) {
+            int needed = (nameId + 1) * FIELD_COUNT;
+            if (needed > values.length()) {
+                AtomicLongArray grown = new AtomicLongArray(Math.max(needed, values.length() << 1));
+                for (int i = 0, n = mSize * FIELD_COUNT; i < n; i++) {
+                    grown.set(i, values.get(i));
+                }
+                mValues = grown;
+                values = grown;
+            }
+            mSize = nameId + 1;
+        }
+        return values;
+    }
+
+    private void beginWrite() {
+        mVersion.set(0, mVersion.get(0) + 1);
+    }
+
+    private void endWrite() {
+        mVersion.set(0, mVersion.get(0) + 1);
+    }
+
+    /**
+     * 读取一个id的统计，可在任意线程调用
+     *
+     * @param nameId 名称id
+     * @param now    当前时间，用于计算尚未销毁的实例的停留时间
+     * @param out    输出，长度至少为{@link Snapshot#FIELDS}
+     * @return 是否读到一致的结果
+     */
+    boolean read(int nameId, long now, long[] out) {
+        if (nameId < 0 || nameId >= mSize) return false;
+        for (int retry = 0; retry < MAX_READ_RETRIES; retry++) {
+            long version = mVersion.get(0);
+            if ((version & 1) != 0) continue;
+            AtomicLongArray values = mValues;
+            copy(values, nameId, now, out, 0);
+            if (mVersion.get(0) == version) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取全部id的统计，可在任意线程调用
+     *
+     * @param now 当前时间，用于计算尚未销毁的实例的停留时间
+     */
+    Snapshot snapshot(long now) {
+        for (int retry = 0; retry < MAX_READ_RETRIES; retry++) {
+            long version = mVersion.get(0);
+            if ((version & 1) != 0) continue;
+            AtomicLongArray values = mValues;
+            int size = Math.min(mSize, values.length() / FIELD_COUNT);
+            long[] data = new long[size * Snapshot.FIELDS];
+            for (int id = 0; id < size; id++) {
+                copy(values, id, now, data, id * Snapshot.FIELDS);
+            }
+            if (mVersion.get(0) == version) return new Snapshot(size, data);
+        }
+        return new Snapshot(0, new long[0]);
+    }
+
+    private static void copy(AtomicLongArray values, int nameId, long now, long[] out, int offset) {
+        int base = nameId * FIELD_COUNT;
+        long openCount = values.get(base + OPEN_COUNT);
+        out[offset + Snapshot.COUNT] = values.get(base + COUNT);
+        out[offset + Snapshot.TOTAL] = values.get(base + TOTAL);
+        out[offset + Snapshot.MIN] = values.get(base + MIN);
+        out[offset + Snapshot.MAX] = values.get(base + MAX);
+        out[offset + Snapshot.OPEN_COUNT] = openCount;
+        out[offset + Snapshot.OPEN_TIME] = openCount <= 0 ? 0L : Math.max(0L, openCount * now - values.get(base + OPEN_START_SUM));
+    }
+
+    /**
+     * 某一时刻的统计，按名称id排列
+     */
+    static final class Snapshot {
+        static final int FIELDS = 6;
+        static final int COUNT = 0;
+        static final int TOTAL = 1;
+        static final int MIN = 2;
+        static final int MAX = 3;
+        static final int OPEN_COUNT = 4;
+        /**
+         * 尚未销毁的实例到现在为止的停留时间之和
+         */
+        static final int OPEN_TIME = 5;
+
+        final int size;
+        private final long[] data;
+
+        private Snapshot(int size, long[] data) {
+            this.size = size;
+            this.data = data;
+        }
+
+        long get(int nameId, int field) {
+            return data[nameId * FIELDS + field];
+        }
+
+        /**
+         * 是否有已完成或正在进行的访问
+         */
+        boolean isVisited(int nameId) {
+            return get(nameId, COUNT) > 0 || get(nameId, OPEN_COUNT) > 0;
+        }
+    }
+}
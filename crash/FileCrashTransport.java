@@ -0,0 +1,61 @@
+package example.com.kotlin.crash;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 把每批报告写成目录下的一个文件，用于本地调试或代替真实的上传
+ * <p>
+ * 先写临时文件再重命名，目录中只会出现完整的批次文件。
+ */
+public final class FileCrashTransport implements CrashTransport {
+
+    static final String SUFFIX = ".batch.gz";
+
+    private final File mDir;
+    private int mCount;
+
+    public FileCrashTransport(File dir) {
+        mDir = dir;
+    }
+
+    @Override
+    public void deliver(byte[] batch, int length, int reportCount) throws IOException {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("mkdirs failed: " + mDir);
+        }
+        String name = System.currentTimeMillis() + "-" + (mCount++) + "-" + reportCount;
+        File tmp = new File(mDir, name + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(batch, 0, length);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(mDir, name + SUFFIX))) {
+            tmp.delete();
+            throw new IOException("rename failed: " + tmp);
+        }
+    }
+
+    /**
+     * 已投递的批次文件，按文件名排序
+     */
+    public File[] listBatches() {
+        File[] files = mDir.listFiles();
+        if (files == null) return new File[0];
+        List<File> list = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) list.add(file);
+        }
+        File[] result = list.toArray(new File[0]);
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package example.com.kotlin.crash;
+
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * 监听Activity的decor view下一次绘制，用于统计首帧时间
+ * <p>
+ * 需要在主线程调用，API 17以上。onDraw中不能移除监听，绘制后投递到主线程移除。
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+final class FirstDrawObserver {
+
+    interface Callback {
+        /**
+         * @param activity      Activity
+         * @param drawTimeNanos 绘制时的{@link SystemClock#elapsedRealtimeNanos()}
+         */
+        void onFirstDraw(Activity activity, long drawTimeNanos);
+    }
+
+    private static Handler sMainHandler;
+
+    private FirstDrawObserver() {
+
+    }
+
+    /**
+     * 在decor view下一次绘制时回调一次
+     *
+     * @param activity Activity，应已resumed，此时decor view已经存在
+     * @param callback 回调
+     */
+    static void observe(final Activity activity, final Callback callback) {
+        if (activity.getWindow() == null) return;
+        if (sMainHandler == null) sMainHandler = new Handler(Looper.getMainLooper());
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean mDrawn;
+
+            @Override
+            public void onDraw() {
+                if (mDrawn) return;
+                mDrawn = true;
+                callback.onFirstDraw(activity, SystemClock.elapsedRealtimeNanos());
+                final ViewTreeObserver.OnDrawListener listener = this;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ViewTreeObserver observer = decorView.getViewTreeObserver();
+                        if (observer.isAlive()) observer.removeOnDrawListener(listener);
+                    }
+                });
+            }
+        });
+    }
+}
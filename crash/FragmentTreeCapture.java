@@ -0,0 +1,266 @@
+package example.com.kotlin.crash;
+
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.os.Build;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 一个Activity的Fragment树，按层序保存在数组中
+ * <p>
+ * 节点0是Activity，同一个节点的子节点连续存放。support包和app包的FragmentManager通过{@link Adapter}统一读取，
+ * 每个FragmentManager只调用一次getFragments。节点数和层数有上限，超出的部分只计数，
+ * 异常复杂的界面也不会拖慢崩溃路径。读取完成后不再修改，可以在线程间共享和缓存。
+ */
+final class FragmentTreeCapture {
+
+    private static final String TAG = "FragmentTreeCapture";
+
+    private static boolean DEBUG = false;
+
+    /**
+     * 最多读取的节点数，包括Activity
+     */
+    static final int MAX_NODES = 256;
+    /**
+     * 最多读取的层数，Activity的子Fragment为第1层
+     */
+    static final int MAX_DEPTH = 8;
+
+    /**
+     * 统一读取两种FragmentManager
+     *
+     * @param <M> FragmentManager
+     * @param <F> Fragment
+     */
+    abstract static class Adapter<M, F> {
+        /**
+         * 已添加的Fragment，可能为null
+         */
+        abstract List<F> fragments(M manager);
+
+        /**
+         * 子FragmentManager，Fragment未attach时为null
+         */
+        abstract M childManager(F fragment);
+    }
+
+    static final Adapter<FragmentManager, Fragment> SUPPORT = new Adapter<FragmentManager, Fragment>() {
+        @Override
+        List<Fragment> fragments(FragmentManager manager) {
+            return manager.getFragments();
+        }
+
+        @Override
+        FragmentManager childManager(Fragment fragment) {
+            try {
+                return fragment.getChildFragmentManager();
+            } catch (IllegalStateException e) {
+                // Fragment has not been attached yet
+                return null;
+            }
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static final class PlatformAdapter extends Adapter<android.app.FragmentManager, android.app.Fragment> {
+        static final PlatformAdapter INSTANCE = new PlatformAdapter();
+
+        @Override
+        List<android.app.Fragment> fragments(android.app.FragmentManager manager) {
+            return manager.getFragments();
+        }
+
+        @Override
+        android.app.FragmentManager childManager(android.app.Fragment fragment) {
+            try {
+                return fragment.getChildFragmentManager();
+            } catch (IllegalStateException e) {
+                return null;
+            }
+        }
+    }
+
+    private final String[] mNames;
+    /**
+     * 作为父节点时的名称：同一父节点下有同名的前一个兄弟节点时加上序号，与之前的输出格式一致
+     */
+    private final String[] mKeys;
+    private final int[] mFirstChild;
+    private final int[] mChildCount;
+    private final int mSize;
+    /**
+     * 超出上限没有读取的Fragment数
+     */
+    private final int mOmitted;
+
+    private FragmentTreeCapture(String[] names, String[] keys, int[] firstChild, int[] childCount, int size, int omitted) {
+        mNames = names;
+        mKeys = keys;
+        mFirstChild = firstChild;
+        mChildCount = childCount;
+        mSize = size;
+        mOmitted = omitted;
+    }
+
+    static void setDebug(boolean debug) {
+        DEBUG = debug;
+    }
+
+    /**
+     * 读取Activity的Fragment树，需要在主线程调用
+     *
+     * @return 没有可读取的FragmentManager时为null
+     */
+    static FragmentTreeCapture capture(Activity activity) {
+        String name = activity.getClass().getName();
+        if (activity instanceof FragmentActivity) {
+            return capture(name, ((FragmentActivity) activity).getSupportFragmentManager(), SUPPORT, MAX_NODES, MAX_DEPTH);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return capturePlatform(name, activity.getFragmentManager());
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static FragmentTreeCapture capturePlatform(String name, android.app.FragmentManager manager) {
+        return capture(name, manager, PlatformAdapter.INSTANCE, MAX_NODES, MAX_DEPTH);
+    }
+
+    /**
+     * 按层序读取
+     *
+     * @param name     Activity类名
+     * @param manager  Activity的FragmentManager
+     * @param adapter  读取方式
+     * @param maxNodes 最多读取的节点数
+     * @param maxDepth 最多读取的层数
+     */
+    static <M, F> FragmentTreeCapture capture(String name, M manager, Adapter<M, F> adapter, int maxNodes, int maxDepth) {
+        int capacity = Math.min(maxNodes, 16);
+        String[] names = new String[capacity];
+        String[] keys = new String[capacity];
+        Object[] managers = new Object[capacity];
+        int[] depths = new int[capacity];
+        int[] firstChild = new int[capacity];
+        int[] childCount = new int[capacity];
+        names[0] = name;
+        keys[0] = name;
+        managers[0] = manager;
+        int size = 1;
+        int omitted = 0;
+        Set<String> siblings = new HashSet<>();
+        // 数组本身就是层序遍历的队列
+        for (int node = 0; node < size; node++) {
+            @SuppressWarnings("unchecked")
+            M nodeManager = (M) managers[node];
+            managers[node] = null;
+            firstChild[node] = size;
+            if (nodeManager == null) continue;
+            List<F> fragments = adapter.fragments(nodeManager);
+            if (fragments == null || fragments.isEmpty()) continue;
+            if (depths[node] >= maxDepth) {
+                omitted += fragments.size();
+                continue;
+            }
+            siblings.clear();
+            int count = fragments.size();
+            for (int i = 0; i < count; i++) {
+                F fragment = fragments.get(i);
+                if (fragment == null) continue;
+                if (size >= maxNodes) {
+                    omitted += count - i;
+                    break;
+                }
+                if (size == names.length) {
+                    int newCapacity = Math.min(maxNodes, size << 1);
+                    names = Arrays.copyOf(names, newCapacity);
+                    keys = Arrays.copyOf(keys, newCapacity);
+                    managers = Arrays.copyOf(managers, newCapacity);
+                    depths = Arrays.copyOf(depths, newCapacity);
+                    firstChild = Arrays.copyOf(firstChild, newCapacity);
+                    childCount = Arrays.copyOf(childCount, newCapacity);
+                }
+                String fragmentName = fragment.getClass().getName();
+                names[size] = fragmentName;
+                keys[size] = siblings.add(fragmentName) ? fragmentName : fragmentName + i;
+                managers[size] = adapter.childManager(fragment);
+                depths[size] = depths[node] + 1;
+                size++;
+                childCount[node]++;
+            }
+        }
+        if (DEBUG)
+            Log.d(TAG, "capture-->name=" + name + ";nodes=" + size + ";omitted=" + omitted);
+        return new FragmentTreeCapture(names, keys, firstChild, childCount, size, omitted);
+    }
+
+    /**
+     * 节点数，包括Activity
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 超出上限没有读取的Fragment数
+     */
+    int omitted() {
+        return mOmitted;
+    }
+
+    /**
+     * 以父节点名称为键、子Fragment类名列表为值加入map，Activity总是加入，没有子节点的Fragment不加入
+     */
+    void putInto(Map<String, List<String>> map) {
+        for (int node = 0; node < mSize; node++) {
+            int count = mChildCount[node];
+            if (node != 0 && count == 0) continue;
+            List<String> children = new ArrayList<>(count);
+            int first = mFirstChild[node];
+            for (int i = 0; i < count; i++) {
+                children.add(mNames[first + i]);
+            }
+            map.put(mKeys[node], children);
+        }
+    }
+
+    /**
+     * 同{@link #putInto(Map)}
+     */
+    Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        putInto(map);
+        return map;
+    }
+
+    /**
+     * 以二进制格式写入当前section，格式同{@link #putInto(Map)}，不创建中间集合；
+     * 有超出上限的Fragment时另外写入"Activity类名#omitted"
+     */
+    void encode(CrashReportEncoder encoder) {
+        if (mOmitted > 0) encoder.value(mKeys[0] + "#omitted", mOmitted);
+        for (int node = 0; node < mSize; node++) {
+            int count = mChildCount[node];
+            if (node != 0 && count == 0) continue;
+            encoder.beginList(mKeys[node]);
+            int first = mFirstChild[node];
+            for (int i = 0; i < count; i++) {
+                encoder.item(mNames[first + i]);
+            }
+            encoder.end();
+        }
+    }
+}
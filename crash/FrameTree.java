@@ -0,0 +1,168 @@
+package example.com.kotlin.crash;
+
+
+import java.util.Arrays;
+
+/**
+ * 采样栈聚合成的帧树（火焰图）
+ * <p>
+ * 每个节点是从根到该帧的一条调用路径，记录经过该节点的采样数和停在该节点的采样数。
+ * 节点保存在并行的int数组中，帧用调用方驻留的int id表示，聚合时不分配对象。
+ * 非线程安全。
+ */
+final class FrameTree {
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private int[] mFrames;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mTotal;
+    private int[] mSelf;
+    private int mSize;
+
+    FrameTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        mFrames = new int[capacity];
+        mFirstChild = new int[capacity];
+        mNextSibling = new int[capacity];
+        mTotal = new int[capacity];
+        mSelf = new int[capacity];
+        reset();
+    }
+
+    void reset() {
+        mSize = 1;
+        mFrames[ROOT] = NONE;
+        mFirstChild[ROOT] = NONE;
+        mNextSibling[ROOT] = NONE;
+        mTotal[ROOT] = 0;
+        mSelf[ROOT] = 0;
+    }
+
+    /**
+     * 加入一个采样
+     *
+     * @param frames 帧id，从栈顶（叶子）到栈底（根）排列，与{@link Thread#getStackTrace()}一致
+     * @param offset 起始位置
+     * @param depth  帧数
+     */
+    void add(int[] frames, int offset, int depth) {
+        int node = ROOT;
+        mTotal[ROOT]++;
+        for (int i = offset + depth - 1; i >= offset; i--) {
+            node = child(node, frames[i]);
+            mTotal[node]++;
+        }
+        mSelf[node]++;
+    }
+
+    private int child(int parent, int frame) {
+        for (int c = mFirstChild[parent]; c != NONE; c = mNextSibling[c]) {
+            if (mFrames[c] == frame) return c;
+        }
+        if (mSize == mFrames.length) grow();
+        int node = mSize++;
+        mFrames[node] = frame;
+        mFirstChild[node] = NONE;
+        mTotal[node] = 0;
+        mSelf[node] = 0;
+        mNextSibling[node] = mFirstChild[parent];
+        mFirstChild[parent] = node;
+        return node;
+    }
+
+    private void grow() {
+        int capacity = mFrames.length << 1;
+        mFrames = Arrays.copyOf(mFrames, capacity);
+        mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+        mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+        mTotal = Arrays.copyOf(mTotal, capacity);
+        mSelf = Arrays.copyOf(mSelf, capacity);
+    }
+
+    /**
+     * 采样总数
+     */
+    int sampleCount() {
+        return mTotal[ROOT];
+    }
+
+    /**
+     * 从根开始每层选择采样最多的子节点得到的路径，即火焰图中最宽的一条
+     *
+     * @return 帧id，从栈顶到栈底排列
+     */
+    int[] heaviestPath() {
+        int[] path = new int[16];
+        int depth = 0;
+        int node = ROOT;
+        while (true) {
+            int best = NONE;
+            for (int c = mFirstChild[node]; c != NONE; c = mNextSibling[c]) {
+                if (best == NONE || mTotal[c] > mTotal[best]) best = c;
+            }
+            if (best == NONE) break;
+            if (depth == path.length) path = Arrays.copyOf(path, depth << 1);
+            path[depth++] = mFrames[best];
+            node = best;
+        }
+        int[] result = new int[depth];
+        for (int i = 0; i < depth; i++) result[i] = path[depth - 1 - i];
+        return result;
+    }
+
+    /**
+     * 帧id对应的名称
+     */
+    interface FrameNames {
+        String nameOf(int frame);
+    }
+
+    /**
+     * 以折叠栈格式写入（"根;...;叶 采样数"，每条停止的路径一项），可以直接用flamegraph工具绘制
+     *
+     * @param encoder 编码器
+     * @param key     名称
+     * @param names   帧名称
+     */
+    void encodeFolded(CrashReportEncoder encoder, String key, FrameNames names) {
+        encoder.beginList(key);
+        int[] stack = new int[16];
+        int[] path = new int[16];
+        int top = 0;
+        // 深度优先遍历，stack保存待访问的节点，path保存当前路径
+        stack[top++] = ROOT;
+        int[] depths = new int[16];
+        depths[0] = 0;
+        StringBuilder sb = new StringBuilder();
+        while (top > 0) {
+            int node = stack[--top];
+            int depth = depths[top];
+            if (node != ROOT) {
+                if (depth > path.length) path = Arrays.copyOf(path, path.length << 1);
+                path[depth - 1] = node;
+                if (mSelf[node] > 0) {
+                    sb.setLength(0);
+                    for (int i = 0; i < depth; i++) {
+                        if (i > 0) sb.append(';');
+                        sb.append(names.nameOf(mFrames[path[i]]));
+                    }
+                    sb.append(' ').append(mSelf[node]);
+                    encoder.item(sb.toString());
+                }
+            }
+            for (int c = mFirstChild[node]; c != NONE; c = mNextSibling[c]) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top << 1);
+                    depths = Arrays.copyOf(depths, top << 1);
+                }
+                stack[top] = c;
+                depths[top] = depth + 1;
+                top++;
+            }
+        }
+        encoder.end();
+    }
+}
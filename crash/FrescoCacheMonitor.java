@@ -0,0 +1,334 @@
+package example.com.kotlin.crash;
+
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.facebook.drawee.backends.pipeline.Fresco;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 后台采样Fresco的位图内存缓存、磁盘缓存和堆使用，判断位图缓存造成的内存压力
+ * <p>
+ * 最近的采样保存在定长的long数组环形缓冲区中，采样不分配对象。每次采样计算窗口内位图缓存字节数与堆余量的
+ * 相关系数：位图缓存占最大堆的比例较高，或者相关系数明显为负（缓存增长时余量减少）时，按堆余量得出压力级别，
+ * 级别变化时在主线程通知{@link TrimPressureListener}并记一条面包屑。Android 8.0起位图像素在native堆，
+ * 相关性会变弱，此时主要依据缓存占比。趋势由{@link FrescoInfoCollector}写入崩溃报告。
+ * <p>
+ * Fresco是可选依赖：运行时检测到Fresco的类才会开始采样，直接访问Fresco的代码都在{@link FrescoCaches}中，
+ * 没有Fresco时不会加载。Fresco尚未初始化时跳过这次采样。
+ */
+final class FrescoCacheMonitor {
+
+    private static final String TAG = "FrescoCacheMonitor";
+
+    private static final String FRESCO_CLASS = "com.facebook.drawee.backends.pipeline.Fresco";
+
+    private static final long DEFAULT_INTERVAL = 5 * 1000L;
+    /**
+     * 有压力时的采样间隔
+     */
+    private static final long PRESSURE_INTERVAL = 1000L;
+
+    /**
+     * 保留的最近采样数，也是计算相关系数的窗口
+     */
+    static final int RECENT_CAPACITY = 60;
+
+    /**
+     * 位图缓存占最大堆的比例达到该值时认为压力来自位图缓存
+     */
+    private static final int BITMAP_SHARE_PERCENT = 10;
+    /**
+     * 相关系数不大于该值（千分比）时认为堆余量随位图缓存增长而减少
+     */
+    private static final int CORRELATION_PERMILLE = -500;
+    /**
+     * 计算相关系数至少需要的采样数
+     */
+    private static final int MIN_CORRELATION_SAMPLES = 6;
+    private static final int MODERATE_HEADROOM_PERCENT = 25;
+    private static final int CRITICAL_HEADROOM_PERCENT = 10;
+
+    private static final String[] PRESSURE_NAMES = {"none", "moderate", "critical"};
+
+    /**
+     * {@link #trend()}中各项的下标：最近一次采样的磁盘缓存和位图缓存、压力级别、相关系数、
+     * 位图缓存每分钟的变化、窗口内的采样数、最小堆余量和最大位图缓存
+     */
+    static final int TREND_DISK = 0;
+    static final int TREND_BITMAP = 1;
+    static final int TREND_PRESSURE = 2;
+    static final int TREND_CORRELATION = 3;
+    static final int TREND_GROWTH = 4;
+    static final int TREND_SAMPLES = 5;
+    static final int TREND_MIN_HEADROOM = 6;
+    static final int TREND_MAX_BITMAP = 7;
+    static final int TREND_FIELDS = 8;
+
+    private static final boolean FRESCO_AVAILABLE = detectFresco();
+
+    private static boolean DEBUG = false;
+
+    private static volatile boolean sStarted;
+
+    /**
+     * 最近采样的环形缓冲区，单写（后台线程）多读，读取时可能混入正在写的一条
+     */
+    private static final long[] sRecentTimes = new long[RECENT_CAPACITY];
+    private static final long[] sRecentBitmap = new long[RECENT_CAPACITY];
+    private static final long[] sRecentDisk = new long[RECENT_CAPACITY];
+    private static final long[] sRecentHeap = new long[RECENT_CAPACITY];
+    private static final long[] sRecentHeapMax = new long[RECENT_CAPACITY];
+    private static volatile int sRecentCount;
+
+    private static volatile int sPressure = TrimPressureListener.PRESSURE_NONE;
+    private static volatile int sCorrelation;
+    private static volatile long sBitmapGrowth;
+
+    private static volatile TrimPressureListener sListener;
+
+    private static Handler sWorker;
+    private static Handler sMainHandler;
+
+    private FrescoCacheMonitor() {
+
+    }
+
+    private static boolean detectFresco() {
+        try {
+            // 不初始化，只判断类是否存在
+            Class.forName(FRESCO_CLASS, false, FrescoCacheMonitor.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 应用是否包含Fresco
+     */
+    static boolean isFrescoAvailable() {
+        return FRESCO_AVAILABLE;
+    }
+
+    /**
+     * 开始采样，重复调用只更换回调
+     *
+     * @param listener 压力级别变化时的回调，可以为null
+     * @param debug    是否打印日志
+     * @return 没有Fresco时返回false
+     */
+    static synchronized boolean start(TrimPressureListener listener, boolean debug) {
+        if (!FRESCO_AVAILABLE) return false;
+        sListener = listener;
+        if (sStarted) return true;
+        DEBUG = debug;
+        sMainHandler = new Handler(Looper.getMainLooper());
+        sWorker = CrashWorker.handler();
+        sStarted = true;
+        sWorker.post(sSample);
+        return true;
+    }
+
+    /**
+     * 当前的压力级别，TrimPressureListener.PRESSURE_*
+     */
+    static int pressure() {
+        return sPressure;
+    }
+
+    private static final Runnable sSample = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+            sWorker.postDelayed(this, sPressure == TrimPressureListener.PRESSURE_NONE ? DEFAULT_INTERVAL : PRESSURE_INTERVAL);
+        }
+    };
+
+    static void sample() {
+        long bitmap;
+        long disk;
+        try {
+            bitmap = FrescoCaches.bitmapCacheBytes();
+            disk = FrescoCaches.diskCacheBytes();
+        } catch (RuntimeException e) {
+            // Fresco还没有初始化
+            if (DEBUG)
+                Log.d(TAG, "sample-->" + e);
+            return;
+        }
+        Runtime r = Runtime.getRuntime();
+        long max = r.maxMemory();
+        long heap = r.totalMemory() - r.freeMemory();
+
+        int count = sRecentCount;
+        int slot = count % RECENT_CAPACITY;
+        sRecentTimes[slot] = System.currentTimeMillis();
+        sRecentBitmap[slot] = bitmap;
+        sRecentDisk[slot] = disk;
+        sRecentHeap[slot] = heap;
+        sRecentHeapMax[slot] = max;
+        sRecentCount = count + 1;
+
+        sCorrelation = correlation(count + 1);
+        sBitmapGrowth = bitmapGrowthPerMinute(count + 1);
+        int pressure = pressureOf(bitmap, heap, max, sCorrelation, count + 1);
+        if (pressure != sPressure) onPressureChanged(pressure, bitmap, max - heap);
+        if (DEBUG)
+            Log.d(TAG, "sample-->bitmap=" + bitmap + ";disk=" + disk + ";heap=" + heap + ";correlation=" + sCorrelation + ";pressure=" + pressure);
+    }
+
+    /**
+     * 窗口内位图缓存字节数与堆余量的皮尔逊相关系数，千分比；采样不足或没有变化时为0
+     */
+    private static int correlation(int count) {
+        int n = Math.min(count, RECENT_CAPACITY);
+        if (n < MIN_CORRELATION_SAMPLES) return 0;
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < n; i++) {
+            sumX += sRecentBitmap[i];
+            sumY += sRecentHeapMax[i] - sRecentHeap[i];
+        }
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        double sxy = 0, sxx = 0, syy = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = sRecentBitmap[i] - meanX;
+            double dy = sRecentHeapMax[i] - sRecentHeap[i] - meanY;
+            sxy += dx * dy;
+            sxx += dx * dx;
+            syy += dy * dy;
+        }
+        if (sxx == 0 || syy == 0) return 0;
+        return (int) Math.round(sxy / Math.sqrt(sxx * syy) * 1000);
+    }
+
+    /**
+     * 窗口内最早和最近一次采样之间位图缓存每分钟的变化，字节
+     */
+    private static long bitmapGrowthPerMinute(int count) {
+        int n = Math.min(count, RECENT_CAPACITY);
+        if (n < 2) return 0L;
+        int last = (count - 1) % RECENT_CAPACITY;
+        int first = (count - n) % RECENT_CAPACITY;
+        long millis = sRecentTimes[last] - sRecentTimes[first];
+        if (millis <= 0) return 0L;
+        return (sRecentBitmap[last] - sRecentBitmap[first]) * 60000L / millis;
+    }
+
+    static int pressureOf(long bitmap, long heap, long max, int correlation, int count) {
+        if (max <= 0 || bitmap <= 0) return TrimPressureListener.PRESSURE_NONE;
+        boolean fromBitmap = bitmap * 100 >= max * BITMAP_SHARE_PERCENT
+                || (count >= MIN_CORRELATION_SAMPLES && correlation <= CORRELATION_PERMILLE);
+        if (!fromBitmap) return TrimPressureListener.PRESSURE_NONE;
+        long headroom = max - heap;
+        if (headroom * 100 < max * CRITICAL_HEADROOM_PERCENT) return TrimPressureListener.PRESSURE_CRITICAL;
+        if (headroom * 100 < max * MODERATE_HEADROOM_PERCENT) return TrimPressureListener.PRESSURE_MODERATE;
+        return TrimPressureListener.PRESSURE_NONE;
+    }
+
+    private static void onPressureChanged(final int pressure, final long bitmap, final long headroom) {
+        sPressure = pressure;
+        BreadcrumbJournal journal = BreadcrumbJournal.get();
+        if (journal != null) journal.append(BreadcrumbJournal.TYPE_TRIM_PRESSURE, pressure, bitmap);
+        if (DEBUG)
+            Log.d(TAG, "onPressureChanged-->" + PRESSURE_NAMES[pressure] + ";bitmap=" + bitmap + ";headroom=" + headroom);
+        final TrimPressureListener listener = sListener;
+        if (listener == null) return;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onTrimPressure(pressure, bitmap, headroom);
+            }
+        });
+    }
+
+    /**
+     * 最近一次采样的缓存大小和窗口内的趋势，由{@link FrescoInfoCollector}写入崩溃报告
+     *
+     * @return 按TREND_*排列，还没有采样时为null
+     */
+    static long[] trend() {
+        int count = sRecentCount;
+        if (count == 0) return null;
+        long[] trend = new long[TREND_FIELDS];
+        int last = (count - 1) % RECENT_CAPACITY;
+        trend[TREND_DISK] = sRecentDisk[last];
+        trend[TREND_BITMAP] = sRecentBitmap[last];
+        trend[TREND_PRESSURE] = sPressure;
+        trend[TREND_CORRELATION] = sCorrelation;
+        trend[TREND_GROWTH] = sBitmapGrowth;
+        trend[TREND_SAMPLES] = Math.min(count, RECENT_CAPACITY);
+        long minHeadroom = Long.MAX_VALUE;
+        long maxBitmap = 0L;
+        for (int i = Math.max(0, count - RECENT_CAPACITY); i < count; i++) {
+            int slot = i % RECENT_CAPACITY;
+            minHeadroom = Math.min(minHeadroom, sRecentHeapMax[slot] - sRecentHeap[slot]);
+            maxBitmap = Math.max(maxBitmap, sRecentBitmap[slot]);
+        }
+        trend[TREND_MIN_HEADROOM] = minHeadroom;
+        trend[TREND_MAX_BITMAP] = maxBitmap;
+        return trend;
+    }
+
+    static String pressureName(long pressure) {
+        return PRESSURE_NAMES[(int) pressure];
+    }
+
+    /**
+     * 压力级别、相关系数和最近的采样，数值均为字节数
+     *
+     * @return JSON字符串
+     */
+    static String getFrescoCacheTrend() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put("pressure", PRESSURE_NAMES[sPressure]);
+            jsonObject.put("correlationPermille", sCorrelation);
+            jsonObject.put("bitmapGrowthPerMinute", sBitmapGrowth);
+            JSONArray recent = new JSONArray();
+            int count = sRecentCount;
+            for (int i = Math.max(0, count - RECENT_CAPACITY); i < count; i++) {
+                int slot = i % RECENT_CAPACITY;
+                JSONObject item = new JSONObject();
+                item.put("time", sRecentTimes[slot]);
+                item.put("bitmapCache", sRecentBitmap[slot]);
+                item.put("diskCache", sRecentDisk[slot]);
+                item.put("heap", sRecentHeap[slot]);
+                item.put("heapMax", sRecentHeapMax[slot]);
+                recent.put(item);
+            }
+            jsonObject.put("recent", recent);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+
+    /**
+     * 直接访问Fresco，只在{@link #isFrescoAvailable()}为true时加载
+     */
+    static final class FrescoCaches {
+
+        private FrescoCaches() {
+
+        }
+
+        /**
+         * 位图内存缓存中所有缓存项的总大小
+         */
+        static long bitmapCacheBytes() {
+            return Fresco.getImagePipelineFactory().getBitmapCountingMemoryCache().getSizeInBytes();
+        }
+
+        /**
+         * 磁盘主缓存的大小，需要DiskCacheConfig.setIndexPopulateAtStartupEnabled(true)，否则为-1
+         */
+        static long diskCacheBytes() {
+            return Fresco.getImagePipelineFactory().getMainFileCache().getSize();
+        }
+    }
+}
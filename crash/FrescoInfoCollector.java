@@ -0,0 +1,61 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+
+/**
+ * Fresco的缓存大小，在生命周期事件后于后台刷新，崩溃时直接使用缓存
+ * <p>
+ * 使用Fresco的应用在初始化Fresco后注册：{@code CrashInfo.registerCollector(new FrescoInfoCollector())}。
+ * 磁盘缓存大小需要DiskCacheConfig.setIndexPopulateAtStartupEnabled(true)，否则为-1。没有Fresco时没有该项。
+ * 调用{@link CrashInfo#watchFrescoCache(Application, TrimPressureListener)}后会自动注册，缓存大小取自最近一次采样，
+ * 并加上压力级别、相关系数和采样窗口内的趋势。
+ */
+public final class FrescoInfoCollector extends CrashInfoCollector<long[]> {
+
+    static final String NAME = "FrescoInfo";
+
+    public FrescoInfoCollector() {
+        super(NAME, COST_CHEAP, THREAD_ANY, REFRESH_LIFECYCLE);
+    }
+
+    @Override
+    protected Schema schema() {
+        return new Schema(2)
+                .number("fileCache")
+                .number("bitmapCache")
+                .string("pressure")
+                .number("correlationPermille")
+                .number("bitmapGrowthPerMinute")
+                .number("recentSamples")
+                .number("minHeapHeadroom")
+                .number("maxBitmapCache");
+    }
+
+    /**
+     * @return 没有采样时为{磁盘缓存, 位图缓存}，否则为{@link FrescoCacheMonitor#trend()}
+     */
+    @Override
+    protected long[] collect(Application application) {
+        if (!FrescoCacheMonitor.isFrescoAvailable()) return null;
+        long[] trend = FrescoCacheMonitor.trend();
+        if (trend != null) return trend;
+        return new long[]{
+                FrescoCacheMonitor.FrescoCaches.diskCacheBytes(),
+                FrescoCacheMonitor.FrescoCaches.bitmapCacheBytes()
+        };
+    }
+
+    @Override
+    protected void write(long[] value, Output output) {
+        output.put("fileCache", value[FrescoCacheMonitor.TREND_DISK])
+                .put("bitmapCache", value[FrescoCacheMonitor.TREND_BITMAP]);
+        if (value.length < FrescoCacheMonitor.TREND_FIELDS) return;
+        output.put("pressure", FrescoCacheMonitor.pressureName(value[FrescoCacheMonitor.TREND_PRESSURE]))
+                .put("correlationPermille", value[FrescoCacheMonitor.TREND_CORRELATION])
+                .put("bitmapGrowthPerMinute", value[FrescoCacheMonitor.TREND_GROWTH])
+                .put("recentSamples", value[FrescoCacheMonitor.TREND_SAMPLES])
+                .put("minHeapHeadroom", value[FrescoCacheMonitor.TREND_MIN_HEADROOM])
+                .put("maxBitmapCache", value[FrescoCacheMonitor.TREND_MAX_BITMAP]);
+    }
+}
@@ -0,0 +1,501 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 内存快照
+ * <p>
+ * 堆使用率超过阈值时由{@link MemorySampler}触发，也可以主动请求。快照写入应用私有目录
+ * {@code files/crash/heap}，不需要存储权限。Debug.dumpHprofData本身会暂停整个虚拟机，无法避免，
+ * 但调用放在独立的后台线程，主线程不用等待之后的处理：原始文件按记录流式读取，
+ * 基本类型数组的内容清零（长度不变，对象大小和引用关系不受影响），同时gzip压缩，
+ * 通常能缩小一个数量级；处理完删除原始文件，并按总大小和个数删除最旧的快照。
+ */
+final class HeapDumper {
+
+    private static final String TAG = "HeapDumper";
+
+    /**
+     * 默认的触发阈值，堆使用率（占最大堆的百分比）
+     */
+    static final int DEFAULT_THRESHOLD_PERCENT = 90;
+    /**
+     * 不自动触发
+     */
+    static final int NO_AUTO_DUMP = Integer.MAX_VALUE / 100;
+    /**
+     * 默认的磁盘配额
+     */
+    static final long DEFAULT_QUOTA = 64 * 1024 * 1024L;
+    /**
+     * 最多保留的快照数
+     */
+    static final int MAX_DUMPS = 3;
+    /**
+     * 两次自动触发的最小间隔，以最新快照的修改时间计，跨进程有效
+     */
+    static final long MIN_AUTO_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    private static final String RAW_SUFFIX = ".hprof";
+    private static final String DUMP_SUFFIX = ".hprof.gz";
+
+    private static final int TAG_HEAP_DUMP = 0x0c;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1c;
+
+    private static final int ROOT_UNKNOWN = 0xff;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJECT_ARRAY_DUMP = 0x22;
+    private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    /**
+     * 以下为Android扩展
+     */
+    private static final int HEAP_DUMP_INFO = 0xfe;
+    private static final int ROOT_INTERNED_STRING = 0x89;
+    private static final int ROOT_FINALIZING = 0x8a;
+    private static final int ROOT_DEBUGGER = 0x8b;
+    private static final int ROOT_REFERENCE_CLEANUP = 0x8c;
+    private static final int ROOT_VM_INTERNAL = 0x8d;
+    private static final int ROOT_JNI_MONITOR = 0x8e;
+    private static final int ROOT_UNREACHABLE = 0x90;
+    private static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xc3;
+
+    private static final int TYPE_OBJECT = 2;
+
+    private static boolean DEBUG = false;
+
+    private static volatile HeapDumper sDumper;
+
+    private final File mDir;
+    private volatile int mThresholdPercent;
+    private volatile long mQuota;
+
+    private volatile boolean mDumping;
+    private volatile long mLastDump;
+
+    private HeapDumper(File dir, int thresholdPercent, long quota) {
+        mDir = dir;
+        mThresholdPercent = thresholdPercent;
+        mQuota = quota;
+    }
+
+    /**
+     * 开启内存快照，已开启时只更新阈值和配额
+     *
+     * @param context          上下文对象
+     * @param thresholdPercent 自动触发的堆使用率，{@link #NO_AUTO_DUMP}时不自动触发
+     * @param quota            快照占用的最大字节数
+     * @param debug            是否打印日志
+     * @return 无法创建目录时为null
+     */
+    static synchronized HeapDumper install(Context context, int thresholdPercent, long quota, boolean debug) {
+        HeapDumper installed = sDumper;
+        if (installed != null) {
+            installed.mThresholdPercent = thresholdPercent;
+            installed.mQuota = quota;
+            return installed;
+        }
+        DEBUG = debug;
+        File dir = new File(new File(context.getFilesDir(), "crash"), "heap");
+        if (!dir.exists() && !dir.mkdirs()) return null;
+        HeapDumper dumper = new HeapDumper(dir, thresholdPercent, quota);
+        // 处理过程中进程退出留下的原始文件不完整，直接删除
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(RAW_SUFFIX) && !file.delete()) {
+                    if (DEBUG)
+                        Log.d(TAG, "install-->fail to delete " + file);
+                }
+            }
+        }
+        File[] dumps = dumper.dumps();
+        dumper.mLastDump = dumps.length == 0 ? 0L : dumps[0].lastModified();
+        sDumper = dumper;
+        return dumper;
+    }
+
+    /**
+     * 已开启的实例，未开启时为null
+     */
+    static HeapDumper get() {
+        return sDumper;
+    }
+
+    /**
+     * 每次采样后调用，堆使用率超过阈值且距离上次快照足够久时触发；只做几次比较，不分配对象
+     *
+     * @param heap 已使用的堆
+     * @param max  最大堆
+     */
+    void onSample(long heap, long max) {
+        if (mDumping || max <= 0 || heap * 100 < max * mThresholdPercent) return;
+        if (System.currentTimeMillis() - mLastDump < MIN_AUTO_INTERVAL) return;
+        if (DEBUG)
+            Log.d(TAG, "onSample-->heap=" + heap + ";max=" + max + " trigger dump");
+        dumpAsync("auto");
+    }
+
+    /**
+     * 在独立的后台线程获取快照并处理，已有快照正在进行时忽略
+     *
+     * @param reason 触发原因，作为文件名的一部分
+     * @return 是否开始获取
+     */
+    synchronized boolean dumpAsync(final String reason) {
+        if (mDumping) return false;
+        mDumping = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump(reason);
+                } finally {
+                    mDumping = false;
+                }
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * 获取快照并处理，在当前线程执行
+     *
+     * @return 处理后的文件，失败时为null
+     */
+    private File dump(String reason) {
+        long now = System.currentTimeMillis();
+        mLastDump = now;
+        String name = "heap-" + now + "-" + reason;
+        File raw = new File(mDir, name + RAW_SUFFIX);
+        File dump = new File(mDir, name + DUMP_SUFFIX);
+        // 原始文件和堆大小相当，空间不够时不获取
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        if (mDir.getUsableSpace() < heap * 2) {
+            if (DEBUG)
+                Log.d(TAG, "dump-->not enough space, heap=" + heap + ";usable=" + mDir.getUsableSpace());
+            return null;
+        }
+        long start = SystemClock.uptimeMillis();
+        try {
+            Debug.dumpHprofData(raw.getPath());
+            long dumped = SystemClock.uptimeMillis();
+            long stripped = strip(raw, dump);
+            if (DEBUG)
+                Log.d(TAG, "dump-->raw=" + raw.length() + ";stripped=" + stripped + ";gzip=" + dump.length()
+                        + ";dumpCost=" + (dumped - start) + ";stripCost=" + (SystemClock.uptimeMillis() - dumped));
+        } catch (Throwable e) {
+            e.printStackTrace();
+            if (!dump.delete() && DEBUG)
+                Log.d(TAG, "dump-->fail to delete " + dump);
+            dump = null;
+        } finally {
+            if (raw.exists() && !raw.delete() && DEBUG)
+                Log.d(TAG, "dump-->fail to delete " + raw);
+        }
+        trim();
+        return dump;
+    }
+
+    /**
+     * 已处理的快照，从新到旧排列
+     */
+    File[] dumps() {
+        File[] files = mDir.listFiles();
+        if (files == null) return new File[0];
+        List<File> dumps = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(DUMP_SUFFIX)) dumps.add(file);
+        }
+        File[] result = dumps.toArray(new File[dumps.size()]);
+        Arrays.sort(result, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long t1 = o1.lastModified();
+                long t2 = o2.lastModified();
+                return t1 > t2 ? -1 : (t1 == t2 ? o2.getName().compareTo(o1.getName()) : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 超出个数或配额时从最旧的开始删除，最新的一个总是保留
+     */
+    void trim() {
+        File[] dumps = dumps();
+        long total = 0;
+        for (int i = 0; i < dumps.length; i++) {
+            total += dumps[i].length();
+            if (i > 0 && (i >= MAX_DUMPS || total > mQuota)) {
+                total -= dumps[i].length();
+                if (!dumps[i].delete() && DEBUG)
+                    Log.d(TAG, "trim-->fail to delete " + dumps[i]);
+            }
+        }
+    }
+
+    /**
+     * 流式读取原始快照，清零基本类型数组的内容后gzip写出
+     *
+     * @return 清零的字节数
+     */
+    static long strip(File raw, File out) throws IOException {
+        DataInputStream in = null;
+        DataOutputStream os = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(raw), 64 * 1024));
+            os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(out), 64 * 1024), 64 * 1024));
+            long stripped = new Stripper(in, os).run();
+            os.flush();
+            return stripped;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (os != null) os.close();
+        }
+    }
+
+    /**
+     * 逐条复制记录，只解析堆记录中的子记录以找到基本类型数组
+     */
+    private static final class Stripper {
+        private final DataInputStream mIn;
+        private final DataOutputStream mOut;
+        private final byte[] mBuffer = new byte[64 * 1024];
+        private final byte[] mZeros = new byte[64 * 1024];
+        private int mIdSize;
+        private long mStripped;
+
+        Stripper(DataInputStream in, DataOutputStream out) {
+            mIn = in;
+            mOut = out;
+        }
+
+        long run() throws IOException {
+            // 文件头：以0结尾的版本字符串 | id长度(4) | 时间戳(8)
+            int b;
+            while ((b = mIn.readUnsignedByte()) != 0) mOut.write(b);
+            mOut.write(0);
+            mIdSize = copyInt();
+            if (mIdSize != 4 && mIdSize != 8) throw new IOException("unsupported id size " + mIdSize);
+            copy(8);
+            while (true) {
+                int tag = mIn.read();
+                if (tag < 0) break;
+                mOut.write(tag);
+                copy(4);
+                long length = copyInt() & 0xffffffffL;
+                if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+                    copyHeapDump(length);
+                } else {
+                    copy(length);
+                }
+            }
+            return mStripped;
+        }
+
+        private void copyHeapDump(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                int subTag = mIn.readUnsignedByte();
+                mOut.write(subTag);
+                remaining--;
+                long size;
+                switch (subTag) {
+                    case ROOT_UNKNOWN:
+                    case ROOT_STICKY_CLASS:
+                    case ROOT_MONITOR_USED:
+                    case ROOT_INTERNED_STRING:
+                    case ROOT_FINALIZING:
+                    case ROOT_DEBUGGER:
+                    case ROOT_REFERENCE_CLEANUP:
+                    case ROOT_VM_INTERNAL:
+                    case ROOT_UNREACHABLE:
+                        size = copy(mIdSize);
+                        break;
+                    case ROOT_JNI_GLOBAL:
+                        size = copy(mIdSize * 2);
+                        break;
+                    case ROOT_JNI_LOCAL:
+                    case ROOT_JAVA_FRAME:
+                    case ROOT_THREAD_OBJECT:
+                    case ROOT_JNI_MONITOR:
+                        size = copy(mIdSize + 8);
+                        break;
+                    case ROOT_NATIVE_STACK:
+                    case ROOT_THREAD_BLOCK:
+                        size = copy(mIdSize + 4);
+                        break;
+                    case HEAP_DUMP_INFO:
+                        size = copy(4 + mIdSize);
+                        break;
+                    case CLASS_DUMP:
+                        size = copyClassDump();
+                        break;
+                    case INSTANCE_DUMP: {
+                        copy(mIdSize + 4 + mIdSize);
+                        long fields = copyInt() & 0xffffffffL;
+                        copy(fields);
+                        size = mIdSize + 4 + mIdSize + 4 + fields;
+                        break;
+                    }
+                    case OBJECT_ARRAY_DUMP: {
+                        copy(mIdSize + 4);
+                        long count = copyInt() & 0xffffffffL;
+                        copy(mIdSize + count * mIdSize);
+                        size = mIdSize + 8 + mIdSize + count * mIdSize;
+                        break;
+                    }
+                    case PRIMITIVE_ARRAY_DUMP: {
+                        copy(mIdSize + 4);
+                        long count = copyInt() & 0xffffffffL;
+                        int type = mIn.readUnsignedByte();
+                        mOut.write(type);
+                        long bytes = count * typeSize(type);
+                        zero(bytes);
+                        mStripped += bytes;
+                        size = mIdSize + 9 + bytes;
+                        break;
+                    }
+                    case PRIMITIVE_ARRAY_NODATA_DUMP:
+                        size = copy(mIdSize + 9);
+                        break;
+                    default:
+                        // 不认识的子记录无法确定长度，剩余部分原样复制
+                        if (DEBUG)
+                            Log.d(TAG, "strip-->unknown sub tag " + subTag);
+                        copy(remaining);
+                        return;
+                }
+                remaining -= size;
+            }
+        }
+
+        /**
+         * @return 子记录的长度，不含tag
+         */
+        private long copyClassDump() throws IOException {
+            // id | 栈序号 | 父类 | ClassLoader | signers | domain | 保留2个 | 实例大小
+            long size = mIdSize + 4 + mIdSize * 6L + 4;
+            copy(size);
+            int constants = copyShort();
+            size += 2;
+            for (int i = 0; i < constants; i++) {
+                copy(2);
+                int type = copyType();
+                copy(typeSize(type));
+                size += 3 + typeSize(type);
+            }
+            int statics = copyShort();
+            size += 2;
+            for (int i = 0; i < statics; i++) {
+                copy(mIdSize);
+                int type = copyType();
+                copy(typeSize(type));
+                size += mIdSize + 1 + typeSize(type);
+            }
+            int fields = copyShort();
+            size += 2;
+            copy(fields * (mIdSize + 1L));
+            size += fields * (mIdSize + 1L);
+            return size;
+        }
+
+        private int typeSize(int type) throws IOException {
+            switch (type) {
+                case TYPE_OBJECT:
+                    return mIdSize;
+                case 4:// boolean
+                case 8:// byte
+                    return 1;
+                case 5:// char
+                case 9:// short
+                    return 2;
+                case 6:// float
+                case 10:// int
+                    return 4;
+                case 7:// double
+                case 11:// long
+                    return 8;
+                default:
+                    throw new IOException("unknown type " + type);
+            }
+        }
+
+        private int copyType() throws IOException {
+            int type = mIn.readUnsignedByte();
+            mOut.write(type);
+            return type;
+        }
+
+        private int copyShort() throws IOException {
+            int value = mIn.readUnsignedShort();
+            mOut.writeShort(value);
+            return value;
+        }
+
+        private int copyInt() throws IOException {
+            int value = mIn.readInt();
+            mOut.writeInt(value);
+            return value;
+        }
+
+        /**
+         * @return 复制的字节数
+         */
+        private long copy(long length) throws IOException {
+            long total = length;
+            while (length > 0) {
+                int n = mIn.read(mBuffer, 0, (int) Math.min(mBuffer.length, length));
+                if (n < 0) throw new EOFException();
+                mOut.write(mBuffer, 0, n);
+                length -= n;
+            }
+            return total;
+        }
+
+        private void zero(long length) throws IOException {
+            while (length > 0) {
+                int n = (int) Math.min(mZeros.length, length);
+                mIn.readFully(mBuffer, 0, n);
+                mOut.write(mZeros, 0, n);
+                length -= n;
+            }
+        }
+    }
+}
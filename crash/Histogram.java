@@ -0,0 +1,153 @@
+package example.com.kotlin.crash;
+
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 定长内存的对数-线性直方图（HDR风格）
+ * <p>
+ * 小于32的值各占一个桶，更大的值每个2的幂区间分为16个桶，相对误差不超过1/16，
+ * 覆盖全部非负long只需要976个计数，已知上限时可以只分配需要的桶。记录不分配对象。
+ * <p>
+ * 单写多读：只应由一个线程记录，其他线程读取时可能看到相差一两次记录的结果，
+ * 这对分位数统计没有影响。
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_SUB_COUNT = SUB_COUNT >> 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) * HALF_SUB_COUNT + SUB_COUNT;
+
+    private final long[] mCounts;
+    private volatile long mTotalCount;
+    private volatile long mMin = Long.MAX_VALUE;
+    private volatile long mMax = -1L;
+    private volatile long mSum;
+
+    Histogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    /**
+     * 只为不超过highestTrackableValue的值分配桶，更大的值计入最后一个桶，最大值仍然准确
+     *
+     * @param highestTrackableValue 需要区分的最大值
+     */
+    Histogram(long highestTrackableValue) {
+        mCounts = new long[bucketIndex(Math.max(highestTrackableValue, SUB_COUNT)) + 1];
+    }
+
+    /**
+     * 记录一个值，负值被忽略
+     */
+    void record(long value) {
+        if (value < 0) return;
+        mCounts[Math.min(bucketIndex(value), mCounts.length - 1)]++;
+        if (value < mMin) mMin = value;
+        if (value > mMax) mMax = value;
+        mSum = mSum + value;
+        mTotalCount = mTotalCount + 1;
+    }
+
+    long count() {
+        return mTotalCount;
+    }
+
+    long min() {
+        return mTotalCount == 0 ? -1L : mMin;
+    }
+
+    long max() {
+        return mMax;
+    }
+
+    /**
+     * 所有记录值的和
+     */
+    long sum() {
+        return mSum;
+    }
+
+    long mean() {
+        long count = mTotalCount;
+        return count == 0 ? -1L : mSum / count;
+    }
+
+    /**
+     * 分位数
+     *
+     * @param percentile 0到100
+     * @return 不小于该分位的所有值所在桶的上界，没有记录时为-1
+     */
+    long percentile(double percentile) {
+        long total = mTotalCount;
+        if (total == 0) return -1L;
+        long target = Math.max(1L, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        long[] counts = mCounts;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return i == counts.length - 1 ? mMax : Math.min(highestEquivalentValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    void reset() {
+        for (int i = 0; i < mCounts.length; i++) mCounts[i] = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = -1L;
+        mSum = 0;
+        mTotalCount = 0;
+    }
+
+    /**
+     * 以二进制格式写入统计结果
+     *
+     * @param encoder 编码器
+     * @param key     名称
+     */
+    void encode(CrashReportEncoder encoder, String key) {
+        encoder.beginSection(key)
+                .value("count", count())
+                .value("min", min())
+                .value("max", max())
+                .value("mean", mean())
+                .value("p50", percentile(50))
+                .value("p90", percentile(90))
+                .value("p99", percentile(99))
+                .end();
+    }
+
+    /**
+     * 统计结果
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("count", count());
+        jsonObject.put("min", min());
+        jsonObject.put("max", max());
+        jsonObject.put("mean", mean());
+        jsonObject.put("p50", percentile(50));
+        jsonObject.put("p90", percentile(90));
+        jsonObject.put("p99", percentile(99));
+        return jsonObject;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS + 1;
+        return shift * HALF_SUB_COUNT + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / HALF_SUB_COUNT - 1;
+        long mantissa = index - shift * HALF_SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
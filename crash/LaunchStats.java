@@ -0,0 +1,214 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 跨启动持久化的启动耗时，每种启动类型保留最近{@link #WINDOW}次，用于计算分位数
+ * <p>
+ * 文件通过内存映射读写，记录一次启动只有几次内存写入。
+ * 文件布局：16字节文件头 | 每种类型：累计次数(4) | 下一个位置(4) | {@link #WINDOW}条记录，
+ * 每条为{@link #STAGES}个int，单位微秒，-1表示该阶段不适用。
+ */
+final class LaunchStats {
+
+    private static final String TAG = "LaunchStats";
+
+    private static final int MAGIC = 0x434c4e53;//CLNS
+    private static final int VERSION = 1;
+
+    static final int COLD = 0;
+    static final int WARM = 1;
+    static final int HOT = 2;
+    static final int TYPES = 3;
+    static final String[] TYPE_NAMES = {"cold", "warm", "hot"};
+
+    /**
+     * 启动到首帧的总耗时
+     */
+    static final int TOTAL = 0;
+    /**
+     * 进程启动到Application.onCreate，只有冷启动且API 24以上时有值
+     */
+    static final int PROCESS_TO_APPLICATION = 1;
+    /**
+     * Application.onCreate到第一个Activity created，只有冷启动时有值
+     */
+    static final int APPLICATION_TO_ACTIVITY = 2;
+    /**
+     * Activity created（热启动为started）到首帧
+     */
+    static final int ACTIVITY_TO_FIRST_FRAME = 3;
+    static final int STAGES = 4;
+    static final String[] STAGE_NAMES = {"total", "processToApplication", "applicationToActivity", "activityToFirstFrame"};
+
+    static final int WINDOW = 32;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = STAGES * 4;
+    private static final int TYPE_SIZE = 8 + WINDOW * RECORD_SIZE;
+    private static final int FILE_SIZE = HEADER_SIZE + TYPES * TYPE_SIZE;
+
+    private static boolean DEBUG = false;
+
+    private static volatile LaunchStats sStats;
+
+    private final MappedByteBuffer mBuffer;
+
+    private LaunchStats(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * 打开当前进程的启动耗时文件
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sStats != null) return;
+        DEBUG = debug;
+        File dir = new File(context.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File file = new File(dir, "launches-" + BreadcrumbJournal.currentProcessName(context).replace(':', '_').replace('/', '_'));
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(FILE_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != WINDOW) {
+                for (int i = 0; i < FILE_SIZE; i++) buffer.put(i, (byte) 0);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, WINDOW);
+            }
+            sStats = new LaunchStats(buffer);
+            if (DEBUG)
+                Log.d(TAG, "open-->file=" + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 已打开的统计，未打开时为null
+     */
+    static LaunchStats get() {
+        return sStats;
+    }
+
+    /**
+     * 记录一次启动
+     *
+     * @param type   启动类型
+     * @param stages 各阶段耗时（纳秒），长度为{@link #STAGES}，负数表示不适用
+     */
+    synchronized void record(int type, long[] stages) {
+        int base = HEADER_SIZE + type * TYPE_SIZE;
+        int count = mBuffer.getInt(base);
+        int next = mBuffer.getInt(base + 4);
+        if (next < 0 || next >= WINDOW) next = 0;
+        int offset = base + 8 + next * RECORD_SIZE;
+        for (int i = 0; i < STAGES; i++) {
+            long nanos = stages[i];
+            int micros = nanos < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, nanos / 1000L);
+            mBuffer.putInt(offset + i * 4, micros);
+        }
+        mBuffer.putInt(base + 4, next + 1 == WINDOW ? 0 : next + 1);
+        mBuffer.putInt(base, count == Integer.MAX_VALUE ? count : count + 1);
+    }
+
+    /**
+     * 该类型累计记录的启动次数
+     */
+    synchronized int count(int type) {
+        return mBuffer.getInt(HEADER_SIZE + type * TYPE_SIZE);
+    }
+
+    /**
+     * 最近几次启动中某个阶段的耗时（微秒），从小到大排列
+     */
+    synchronized int[] window(int type, int stage) {
+        int base = HEADER_SIZE + type * TYPE_SIZE;
+        int size = Math.min(WINDOW, mBuffer.getInt(base));
+        int[] values = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int value = mBuffer.getInt(base + 8 + i * RECORD_SIZE + stage * 4);
+            if (value >= 0) values[n++] = value;
+        }
+        values = Arrays.copyOf(values, n);
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static int percentile(int[] sorted, int percentile) {
+        if (sorted.length == 0) return -1;
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * 以二进制格式写入最近几次启动的分位数（微秒），每种有记录的类型一个section
+     */
+    void encode(CrashReportEncoder encoder) {
+        for (int type = 0; type < TYPES; type++) {
+            int count = count(type);
+            if (count == 0) continue;
+            encoder.beginSection(TYPE_NAMES[type]).value("count", count);
+            for (int stage = 0; stage < STAGES; stage++) {
+                int[] sorted = window(type, stage);
+                if (sorted.length == 0) continue;
+                encoder.beginSection(STAGE_NAMES[stage])
+                        .value("samples", sorted.length)
+                        .value("p50", percentile(sorted, 50))
+                        .value("p90", percentile(sorted, 90))
+                        .value("max", sorted[sorted.length - 1])
+                        .end();
+            }
+            encoder.end();
+        }
+    }
+
+    /**
+     * 最近几次启动的分位数（微秒），键为启动类型
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        for (int type = 0; type < TYPES; type++) {
+            int count = count(type);
+            if (count == 0) continue;
+            JSONObject typeJson = new JSONObject();
+            typeJson.put("count", count);
+            for (int stage = 0; stage < STAGES; stage++) {
+                int[] sorted = window(type, stage);
+                if (sorted.length == 0) continue;
+                JSONObject stageJson = new JSONObject();
+                stageJson.put("samples", sorted.length);
+                stageJson.put("p50", percentile(sorted, 50));
+                stageJson.put("p90", percentile(sorted, 90));
+                stageJson.put("max", sorted[sorted.length - 1]);
+                typeJson.put(STAGE_NAMES[stage], stageJson);
+            }
+            jsonObject.put(TYPE_NAMES[type], typeJson);
+        }
+        return jsonObject;
+    }
+}
@@ -0,0 +1,230 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 区分冷启动、温启动和热启动，并统计各阶段耗时
+ * <p>
+ * 冷启动：进程为打开界面而创建，从进程启动（API 24以上）或Application.onCreate到首帧；
+ * 温启动：进程还在但没有Activity，从Activity created到首帧；
+ * 热启动：Activity都在后台，从第一个Activity started到首帧。
+ * 首帧为之后第一个resumed的Activity的decor view第一次绘制，中间经过的跳转页也计算在内。
+ * 时间使用{@link SystemClock#elapsedRealtimeNanos()}，结果写入{@link LaunchStats}。
+ * <p>
+ * 由{@link AppColdStart}在主线程的生命周期回调中驱动，其他线程只读取volatile的结果。
+ */
+final class LaunchTracker {
+
+    private static final String TAG = "LaunchTracker";
+
+    /**
+     * 第一个Activity在Application.onCreate之后超过该时间才创建时，进程不是为打开界面而启动的，按温启动计算
+     */
+    static final long COLD_LAUNCH_MAX_DELAY = 5 * 1000 * 1000000L;
+
+    private static final int NONE = -1;
+
+    private static boolean DEBUG = false;
+
+    private static long sProcessStart = -1L;
+    private static long sApplicationCreated;
+    private static boolean sActivityCreated;
+
+    /**
+     * 本进程第一次启动的类型，在第一个Activity创建前为冷启动
+     */
+    private static volatile int sProcessLaunchType = LaunchStats.COLD;
+
+    /**
+     * 正在进行的启动，只在主线程访问
+     */
+    private static int sPendingType = NONE;
+    private static int sPendingSeq;
+    private static long sPendingStart;
+    private static long sPendingActivityStart;
+    private static boolean sWaitingForDraw;
+    private static final long[] sPendingStages = new long[LaunchStats.STAGES];
+
+    /**
+     * 最近一次完成的启动：前{@link LaunchStats#STAGES}项为各阶段耗时，最后一项为类型
+     */
+    private static volatile long[] sLastLaunch;
+
+    private LaunchTracker() {
+
+    }
+
+    /**
+     * 在Application.onCreate中调用
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void onApplicationCreated(Context context, boolean debug) {
+        DEBUG = debug;
+        sApplicationCreated = now();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            long elapsed = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+            sProcessStart = sApplicationCreated - elapsed * 1000000L;
+        }
+        LaunchStats.open(context, debug);
+    }
+
+    /**
+     * @param liveActivities 创建前还没有销毁的Activity数
+     * @param recreated      因配置变化（例如旋转屏幕）销毁后重建，不是一次启动
+     */
+    static void onActivityCreated(int liveActivities, boolean recreated) {
+        if (liveActivities > 0 || recreated || sPendingType != NONE) return;
+        long now = now();
+        int type = LaunchStats.WARM;
+        if (!sActivityCreated) {
+            sActivityCreated = true;
+            if (now - sApplicationCreated <= COLD_LAUNCH_MAX_DELAY) type = LaunchStats.COLD;
+            sProcessLaunchType = type;
+            SessionState session = SessionState.get();
+            if (session != null) session.setLaunchType(type);
+        }
+        begin(type, now);
+        if (type == LaunchStats.COLD) {
+            if (sProcessStart > 0) {
+                sPendingStart = sProcessStart;
+                sPendingStages[LaunchStats.PROCESS_TO_APPLICATION] = sApplicationCreated - sProcessStart;
+            } else {
+                sPendingStart = sApplicationCreated;
+            }
+            sPendingStages[LaunchStats.APPLICATION_TO_ACTIVITY] = now - sApplicationCreated;
+        }
+    }
+
+    /**
+     * @param startedActivities started前处于started状态的Activity数
+     * @param recreated         因配置变化重建后的started，不是一次启动
+     */
+    static void onActivityStarted(int startedActivities, boolean recreated) {
+        if (startedActivities > 0 || recreated || sPendingType != NONE || !sActivityCreated) return;
+        begin(LaunchStats.HOT, now());
+    }
+
+    static void onActivityResumed(Activity activity) {
+        if (sPendingType == NONE || sWaitingForDraw || activity == null) return;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            sPendingType = NONE;
+            return;
+        }
+        sWaitingForDraw = true;
+        final int seq = sPendingSeq;
+        FirstDrawObserver.observe(activity, new FirstDrawObserver.Callback() {
+            @Override
+            public void onFirstDraw(Activity activity, long drawTimeNanos) {
+                if (seq == sPendingSeq) finish(drawTimeNanos);
+            }
+        });
+    }
+
+    /**
+     * @param startedActivities stopped后还处于started状态的Activity数
+     */
+    static void onActivityStopped(int startedActivities) {
+        if (startedActivities > 0 || sPendingType == NONE) return;
+        // 首帧前就退到后台，放弃这次启动
+        if (DEBUG)
+            Log.d(TAG, "onActivityStopped-->abandon " + LaunchStats.TYPE_NAMES[sPendingType] + " launch");
+        sPendingType = NONE;
+        sPendingSeq++;
+    }
+
+    private static void begin(int type, long now) {
+        sPendingType = type;
+        sPendingSeq++;
+        sPendingStart = now;
+        sPendingActivityStart = now;
+        sWaitingForDraw = false;
+        for (int i = 0; i < LaunchStats.STAGES; i++) sPendingStages[i] = -1L;
+    }
+
+    private static void finish(long drawTime) {
+        int type = sPendingType;
+        sPendingType = NONE;
+        sPendingSeq++;
+        sPendingStages[LaunchStats.ACTIVITY_TO_FIRST_FRAME] = drawTime - sPendingActivityStart;
+        sPendingStages[LaunchStats.TOTAL] = drawTime - sPendingStart;
+        LaunchStats stats = LaunchStats.get();
+        if (stats != null) stats.record(type, sPendingStages);
+        long[] last = new long[LaunchStats.STAGES + 1];
+        System.arraycopy(sPendingStages, 0, last, 0, LaunchStats.STAGES);
+        last[LaunchStats.STAGES] = type;
+        sLastLaunch = last;
+        if (DEBUG)
+            Log.d(TAG, "finish-->" + LaunchStats.TYPE_NAMES[type] + " launch " + sPendingStages[LaunchStats.TOTAL] / 1000000L + "ms");
+    }
+
+    private static long now() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * 本进程是否由冷启动创建，进程存活期间不变
+     */
+    static boolean isColdStart() {
+        return sProcessLaunchType == LaunchStats.COLD;
+    }
+
+    /**
+     * 以二进制格式写入本进程的启动类型、最近一次启动的各阶段耗时（微秒）和历次启动的分布
+     */
+    static void encode(CrashReportEncoder encoder) {
+        encoder.beginSection("Launch")
+                .value("processLaunch", LaunchStats.TYPE_NAMES[sProcessLaunchType]);
+        long[] last = sLastLaunch;
+        if (last != null) {
+            encoder.beginSection("last").value("type", LaunchStats.TYPE_NAMES[(int) last[LaunchStats.STAGES]]);
+            for (int i = 0; i < LaunchStats.STAGES; i++) {
+                if (last[i] >= 0) encoder.value(LaunchStats.STAGE_NAMES[i], last[i] / 1000L);
+            }
+            encoder.end();
+        }
+        LaunchStats stats = LaunchStats.get();
+        if (stats != null) {
+            encoder.beginSection("history");
+            stats.encode(encoder);
+            encoder.end();
+        }
+        encoder.end();
+    }
+
+    /**
+     * 启动信息，内容同{@link #encode(CrashReportEncoder)}
+     */
+    static String getLaunchTimes() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put("processLaunch", LaunchStats.TYPE_NAMES[sProcessLaunchType]);
+            long[] last = sLastLaunch;
+            if (last != null) {
+                JSONObject lastJson = new JSONObject();
+                lastJson.put("type", LaunchStats.TYPE_NAMES[(int) last[LaunchStats.STAGES]]);
+                for (int i = 0; i < LaunchStats.STAGES; i++) {
+                    if (last[i] >= 0) lastJson.put(LaunchStats.STAGE_NAMES[i], last[i] / 1000L);
+                }
+                jsonObject.put("last", lastJson);
+            }
+            LaunchStats stats = LaunchStats.get();
+            if (stats != null) jsonObject.put("history", stats.toJson());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+}
@@ -0,0 +1,253 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主线程卡顿（ANR/掉帧）看门狗
+ * <p>
+ * 独立的后台线程向主线程投递心跳，超过阈值没有执行就认为主线程卡住，此后按{@link #SAMPLE_INTERVAL}
+ * 采样主线程堆栈，栈帧驻留为int id写入预先分配的缓冲区。主线程恢复或采满{@link #MAX_SAMPLES}个后，
+ * 把采样聚合成{@link FrameTree}，和{@link CrashInfo#encodeAll(Application, CrashReportEncoder)}
+ * 的信息一起写入{@link CrashReportQueue}。
+ * <p>
+ * 正常时每个阈值周期只唤醒一次、投递一个空任务，开销可以忽略。
+ */
+final class MainThreadWatchdog {
+
+    private static final String TAG = "MainThreadWatchdog";
+
+    static final long DEFAULT_STALL_THRESHOLD = 2000L;
+    static final long MIN_STALL_THRESHOLD = 100L;
+
+    /**
+     * 卡顿期间的采样间隔
+     */
+    static final long SAMPLE_INTERVAL = 50L;
+    /**
+     * 每次卡顿最多的采样数，采满后立即生成报告
+     */
+    static final int MAX_SAMPLES = 200;
+    /**
+     * 每个采样最多保留的栈帧数，更深的部分合并为一个截断帧
+     */
+    static final int MAX_DEPTH = 64;
+    /**
+     * 驻留的栈帧上限，超过后新的栈帧合并为一个
+     */
+    private static final int MAX_INTERNED_FRAMES = 4096;
+
+    private static final int FRAME_TRUNCATED = 0;
+    private static final int FRAME_OTHER = 1;
+
+    /**
+     * 卡顿指纹的类型，相当于异常类名
+     */
+    private static final String STALL_TYPE = "MainThreadStall";
+
+    private static boolean DEBUG = false;
+
+    private static MainThreadWatchdog sWatchdog;
+
+    private final Application mApplication;
+    private final long mThreshold;
+    private final Handler mMainHandler;
+    private final Thread mMainThread;
+
+    /**
+     * 已投递的心跳序号，只在看门狗线程读写
+     */
+    private long mPosted;
+    /**
+     * 已执行的心跳序号，只在主线程写
+     */
+    private volatile long mAcked;
+
+    private final Runnable mHeartbeat = new Runnable() {
+        @Override
+        public void run() {
+            mAcked++;
+        }
+    };
+
+    /**
+     * 采样缓冲区，第i个采样占[i * MAX_DEPTH, i * MAX_DEPTH + mDepths[i])，从栈顶开始
+     */
+    private final int[] mSamples = new int[MAX_SAMPLES * MAX_DEPTH];
+    private final int[] mDepths = new int[MAX_SAMPLES];
+
+    private final Map<StackTraceElement, Integer> mFrameIds = new HashMap<>();
+    private final List<StackTraceElement> mFrames = new ArrayList<>();
+
+    private final FrameTree mTree = new FrameTree(1024);
+    private final CrashReportEncoder mEncoder = new CrashReportEncoder(16 * 1024);
+
+    private final FrameTree.FrameNames mFrameNames = new FrameTree.FrameNames() {
+        @Override
+        public String nameOf(int frame) {
+            if (frame == FRAME_TRUNCATED) return "[truncated]";
+            if (frame == FRAME_OTHER) return "[other]";
+            StackTraceElement element = mFrames.get(frame);
+            return element.getClassName() + "." + element.getMethodName();
+        }
+    };
+
+    private MainThreadWatchdog(Application application, long threshold) {
+        mApplication = application;
+        mThreshold = threshold;
+        Looper mainLooper = Looper.getMainLooper();
+        mMainHandler = new Handler(mainLooper);
+        mMainThread = mainLooper.getThread();
+        mFrames.add(null);//FRAME_TRUNCATED
+        mFrames.add(null);//FRAME_OTHER
+    }
+
+    /**
+     * 开始监视主线程，重复调用无效
+     *
+     * @param application Application
+     * @param threshold   卡顿阈值（毫秒），心跳超过该时间没有执行时开始采样
+     * @param debug       是否打印日志
+     */
+    static synchronized void start(Application application, long threshold, boolean debug) {
+        if (sWatchdog != null) return;
+        DEBUG = debug;
+        final MainThreadWatchdog watchdog = new MainThreadWatchdog(application, Math.max(threshold, MIN_STALL_THRESHOLD));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchdog.loop();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+        sWatchdog = watchdog;
+    }
+
+    static synchronized boolean isStarted() {
+        return sWatchdog != null;
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                long heartbeat = ++mPosted;
+                long postTime = SystemClock.uptimeMillis();
+                mMainHandler.post(mHeartbeat);
+                Thread.sleep(mThreshold);
+                if (mAcked >= heartbeat) continue;
+
+                int samples = 0;
+                while (mAcked < heartbeat && samples < MAX_SAMPLES) {
+                    sample(samples++);
+                    Thread.sleep(SAMPLE_INTERVAL);
+                }
+                boolean recovered = mAcked >= heartbeat;
+                report(SystemClock.uptimeMillis() - postTime, samples, recovered);
+                // 同一次卡顿只报告一次，等主线程恢复后再开始下一轮
+                while (mAcked < heartbeat) {
+                    Thread.sleep(mThreshold);
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void sample(int index) {
+        StackTraceElement[] trace = mMainThread.getStackTrace();
+        int offset = index * MAX_DEPTH;
+        int depth;
+        if (trace.length > MAX_DEPTH) {
+            depth = MAX_DEPTH;
+            for (int i = 0; i < MAX_DEPTH - 1; i++) {
+                mSamples[offset + i] = intern(trace[i]);
+            }
+            mSamples[offset + MAX_DEPTH - 1] = FRAME_TRUNCATED;
+        } else {
+            depth = trace.length;
+            for (int i = 0; i < depth; i++) {
+                mSamples[offset + i] = intern(trace[i]);
+            }
+        }
+        mDepths[index] = depth;
+    }
+
+    private int intern(StackTraceElement frame) {
+        Integer id = mFrameIds.get(frame);
+        if (id != null) return id;
+        if (mFrames.size() >= MAX_INTERNED_FRAMES) return FRAME_OTHER;
+        int newId = mFrames.size();
+        mFrames.add(frame);
+        mFrameIds.put(frame, newId);
+        return newId;
+    }
+
+    private void report(long duration, int samples, boolean recovered) {
+        mTree.reset();
+        for (int i = 0; i < samples; i++) {
+            mTree.add(mSamples, i * MAX_DEPTH, mDepths[i]);
+        }
+        StackTraceElement[] heaviest = toElements(mTree.heaviestPath());
+        long fingerprint = CrashFingerprint.of(STALL_TYPE, heaviest);
+        CrashDedupCache cache = CrashDedupCache.get();
+        int repeat = cache == null ? 0 : cache.recordRepeat(fingerprint, System.currentTimeMillis());
+        try {
+            CrashReportEncoder encoder = mEncoder;
+            encoder.reset();
+            encoder.beginSection("Stall")
+                    .value("fingerprint", CrashFingerprint.toHex(fingerprint))
+                    .value("threshold", mThreshold)
+                    .value("duration", duration)
+                    .value("samples", samples)
+                    .value("sampleInterval", SAMPLE_INTERVAL)
+                    .value("recovered", recovered);
+            encoder.beginList("frames");
+            for (StackTraceElement frame : heaviest) {
+                encoder.item(frame.toString());
+            }
+            encoder.end();
+            encoder.end();
+            if (repeat > 0) {
+                CrashInfo.encodeRepeat(encoder, repeat);
+            } else {
+                mTree.encodeFolded(encoder, "StallStacks", mFrameNames);
+                CrashInfo.encodeAll(mApplication, encoder);
+            }
+            encoder.finish();
+            CrashReportQueue queue = CrashReportQueue.get();
+            boolean queued = queue != null && queue.append(encoder.buffer(), encoder.size(), fingerprint);
+            if (DEBUG)
+                Log.d(TAG, "report-->fingerprint=" + CrashFingerprint.toHex(fingerprint) + ";duration=" + duration + ";samples=" + samples + ";repeat=" + repeat + ";queued=" + queued);
+        } catch (Throwable e) {
+            // 生成报告失败不能影响看门狗继续工作
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 帧id转为栈帧，去掉截断和合并的帧
+     */
+    private StackTraceElement[] toElements(int[] path) {
+        int count = 0;
+        for (int frame : path) {
+            if (frame > FRAME_OTHER) count++;
+        }
+        StackTraceElement[] elements = new StackTraceElement[count];
+        int i = 0;
+        for (int frame : path) {
+            if (frame > FRAME_OTHER) elements[i++] = mFrames.get(frame);
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,183 @@
+package example.com.kotlin.crash;
+
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 后台持续采样内存，记录整个会话的堆和PSS分布以及最近的采样
+ * <p>
+ * 采样间隔自适应：堆使用率高或增长快时缩短，平稳时逐步放宽。
+ * 堆信息来自Runtime，每次采样只读几个long；PSS需要读取smaps，开销较大，
+ * 只按较长的间隔采样，并复用同一个Debug.MemoryInfo。采样不分配对象。
+ */
+final class MemorySampler {
+
+    private static final String TAG = "MemorySampler";
+
+    private static final long MIN_INTERVAL = 1000L;
+    private static final long DEFAULT_INTERVAL = 5 * 1000L;
+    private static final long MAX_INTERVAL = 30 * 1000L;
+    private static final long PSS_INTERVAL = 30 * 1000L;
+
+    /**
+     * 堆使用率高于该值时按最短间隔采样
+     */
+    private static final int HIGH_USAGE_PERCENT = 80;
+    /**
+     * 两次采样间堆增长超过最大堆的该比例时缩短间隔
+     */
+    private static final int FAST_GROWTH_PERCENT = 5;
+
+    /**
+     * 保留的最近采样数
+     */
+    static final int RECENT_CAPACITY = 60;
+
+    private static boolean DEBUG = false;
+
+    private static volatile boolean sStarted;
+
+    private static final Histogram sHeapHistogram = new Histogram();
+    private static final Histogram sPssHistogram = new Histogram();
+
+    /**
+     * 最近采样的环形缓冲区，单写（后台线程）多读，读取时可能混入正在写的一条
+     */
+    private static final long[] sRecentTimes = new long[RECENT_CAPACITY];
+    private static final long[] sRecentHeap = new long[RECENT_CAPACITY];
+    private static final long[] sRecentPss = new long[RECENT_CAPACITY];
+    private static volatile int sRecentCount;
+
+    private static final Debug.MemoryInfo sMemoryInfo = new Debug.MemoryInfo();
+
+    private static Handler sWorker;
+    private static long sInterval = DEFAULT_INTERVAL;
+    private static long sLastHeap = -1L;
+    private static long sLastPssTime;
+    private static long sLastPss = -1L;
+
+    private MemorySampler() {
+
+    }
+
+    /**
+     * 开始采样
+     *
+     * @param debug 是否打印日志
+     */
+    static void start(boolean debug) {
+        if (sStarted) return;
+        sStarted = true;
+        DEBUG = debug;
+        sWorker = CrashWorker.handler();
+        sWorker.post(sSample);
+    }
+
+    static boolean isStarted() {
+        return sStarted;
+    }
+
+    private static final Runnable sSample = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+            sWorker.postDelayed(this, sInterval);
+        }
+    };
+
+    private static void sample() {
+        long now = SystemClock.elapsedRealtime();
+        Runtime r = Runtime.getRuntime();
+        long max = r.maxMemory();
+        long heap = r.totalMemory() - r.freeMemory();
+        sHeapHistogram.record(heap);
+
+        if (sLastPss < 0 || now - sLastPssTime >= PSS_INTERVAL) {
+            Debug.getMemoryInfo(sMemoryInfo);
+            sLastPss = sMemoryInfo.getTotalPss() * 1024L;
+            sLastPssTime = now;
+            sPssHistogram.record(sLastPss);
+        }
+
+        int count = sRecentCount;
+        int slot = count % RECENT_CAPACITY;
+        sRecentTimes[slot] = System.currentTimeMillis();
+        sRecentHeap[slot] = heap;
+        sRecentPss[slot] = sLastPss;
+        sRecentCount = count + 1;
+
+        sInterval = nextInterval(heap, max);
+        sLastHeap = heap;
+        HeapDumper dumper = HeapDumper.get();
+        if (dumper != null) dumper.onSample(heap, max);
+        if (DEBUG)
+            Log.d(TAG, "sample-->heap=" + heap + ";pss=" + sLastPss + ";next=" + sInterval);
+    }
+
+    private static long nextInterval(long heap, long max) {
+        if (max <= 0) return DEFAULT_INTERVAL;
+        boolean highUsage = heap * 100 >= max * HIGH_USAGE_PERCENT;
+        boolean fastGrowth = sLastHeap >= 0 && (heap - sLastHeap) * 100 >= max * FAST_GROWTH_PERCENT;
+        if (highUsage || fastGrowth) {
+            return MIN_INTERVAL;
+        }
+        // 平稳时每次放宽一半，直到最大间隔
+        return Math.min(MAX_INTERVAL, Math.max(DEFAULT_INTERVAL, sInterval + (sInterval >> 1)));
+    }
+
+    /**
+     * 以二进制格式写入会话内的内存分布和最近的采样
+     *
+     * @param encoder 编码器
+     */
+    static void encode(CrashReportEncoder encoder) {
+        encoder.beginSection("MemoryTrend");
+        sHeapHistogram.encode(encoder, "heap");
+        sPssHistogram.encode(encoder, "pss");
+        encoder.beginList("recent");
+        int count = sRecentCount;
+        for (int i = Math.max(0, count - RECENT_CAPACITY); i < count; i++) {
+            int slot = i % RECENT_CAPACITY;
+            encoder.beginItem()
+                    .value("time", sRecentTimes[slot])
+                    .value("heap", sRecentHeap[slot])
+                    .value("pss", sRecentPss[slot])
+                    .end();
+        }
+        encoder.end();
+        encoder.end();
+    }
+
+    /**
+     * 会话内的内存分布和最近的采样，数值均为字节数
+     *
+     * @return JSON字符串
+     */
+    static String getMemoryTrend() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put("heap", sHeapHistogram.toJson());
+            jsonObject.put("pss", sPssHistogram.toJson());
+            JSONArray recent = new JSONArray();
+            int count = sRecentCount;
+            for (int i = Math.max(0, count - RECENT_CAPACITY); i < count; i++) {
+                int slot = i % RECENT_CAPACITY;
+                JSONObject item = new JSONObject();
+                item.put("time", sRecentTimes[slot]);
+                item.put("heap", sRecentHeap[slot]);
+                item.put("pss", sRecentPss[slot]);
+                recent.put(item);
+            }
+            jsonObject.put("recent", recent);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package example.com.kotlin.crash;
+
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Environment;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * 某一时刻的内存信息，所有数值均为字节数，未收集的项为-1
+ * <p>
+ * 收集时只填充基本类型字段，不做任何格式化；需要给人看时再通过
+ * {@link #toReadableJson(Context)}调用{@link BytesUtil}格式化。
+ */
+public final class MemorySnapshot {
+
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * {@link Debug.MemoryInfo#getMemoryStat(String)}的统计项，单位为KB
+     */
+    static final String[] DEBUG_STAT_KEYS = {
+            "summary.java-heap",
+            "summary.native-heap",
+            "summary.code",
+            "summary.stack",
+            "summary.graphics",
+            "summary.private-other",
+            "summary.system",
+            "summary.total-pss",
+            "summary.total-swap",
+    };
+
+    /**
+     * 收集时间
+     */
+    public long time;
+
+    public long memoryClass = -1;
+    public long largeMemoryClass = -1;
+    public long maxMemory = -1;
+    public long totalMemory = -1;
+    public long freeMemory = -1;
+
+    /**
+     * 与{@link #DEBUG_STAT_KEYS}一一对应
+     */
+    public final long[] debugStats = new long[DEBUG_STAT_KEYS.length];
+    public boolean hasDebugStats;
+
+    public long totalMem = -1;
+    public long availMem = -1;
+    public long threshold = -1;
+    public boolean lowMemory;
+
+    public long sdCardTotalSpace = -1;
+    public long sdCardUsableSpace = -1;
+
+    public MemorySnapshot() {
+        Arrays.fill(debugStats, -1L);
+    }
+
+    /**
+     * 复制一份，缓存的快照由崩溃报告使用，交给调用者的是副本
+     */
+    public MemorySnapshot copy() {
+        MemorySnapshot copy = new MemorySnapshot();
+        copy.time = time;
+        copy.memoryClass = memoryClass;
+        copy.largeMemoryClass = largeMemoryClass;
+        copy.maxMemory = maxMemory;
+        copy.totalMemory = totalMemory;
+        copy.freeMemory = freeMemory;
+        System.arraycopy(debugStats, 0, copy.debugStats, 0, debugStats.length);
+        copy.hasDebugStats = hasDebugStats;
+        copy.totalMem = totalMem;
+        copy.availMem = availMem;
+        copy.threshold = threshold;
+        copy.lowMemory = lowMemory;
+        copy.sdCardTotalSpace = sdCardTotalSpace;
+        copy.sdCardUsableSpace = sdCardUsableSpace;
+        return copy;
+    }
+
+    /**
+     * 收集全部内存信息
+     *
+     * @param context 上下文对象
+     * @return 新的快照
+     */
+    public static MemorySnapshot collect(Context context) {
+        MemorySnapshot snapshot = new MemorySnapshot();
+        snapshot.collectAppMemory(context);
+        snapshot.collectDebugAppMemory();
+        snapshot.collectDeviceSystemMemory(context);
+        snapshot.collectDeviceSDCardMemory();
+        return snapshot;
+    }
+
+    public long usedMemory() {
+        return totalMemory < 0 || freeMemory < 0 ? -1 : totalMemory - freeMemory;
+    }
+
+    /**
+     * 程序运行时内存
+     */
+    public MemorySnapshot collectAppMemory(Context context) {
+        time = System.currentTimeMillis();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            memoryClass = am.getMemoryClass() * MB;
+            largeMemoryClass = am.getLargeMemoryClass() * MB;
+        }
+        Runtime r = Runtime.getRuntime();
+        maxMemory = r.maxMemory();
+        totalMemory = r.totalMemory();
+        freeMemory = r.freeMemory();
+        return this;
+    }
+
+    /**
+     * 调试下程序运行时内存，需要Android M及以上
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public MemorySnapshot collectDebugAppMemory() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return this;
+        Debug.MemoryInfo debugMemoryInfo = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(debugMemoryInfo);
+        for (int i = 0; i < DEBUG_STAT_KEYS.length; i++) {
+            debugStats[i] = parseKb(debugMemoryInfo.getMemoryStat(DEBUG_STAT_KEYS[i]));
+        }
+        hasDebugStats = true;
+        return this;
+    }
+
+    /**
+     * 系统内存
+     */
+    public MemorySnapshot collectDeviceSystemMemory(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) return this;
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(memoryInfo);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            totalMem = memoryInfo.totalMem;
+        }
+        availMem = memoryInfo.availMem;
+        threshold = memoryInfo.threshold;
+        lowMemory = memoryInfo.lowMemory;
+        return this;
+    }
+
+    /**
+     * SD卡空间
+     */
+    public MemorySnapshot collectDeviceSDCardMemory() {
+        if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            File directory = Environment.getExternalStorageDirectory();
+            sdCardTotalSpace = directory.getTotalSpace();
+            sdCardUsableSpace = directory.getUsableSpace();
+        }
+        return this;
+    }
+
+    private static long parseKb(String value) {
+        if (value == null) return -1L;
+        try {
+            return Long.parseLong(value) * 1024L;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * 程序运行时内存，原始字节数
+     */
+    public JSONObject appMemoryJson() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            putIfCollected(jsonObject, "memoryClass", memoryClass);
+            putIfCollected(jsonObject, "largeMemoryClass", largeMemoryClass);
+            putIfCollected(jsonObject, "maxMemory", maxMemory);//最大可用内存
+            putIfCollected(jsonObject, "totalMemory", totalMemory);//当前可用内存
+            putIfCollected(jsonObject, "freeMemory", freeMemory);//当前空闲内存
+            putIfCollected(jsonObject, "usedMemory", usedMemory());//当前已使用内存
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * 调试下程序运行时内存，原始字节数，未收集时为null
+     */
+    public JSONObject debugAppMemoryJson() {
+        if (!hasDebugStats) return null;
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (int i = 0; i < DEBUG_STAT_KEYS.length; i++) {
+                putIfCollected(jsonObject, DEBUG_STAT_KEYS[i], debugStats[i]);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * 系统内存，原始字节数
+     */
+    public JSONObject deviceSystemMemoryJson() {
+        JSONObject jsonObject = new JSONObject();
+        if (availMem < 0) return jsonObject;
+        try {
+            putIfCollected(jsonObject, "totalMem", totalMem);//系统总内存
+            jsonObject.put("availMem", availMem);//系统剩余内存
+            jsonObject.put("threshold", threshold);//当系统剩余内存低于threshold时就看成低内存运行
+            jsonObject.put("lowMemory", lowMemory);//系统是否处于低内存运行
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * SD卡空间，原始字节数
+     */
+    public JSONObject deviceSDCardMemoryJson() {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            putIfCollected(jsonObject, "sdCardTotalSpace", sdCardTotalSpace);//sd card总内存
+            putIfCollected(jsonObject, "sdCardUsableSpace", sdCardUsableSpace);//sd card可用内存
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject;
+    }
+
+    /**
+     * 以二进制格式写入
+     *
+     * @param encoder 编码器
+     */
+    public void encode(CrashReportEncoder encoder) {
+        encodeAppMemory(encoder);
+        encodeDebugAppMemory(encoder);
+        encodeDeviceSystemMemory(encoder);
+        encodeDeviceSDCardMemory(encoder);
+    }
+
+    void encodeAppMemory(CrashReportEncoder encoder) {
+        encoder.beginSection("AppMemory");
+        encodeIfCollected(encoder, "memoryClass", memoryClass);
+        encodeIfCollected(encoder, "largeMemoryClass", largeMemoryClass);
+        encodeIfCollected(encoder, "maxMemory", maxMemory);
+        encodeIfCollected(encoder, "totalMemory", totalMemory);
+        encodeIfCollected(encoder, "freeMemory", freeMemory);
+        encodeIfCollected(encoder, "usedMemory", usedMemory());
+        encoder.end();
+    }
+
+    void encodeDebugAppMemory(CrashReportEncoder encoder) {
+        if (!hasDebugStats) return;
+        encoder.beginSection("DebugAppMemory");
+        for (int i = 0; i < DEBUG_STAT_KEYS.length; i++) {
+            encodeIfCollected(encoder, DEBUG_STAT_KEYS[i], debugStats[i]);
+        }
+        encoder.end();
+    }
+
+    void encodeDeviceSystemMemory(CrashReportEncoder encoder) {
+        if (availMem < 0) return;
+        encoder.beginSection("DeviceSystemMemory");
+        encodeIfCollected(encoder, "totalMem", totalMem);
+        encoder.value("availMem", availMem)
+                .value("threshold", threshold)
+                .value("lowMemory", lowMemory)
+                .end();
+    }
+
+    void encodeDeviceSDCardMemory(CrashReportEncoder encoder) {
+        if (sdCardTotalSpace < 0) return;
+        encoder.beginSection("DeviceSDCardMemory")
+                .value("sdCardTotalSpace", sdCardTotalSpace)
+                .value("sdCardUsableSpace", sdCardUsableSpace)
+                .end();
+    }
+
+    /**
+     * 给人看的格式，只在需要时才调用{@link BytesUtil}格式化
+     *
+     * @param context 上下文对象
+     * @return JSON字符串
+     */
+    public String toReadableJson(Context context) {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            putReadable(context, jsonObject, "memoryClass", memoryClass);
+            putReadable(context, jsonObject, "largeMemoryClass", largeMemoryClass);
+            putReadable(context, jsonObject, "maxMemory", maxMemory);
+            putReadable(context, jsonObject, "totalMemory", totalMemory);
+            putReadable(context, jsonObject, "freeMemory", freeMemory);
+            putReadable(context, jsonObject, "usedMemory", usedMemory());
+            if (hasDebugStats) {
+                for (int i = 0; i < DEBUG_STAT_KEYS.length; i++) {
+                    putReadable(context, jsonObject, DEBUG_STAT_KEYS[i], debugStats[i]);
+                }
+            }
+            putReadable(context, jsonObject, "totalMem", totalMem);
+            putReadable(context, jsonObject, "availMem", availMem);
+            putReadable(context, jsonObject, "threshold", threshold);
+            if (availMem >= 0) jsonObject.put("lowMemory", lowMemory);
+            putReadable(context, jsonObject, "sdCardTotalSpace", sdCardTotalSpace);
+            putReadable(context, jsonObject, "sdCardUsableSpace", sdCardUsableSpace);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return jsonObject.toString();
+    }
+
+    private static void putIfCollected(JSONObject jsonObject, String key, long value) throws JSONException {
+        if (value >= 0) jsonObject.put(key, value);
+    }
+
+    private static void encodeIfCollected(CrashReportEncoder encoder, String key, long value) {
+        if (value >= 0) encoder.value(key, value);
+    }
+
+    private static void putReadable(Context context, JSONObject jsonObject, String key, long value) throws JSONException {
+        if (value >= 0) jsonObject.put(key, BytesUtil.formatFileSizeByBytes(context, value));
+    }
+}
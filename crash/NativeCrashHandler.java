@@ -0,0 +1,408 @@
+package example.com.kotlin.crash;
+
+
+import android.app.Application;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 捕捉native层的崩溃信号（SIGSEGV、SIGABRT等），下次启动时和崩溃前保存的报告合并后写入磁盘队列
+ * <p>
+ * 信号处理函数在crash/native中（libappcrash.so），只往预先映射的记录文件写入定长记录：
+ * 信号、故障地址、寄存器、帧指针回溯的栈帧和栈帧所在的模块，不分配内存。
+ * 信号发生时无法执行Java代码，所以每次{@link CrashSnapshotCache}刷新后，在后台线程把当时的
+ * {@link CrashInfo#encodeAll(Application, CrashReportEncoder)}结果写入另一个映射文件，
+ * 下次启动时和native记录、上次进程的面包屑一起组成一份报告。
+ * <p>
+ * 记录布局和crash/native/crash_signal.h中的struct crash_record一致，字节序为本机字节序。
+ */
+final class NativeCrashHandler {
+
+    private static final String TAG = "NativeCrashHandler";
+
+    private static final String LIBRARY = "appcrash";
+
+    private static final int RECORD_MAGIC = 0x3152434e;//NCR1
+    private static final int RECORD_VERSION = 1;
+    private static final int RECORD_SIZE = 4096;
+
+    private static final int RECORD_SIGNAL = 8;
+    private static final int RECORD_CODE = 12;
+    private static final int RECORD_PID = 16;
+    private static final int RECORD_TID = 20;
+    private static final int RECORD_FAULT_ADDRESS = 24;
+    private static final int RECORD_TIME = 32;
+    private static final int RECORD_ARCH = 40;
+    private static final int RECORD_REGISTER_COUNT = 44;
+    private static final int RECORD_REGISTERS = 48;
+    private static final int RECORD_FRAME_COUNT = 320;
+    private static final int RECORD_MODULE_COUNT = 324;
+    private static final int RECORD_FRAMES = 328;
+    private static final int RECORD_MODULES = 1352;
+    private static final int RECORD_THREAD_NAME = 3400;
+
+    private static final int MAX_REGISTERS = 34;
+    private static final int MAX_FRAMES = 64;
+    private static final int MAX_MODULES = 16;
+    private static final int FRAME_SIZE = 16;
+    private static final int MODULE_SIZE = 128;
+    private static final int MODULE_PATH = 16;
+    private static final int MODULE_PATH_SIZE = 112;
+    private static final int THREAD_NAME_SIZE = 16;
+    private static final int NO_MODULE = -1;
+    /**
+     * 不属于任何模块的栈帧在指纹中的模块名，偏移按0计
+     */
+    private static final String UNKNOWN_MODULE = "?";
+
+    private static final String[] ARCH_NAMES = {"unknown", "arm", "arm64", "x86", "x86_64"};
+    private static final String[][] REGISTER_NAMES = {
+            {},
+            {"r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7", "r8", "r9", "r10", "fp", "ip", "sp", "lr", "pc", "cpsr"},
+            {"x0", "x1", "x2", "x3", "x4", "x5", "x6", "x7", "x8", "x9", "x10", "x11", "x12", "x13", "x14", "x15",
+                    "x16", "x17", "x18", "x19", "x20", "x21", "x22", "x23", "x24", "x25", "x26", "x27", "x28",
+                    "x29", "x30", "sp", "pc", "pstate"},
+            {"eax", "ebx", "ecx", "edx", "esi", "edi", "ebp", "esp", "eip", "eflags"},
+            {"rax", "rbx", "rcx", "rdx", "rsi", "rdi", "rbp", "rsp", "r8", "r9", "r10", "r11", "r12", "r13",
+                    "r14", "r15", "rip", "eflags"}
+    };
+
+    /**
+     * 保存的报告：magic(4) | 长度(4) | 报告
+     */
+    private static final int SNAPSHOT_MAGIC = 0x4e534e50;//NSNP
+    private static final int SNAPSHOT_HEADER_SIZE = 8;
+    private static final int SNAPSHOT_SIZE = 64 * 1024;
+
+    private static boolean DEBUG = false;
+
+    private static volatile boolean sInstalled;
+    private static Application sApplication;
+    private static MappedByteBuffer sSnapshot;
+
+    /**
+     * 只在后台线程使用
+     */
+    private static CrashReportEncoder sEncoder;
+
+    private NativeCrashHandler() {
+
+    }
+
+    /**
+     * 上报上次进程留下的native崩溃，然后安装信号处理函数。
+     * 需要先打开{@link CrashReportQueue}并调用{@link CrashInfo#track(Application)}
+     *
+     * @param application 应用程序对象
+     * @param debug       是否打印日志
+     * @return 是否安装成功，没有打包libappcrash.so时为false
+     */
+    static synchronized boolean install(Application application, boolean debug) {
+        if (sInstalled) return true;
+        DEBUG = debug;
+        File dir = new File(application.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return false;
+        String process = BreadcrumbJournal.currentProcessName(application).replace(':', '_').replace('/', '_');
+        File recordFile = new File(dir, "native-" + process + ".crash");
+        File snapshotFile = new File(dir, "native-" + process + ".snapshot");
+
+        // 安装时native层会清空记录文件，先读出上次的记录
+        final ByteBuffer record = readRecord(recordFile);
+        MappedByteBuffer snapshot = mapSnapshot(snapshotFile);
+        final byte[] previous = record == null ? null : readSnapshot(snapshot);
+        final String breadcrumbs = BreadcrumbJournal.getRecovered();
+        if (record != null) {
+            CrashWorker.handler().post(new Runnable() {
+                @Override
+                public void run() {
+                    report(record, previous, breadcrumbs);
+                }
+            });
+        }
+
+        try {
+            System.loadLibrary(LIBRARY);
+        } catch (UnsatisfiedLinkError e) {
+            if (DEBUG)
+                Log.d(TAG, "install-->" + e.getMessage());
+            return false;
+        }
+        int error = nativeInstall(recordFile.getPath());
+        if (error != 0) {
+            if (DEBUG)
+                Log.d(TAG, "install-->error=" + error);
+            return false;
+        }
+        sApplication = application;
+        sSnapshot = snapshot;
+        sInstalled = true;
+        if (DEBUG)
+            Log.d(TAG, "install-->record=" + recordFile);
+        CrashWorker.handler().post(new Runnable() {
+            @Override
+            public void run() {
+                saveSnapshot();
+            }
+        });
+        return true;
+    }
+
+    static boolean isInstalled() {
+        return sInstalled;
+    }
+
+    /**
+     * 在后台线程保存当前缓存的信息，崩溃时使用，{@link CrashSnapshotCache}刷新后调用
+     */
+    static void saveSnapshot() {
+        MappedByteBuffer snapshot = sSnapshot;
+        if (!sInstalled || snapshot == null) return;
+        if (sEncoder == null) sEncoder = new CrashReportEncoder(16 * 1024);
+        CrashReportEncoder encoder = sEncoder;
+        try {
+            encoder.reset();
+            // 每次缓存刷新都会调用，只写入缓存的信息，不读取其他进程的面包屑、不遍历线程
+            CrashInfo.encodeCached(sApplication, encoder);
+            encoder.finish();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        int size = encoder.size();
+        if (size > SNAPSHOT_SIZE - SNAPSHOT_HEADER_SIZE) {
+            if (DEBUG)
+                Log.d(TAG, "saveSnapshot-->too large, size=" + size);
+            return;
+        }
+        // 先使旧内容失效，写到一半时崩溃不会留下不完整的报告
+        snapshot.putInt(0, 0);
+        snapshot.position(SNAPSHOT_HEADER_SIZE);
+        snapshot.put(encoder.buffer(), 0, size);
+        snapshot.putInt(4, size);
+        snapshot.putInt(0, SNAPSHOT_MAGIC);
+        if (DEBUG)
+            Log.d(TAG, "saveSnapshot-->size=" + size);
+    }
+
+    /**
+     * @return 没有完整记录时为null
+     */
+    private static ByteBuffer readRecord(File file) {
+        if (file.length() < RECORD_SIZE) return null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            byte[] bytes = new byte[RECORD_SIZE];
+            raf.readFully(bytes);
+            ByteBuffer record = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+            if (record.getInt(0) != RECORD_MAGIC || record.getInt(4) != RECORD_VERSION) return null;
+            // 没有加载native库时不会被清空，避免重复上报
+            raf.seek(0);
+            raf.writeInt(0);
+            return record;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static MappedByteBuffer mapSnapshot(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(SNAPSHOT_SIZE);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SNAPSHOT_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static byte[] readSnapshot(MappedByteBuffer snapshot) {
+        if (snapshot == null || snapshot.getInt(0) != SNAPSHOT_MAGIC) return null;
+        int size = snapshot.getInt(4);
+        if (size <= 0 || size > SNAPSHOT_SIZE - SNAPSHOT_HEADER_SIZE) return null;
+        byte[] bytes = new byte[size];
+        snapshot.position(SNAPSHOT_HEADER_SIZE);
+        snapshot.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 在后台线程组成报告并写入磁盘队列
+     *
+     * @param record      native记录
+     * @param previous    崩溃前保存的报告，可以为null
+     * @param breadcrumbs 上次进程留下的面包屑，可以为null
+     */
+    static void report(ByteBuffer record, byte[] previous, String breadcrumbs) {
+        CrashReportQueue queue = CrashReportQueue.get();
+        if (queue == null) return;
+        int signal = record.getInt(RECORD_SIGNAL);
+        long time = record.getLong(RECORD_TIME);
+        long fingerprint = fingerprint(record);
+        CrashDedupCache cache = CrashDedupCache.get();
+        int repeat = cache == null ? 0 : cache.recordRepeat(fingerprint, time);
+        // native崩溃也计入崩溃风暴，之后的Java崩溃据此降级
+        CrashRateLimiter limiter = CrashRateLimiter.get();
+        if (limiter != null) limiter.recordCrash(time);
+        CrashReportEncoder encoder = new CrashReportEncoder(16 * 1024);
+        encode(record, encoder, fingerprint, repeat == 0);
+        if (repeat > 0) {
+            CrashInfo.encodeRepeat(encoder, repeat);
+        } else {
+            if (previous != null) {
+                try {
+                    CrashReportDecoder.copyTo(previous, 0, previous.length, encoder);
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            }
+            encoder.value("RecoveredBreadcrumbs", breadcrumbs);
+        }
+        encoder.finish();
+        boolean queued = queue.append(encoder.buffer(), encoder.size(), fingerprint);
+        if (DEBUG)
+            Log.d(TAG, "report-->signal=" + signalName(signal) + ";fingerprint=" + CrashFingerprint.toHex(fingerprint)
+                    + ";repeat=" + repeat + ";size=" + encoder.size() + ";queued=" + queued);
+    }
+
+    private static void encode(ByteBuffer record, CrashReportEncoder encoder, long fingerprint, boolean withFrames) {
+        int signal = record.getInt(RECORD_SIGNAL);
+        int arch = record.getInt(RECORD_ARCH);
+        if (arch < 0 || arch >= ARCH_NAMES.length) arch = 0;
+        encoder.beginSection("NativeCrash")
+                .value("signal", signalName(signal))
+                .value("code", record.getInt(RECORD_CODE))
+                .value("faultAddress", hex(record.getLong(RECORD_FAULT_ADDRESS)))
+                .value("time", record.getLong(RECORD_TIME))
+                .value("pid", record.getInt(RECORD_PID))
+                .value("tid", record.getInt(RECORD_TID))
+                .value("thread", string(record, RECORD_THREAD_NAME, THREAD_NAME_SIZE))
+                .value("arch", ARCH_NAMES[arch])
+                .value("fingerprint", CrashFingerprint.toHex(fingerprint));
+        if (withFrames) {
+            String[] names = REGISTER_NAMES[arch];
+            int count = Math.min(Math.min(record.getInt(RECORD_REGISTER_COUNT), MAX_REGISTERS), names.length);
+            encoder.beginSection("registers");
+            for (int i = 0; i < count; i++) {
+                encoder.value(names[i], hex(record.getLong(RECORD_REGISTERS + i * 8)));
+            }
+            encoder.end();
+            int frames = Math.min(record.getInt(RECORD_FRAME_COUNT), MAX_FRAMES);
+            encoder.beginList("frames");
+            for (int i = 0; i < frames; i++) {
+                int offset = RECORD_FRAMES + i * FRAME_SIZE;
+                long pc = record.getLong(offset);
+                int module = moduleOf(record, i);
+                encoder.beginItem().value("pc", hex(pc));
+                if (module != NO_MODULE) {
+                    int moduleOffset = RECORD_MODULES + module * MODULE_SIZE;
+                    String path = string(record, moduleOffset + MODULE_PATH, MODULE_PATH_SIZE);
+                    // 匿名映射（例如JIT代码）没有文件，模块内偏移没有意义
+                    if (path.length() > 0) {
+                        encoder.value("module", path)
+                                .value("offset", hex(pc - record.getLong(moduleOffset)));
+                    }
+                }
+                encoder.end();
+            }
+            encoder.end();
+        }
+        encoder.end();
+    }
+
+    private static int moduleOf(ByteBuffer record, int frame) {
+        int module = record.getInt(RECORD_FRAMES + frame * FRAME_SIZE + 8);
+        int count = Math.min(record.getInt(RECORD_MODULE_COUNT), MAX_MODULES);
+        return module >= 0 && module < count ? module : NO_MODULE;
+    }
+
+    /**
+     * 信号和各栈帧的模块名、模块内偏移，地址随机化后仍然稳定；
+     * 不属于任何模块的栈帧（JIT代码、匿名映射）地址每次运行都不同，只按"?"计入
+     */
+    private static long fingerprint(ByteBuffer record) {
+        int frames = Math.min(record.getInt(RECORD_FRAME_COUNT), MAX_FRAMES);
+        String[] modules = new String[frames];
+        long[] offsets = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long pc = record.getLong(RECORD_FRAMES + i * FRAME_SIZE);
+            int module = moduleOf(record, i);
+            int moduleOffset = RECORD_MODULES + module * MODULE_SIZE;
+            String path = module == NO_MODULE ? "" : string(record, moduleOffset + MODULE_PATH, MODULE_PATH_SIZE);
+            if (path.length() == 0) {
+                modules[i] = UNKNOWN_MODULE;
+            } else {
+                modules[i] = path.substring(path.lastIndexOf('/') + 1);
+                offsets[i] = pc - record.getLong(moduleOffset);
+            }
+        }
+        return CrashFingerprint.ofNative(signalName(record.getInt(RECORD_SIGNAL)), modules, offsets);
+    }
+
+    private static String string(ByteBuffer record, int offset, int size) {
+        int length = 0;
+        while (length < size && record.get(offset + length) != 0) length++;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = record.get(offset + i);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static String hex(long value) {
+        return "0x" + Long.toHexString(value);
+    }
+
+    static String signalName(int signal) {
+        switch (signal) {
+            case 4:
+                return "SIGILL";
+            case 5:
+                return "SIGTRAP";
+            case 6:
+                return "SIGABRT";
+            case 7:
+                return "SIGBUS";
+            case 8:
+                return "SIGFPE";
+            case 11:
+                return "SIGSEGV";
+            case 31:
+                return "SIGSYS";
+            default:
+                return String.valueOf(signal);
+        }
+    }
+
+    private static native int nativeInstall(String path);
+
+    /**
+     * 触发native崩溃，用于验证
+     */
+    static native void nativeCrash(int signal);
+}
@@ -0,0 +1,525 @@
+package example.com.kotlin.crash;
+
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * 同一应用各进程共享的会话状态
+ * <p>
+ * 所有进程映射同一个文件files/crash/session，每个进程占一个槽位，保存进程名、pid、启动类型和计数，
+ * 写入只是几次内存写，其他进程随时可以读取。没有存活进程时打开会开始新的会话。
+ * 崩溃报告据此列出本会话的所有进程，并按时间合并各进程的面包屑日志，得到跨进程的时间线。
+ * <p>
+ * 文件布局：64字节文件头 | {@link #SLOTS}个槽位，每个{@link #SLOT_SIZE}字节。
+ * 认领槽位时持有文件锁，之后每个进程只写自己的槽位。
+ */
+final class SessionState {
+
+    private static final String TAG = "SessionState";
+
+    private static final int MAGIC = 0x53455353;//SESS
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_SLOTS = 8;
+    private static final int HEADER_SESSION_ID = 16;
+    private static final int HEADER_SESSION_START = 24;
+
+    static final int SLOTS = 8;
+    private static final int SLOT_SIZE = 256;
+
+    /**
+     * pid(4) | 启动类型(4) | 进程启动时间(8) | 最后更新时间(8) | 计数{@link #COUNTERS}个int | 最后崩溃时间(8) | 最后崩溃指纹(8) | 进程名
+     */
+    private static final int SLOT_PID = 0;
+    private static final int SLOT_LAUNCH_TYPE = 4;
+    private static final int SLOT_START_TIME = 8;
+    private static final int SLOT_LAST_UPDATE = 16;
+    private static final int SLOT_COUNTERS = 24;
+    private static final int SLOT_LAST_CRASH_TIME = 48;
+    private static final int SLOT_LAST_CRASH_FINGERPRINT = 56;
+    private static final int SLOT_NAME_LENGTH = 64;
+    private static final int SLOT_NAME = 66;
+    private static final int MAX_NAME_BYTES = SLOT_SIZE - SLOT_NAME;
+
+    private static final int FILE_SIZE = HEADER_SIZE + SLOTS * SLOT_SIZE;
+
+    /**
+     * 计数：创建的Activity数
+     */
+    static final int CREATED = 0;
+    /**
+     * 计数：销毁的Activity数
+     */
+    static final int DESTROYED = 1;
+    /**
+     * 计数：当前处于started状态的Activity数
+     */
+    static final int VISIBLE = 2;
+    /**
+     * 计数：崩溃次数，同名进程重启后保留
+     */
+    static final int CRASHES = 3;
+    private static final int COUNTERS = 4;
+    private static final String[] COUNTER_NAMES = {"created", "destroyed", "visible", "crashes"};
+
+    /**
+     * 还没有打开过Activity的进程（例如:push）
+     */
+    static final int NO_LAUNCH = -1;
+
+    /**
+     * 合并时间线最多的条数
+     */
+    static final int MAX_TIMELINE = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static boolean DEBUG = false;
+
+    private static volatile SessionState sState;
+
+    private final File mDir;
+    private final MappedByteBuffer mBuffer;
+    /**
+     * 当前进程的槽位，所有槽位都被存活的进程占用时为-1，此时只读取其他进程，不写入
+     */
+    private final int mSlot;
+    private final String mProcessName;
+
+    private SessionState(File dir, MappedByteBuffer buffer, int slot, String processName) {
+        mDir = dir;
+        mBuffer = buffer;
+        mSlot = slot;
+        mProcessName = processName;
+    }
+
+    /**
+     * 打开会话文件并认领当前进程的槽位
+     *
+     * @param context 上下文对象
+     * @param debug   是否打印日志
+     */
+    static void open(Context context, boolean debug) {
+        if (sState != null) return;
+        DEBUG = debug;
+        File dir = new File(context.getFilesDir(), "crash");
+        if (!dir.exists() && !dir.mkdirs()) return;
+        File file = new File(dir, "session");
+        String processName = BreadcrumbJournal.currentProcessName(context);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            // 文件锁在进程之间互斥，同时启动的进程不会认领同一个槽位
+            FileLock lock = channel.lock();
+            try {
+                raf.setLength(FILE_SIZE);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                int slot = claim(buffer, Process.myPid(), processName);
+                sState = new SessionState(dir, buffer, slot, processName);
+                if (DEBUG)
+                    Log.d(TAG, "open-->session=" + Long.toHexString(buffer.getLong(HEADER_SESSION_ID)) + ";slot=" + slot + ";process=" + processName);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 已打开的会话，未打开时为null
+     */
+    static SessionState get() {
+        return sState;
+    }
+
+    /**
+     * 持有文件锁时调用：没有其他存活的进程时开始新会话，然后依次优先选择同名进程的槽位、空槽位、已退出进程中最久没有更新的槽位
+     *
+     * @return 槽位，都被存活的进程占用时为-1，不能共用同一个槽位
+     */
+    private static int claim(MappedByteBuffer buffer, int pid, String processName) {
+        long now = System.currentTimeMillis();
+        boolean valid = buffer.getInt(HEADER_MAGIC) == MAGIC && buffer.getInt(HEADER_VERSION) == VERSION
+                && buffer.getInt(HEADER_SLOTS) == SLOTS;
+        boolean alive = false;
+        for (int slot = 0; valid && slot < SLOTS; slot++) {
+            int other = buffer.getInt(slotOffset(slot) + SLOT_PID);
+            if (other != 0 && other != pid && isAlive(other)) {
+                alive = true;
+                break;
+            }
+        }
+        if (!alive) {
+            for (int i = 0; i < FILE_SIZE; i++) buffer.put(i, (byte) 0);
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_SLOTS, SLOTS);
+            buffer.putLong(HEADER_SESSION_ID, new Random().nextLong());
+            buffer.putLong(HEADER_SESSION_START, now);
+        }
+
+        int chosen = -1;
+        int free = -1;
+        int stale = -1;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int offset = slotOffset(slot);
+            int other = buffer.getInt(offset + SLOT_PID);
+            long lastUpdate = buffer.getLong(offset + SLOT_LAST_UPDATE);
+            if (other == 0) {
+                if (free < 0) free = slot;
+                continue;
+            }
+            if (processName.equals(nameAt(buffer, offset))) {
+                chosen = slot;
+                break;
+            }
+            if (other != pid && !isAlive(other)
+                    && (stale < 0 || lastUpdate < buffer.getLong(slotOffset(stale) + SLOT_LAST_UPDATE))) {
+                stale = slot;
+            }
+        }
+        boolean restarted = chosen >= 0;
+        if (chosen < 0) chosen = free >= 0 ? free : stale;
+        if (chosen < 0) return -1;
+
+        int offset = slotOffset(chosen);
+        int crashes = restarted ? buffer.getInt(offset + SLOT_COUNTERS + CRASHES * 4) : 0;
+        long lastCrashTime = restarted ? buffer.getLong(offset + SLOT_LAST_CRASH_TIME) : 0L;
+        long lastFingerprint = restarted ? buffer.getLong(offset + SLOT_LAST_CRASH_FINGERPRINT) : 0L;
+        for (int i = 0; i < SLOT_SIZE; i++) buffer.put(offset + i, (byte) 0);
+        byte[] name = processName.getBytes(UTF_8);
+        int length = Math.min(name.length, MAX_NAME_BYTES);
+        for (int i = 0; i < length; i++) buffer.put(offset + SLOT_NAME + i, name[i]);
+        buffer.putShort(offset + SLOT_NAME_LENGTH, (short) length);
+        buffer.putInt(offset + SLOT_LAUNCH_TYPE, NO_LAUNCH);
+        buffer.putLong(offset + SLOT_START_TIME, now);
+        buffer.putLong(offset + SLOT_LAST_UPDATE, now);
+        buffer.putInt(offset + SLOT_COUNTERS + CRASHES * 4, crashes);
+        buffer.putLong(offset + SLOT_LAST_CRASH_TIME, lastCrashTime);
+        buffer.putLong(offset + SLOT_LAST_CRASH_FINGERPRINT, lastFingerprint);
+        // pid最后写入，其他进程看到pid时槽位已经完整
+        buffer.putInt(offset + SLOT_PID, pid);
+        return chosen;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static boolean isAlive(int pid) {
+        return new File("/proc/" + pid).exists();
+    }
+
+    private static String nameAt(MappedByteBuffer buffer, int offset) {
+        int length = buffer.getShort(offset + SLOT_NAME_LENGTH);
+        if (length <= 0 || length > MAX_NAME_BYTES) return null;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + SLOT_NAME + i);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 计数加上delta，只写自己的槽位，不分配对象
+     *
+     * @param counter 计数，例如{@link #CREATED}
+     * @param delta   增量
+     */
+    void add(int counter, int delta) {
+        if (mSlot < 0) return;
+        int offset = slotOffset(mSlot);
+        int index = offset + SLOT_COUNTERS + counter * 4;
+        mBuffer.putInt(index, mBuffer.getInt(index) + delta);
+        mBuffer.putLong(offset + SLOT_LAST_UPDATE, System.currentTimeMillis());
+    }
+
+    /**
+     * 设置计数，不分配对象
+     *
+     * @param counter 计数，例如{@link #VISIBLE}
+     * @param value   数值
+     */
+    void set(int counter, int value) {
+        if (mSlot < 0) return;
+        int offset = slotOffset(mSlot);
+        mBuffer.putInt(offset + SLOT_COUNTERS + counter * 4, value);
+        mBuffer.putLong(offset + SLOT_LAST_UPDATE, System.currentTimeMillis());
+    }
+
+    /**
+     * 记录本进程的启动类型，见{@link LaunchStats#COLD}
+     */
+    void setLaunchType(int type) {
+        if (mSlot < 0) return;
+        int offset = slotOffset(mSlot);
+        mBuffer.putInt(offset + SLOT_LAUNCH_TYPE, type);
+        mBuffer.putLong(offset + SLOT_LAST_UPDATE, System.currentTimeMillis());
+    }
+
+    /**
+     * 在崩溃线程调用
+     *
+     * @param fingerprint {@link CrashFingerprint#of(Throwable)}
+     */
+    void onCrash(long fingerprint) {
+        if (mSlot < 0) return;
+        int offset = slotOffset(mSlot);
+        long now = System.currentTimeMillis();
+        mBuffer.putLong(offset + SLOT_LAST_CRASH_TIME, now);
+        mBuffer.putLong(offset + SLOT_LAST_CRASH_FINGERPRINT, fingerprint);
+        add(CRASHES, 1);
+    }
+
+    /**
+     * 会话中的进程，读取时快照一次，之后不再访问共享内存
+     */
+    private static final class ProcessInfo {
+        final String name;
+        final int pid;
+        final boolean current;
+        final boolean alive;
+        final int launchType;
+        final long startTime;
+        final long lastUpdate;
+        final int[] counters = new int[COUNTERS];
+        final long lastCrashTime;
+        final long lastCrashFingerprint;
+        BreadcrumbJournal.Records records;
+
+        ProcessInfo(MappedByteBuffer buffer, int offset, String name, boolean current) {
+            this.name = name;
+            this.current = current;
+            pid = buffer.getInt(offset + SLOT_PID);
+            alive = current || isAlive(pid);
+            launchType = buffer.getInt(offset + SLOT_LAUNCH_TYPE);
+            startTime = buffer.getLong(offset + SLOT_START_TIME);
+            lastUpdate = buffer.getLong(offset + SLOT_LAST_UPDATE);
+            for (int i = 0; i < COUNTERS; i++) counters[i] = buffer.getInt(offset + SLOT_COUNTERS + i * 4);
+            lastCrashTime = buffer.getLong(offset + SLOT_LAST_CRASH_TIME);
+            lastCrashFingerprint = buffer.getLong(offset + SLOT_LAST_CRASH_FINGERPRINT);
+        }
+    }
+
+    /**
+     * 读取所有槽位和各进程最近的面包屑
+     *
+     * @param max 每个进程最多读取的面包屑条数
+     */
+    private ProcessInfo[] readProcesses(int max) {
+        ProcessInfo[] processes = new ProcessInfo[SLOTS];
+        int count = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            int offset = slotOffset(slot);
+            if (mBuffer.getInt(offset + SLOT_PID) == 0) continue;
+            boolean current = slot == mSlot;
+            String name = current ? mProcessName : nameAt(mBuffer, offset);
+            if (name == null) continue;
+            ProcessInfo info = new ProcessInfo(mBuffer, offset, name, current);
+            if (current) {
+                BreadcrumbJournal journal = BreadcrumbJournal.get();
+                info.records = journal == null ? null : journal.recent(max);
+            } else {
+                info.records = BreadcrumbJournal.read(BreadcrumbJournal.fileOf(mDir, name), max);
+            }
+            processes[count++] = info;
+        }
+        ProcessInfo[] result = new ProcessInfo[count];
+        System.arraycopy(processes, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * 按时间合并各进程的面包屑，取最新的max条
+     *
+     * @return 每项为 进程下标 &lt;&lt; 32 | 记录下标，从旧到新排列
+     */
+    private static long[] merge(ProcessInfo[] processes, int max) {
+        int[] cursors = new int[processes.length];
+        int total = 0;
+        for (int i = 0; i < processes.length; i++) {
+            BreadcrumbJournal.Records records = processes[i].records;
+            cursors[i] = records == null ? 0 : records.size;
+            total += cursors[i];
+        }
+        long[] merged = new long[Math.min(max, total)];
+        // 从最新的开始，每次取各进程剩余记录中最新的一条
+        for (int n = merged.length - 1; n >= 0; n--) {
+            int pick = -1;
+            for (int i = 0; i < processes.length; i++) {
+                if (cursors[i] == 0) continue;
+                if (pick < 0 || processes[i].records.times[cursors[i] - 1] > processes[pick].records.times[cursors[pick] - 1]) {
+                    pick = i;
+                }
+            }
+            cursors[pick]--;
+            merged[n] = ((long) pick << 32) | cursors[pick];
+        }
+        return merged;
+    }
+
+    private static String launchTypeName(int type) {
+        return type >= 0 && type < LaunchStats.TYPES ? LaunchStats.TYPE_NAMES[type] : null;
+    }
+
+    /**
+     * 当前会话的id，没有存活进程后重新打开时改变
+     */
+    long sessionId() {
+        return mBuffer.getLong(HEADER_SESSION_ID);
+    }
+
+    /**
+     * 读取会话中的进程和跨进程时间线，需要读取其他进程的面包屑文件，崩溃时在有超时的线程中调用
+     */
+    Snapshot snapshot() {
+        ProcessInfo[] processes = readProcesses(MAX_TIMELINE);
+        return new Snapshot(mBuffer.getLong(HEADER_SESSION_ID), mBuffer.getLong(HEADER_SESSION_START),
+                processes, merge(processes, MAX_TIMELINE));
+    }
+
+    /**
+     * 会话中的进程和跨进程时间线，JSON
+     */
+    String getSession() {
+        return snapshot().toJson();
+    }
+
+    /**
+     * 一次读取的结果，写入报告时不再访问共享内存和文件
+     */
+    static final class Snapshot {
+        private final long mSessionId;
+        private final long mSessionStart;
+        private final ProcessInfo[] mProcesses;
+        /**
+         * {@link #merge(ProcessInfo[], int)}的结果
+         */
+        private final long[] mTimeline;
+
+        private Snapshot(long sessionId, long sessionStart, ProcessInfo[] processes, long[] timeline) {
+            mSessionId = sessionId;
+            mSessionStart = sessionStart;
+            mProcesses = processes;
+            mTimeline = timeline;
+        }
+
+        /**
+         * 以二进制格式写入
+         */
+        void encode(CrashReportEncoder encoder) {
+            encoder.beginSection("Session")
+                    .value("sessionId", Long.toHexString(mSessionId))
+                    .value("sessionStart", mSessionStart);
+            encoder.beginList("processes");
+            for (ProcessInfo info : mProcesses) {
+                encoder.beginItem()
+                        .value("process", info.name)
+                        .value("pid", info.pid)
+                        .value("current", info.current)
+                        .value("alive", info.alive)
+                        .value("launch", launchTypeName(info.launchType))
+                        .value("startTime", info.startTime)
+                        .value("lastUpdate", info.lastUpdate);
+                for (int i = 0; i < COUNTERS; i++) encoder.value(COUNTER_NAMES[i], info.counters[i]);
+                if (info.lastCrashTime != 0L) {
+                    encoder.value("lastCrashTime", info.lastCrashTime)
+                            .value("lastCrashFingerprint", CrashFingerprint.toHex(info.lastCrashFingerprint));
+                }
+                encoder.end();
+            }
+            encoder.end();
+            encoder.beginList("timeline");
+            for (long key : mTimeline) {
+                ProcessInfo info = mProcesses[(int) (key >>> 32)];
+                BreadcrumbJournal.Records records = info.records;
+                int i = (int) key;
+                encoder.beginItem()
+                        .value("time", records.times[i])
+                        .value("process", info.name)
+                        .value("type", BreadcrumbJournal.typeName(records.types[i]));
+                String name = records.nameOf(i);
+                if (name != null) {
+                    encoder.value("name", name);
+                } else {
+                    encoder.value("arg", records.args[i]);
+                }
+                encoder.value("value", records.values[i]).end();
+            }
+            encoder.end();
+            encoder.end();
+        }
+
+        String toJson() {
+            JSONObject jsonObject = new JSONObject();
+            try {
+                jsonObject.put("sessionId", Long.toHexString(mSessionId));
+                jsonObject.put("sessionStart", mSessionStart);
+                JSONArray processArray = new JSONArray();
+                for (ProcessInfo info : mProcesses) {
+                    JSONObject item = new JSONObject();
+                    item.put("process", info.name);
+                    item.put("pid", info.pid);
+                    item.put("current", info.current);
+                    item.put("alive", info.alive);
+                    item.put("launch", launchTypeName(info.launchType));
+                    item.put("startTime", info.startTime);
+                    item.put("lastUpdate", info.lastUpdate);
+                    for (int i = 0; i < COUNTERS; i++) item.put(COUNTER_NAMES[i], info.counters[i]);
+                    if (info.lastCrashTime != 0L) {
+                        item.put("lastCrashTime", info.lastCrashTime);
+                        item.put("lastCrashFingerprint", CrashFingerprint.toHex(info.lastCrashFingerprint));
+                    }
+                    processArray.put(item);
+                }
+                jsonObject.put("processes", processArray);
+                JSONArray timeline = new JSONArray();
+                for (long key : mTimeline) {
+                    ProcessInfo info = mProcesses[(int) (key >>> 32)];
+                    BreadcrumbJournal.Records records = info.records;
+                    int i = (int) key;
+                    JSONObject item = new JSONObject();
+                    item.put("time", records.times[i]);
+                    item.put("process", info.name);
+                    item.put("type", BreadcrumbJournal.typeName(records.types[i]));
+                    String name = records.nameOf(i);
+                    if (name != null) {
+                        item.put("name", name);
+                    } else {
+                        item.put("arg", records.args[i]);
+                    }
+                    item.put("value", records.values[i]);
+                    timeline.put(item);
+                }
+                jsonObject.put("timeline", timeline);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return jsonObject.toString();
+        }
+    }
+}
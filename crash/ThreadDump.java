@@ -0,0 +1,108 @@
+package example.com.kotlin.crash;
+
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 崩溃时所有线程的名称和状态
+ * <p>
+ * 一次{@link ThreadGroup#enumerate(Thread[], boolean)}拷贝到预先分配的数组中，不像
+ * Thread.getAllStackTraces()那样为每个线程生成堆栈和Map，线程很多时也只记录前{@link #MAX_THREADS}个。
+ * 收集线程（崩溃时就是崩溃的线程）标记为current。
+ */
+final class ThreadDump {
+
+    static final int MAX_THREADS = 256;
+
+    private static final Thread[] sThreads = new Thread[MAX_THREADS];
+
+    private ThreadDump() {
+
+    }
+
+    private static ThreadGroup rootGroup() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group != null && group.getParent() != null) {
+            group = group.getParent();
+        }
+        return group;
+    }
+
+    /**
+     * 拷贝所有线程到{@link #sThreads}，调用方持有sThreads的锁并在用完后清空
+     *
+     * @return 线程数
+     */
+    private static int enumerate() {
+        ThreadGroup root = rootGroup();
+        return root == null ? 0 : root.enumerate(sThreads, true);
+    }
+
+    private static void clear(int count) {
+        // 不持有已结束线程的引用
+        for (int i = 0; i < count; i++) sThreads[i] = null;
+    }
+
+    /**
+     * 以二进制格式写入所有线程
+     */
+    static void encode(CrashReportEncoder encoder) {
+        synchronized (sThreads) {
+            int count = enumerate();
+            Thread current = Thread.currentThread();
+            encoder.beginSection("Threads")
+                    .value("count", count)
+                    .value("truncated", count == MAX_THREADS);
+            encoder.beginList("threads");
+            for (int i = 0; i < count; i++) {
+                Thread thread = sThreads[i];
+                encoder.beginItem()
+                        .value("id", thread.getId())
+                        .value("name", thread.getName())
+                        .value("state", thread.getState().name())
+                        .value("daemon", thread.isDaemon())
+                        .value("priority", thread.getPriority());
+                if (thread == current) encoder.value("current", true);
+                encoder.end();
+            }
+            encoder.end();
+            encoder.end();
+            clear(count);
+        }
+    }
+
+    /**
+     * 所有线程，JSON
+     */
+    static String getThreads() {
+        JSONObject jsonObject = new JSONObject();
+        synchronized (sThreads) {
+            int count = enumerate();
+            Thread current = Thread.currentThread();
+            try {
+                jsonObject.put("count", count);
+                jsonObject.put("truncated", count == MAX_THREADS);
+                JSONArray threads = new JSONArray();
+                for (int i = 0; i < count; i++) {
+                    Thread thread = sThreads[i];
+                    JSONObject item = new JSONObject();
+                    item.put("id", thread.getId());
+                    item.put("name", thread.getName());
+                    item.put("state", thread.getState().name());
+                    item.put("daemon", thread.isDaemon());
+                    item.put("priority", thread.getPriority());
+                    if (thread == current) item.put("current", true);
+                    threads.put(item);
+                }
+                jsonObject.put("threads", threads);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            } finally {
+                clear(count);
+            }
+        }
+        return jsonObject.toString();
+    }
+}
@@ -4,7 +4,6 @@ import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
 import android.util.Log;
-import android.util.Pair;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,10 +13,13 @@ import java.util.*;
 
 
 public final class TrackActivity {
-    private static List<TrackActivity> sTrack = new ArrayList<>();
-    private String name;
-    private long startTime;
-    private long endTime;
+    /**
+     * 默认保留的Activity记录数
+     */
+    static final int DEFAULT_CAPACITY = 128;
+
+    private static volatile TrackRingBuffer sTrack = new TrackRingBuffer(DEFAULT_CAPACITY);
+    private static volatile DwellTimeAggregator sDwell = new DwellTimeAggregator();
     private static final char SPLIT_CHAR = ':';
 
     private static final int SECONDS_PER_MINUTE = 60;
@@ -28,9 +30,8 @@ public final class TrackActivity {
 
     private static boolean DEBUG = false;
 
+    private TrackActivity() {
 
-    private String getActivityTime() {
-        return getTime(startTime, endTime);
     }
 
     private static String getTime(long startTime, long endTime) {
@@ -64,85 +65,161 @@ public final class TrackActivity {
     }
 
 
-    @Override
-    public String toString() {
-        return new StringBuilder().append(name).append(" ").append(getActivityTime()).toString();
+    static void track(Application application, boolean debug) {
+        track(application, debug, DEFAULT_CAPACITY);
     }
 
-
-    static void track(Application application, boolean debug) {
+    /**
+     * @param capacity 最多保留的Activity记录数，超出后覆盖最旧的记录
+     */
+    static void track(Application application, boolean debug, int capacity) {
         DEBUG = debug;
+        sTrack = new TrackRingBuffer(capacity);
+        sDwell = new DwellTimeAggregator();
         application.registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacksAdapter() {
 
             @Override
             public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
                 if (DEBUG)
                     Log.d(TAG, "onActivityCreated-->name=" + activity.getClass().getSimpleName());
-                TrackActivity trackActivity = new TrackActivity();
-                trackActivity.startTime = System.currentTimeMillis();
-                trackActivity.name = activity.getClass().getName();
-                sTrack.add(trackActivity);
-
+                String name = activity.getClass().getName();
+                int nameId = sTrack.intern(name);
+                long now = System.currentTimeMillis();
+                sTrack.onCreated(activity, nameId, now);
+                sDwell.onCreated(nameId, now);
+                BreadcrumbJournal journal = BreadcrumbJournal.get();
+                if (journal != null) {
+                    journal.defineName(nameId, name);
+                    journal.append(BreadcrumbJournal.TYPE_ACTIVITY_CREATED, nameId, 0L);
+                }
+                SessionState session = SessionState.get();
+                if (session != null) session.add(SessionState.CREATED, 1);
             }
 
             @Override
             public void onActivityDestroyed(Activity activity) {
                 if (DEBUG)
                     Log.d(TAG, "onActivityDestroyed-->name=" + activity.getClass().getSimpleName());
-
-                for (int i = sTrack.size() - 1; i >= 0; i--) {
-                    TrackActivity trackActivity = sTrack.get(i);
-                    if (activity.getClass().getName().equals(trackActivity.name)) {
-                        trackActivity.endTime = System.currentTimeMillis();
-                        break;
-                    }
+                int nameId = sTrack.idOf(activity.getClass().getName());
+                long now = System.currentTimeMillis();
+                long startTime = sTrack.onDestroyed(activity, nameId, now);
+                sDwell.onDestroyed(nameId, startTime, now);
+                BreadcrumbJournal journal = BreadcrumbJournal.get();
+                if (journal != null) {
+                    journal.append(BreadcrumbJournal.TYPE_ACTIVITY_DESTROYED, nameId, 0L);
                 }
+                SessionState session = SessionState.get();
+                if (session != null) session.add(SessionState.DESTROYED, 1);
+                ActivityLeakWatcher.watch(activity, nameId);
             }
         });
     }
 
     /**
-     * 跟踪用户
+     * 名称id对应的Activity类名，未知时为null
+     */
+    static String nameOf(int nameId) {
+        return sTrack.nameOf(nameId);
+    }
+
+    /**
+     * 跟踪用户，每个Activity的总停留时间（包含尚未销毁的实例）
      *
      * @return
      */
     static String getTrackActivityPath() {
-        if (sTrack == null || sTrack.isEmpty())
+        long now = System.currentTimeMillis();
+        DwellTimeAggregator.Snapshot dwell = sDwell.snapshot(now);
+        if (dwell.size == 0)
             return null;
+        String[] names = sTrack.names();
         JSONObject jsonObject = new JSONObject();
-        Map<String, Pair<Long, Long>> map = new HashMap<>();
-        long startTime = 0L;
-        long endTime = 0L;
-        for (TrackActivity info : TrackActivity.sTrack) {
-            if (info.endTime == 0) info.endTime = System.currentTimeMillis();
-            Pair<Long, Long> pair = map.get(info.name);
-            if (pair != null) {
-                if (DEBUG)
-                    Log.d(TAG, "getTrackActivityPath-->name=" + info.name + "-->before-->self=" + getTime(pair.first, pair.second) + ";other=" + getTime(info.startTime, info.endTime));
-                startTime = pair.first + info.startTime;
-                endTime = pair.second + info.endTime;
-                map.put(info.name, Pair.create(startTime, endTime));
-                try {
-                    if (DEBUG)
-                        Log.d(TAG, "getTrackActivityPath-->name=" + info.name + "-->after-->" + getTime(startTime, endTime));
-                    jsonObject.put(info.name, TrackActivity.getTime(startTime, endTime));
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            } else {
-                map.put(info.name, Pair.create(info.startTime, info.endTime));
-                try {
-                    jsonObject.put(info.name, info.getActivityTime());
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
+        for (int id = 0; id < dwell.size; id++) {
+            if (!dwell.isVisited(id)) continue;
+            long total = dwell.get(id, DwellTimeAggregator.Snapshot.TOTAL) + dwell.get(id, DwellTimeAggregator.Snapshot.OPEN_TIME);
+            try {
+                jsonObject.put(names[id], getTime(0L, total));
+            } catch (JSONException e) {
+                e.printStackTrace();
             }
         }
-        map.clear();
         if (DEBUG) Log.d(TAG, "getTrackActivityPath-->json=" + jsonObject.toString());
         return jsonObject.toString();
     }
 
+    /**
+     * 以二进制格式写入每个Activity的停留时间统计，时间为毫秒
+     *
+     * @param encoder 编码器
+     */
+    static void encodeTrackActivityPath(CrashReportEncoder encoder) {
+        DwellTimeAggregator.Snapshot dwell = sDwell.snapshot(System.currentTimeMillis());
+        String[] names = sTrack.names();
+        encoder.beginList("TrackActivityPath");
+        for (int id = 0; id < dwell.size; id++) {
+            if (!dwell.isVisited(id)) continue;
+            encoder.beginItem()
+                    .value("name", names[id])
+                    .value("count", dwell.get(id, DwellTimeAggregator.Snapshot.COUNT))
+                    .value("totalTime", dwell.get(id, DwellTimeAggregator.Snapshot.TOTAL))
+                    .value("minTime", dwell.get(id, DwellTimeAggregator.Snapshot.MIN))
+                    .value("maxTime", dwell.get(id, DwellTimeAggregator.Snapshot.MAX))
+                    .value("openCount", dwell.get(id, DwellTimeAggregator.Snapshot.OPEN_COUNT))
+                    .value("openTime", dwell.get(id, DwellTimeAggregator.Snapshot.OPEN_TIME))
+                    .end();
+        }
+        encoder.end();
+    }
+
+    /**
+     * 某个Activity在本次进程中的停留时间统计，可在任意线程调用
+     *
+     * @param activityClass Activity类
+     * @return 统计结果，没有访问过时返回null
+     */
+    public static ActivityDwellTime getDwellTime(Class<? extends Activity> activityClass) {
+        String name = activityClass.getName();
+        String[] names = sTrack.names();
+        for (int id = 0; id < names.length; id++) {
+            if (name.equals(names[id])) {
+                long[] values = new long[DwellTimeAggregator.Snapshot.FIELDS];
+                if (!sDwell.read(id, System.currentTimeMillis(), values)) return null;
+                return toDwellTime(name, values);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 本次进程中访问过的所有Activity的停留时间统计，可在任意线程调用
+     *
+     * @return 按首次访问顺序排列
+     */
+    public static List<ActivityDwellTime> getDwellTimes() {
+        DwellTimeAggregator.Snapshot dwell = sDwell.snapshot(System.currentTimeMillis());
+        String[] names = sTrack.names();
+        List<ActivityDwellTime> list = new ArrayList<>(dwell.size);
+        long[] values = new long[DwellTimeAggregator.Snapshot.FIELDS];
+        for (int id = 0; id < dwell.size; id++) {
+            if (!dwell.isVisited(id)) continue;
+            for (int field = 0; field < values.length; field++) {
+                values[field] = dwell.get(id, field);
+            }
+            list.add(toDwellTime(names[id], values));
+        }
+        return list;
+    }
+
+    private static ActivityDwellTime toDwellTime(String name, long[] values) {
+        return new ActivityDwellTime(name,
+                values[DwellTimeAggregator.Snapshot.COUNT],
+                values[DwellTimeAggregator.Snapshot.TOTAL],
+                values[DwellTimeAggregator.Snapshot.MIN],
+                values[DwellTimeAggregator.Snapshot.MAX],
+                values[DwellTimeAggregator.Snapshot.OPEN_COUNT],
+                values[DwellTimeAggregator.Snapshot.OPEN_TIME]);
+    }
+
 
     /**
      * 跟踪用户
@@ -150,19 +227,21 @@ public final class TrackActivity {
      * @return
      */
     static String getTrackActivityPathDetail() {
-        if (sTrack == null || sTrack.isEmpty())
+        TrackRingBuffer.Snapshot track = sTrack.snapshot();
+        int size = track.size;
+        if (size == 0)
             return null;
         JSONArray jsonArray = new JSONArray();
-        Iterator<TrackActivity> iterator = sTrack.iterator();
-        TrackActivity trackActivity = null;
-        while (iterator.hasNext()) {
-            trackActivity = iterator.next();
-            if (trackActivity.endTime == 0) {
-                trackActivity.endTime = System.currentTimeMillis();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            long endTime = track.endTimes[i];
+            if (endTime == 0) {
+                endTime = now;
             }
-            jsonArray.put(trackActivity.toString());
+            String detail = new StringBuilder().append(track.nameAt(i)).append(" ").append(getTime(track.startTimes[i], endTime)).toString();
+            jsonArray.put(detail);
             if (DEBUG) {
-                Log.d(TAG, "getTrackActivityPathDetail-->" + trackActivity.toString());
+                Log.d(TAG, "getTrackActivityPathDetail-->" + detail);
             }
         }
         if (DEBUG) {
@@ -170,4 +249,23 @@ public final class TrackActivity {
         }
         return jsonArray.toString();
     }
+
+
+    /**
+     * 以二进制格式写入跟踪记录，时间保持原始毫秒值
+     *
+     * @param encoder 编码器
+     */
+    static void encodeTrackActivityPathDetail(CrashReportEncoder encoder) {
+        TrackRingBuffer.Snapshot track = sTrack.snapshot();
+        encoder.beginList("TrackActivityPathDetail");
+        for (int i = 0; i < track.size; i++) {
+            encoder.beginItem()
+                    .value("name", track.nameAt(i))
+                    .value("startTime", track.startTimes[i])
+                    .value("endTime", track.endTimes[i])
+                    .end();
+        }
+        encoder.end();
+    }
 }
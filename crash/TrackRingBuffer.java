@@ -0,0 +1,341 @@
+package example.com.kotlin.crash;
+
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 定长的Activity生命周期环形缓冲区
+ * <p>
+ * Activity名称被驻留为int id，开始、结束时间保存在并行的基本类型数组中，
+ * 写满后覆盖最旧的记录，因此进程存活多久内存占用都不变。
+ * <p>
+ * 单写多读：只有主线程的生命周期回调写入，任意线程（例如崩溃线程）可以通过
+ * {@link #snapshot()} 无锁地读取一致的快照。每个槽位带一个序号戳，写入前清零，
+ * 写完后置为 序号+1，读取前后戳一致才认为该槽位有效。
+ */
+final class TrackRingBuffer {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private static final int NO_ID = -1;
+
+    private static final int MAX_SNAPSHOT_RETRIES = 4;
+
+    private final int mMask;
+    private final AtomicIntegerArray mNameIds;
+    private final AtomicLongArray mStartTimes;
+    private final AtomicLongArray mEndTimes;
+    /**
+     * 槽位戳：0表示正在写入，否则为 序号+1
+     */
+    private final AtomicLongArray mStamps;
+
+    /**
+     * 下一条记录的序号，槽位为 mNext & mMask
+     */
+    private volatile long mNext;
+
+    /**
+     * 仅写线程访问
+     */
+    private final Map<String, Integer> mNameToId = new HashMap<>();
+    /**
+     * 写时复制，读线程看到的数组总是包含它已看到的所有名称id
+     */
+    private volatile String[] mNames = new String[16];
+    private int mNameCount;
+
+    /**
+     * 尚未销毁的Activity实例 -> 记录序号和开始时间，开放寻址表，仅写线程访问。
+     * 按identityHashCode散列，它可能重复，命中时再用弱引用比较是否是同一个实例
+     */
+    private int[] mOpenKeys;
+    private WeakReference<?>[] mOpenRefs;
+    private int[] mOpenNameIds;
+    private long[] mOpenSeqs;
+    private long[] mOpenStartTimes;
+    private int mOpenCount;
+
+    /**
+     * @param capacity 最多保留的记录数，向上取整为2的幂
+     */
+    TrackRingBuffer(int capacity) {
+        int size = roundUpToPowerOfTwo(Math.max(capacity, MIN_CAPACITY));
+        mMask = size - 1;
+        mNameIds = new AtomicIntegerArray(size);
+        mStartTimes = new AtomicLongArray(size);
+        mEndTimes = new AtomicLongArray(size);
+        mStamps = new AtomicLongArray(size);
+        initOpenTable(16);
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+
+    /**
+     * 容量
+     */
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * 当前保留的记录数
+     */
+    int size() {
+        return (int) Math.min(mNext, capacity());
+    }
+
+    /**
+     * 驻留Activity名称，仅写线程调用
+     *
+     * @param name Activity类名
+     * @return 名称id
+     */
+    int intern(String name) {
+        Integer id = mNameToId.get(name);
+        if (id != null) return id;
+        String[] names = mNames;
+        if (mNameCount == names.length) {
+            names = Arrays.copyOf(names, mNameCount << 1);
+        } else {
+            names = names.clone();
+        }
+        int newId = mNameCount++;
+        names[newId] = name;
+        mNames = names;
+        mNameToId.put(name, newId);
+        return newId;
+    }
+
+    /**
+     * 名称id对应的Activity类名
+     */
+    String nameOf(int nameId) {
+        return mNames[nameId];
+    }
+
+    /**
+     * 已驻留名称的id，仅写线程调用
+     *
+     * @param name Activity类名
+     * @return 名称id，未驻留时返回-1
+     */
+    int idOf(String name) {
+        Integer id = mNameToId.get(name);
+        return id == null ? NO_ID : id;
+    }
+
+    /**
+     * Activity创建，追加一条记录，仅写线程调用
+     *
+     * @param instance  Activity实例
+     * @param nameId    {@link #intern(String)}得到的名称id
+     * @param startTime 开始时间
+     * @return 记录的序号
+     */
+    long onCreated(Object instance, int nameId, long startTime) {
+        long seq = mNext;
+        int slot = (int) (seq & mMask);
+        mStamps.set(slot, 0L);
+        mNameIds.set(slot, nameId);
+        mStartTimes.set(slot, startTime);
+        mEndTimes.set(slot, 0L);
+        mStamps.set(slot, seq + 1);
+        mNext = seq + 1;
+        putOpen(System.identityHashCode(instance), new WeakReference<>(instance), nameId, seq, startTime);
+        return seq;
+    }
+
+    /**
+     * Activity销毁，补全对应记录的结束时间，仅写线程调用
+     * <p>
+     * 即使记录已被覆盖，开始时间仍保存在未销毁实例表中，停留时间统计不受影响。
+     *
+     * @param instance Activity实例
+     * @param nameId   {@link #idOf(String)}得到的名称id
+     * @param endTime  结束时间
+     * @return 对应的开始时间，不存在时返回-1
+     */
+    long onDestroyed(Object instance, int nameId, long endTime) {
+        if (nameId == NO_ID) return -1L;
+        int key = System.identityHashCode(instance);
+        int i = findOpen(key, instance, nameId);
+        if (i < 0) return -1L;
+        long seq = mOpenSeqs[i];
+        long startTime = mOpenStartTimes[i];
+        deleteOpenAt(i);
+        if (seq >= mNext - capacity()) {
+            mEndTimes.set((int) (seq & mMask), endTime);
+        }
+        return startTime;
+    }
+
+    /**
+     * 当前驻留的全部名称，下标即名称id，可在任意线程调用，不要修改
+     */
+    String[] names() {
+        return mNames;
+    }
+
+    /**
+     * 无锁读取一致的快照，可在任意线程调用，不阻塞写线程
+     */
+    Snapshot snapshot() {
+        int capacity = capacity();
+        int[] nameIds = new int[capacity];
+        long[] startTimes = new long[capacity];
+        long[] endTimes = new long[capacity];
+        int count = 0;
+        long next = mNext;
+        for (long seq = Math.max(0L, next - capacity); seq < next; seq++) {
+            int slot = (int) (seq & mMask);
+            for (int retry = 0; retry < MAX_SNAPSHOT_RETRIES; retry++) {
+                long stamp = mStamps.get(slot);
+                if (stamp != seq + 1) {
+                    // 正在写入或已被更新的记录覆盖
+                    if (stamp == 0L) continue;
+                    break;
+                }
+                int nameId = mNameIds.get(slot);
+                long startTime = mStartTimes.get(slot);
+                long endTime = mEndTimes.get(slot);
+                if (mStamps.get(slot) == stamp) {
+                    nameIds[count] = nameId;
+                    startTimes[count] = startTime;
+                    endTimes[count] = endTime;
+                    count++;
+                    break;
+                }
+            }
+        }
+        return new Snapshot(count, nameIds, startTimes, endTimes, mNames);
+    }
+
+    /**
+     * 某一时刻的环形缓冲区内容，按时间从旧到新排列
+     */
+    static final class Snapshot {
+        final int size;
+        final int[] nameIds;
+        final long[] startTimes;
+        /**
+         * 未销毁的记录为0
+         */
+        final long[] endTimes;
+        private final String[] names;
+
+        private Snapshot(int size, int[] nameIds, long[] startTimes, long[] endTimes, String[] names) {
+            this.size = size;
+            this.nameIds = nameIds;
+            this.startTimes = startTimes;
+            this.endTimes = endTimes;
+            this.names = names;
+        }
+
+        String nameAt(int index) {
+            return names[nameIds[index]];
+        }
+
+        String nameOf(int nameId) {
+            return names[nameId];
+        }
+    }
+
+    private void initOpenTable(int size) {
+        mOpenKeys = new int[size];
+        mOpenRefs = new WeakReference<?>[size];
+        mOpenNameIds = new int[size];
+        mOpenSeqs = new long[size];
+        mOpenStartTimes = new long[size];
+        Arrays.fill(mOpenNameIds, NO_ID);
+        mOpenCount = 0;
+    }
+
+    private void putOpen(int key, WeakReference<?> ref, int nameId, long seq, long startTime) {
+        if ((mOpenCount + 1) * 2 > mOpenKeys.length) {
+            rehashOpen(mOpenKeys.length << 1);
+        }
+        int mask = mOpenKeys.length - 1;
+        int i = mix(key) & mask;
+        Object instance = ref.get();
+        while (mOpenNameIds[i] != NO_ID) {
+            if (mOpenKeys[i] == key && mOpenNameIds[i] == nameId && mOpenRefs[i].get() == instance) {
+                mOpenSeqs[i] = seq;
+                mOpenStartTimes[i] = startTime;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mOpenKeys[i] = key;
+        mOpenRefs[i] = ref;
+        mOpenNameIds[i] = nameId;
+        mOpenSeqs[i] = seq;
+        mOpenStartTimes[i] = startTime;
+        mOpenCount++;
+    }
+
+    private int findOpen(int key, Object instance, int nameId) {
+        int mask = mOpenKeys.length - 1;
+        int i = mix(key) & mask;
+        while (mOpenNameIds[i] != NO_ID) {
+            if (mOpenKeys[i] == key && mOpenNameIds[i] == nameId && mOpenRefs[i].get() == instance) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 线性探测表的后移删除，避免墓碑累积
+     */
+    private void deleteOpenAt(int hole) {
+        int mask = mOpenKeys.length - 1;
+        mOpenNameIds[hole] = NO_ID;
+        mOpenRefs[hole] = null;
+        mOpenCount--;
+        int i = (hole + 1) & mask;
+        while (mOpenNameIds[i] != NO_ID) {
+            int home = mix(mOpenKeys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mOpenKeys[hole] = mOpenKeys[i];
+                mOpenRefs[hole] = mOpenRefs[i];
+                mOpenNameIds[hole] = mOpenNameIds[i];
+                mOpenSeqs[hole] = mOpenSeqs[i];
+                mOpenStartTimes[hole] = mOpenStartTimes[i];
+                mOpenNameIds[i] = NO_ID;
+                mOpenRefs[i] = null;
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * 扩容时丢弃没有收到销毁回调就被回收的实例
+     */
+    private void rehashOpen(int size) {
+        int[] keys = mOpenKeys;
+        WeakReference<?>[] refs = mOpenRefs;
+        int[] nameIds = mOpenNameIds;
+        long[] seqs = mOpenSeqs;
+        long[] startTimes = mOpenStartTimes;
+        initOpenTable(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (nameIds[i] != NO_ID && refs[i].get() != null) putOpen(keys[i], refs[i], nameIds[i], seqs[i], startTimes[i]);
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
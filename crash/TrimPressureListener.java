@@ -0,0 +1,31 @@
+package example.com.kotlin.crash;
+
+
+/**
+ * 图片缓存压力变化的回调，由应用决定如何释放缓存
+ * <p>
+ * 在主线程调用，只在级别变化时调用一次。例如{@link #PRESSURE_CRITICAL}时清空内存缓存，
+ * {@link #PRESSURE_MODERATE}时暂停预加载。
+ */
+public interface TrimPressureListener {
+
+    /**
+     * 堆余量充足，或者位图缓存和堆余量无关
+     */
+    int PRESSURE_NONE = 0;
+    /**
+     * 堆余量不足25%，并且位图缓存占用较多或随其增长堆余量减少
+     */
+    int PRESSURE_MODERATE = 1;
+    /**
+     * 堆余量不足10%，并且位图缓存占用较多或随其增长堆余量减少
+     */
+    int PRESSURE_CRITICAL = 2;
+
+    /**
+     * @param level            PRESSURE_*
+     * @param bitmapCacheBytes 位图内存缓存的字节数
+     * @param heapHeadroom     堆余量（最大堆减已用），字节
+     */
+    void onTrimPressure(int level, long bitmapCacheBytes, long heapHeadroom);
+}
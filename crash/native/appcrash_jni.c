@@ -0,0 +1,32 @@
+/*
+ * NativeCrashHandler.java的JNI入口
+ */
+#include "crash_signal.h"
+
+#include <jni.h>
+#include <signal.h>
+#include <stdint.h>
+
+JNIEXPORT jint JNICALL
+Java_example_com_kotlin_crash_NativeCrashHandler_nativeInstall(JNIEnv *env, jclass clazz, jstring path) {
+    const char *chars;
+    int result;
+    (void) clazz;
+    if (path == NULL) return -1;
+    chars = (*env)->GetStringUTFChars(env, path, NULL);
+    if (chars == NULL) return -1;
+    result = crash_signal_install(chars);
+    (*env)->ReleaseStringUTFChars(env, path, chars);
+    return result;
+}
+
+JNIEXPORT void JNICALL
+Java_example_com_kotlin_crash_NativeCrashHandler_nativeCrash(JNIEnv *env, jclass clazz, jint signal) {
+    (void) env;
+    (void) clazz;
+    if (signal == SIGSEGV) {
+        volatile uintptr_t address = 16;
+        *(volatile int *) address = 0;
+    }
+    raise(signal);
+}
@@ -0,0 +1,406 @@
+/*
+ * 信号处理函数中只使用异步信号安全的系统调用：open/read/close/clock_gettime/sigaction/syscall，
+ * 读取可能无效的栈内存用process_vm_readv，地址无效时返回错误而不会再次触发SIGSEGV。
+ *
+ * 在Android上，ART的sigchain先处理自己用到的SIGSEGV（隐式空指针检查、栈溢出检查），
+ * 这里只会收到真正的崩溃。ART为每个Java线程设置了备用信号栈，
+ * 安装线程之外的native线程没有备用栈时，处理函数在出错的栈上运行。
+ */
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE
+#endif
+
+#include "crash_signal.h"
+
+#include <errno.h>
+#include <fcntl.h>
+#include <signal.h>
+#include <stddef.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#include <sys/uio.h>
+#include <time.h>
+#include <ucontext.h>
+#include <unistd.h>
+
+_Static_assert(sizeof(struct crash_record) <= CRASH_RECORD_SIZE, "crash_record too large");
+
+static const int kSignals[] = {SIGSEGV, SIGABRT, SIGBUS, SIGFPE, SIGILL, SIGTRAP, SIGSYS};
+#define SIGNAL_COUNT ((int) (sizeof(kSignals) / sizeof(kSignals[0])))
+
+#define ALT_STACK_SIZE (64 * 1024)
+#define MAPS_BUFFER_SIZE 4096
+#define MAPS_LINE_SIZE 512
+
+static struct sigaction g_old_actions[SIGNAL_COUNT];
+static int g_installed;
+static struct crash_record *g_record;
+static char g_alt_stack[ALT_STACK_SIZE];
+static volatile int g_handling;
+
+/* 以下缓冲区只在信号处理函数中使用，g_handling保证同时只有一个线程 */
+static char g_maps_buffer[MAPS_BUFFER_SIZE];
+static char g_maps_line[MAPS_LINE_SIZE];
+
+static pid_t current_tid(void) {
+    return (pid_t) syscall(SYS_gettid);
+}
+
+/*
+ * 安全地读取本进程内存，地址无效时返回0
+ */
+static int safe_read(uint64_t address, void *out, size_t size) {
+    struct iovec local;
+    struct iovec remote;
+    local.iov_base = out;
+    local.iov_len = size;
+    remote.iov_base = (void *) (uintptr_t) address;
+    remote.iov_len = size;
+    return syscall(SYS_process_vm_readv, getpid(), &local, 1UL, &remote, 1UL, 0UL) == (long) size;
+}
+
+static size_t copy_string(char *dst, size_t size, const char *src, size_t length) {
+    size_t n = length < size - 1 ? length : size - 1;
+    size_t i;
+    for (i = 0; i < n; i++) dst[i] = src[i];
+    dst[n] = '\0';
+    return n;
+}
+
+static size_t format_decimal(char *dst, uint32_t value) {
+    char digits[10];
+    size_t n = 0;
+    size_t i;
+    do {
+        digits[n++] = (char) ('0' + value % 10);
+        value /= 10;
+    } while (value != 0);
+    for (i = 0; i < n; i++) dst[i] = digits[n - 1 - i];
+    return n;
+}
+
+static uint64_t parse_hex(const char **cursor) {
+    const char *p = *cursor;
+    uint64_t value = 0;
+    for (;; p++) {
+        char c = *p;
+        if (c >= '0' && c <= '9') {
+            value = (value << 4) | (uint64_t) (c - '0');
+        } else if (c >= 'a' && c <= 'f') {
+            value = (value << 4) | (uint64_t) (c - 'a' + 10);
+        } else {
+            break;
+        }
+    }
+    *cursor = p;
+    return value;
+}
+
+/*
+ * 寄存器，顺序和NativeCrashHandler.java中的名称一致
+ */
+static void read_registers(struct crash_record *record, const ucontext_t *uc,
+                           uint64_t *pc, uint64_t *lr, uint64_t *fp) {
+    uint32_t n = 0;
+    *pc = 0;
+    *lr = 0;
+    *fp = 0;
+#if defined(__aarch64__)
+    int i;
+    record->arch = CRASH_ARCH_ARM64;
+    for (i = 0; i < 31; i++) record->registers[n++] = uc->uc_mcontext.regs[i];
+    record->registers[n++] = uc->uc_mcontext.sp;
+    record->registers[n++] = uc->uc_mcontext.pc;
+    record->registers[n++] = uc->uc_mcontext.pstate;
+    *pc = uc->uc_mcontext.pc;
+    *lr = uc->uc_mcontext.regs[30];
+    *fp = uc->uc_mcontext.regs[29];
+#elif defined(__arm__)
+    const struct sigcontext *mc = &uc->uc_mcontext;
+    record->arch = CRASH_ARCH_ARM;
+    record->registers[n++] = mc->arm_r0;
+    record->registers[n++] = mc->arm_r1;
+    record->registers[n++] = mc->arm_r2;
+    record->registers[n++] = mc->arm_r3;
+    record->registers[n++] = mc->arm_r4;
+    record->registers[n++] = mc->arm_r5;
+    record->registers[n++] = mc->arm_r6;
+    record->registers[n++] = mc->arm_r7;
+    record->registers[n++] = mc->arm_r8;
+    record->registers[n++] = mc->arm_r9;
+    record->registers[n++] = mc->arm_r10;
+    record->registers[n++] = mc->arm_fp;
+    record->registers[n++] = mc->arm_ip;
+    record->registers[n++] = mc->arm_sp;
+    record->registers[n++] = mc->arm_lr;
+    record->registers[n++] = mc->arm_pc;
+    record->registers[n++] = mc->arm_cpsr;
+    *pc = mc->arm_pc;
+    *lr = mc->arm_lr;
+    /* arm上帧指针约定不统一（thumb用r7），只记录pc和lr */
+#elif defined(__x86_64__)
+    static const int kGregs[] = {REG_RAX, REG_RBX, REG_RCX, REG_RDX, REG_RSI, REG_RDI, REG_RBP, REG_RSP,
+                                 REG_R8, REG_R9, REG_R10, REG_R11, REG_R12, REG_R13, REG_R14, REG_R15,
+                                 REG_RIP, REG_EFL};
+    size_t i;
+    record->arch = CRASH_ARCH_X86_64;
+    for (i = 0; i < sizeof(kGregs) / sizeof(kGregs[0]); i++) {
+        record->registers[n++] = (uint64_t) uc->uc_mcontext.gregs[kGregs[i]];
+    }
+    *pc = (uint64_t) uc->uc_mcontext.gregs[REG_RIP];
+    *fp = (uint64_t) uc->uc_mcontext.gregs[REG_RBP];
+#elif defined(__i386__)
+    static const int kGregs[] = {REG_EAX, REG_EBX, REG_ECX, REG_EDX, REG_ESI, REG_EDI, REG_EBP, REG_ESP,
+                                 REG_EIP, REG_EFL};
+    size_t i;
+    record->arch = CRASH_ARCH_X86;
+    for (i = 0; i < sizeof(kGregs) / sizeof(kGregs[0]); i++) {
+        record->registers[n++] = (uint32_t) uc->uc_mcontext.gregs[kGregs[i]];
+    }
+    *pc = (uint32_t) uc->uc_mcontext.gregs[REG_EIP];
+    *fp = (uint32_t) uc->uc_mcontext.gregs[REG_EBP];
+#else
+    (void) uc;
+    record->arch = CRASH_ARCH_UNKNOWN;
+#endif
+    record->register_count = n;
+}
+
+static void add_frame(struct crash_record *record, uint64_t pc) {
+    if (pc == 0 || record->frame_count >= CRASH_MAX_FRAMES) return;
+    record->frames[record->frame_count].pc = pc;
+    record->frames[record->frame_count].module = CRASH_NO_MODULE;
+    record->frame_count++;
+}
+
+/*
+ * 沿帧指针链回溯：[fp]为上一帧的fp，[fp + 指针大小]为返回地址。
+ * 帧指针必须对齐并且单调增大，否则认为链已断开。
+ */
+static void unwind(struct crash_record *record, uint64_t pc, uint64_t lr, uint64_t fp) {
+    add_frame(record, pc);
+    if (lr != 0 && lr != pc) add_frame(record, lr);
+    while (fp != 0 && record->frame_count < CRASH_MAX_FRAMES) {
+        uintptr_t frame[2];
+        if ((fp & (sizeof(uintptr_t) - 1)) != 0) break;
+        if (!safe_read(fp, frame, sizeof(frame))) break;
+        if (frame[1] == 0) break;
+        /* arm64上第一帧的返回地址就是lr，不重复记录 */
+        if (!(record->frame_count == 2 && (uint64_t) frame[1] == lr)) add_frame(record, (uint64_t) frame[1]);
+        if ((uint64_t) frame[0] <= fp) break;
+        fp = (uint64_t) frame[0];
+    }
+}
+
+/*
+ * 处理/proc/self/maps中的一行：start-end perms offset dev inode path
+ */
+static void match_mapping(struct crash_record *record, const char *line) {
+    const char *p = line;
+    uint64_t start = parse_hex(&p);
+    uint64_t end;
+    uint64_t offset;
+    const char *path;
+    size_t path_length = 0;
+    uint32_t i;
+    uint32_t module = CRASH_NO_MODULE;
+    if (*p != '-') return;
+    p++;
+    end = parse_hex(&p);
+    while (*p == ' ') p++;
+    while (*p != ' ' && *p != '\0') p++;
+    while (*p == ' ') p++;
+    offset = parse_hex(&p);
+    /* 跳过dev和inode */
+    while (*p == ' ') p++;
+    while (*p != ' ' && *p != '\0') p++;
+    while (*p == ' ') p++;
+    while (*p != ' ' && *p != '\0') p++;
+    while (*p == ' ') p++;
+    path = p;
+    while (path[path_length] != '\0') path_length++;
+
+    for (i = 0; i < record->frame_count; i++) {
+        struct crash_frame *frame = &record->frames[i];
+        if (frame->module != CRASH_NO_MODULE || frame->pc < start || frame->pc >= end) continue;
+        if (module == CRASH_NO_MODULE) {
+            uint32_t m;
+            for (m = 0; m < record->module_count; m++) {
+                if (record->modules[m].start == start) {
+                    module = m;
+                    break;
+                }
+            }
+            if (module == CRASH_NO_MODULE) {
+                if (record->module_count >= CRASH_MAX_MODULES) return;
+                module = record->module_count++;
+                record->modules[module].start = start;
+                record->modules[module].base = start - offset;
+                copy_string(record->modules[module].path, CRASH_MODULE_PATH_SIZE, path, path_length);
+            }
+        }
+        frame->module = module;
+    }
+}
+
+/*
+ * 流式读取/proc/self/maps，为每个栈帧找到所在的映射
+ */
+static void resolve_modules(struct crash_record *record) {
+    int fd = open("/proc/self/maps", O_RDONLY | O_CLOEXEC);
+    size_t line_length = 0;
+    int skipping = 0;
+    if (fd < 0) return;
+    for (;;) {
+        ssize_t n = read(fd, g_maps_buffer, MAPS_BUFFER_SIZE);
+        ssize_t i;
+        if (n < 0 && errno == EINTR) continue;
+        if (n <= 0) break;
+        for (i = 0; i < n; i++) {
+            char c = g_maps_buffer[i];
+            if (c == '\n') {
+                if (!skipping) {
+                    g_maps_line[line_length] = '\0';
+                    match_mapping(record, g_maps_line);
+                }
+                line_length = 0;
+                skipping = 0;
+            } else if (line_length < MAPS_LINE_SIZE - 1) {
+                g_maps_line[line_length++] = c;
+            } else {
+                /* 路径过长的行只可能截断路径，截断后仍然可用 */
+                if (!skipping) {
+                    g_maps_line[line_length] = '\0';
+                    match_mapping(record, g_maps_line);
+                }
+                skipping = 1;
+            }
+        }
+    }
+    close(fd);
+}
+
+static void read_thread_name(struct crash_record *record, pid_t tid) {
+    char path[48];
+    size_t n = 0;
+    int fd;
+    ssize_t length;
+    const char *prefix = "/proc/self/task/";
+    while (prefix[n] != '\0') {
+        path[n] = prefix[n];
+        n++;
+    }
+    n += format_decimal(path + n, (uint32_t) tid);
+    copy_string(path + n, sizeof(path) - n, "/comm", 5);
+    fd = open(path, O_RDONLY | O_CLOEXEC);
+    if (fd < 0) return;
+    length = read(fd, record->thread_name, CRASH_THREAD_NAME_SIZE - 1);
+    close(fd);
+    if (length <= 0) return;
+    if (record->thread_name[length - 1] == '\n') length--;
+    record->thread_name[length] = '\0';
+}
+
+static void write_record(int signal, const siginfo_t *info, const ucontext_t *uc) {
+    struct crash_record *record = g_record;
+    struct timespec now;
+    uint64_t pc, lr, fp;
+    pid_t tid = current_tid();
+    if (record == NULL) return;
+
+    /* 先使旧记录失效，写到一半被杀时不会留下不完整的记录 */
+    __atomic_store_n(&record->magic, 0u, __ATOMIC_SEQ_CST);
+    record->version = CRASH_RECORD_VERSION;
+    record->signal = (uint32_t) signal;
+    record->code = info != NULL ? info->si_code : 0;
+    record->pid = (uint32_t) getpid();
+    record->tid = (uint32_t) tid;
+    record->fault_address = info != NULL ? (uint64_t) (uintptr_t) info->si_addr : 0;
+    record->time_millis = 0;
+    if (clock_gettime(CLOCK_REALTIME, &now) == 0) {
+        record->time_millis = (uint64_t) now.tv_sec * 1000u + (uint64_t) now.tv_nsec / 1000000u;
+    }
+    record->register_count = 0;
+    record->frame_count = 0;
+    record->module_count = 0;
+    record->thread_name[0] = '\0';
+    if (uc != NULL) {
+        read_registers(record, uc, &pc, &lr, &fp);
+        unwind(record, pc, lr, fp);
+    }
+    resolve_modules(record);
+    read_thread_name(record, tid);
+    __atomic_store_n(&record->magic, CRASH_RECORD_MAGIC, __ATOMIC_SEQ_CST);
+}
+
+static void restore_actions(void) {
+    int i;
+    for (i = 0; i < SIGNAL_COUNT; i++) {
+        sigaction(kSignals[i], &g_old_actions[i], NULL);
+    }
+}
+
+static void handle_signal(int signal, siginfo_t *info, void *context) {
+    if (__atomic_exchange_n(&g_handling, 1, __ATOMIC_SEQ_CST) == 0) {
+        write_record(signal, info, (const ucontext_t *) context);
+    }
+    /*
+     * 恢复原来的处理函数（通常是debuggerd的，会生成tombstone）后重新投递。
+     * 信号在处理期间被屏蔽，返回后才由原来的处理函数处理；硬件异常即使没有重新投递，
+     * 返回后重新执行出错的指令也会再次触发
+     */
+    restore_actions();
+    syscall(SYS_tgkill, getpid(), current_tid(), signal);
+}
+
+int crash_signal_install(const char *path) {
+    struct crash_record *record;
+    struct sigaction action;
+    stack_t stack;
+    int fd;
+    int i;
+
+    fd = open(path, O_RDWR | O_CREAT | O_CLOEXEC, 0600);
+    if (fd < 0) return errno;
+    if (ftruncate(fd, CRASH_RECORD_SIZE) != 0) {
+        int error = errno;
+        close(fd);
+        return error;
+    }
+    record = (struct crash_record *) mmap(NULL, CRASH_RECORD_SIZE, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (record == MAP_FAILED) return errno;
+    /* 上次的记录已由Java层读取 */
+    memset(record, 0, CRASH_RECORD_SIZE);
+    if (g_record != NULL) munmap(g_record, CRASH_RECORD_SIZE);
+    g_record = record;
+    if (g_installed) return 0;
+
+    memset(&stack, 0, sizeof(stack));
+    stack.ss_sp = g_alt_stack;
+    stack.ss_size = ALT_STACK_SIZE;
+    stack.ss_flags = 0;
+    sigaltstack(&stack, NULL);
+
+    memset(&action, 0, sizeof(action));
+    sigemptyset(&action.sa_mask);
+    for (i = 0; i < SIGNAL_COUNT; i++) sigaddset(&action.sa_mask, kSignals[i]);
+    action.sa_sigaction = handle_signal;
+    action.sa_flags = SA_SIGINFO | SA_ONSTACK;
+    for (i = 0; i < SIGNAL_COUNT; i++) {
+        if (sigaction(kSignals[i], &action, &g_old_actions[i]) != 0) {
+            int error = errno;
+            while (--i >= 0) sigaction(kSignals[i], &g_old_actions[i], NULL);
+            return error;
+        }
+    }
+    g_installed = 1;
+    return 0;
+}
+
+void crash_signal_uninstall(void) {
+    if (!g_installed) return;
+    restore_actions();
+    g_installed = 0;
+}
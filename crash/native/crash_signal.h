@@ -0,0 +1,86 @@
+/*
+ * 捕捉native崩溃信号
+ *
+ * 安装时打开并映射一个固定大小的记录文件，信号处理函数只往映射区写入定长记录，
+ * 不分配内存、不调用非异步信号安全的函数。进程随后被杀，写入的页仍会被系统落盘，
+ * 下次启动时由NativeCrashHandler.java读取。
+ *
+ * 记录布局（小端，偏移见下面的常量），magic最后写入，为0表示没有完整记录。
+ */
+#ifndef APPCRASH_CRASH_SIGNAL_H
+#define APPCRASH_CRASH_SIGNAL_H
+
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+#define CRASH_RECORD_MAGIC 0x3152434eu /* NCR1 */
+#define CRASH_RECORD_VERSION 1u
+#define CRASH_RECORD_SIZE 4096
+
+#define CRASH_MAX_REGISTERS 34
+#define CRASH_MAX_FRAMES 64
+#define CRASH_MAX_MODULES 16
+#define CRASH_MODULE_PATH_SIZE 112
+#define CRASH_THREAD_NAME_SIZE 16
+
+#define CRASH_ARCH_UNKNOWN 0u
+#define CRASH_ARCH_ARM 1u
+#define CRASH_ARCH_ARM64 2u
+#define CRASH_ARCH_X86 3u
+#define CRASH_ARCH_X86_64 4u
+
+#define CRASH_NO_MODULE 0xffffffffu
+
+struct crash_frame {
+    uint64_t pc;
+    uint32_t module;
+    uint32_t reserved;
+};
+
+struct crash_module {
+    /* 加载基址：映射起始地址减去文件偏移，pc减去它得到模块内偏移 */
+    uint64_t base;
+    uint64_t start;
+    char path[CRASH_MODULE_PATH_SIZE];
+};
+
+struct crash_record {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t signal;
+    int32_t code;
+    uint32_t pid;
+    uint32_t tid;
+    uint64_t fault_address;
+    uint64_t time_millis;
+    uint32_t arch;
+    uint32_t register_count;
+    uint64_t registers[CRASH_MAX_REGISTERS];
+    uint32_t frame_count;
+    uint32_t module_count;
+    struct crash_frame frames[CRASH_MAX_FRAMES];
+    struct crash_module modules[CRASH_MAX_MODULES];
+    char thread_name[CRASH_THREAD_NAME_SIZE];
+};
+
+/*
+ * 安装信号处理函数，可以重复调用，之后的调用只换记录文件
+ *
+ * path 记录文件，不存在时创建
+ * 返回0表示成功，否则为errno
+ */
+int crash_signal_install(const char *path);
+
+/*
+ * 恢复原来的信号处理函数，记录文件保持映射
+ */
+void crash_signal_uninstall(void);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* APPCRASH_CRASH_SIGNAL_H */
@@ -0,0 +1,93 @@
+/*
+ * Linux上验证信号处理：子进程安装后触发崩溃，父进程检查子进程是否仍被信号杀死，再检查记录
+ *
+ *   cmake -S crash/native -B build/native && cmake --build build/native
+ *   ./build/native/crash_signal_harness /tmp/crash.record
+ */
+#include "crash_signal.h"
+
+#include <fcntl.h>
+#include <stdint.h>
+#include <signal.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+static volatile uintptr_t g_bad_address = 16;
+
+__attribute__((noinline)) static void crash_segv(void) {
+    *(volatile int *) g_bad_address = 42;
+}
+
+__attribute__((noinline)) static void crash_abort(void) {
+    abort();
+}
+
+__attribute__((noinline)) static void crash_deep(int depth, int signal) {
+    if (depth > 0) {
+        crash_deep(depth - 1, signal);
+    } else if (signal == SIGSEGV) {
+        crash_segv();
+    } else {
+        crash_abort();
+    }
+    __asm__ volatile("" ::: "memory");
+}
+
+static int read_record(const char *path, struct crash_record *record) {
+    int fd = open(path, O_RDONLY);
+    ssize_t n;
+    if (fd < 0) return 0;
+    n = read(fd, record, sizeof(*record));
+    close(fd);
+    return n == (ssize_t) sizeof(*record);
+}
+
+static int run(const char *path, int signal) {
+    struct crash_record record;
+    int status;
+    int failures = 0;
+    uint32_t i;
+    pid_t pid = fork();
+    if (pid == 0) {
+        if (crash_signal_install(path) != 0) _exit(100);
+        crash_deep(3, signal);
+        _exit(101);
+    }
+    waitpid(pid, &status, 0);
+    if (!WIFSIGNALED(status) || WTERMSIG(status) != signal) {
+        printf("FAIL signal %d: child not killed by the signal (status 0x%x)\n", signal, status);
+        failures++;
+    }
+    if (!read_record(path, &record) || record.magic != CRASH_RECORD_MAGIC) {
+        printf("FAIL signal %d: no complete record\n", signal);
+        return failures + 1;
+    }
+    printf("signal=%u code=%d pid=%u tid=%u addr=0x%llx thread=%s arch=%u registers=%u frames=%u modules=%u\n",
+           record.signal, record.code, record.pid, record.tid, (unsigned long long) record.fault_address,
+           record.thread_name, record.arch, record.register_count, record.frame_count, record.module_count);
+    for (i = 0; i < record.frame_count; i++) {
+        const struct crash_frame *frame = &record.frames[i];
+        if (frame->module == CRASH_NO_MODULE) {
+            printf("  #%02u pc 0x%llx\n", i, (unsigned long long) frame->pc);
+        } else {
+            const struct crash_module *module = &record.modules[frame->module];
+            printf("  #%02u pc 0x%llx %s+0x%llx\n", i, (unsigned long long) frame->pc, module->path,
+                   (unsigned long long) (frame->pc - module->base));
+        }
+    }
+    if (record.signal != (uint32_t) signal || record.pid != (uint32_t) pid) failures++;
+    if (signal == SIGSEGV && record.fault_address != 16) failures++;
+    if (record.frame_count < 2 || record.frames[0].module == CRASH_NO_MODULE) failures++;
+    if (failures) printf("FAIL signal %d\n", signal);
+    return failures;
+}
+
+int main(int argc, char **argv) {
+    const char *path = argc > 1 ? argv[1] : "/tmp/crash.record";
+    int failures = run(path, SIGSEGV) + run(path, SIGABRT);
+    printf(failures == 0 ? "OK\n" : "FAILED\n");
+    return failures == 0 ? 0 : 1;
+}